@@ -320,7 +320,7 @@ if [ ! -z "$JNILIB" ] ; then
   done
 
   log "Linking ${JNILIB}..."
-  run_silent "${CXX}" -o ${OUTPUT_DIR}/${JNILIB} $JNI_LD_ARGS -shared ${OUTPUT_DIR}/native/*.o -l stdc++
+  run_silent "${CXX}" -o ${OUTPUT_DIR}/${JNILIB} $JNI_LD_ARGS -shared ${OUTPUT_DIR}/native/*.o -l stdc++ -lpthread
 fi
 
 log "Compiling build-runfiles..."
@@ -330,6 +330,9 @@ run_silent "${CXX}" -o ${OUTPUT_DIR}/build-runfiles -std=c++0x src/main/tools/bu
 log "Compiling process-wrapper..."
 run_silent "${CC}" -o ${OUTPUT_DIR}/process-wrapper -std=c99 src/main/tools/process-wrapper.c src/main/tools/process-tools.c -lm
 
+log "Compiling spawn-server..."
+run_silent "${CC}" -o ${OUTPUT_DIR}/spawn-server -std=c99 src/main/tools/spawn-server.c src/main/tools/process-tools.c -lm
+
 log "Compiling namespace-sandbox..."
 if [[ $PLATFORM == "linux" ]]; then
   run_silent "${CC}" -o ${OUTPUT_DIR}/namespace-sandbox -std=c99 src/main/tools/namespace-sandbox.c src/main/tools/process-tools.c -lm
@@ -337,11 +340,18 @@ else
   run_silent "${CC}" -o ${OUTPUT_DIR}/namespace-sandbox -std=c99 src/main/tools/namespace-sandbox-dummy.c -lm
 fi
 
+log "Compiling inotify-watcher..."
+if [[ $PLATFORM == "linux" ]]; then
+  run_silent "${CC}" -o ${OUTPUT_DIR}/inotify-watcher -std=c99 src/main/tools/inotify-watcher.c src/main/tools/process-tools.c -lm
+else
+  run_silent "${CC}" -o ${OUTPUT_DIR}/inotify-watcher -std=c99 src/main/tools/namespace-sandbox-dummy.c -lm
+fi
+
 cp src/main/tools/build_interface_so ${OUTPUT_DIR}/build_interface_so
 cp src/main/tools/jdk.* ${OUTPUT_DIR}
 
 log "Creating Bazel self-extracting archive..."
-TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} namespace-sandbox${EXE_EXT} build_interface_so ${MSYS_DLLS} jdk.BUILD"
+TO_ZIP="libblaze.jar ${JNILIB} build-runfiles${EXE_EXT} process-wrapper${EXE_EXT} spawn-server${EXE_EXT} inotify-watcher${EXE_EXT} namespace-sandbox${EXE_EXT} build_interface_so ${MSYS_DLLS} jdk.BUILD"
 
 (cd ${OUTPUT_DIR}/ ; cat client ${TO_ZIP} | ${MD5SUM} | awk '{ print $1; }' > install_base_key)
 (cd ${OUTPUT_DIR}/ ; echo "${JAVA_VERSION}" > java.version)
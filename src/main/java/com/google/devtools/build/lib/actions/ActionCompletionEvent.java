@@ -20,10 +20,17 @@ public final class ActionCompletionEvent {
 
   private final long relativeActionStartTime;
   private final Action action;
+  private final ResourceUsage resourceUsage;
 
   public ActionCompletionEvent(long relativeActionStartTime, Action action) {
+    this(relativeActionStartTime, action, ResourceUsage.EMPTY);
+  }
+
+  public ActionCompletionEvent(long relativeActionStartTime, Action action,
+      ResourceUsage resourceUsage) {
     this.relativeActionStartTime = relativeActionStartTime;
     this.action = action;
+    this.resourceUsage = resourceUsage;
   }
 
   /**
@@ -36,4 +43,12 @@ public final class ActionCompletionEvent {
   public long getRelativeActionStartTime() {
     return relativeActionStartTime;
   }
+
+  /**
+   * Returns the resources consumed by the processes the action ran, or {@link ResourceUsage#EMPTY}
+   * if the spawn strategy did not measure them.
+   */
+  public ResourceUsage getResourceUsage() {
+    return resourceUsage;
+  }
 }
@@ -21,6 +21,8 @@ import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunction.Environment;
 
+import java.util.concurrent.atomic.AtomicReference;
+
 import javax.annotation.Nullable;
 
 /**
@@ -35,36 +37,41 @@ public class ActionExecutionContext {
   private final MiddlemanExpander middlemanExpander;
   @Nullable
   private final Environment env;
+  /** Shared with the contexts derived from this one by {@link #withFileOutErr}. */
+  private final AtomicReference<ResourceUsage> resourceUsage;
 
   private ActionExecutionContext(Executor executor, ActionInputFileCache actionInputFileCache,
       MetadataHandler metadataHandler, FileOutErr fileOutErr,
       @Nullable MiddlemanExpander middlemanExpander,
-      @Nullable SkyFunction.Environment env) {
+      @Nullable SkyFunction.Environment env,
+      AtomicReference<ResourceUsage> resourceUsage) {
     this.actionInputFileCache = actionInputFileCache;
     this.metadataHandler = metadataHandler;
     this.fileOutErr = fileOutErr;
     this.executor = executor;
     this.middlemanExpander = middlemanExpander;
     this.env = env;
+    this.resourceUsage = resourceUsage;
   }
 
   public ActionExecutionContext(Executor executor, ActionInputFileCache actionInputFileCache,
       MetadataHandler metadataHandler, FileOutErr fileOutErr, MiddlemanExpander middlemanExpander) {
-    this(executor, actionInputFileCache, metadataHandler, fileOutErr, middlemanExpander, null);
+    this(executor, actionInputFileCache, metadataHandler, fileOutErr, middlemanExpander, null,
+        new AtomicReference<>(ResourceUsage.EMPTY));
   }
 
   public static ActionExecutionContext normal(Executor executor,
       ActionInputFileCache actionInputFileCache, MetadataHandler metadataHandler,
       FileOutErr fileOutErr, MiddlemanExpander middlemanExpander) {
     return new ActionExecutionContext(executor, actionInputFileCache, metadataHandler, fileOutErr,
-        middlemanExpander, null);
+        middlemanExpander, null, new AtomicReference<>(ResourceUsage.EMPTY));
   }
 
   public static ActionExecutionContext forInputDiscovery(Executor executor,
       ActionInputFileCache actionInputFileCache, MetadataHandler metadataHandler,
       FileOutErr fileOutErr, Environment env) {
     return new ActionExecutionContext(executor, actionInputFileCache, metadataHandler, fileOutErr,
-        null, env);
+        null, env, new AtomicReference<>(ResourceUsage.EMPTY));
   }
 
   public ActionInputFileCache getActionInputFileCache() {
@@ -98,12 +105,40 @@ public class ActionExecutionContext {
     return Preconditions.checkNotNull(env);
   }
 
+  /**
+   * Adds the resources consumed by a process of the action to its total. Called by the spawn
+   * strategies that are able to measure them.
+   */
+  public void recordResourceUsage(ResourceUsage usage) {
+    ResourceUsage old;
+    do {
+      old = resourceUsage.get();
+    } while (!resourceUsage.compareAndSet(old, old.plus(usage)));
+  }
+
+  /**
+   * Returns the total resources consumed by the processes of the action so far.
+   */
+  public ResourceUsage getResourceUsage() {
+    return resourceUsage.get();
+  }
+
   /**
    * Allows us to create a new context that overrides the FileOutErr with another one. This is
    * useful for muting the output for example.
    */
   public ActionExecutionContext withFileOutErr(FileOutErr fileOutErr) {
     return new ActionExecutionContext(executor, actionInputFileCache, metadataHandler, fileOutErr,
-        middlemanExpander, env);
+        middlemanExpander, env, resourceUsage);
+  }
+
+  /**
+   * Creates a new context that keeps its own total of resource usage, starting from zero. This is
+   * useful for measuring a single spawn; the caller is responsible for adding the result to the
+   * total of this context.
+   */
+  public ActionExecutionContext withSeparateResourceUsage() {
+    return new ActionExecutionContext(executor, actionInputFileCache, metadataHandler, fileOutErr,
+        middlemanExpander, env, new AtomicReference<>(ResourceUsage.EMPTY));
   }
 }
@@ -22,6 +22,7 @@ import com.google.common.eventbus.EventBus;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.Pair;
 
 import java.util.Iterator;
@@ -69,6 +70,14 @@ public class ResourceManager {
     }
   };
 
+  /** How long this thread waited for the resources it currently holds. */
+  private final ThreadLocal<Long> threadWaitNanos = new ThreadLocal<Long>() {
+    @Override
+    protected Long initialValue() {
+      return 0L;
+    }
+  };
+
   /**
    * Singleton reference defined in a separate class to ensure thread-safe lazy
    * initialization.
@@ -182,6 +191,7 @@ public class ResourceManager {
     Preconditions.checkNotNull(resources);
     AutoProfiler p = profiled(owner, ProfilerTask.ACTION_LOCK);
     CountDownLatch latch = null;
+    long startTime = BlazeClock.nanoTime();
     try {
       waiting(owner);
       latch = acquire(resources);
@@ -191,6 +201,7 @@ public class ResourceManager {
     } finally {
       threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
           || resources.getIoUsage() != 0 || resources.getLocalTestCount() != 0);
+      threadWaitNanos.set(latch != null ? BlazeClock.nanoTime() - startTime : 0L);
       acquired(owner);
 
       // Profile acquisition only if it waited for resource to become available.
@@ -216,6 +227,7 @@ public class ResourceManager {
     if (acquired) {
       threadLocked.set(resources.getCpuUsage() != 0 || resources.getMemoryMb() != 0
           || resources.getIoUsage() != 0 || resources.getLocalTestCount() != 0);
+      threadWaitNanos.set(0L);
       acquired(owner);
     }
 
@@ -245,6 +257,13 @@ public class ResourceManager {
     return threadLocked.get();
   }
 
+  /**
+   * Returns how long this thread waited for the resources it holds, or 0 if it holds none.
+   */
+  public long getThreadWaitTimeNanos() {
+    return threadWaitNanos.get();
+  }
+
   public void setEventBus(EventBus eventBus) {
     Preconditions.checkState(this.eventBus == null);
     this.eventBus = Preconditions.checkNotNull(eventBus);
@@ -281,6 +300,7 @@ public class ResourceManager {
       isConflict = release(resources);
     } finally {
       threadLocked.set(false);
+      threadWaitNanos.set(0L);
 
       // Profile resource release only if it resolved at least one allocation request.
       if (isConflict) {
@@ -0,0 +1,226 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import com.google.common.base.Splitter;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * The resources consumed by the processes an action ran, as reported by {@code getrusage(2)}.
+ */
+@Immutable
+public final class ResourceUsage {
+
+  /** The usage of an action that did not run any processes, or whose usage is unknown. */
+  public static final ResourceUsage EMPTY = new ResourceUsage(0, 0, 0, 0, 0, 0, 0, 0, 0);
+
+  private final long userTimeMicros;
+  private final long systemTimeMicros;
+  private final long maxResidentSetKb;
+  private final long minorPageFaults;
+  private final long majorPageFaults;
+  private final long blockInputOps;
+  private final long blockOutputOps;
+  private final long voluntaryContextSwitches;
+  private final long involuntaryContextSwitches;
+
+  public ResourceUsage(
+      long userTimeMicros,
+      long systemTimeMicros,
+      long maxResidentSetKb,
+      long minorPageFaults,
+      long majorPageFaults,
+      long blockInputOps,
+      long blockOutputOps,
+      long voluntaryContextSwitches,
+      long involuntaryContextSwitches) {
+    this.userTimeMicros = userTimeMicros;
+    this.systemTimeMicros = systemTimeMicros;
+    this.maxResidentSetKb = maxResidentSetKb;
+    this.minorPageFaults = minorPageFaults;
+    this.majorPageFaults = majorPageFaults;
+    this.blockInputOps = blockInputOps;
+    this.blockOutputOps = blockOutputOps;
+    this.voluntaryContextSwitches = voluntaryContextSwitches;
+    this.involuntaryContextSwitches = involuntaryContextSwitches;
+  }
+
+  /**
+   * Reads the statistics file written by process-wrapper and namespace-sandbox. Unknown keys are
+   * ignored, missing ones are taken to be zero.
+   *
+   * @throws IOException if the file cannot be read or is malformed
+   */
+  public static ResourceUsage readStatsFile(Path statsFile) throws IOException {
+    String content = new String(FileSystemUtils.readContent(statsFile), StandardCharsets.UTF_8);
+    Map<String, Long> values = new HashMap<>();
+    for (String line : Splitter.on('\n').omitEmptyStrings().split(content)) {
+      List<String> fields = Splitter.on(' ').splitToList(line);
+      if (fields.size() != 2) {
+        throw new IOException("Malformed line in " + statsFile + ": '" + line + "'");
+      }
+      try {
+        values.put(fields.get(0), Long.parseLong(fields.get(1)));
+      } catch (NumberFormatException e) {
+        throw new IOException("Malformed line in " + statsFile + ": '" + line + "'", e);
+      }
+    }
+    return new ResourceUsage(
+        get(values, "user_time_usec"),
+        get(values, "system_time_usec"),
+        get(values, "max_rss_kb"),
+        get(values, "minor_page_faults"),
+        get(values, "major_page_faults"),
+        get(values, "block_input_ops"),
+        get(values, "block_output_ops"),
+        get(values, "voluntary_context_switches"),
+        get(values, "involuntary_context_switches"));
+  }
+
+  /**
+   * Reads and deletes the statistics file written by process-wrapper and namespace-sandbox.
+   * Since resource usage is only informational, returns {@link #EMPTY} if the file is missing or
+   * cannot be read, e.g. because the process could not be started.
+   */
+  public static ResourceUsage consumeStatsFile(Path statsFile) {
+    try {
+      if (!statsFile.exists()) {
+        return EMPTY;
+      }
+      ResourceUsage usage = readStatsFile(statsFile);
+      statsFile.delete();
+      return usage;
+    } catch (IOException e) {
+      return EMPTY;
+    }
+  }
+
+  private static long get(Map<String, Long> values, String key) {
+    Long value = values.get(key);
+    return value == null ? 0 : value;
+  }
+
+  /**
+   * Returns the combined usage of two sets of processes that ran one after the other. Times and
+   * counters are added up; the peak resident set size is the larger of the two.
+   */
+  public ResourceUsage plus(ResourceUsage other) {
+    if (other == EMPTY) {
+      return this;
+    } else if (this == EMPTY) {
+      return other;
+    }
+    return new ResourceUsage(
+        userTimeMicros + other.userTimeMicros,
+        systemTimeMicros + other.systemTimeMicros,
+        Math.max(maxResidentSetKb, other.maxResidentSetKb),
+        minorPageFaults + other.minorPageFaults,
+        majorPageFaults + other.majorPageFaults,
+        blockInputOps + other.blockInputOps,
+        blockOutputOps + other.blockOutputOps,
+        voluntaryContextSwitches + other.voluntaryContextSwitches,
+        involuntaryContextSwitches + other.involuntaryContextSwitches);
+  }
+
+  public boolean isEmpty() {
+    return equals(EMPTY);
+  }
+
+  public long getUserTimeMicros() {
+    return userTimeMicros;
+  }
+
+  public long getSystemTimeMicros() {
+    return systemTimeMicros;
+  }
+
+  /** Returns the user plus the system CPU time. */
+  public long getCpuTimeMicros() {
+    return userTimeMicros + systemTimeMicros;
+  }
+
+  /** Returns the peak resident set size of the largest process. */
+  public long getMaxResidentSetKb() {
+    return maxResidentSetKb;
+  }
+
+  public long getMinorPageFaults() {
+    return minorPageFaults;
+  }
+
+  public long getMajorPageFaults() {
+    return majorPageFaults;
+  }
+
+  public long getBlockInputOps() {
+    return blockInputOps;
+  }
+
+  public long getBlockOutputOps() {
+    return blockOutputOps;
+  }
+
+  public long getVoluntaryContextSwitches() {
+    return voluntaryContextSwitches;
+  }
+
+  public long getInvoluntaryContextSwitches() {
+    return involuntaryContextSwitches;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof ResourceUsage)) {
+      return false;
+    }
+    ResourceUsage other = (ResourceUsage) obj;
+    return userTimeMicros == other.userTimeMicros
+        && systemTimeMicros == other.systemTimeMicros
+        && maxResidentSetKb == other.maxResidentSetKb
+        && minorPageFaults == other.minorPageFaults
+        && majorPageFaults == other.majorPageFaults
+        && blockInputOps == other.blockInputOps
+        && blockOutputOps == other.blockOutputOps
+        && voluntaryContextSwitches == other.voluntaryContextSwitches
+        && involuntaryContextSwitches == other.involuntaryContextSwitches;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(userTimeMicros, systemTimeMicros, maxResidentSetKb, minorPageFaults,
+        majorPageFaults, blockInputOps, blockOutputOps, voluntaryContextSwitches,
+        involuntaryContextSwitches);
+  }
+
+  /**
+   * Returns a short summary like "1.20s user, 0.31s system, 153 MB max RSS".
+   */
+  @Override
+  public String toString() {
+    return String.format("%.2fs user, %.2fs system, %d MB max RSS",
+        userTimeMicros / 1e6, systemTimeMicros / 1e6, maxResidentSetKb / 1024);
+  }
+}
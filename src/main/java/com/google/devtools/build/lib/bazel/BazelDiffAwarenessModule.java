@@ -14,20 +14,81 @@
 package com.google.devtools.build.lib.bazel;
 
 import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.BlazeVersionInfo;
+import com.google.devtools.build.lib.analysis.config.BinTools;
+import com.google.devtools.build.lib.exec.LocalOutputService;
+import com.google.devtools.build.lib.exec.OutputService;
 import com.google.devtools.build.lib.runtime.BlazeModule;
+import com.google.devtools.build.lib.runtime.BlazeServerStartupOptions;
+import com.google.devtools.build.lib.runtime.Command;
+import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.skyframe.DiffAwareness;
+import com.google.devtools.build.lib.skyframe.InotifyDiffAwareness;
 import com.google.devtools.build.lib.skyframe.LocalDiffAwareness;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.UnixBatchStat;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
+import com.google.devtools.common.options.OptionsProvider;
+
+import java.util.UUID;
 
 /**
- * Provides the {@link DiffAwareness} implementation that uses the Java watch service.
+ * Provides the {@link DiffAwareness} implementations that use the inotify-watcher helper and, where
+ * that is not available, the Java watch service. With --watchfs on Linux, the helper also watches
+ * the output tree for a {@link LocalOutputService}.
  */
 public class BazelDiffAwarenessModule extends BlazeModule {
+  private BlazeDirectories directories;
+  private boolean watchFS;
+  private BinTools binTools;
+  private LocalOutputService outputService;
+
+  @Override
+  public void blazeStartup(OptionsProvider startupOptions, BlazeVersionInfo versionInfo,
+      UUID instanceId, BlazeDirectories directories, Clock clock) {
+    this.directories = directories;
+    BlazeServerStartupOptions options =
+        startupOptions.getOptions(BlazeServerStartupOptions.class);
+    this.watchFS = options != null && options.watchFS;
+  }
+
+  @Override
+  public void beforeCommand(Command command, CommandEnvironment env) {
+    binTools = env.getRuntime().getBinTools();
+  }
+
+  @Override
+  public OutputService getOutputService() {
+    if (!watchFS || OS.getCurrent() != OS.LINUX
+        || !(directories.getFileSystem() instanceof UnixFileSystem)) {
+      return null;
+    }
+    if (outputService == null) {
+      // The same instance serves all commands, so that it remembers the outputs across builds.
+      outputService = new LocalOutputService(directories, getWatcherBinary(), binTools,
+          new UnixBatchStat(directories.getExecRoot(), /*computeDigests=*/false,
+              UnixBatchStat.DEFAULT_NUM_THREADS));
+    }
+    return outputService;
+  }
+
   @Override
   public Iterable<DiffAwareness.Factory> getDiffAwarenessFactories(boolean watchFS) {
     ImmutableList.Builder<DiffAwareness.Factory> builder = ImmutableList.builder();
     if (watchFS) {
+      if (directories != null) {
+        builder.add(
+            new InotifyDiffAwareness.Factory(getWatcherBinary(), directories.getOutputBase()));
+      }
       builder.add(new LocalDiffAwareness.Factory(ImmutableList.<String>of()));
     }
     return builder.build();
   }
+
+  private Path getWatcherBinary() {
+    return directories.getEmbeddedBinariesRoot().getRelative("inotify-watcher");
+  }
 }
@@ -73,6 +73,7 @@ import com.google.devtools.build.lib.exec.CheckUpToDateFilter;
 import com.google.devtools.build.lib.exec.ExecutionOptions;
 import com.google.devtools.build.lib.exec.OutputService;
 import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.exec.SpawnLogContext;
 import com.google.devtools.build.lib.exec.SymlinkTreeStrategy;
 import com.google.devtools.build.lib.packages.Rule;
 import com.google.devtools.build.lib.profiler.AutoProfiler;
@@ -97,6 +98,7 @@ import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.SymlinkForest;
 
 import java.io.IOException;
 import java.io.OutputStream;
@@ -105,6 +107,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -172,6 +175,9 @@ public class ExecutionTool {
 
   static final Logger LOG = Logger.getLogger(ExecutionTool.class.getName());
 
+  /** The number of threads that create and delete the top-level entries of the exec root. */
+  private static final int SYMLINK_FOREST_THREADS = 8;
+
   private final CommandEnvironment env;
   private final BlazeRuntime runtime;
   private final BuildRequest request;
@@ -182,6 +188,7 @@ public class ExecutionTool {
   private Map<String, SpawnActionContext> spawnStrategyMap =
       new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
   private List<ActionContext> strategies = new ArrayList<>();
+  private SpawnLogContext spawnLog;
 
   ExecutionTool(CommandEnvironment env, BuildRequest request) throws ExecutorInitException {
     this.env = env;
@@ -253,6 +260,11 @@ public class ExecutionTool {
       }
     }
 
+    PathFragment executionLogFile = request.getOptions(ExecutionOptions.class).executionLogFile;
+    if (executionLogFile != null) {
+      logSpawnStrategies(executionLogFile);
+    }
+
     // If tests are to be run during build, too, we have to explicitly load the test action context.
     if (request.shouldRunTests()) {
       String testStrategyValue = request.getOptions(ExecutionOptions.class).testStrategy;
@@ -266,6 +278,30 @@ public class ExecutionTool {
     }
   }
 
+  /**
+   * Makes all spawn strategies record the spawns they execute in the given file.
+   */
+  private void logSpawnStrategies(PathFragment executionLogFile) throws ExecutorInitException {
+    try {
+      spawnLog = SpawnLogContext.create(
+          getExecRoot(), getWorkspace().getRelative(executionLogFile));
+    } catch (IOException e) {
+      throw new ExecutorInitException(
+          "Cannot write execution log to '" + executionLogFile + "'", e);
+    }
+    // The same strategy is usually used for many mnemonics. Wrap each one once, so that the
+    // executor still sees the same set of distinct contexts.
+    Map<SpawnActionContext, SpawnActionContext> wrapped = new IdentityHashMap<>();
+    for (Map.Entry<String, SpawnActionContext> entry : spawnStrategyMap.entrySet()) {
+      SpawnActionContext context = wrapped.get(entry.getValue());
+      if (context == null) {
+        context = spawnLog.wrap(entry.getValue());
+        wrapped.put(entry.getValue(), context);
+      }
+      entry.setValue(context);
+    }
+  }
+
   private static ImmutableList<ActionContextConsumer> getActionContextConsumersFromModules(
       BlazeRuntime runtime, ActionContextConsumer... extraConsumers) {
     ImmutableList.Builder<ActionContextConsumer> builder = ImmutableList.builder();
@@ -327,6 +363,14 @@ public class ExecutionTool {
     for (ActionContextProvider actionContextProvider : actionContextProviders) {
       actionContextProvider.executionPhaseEnding();
     }
+    if (spawnLog != null) {
+      try {
+        spawnLog.close();
+      } catch (IOException e) {
+        getReporter().handle(Event.warn("Could not close execution log: " + e.getMessage()));
+      }
+      spawnLog = null;
+    }
   }
 
   /**
@@ -368,10 +412,12 @@ public class ExecutionTool {
     }
 
     OutputService outputService = runtime.getOutputService();
+    if (outputService == null || !outputService.usesFuse()) {
+      // The output tree is on the local disk.
+      startLocalOutputBuild();
+    }
     if (outputService != null) {
       outputService.startBuild(buildId);
-    } else {
-      startLocalOutputBuild(); // TODO(bazel-team): this could be just another OutputService
     }
 
     ActionCache actionCache = getActionCache();
@@ -492,7 +538,8 @@ public class ExecutionTool {
   }
 
   private void prepare(ImmutableMap<PathFragment, Path> packageRoots,
-      BuildConfigurationCollection configurations) throws ExecutorInitException {
+      BuildConfigurationCollection configurations)
+      throws ExecutorInitException, InterruptedException {
     // Prepare for build.
     Profiler.instance().markPhase(ProfilePhase.PREPARE);
 
@@ -512,15 +559,23 @@ public class ExecutionTool {
   }
 
   private void plantSymlinkForest(ImmutableMap<PathFragment, Path> packageRoots,
-      BuildConfigurationCollection configurations) throws ExecutorInitException {
+      BuildConfigurationCollection configurations)
+      throws ExecutorInitException, InterruptedException {
     try {
-      FileSystemUtils.deleteTreesBelowNotPrefixed(getExecRoot(),
-          new String[] { ".", "_", Constants.PRODUCT_NAME + "-"});
       // Delete the build configuration's temporary directories
       for (BuildConfiguration configuration : configurations.getTargetConfigurations()) {
         configuration.prepareForExecutionPhase();
       }
-      FileSystemUtils.plantLinkForest(packageRoots, getExecRoot());
+      // Only the links that changed since the previous build are deleted and planted again.
+      Stopwatch timer = Stopwatch.createStarted();
+      SymlinkForest forest = new SymlinkForest(packageRoots, getExecRoot(),
+          new String[] { ".", "_", Constants.PRODUCT_NAME + "-"});
+      try (AutoProfiler p = AutoProfiler.profiled("Planting symlink forest", ProfilerTask.INFO)) {
+        forest.plant(SYMLINK_FOREST_THREADS);
+      }
+      LOG.info(String.format("Symlink forest: %d entries created, %d deleted, %d kept in %d ms",
+          forest.getCreatedCount(), forest.getDeletedCount(), forest.getKeptCount(),
+          timer.elapsed(TimeUnit.MILLISECONDS)));
     } catch (IOException e) {
       throw new ExecutorInitException("Source forest creation failed", e);
     }
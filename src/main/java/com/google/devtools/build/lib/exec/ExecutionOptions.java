@@ -196,6 +196,16 @@ public class ExecutionOptions extends OptionsBase {
   )
   public int localTestJobs;
 
+  @Option(name = "execution_log_file",
+      defaultValue = "null",
+      category = "verbosity",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "Log every executed spawn to this file as length-delimited SpawnExec protos, "
+          + "including its command line, inputs, outputs, timing and resource usage. Relative "
+          + "paths are resolved against the workspace. The log can be replayed to benchmark "
+          + "execution strategies.")
+  public PathFragment executionLogFile;
+
   public boolean usingLocalTestJobs() {
     return localTestJobs != 0;
   }
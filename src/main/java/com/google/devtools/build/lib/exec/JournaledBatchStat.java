@@ -0,0 +1,174 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.skyframe.ChangeJournal;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BatchStat} that remembers the stats of the files below a directory watched by an
+ * inotify-watcher, and answers from memory for as long as the watcher's journal (see
+ * {@link ChangeJournal}) has no record of a change to them. All other paths are passed on to
+ * another {@link BatchStat}.
+ *
+ * <p>The watcher writes its records with a short delay, so a change made in the last few hundred
+ * milliseconds before a batch may only be noticed by the next batch.
+ */
+@ThreadSafe
+final class JournaledBatchStat implements BatchStat {
+
+  private final BatchStat delegate;
+  /** The watched directory, relative to the directory of the paths of the batches. */
+  private final PathFragment watchedRoot;
+
+  // The following fields are guarded by this.
+  @Nullable private Path journalPath;
+  @Nullable private ChangeJournal journal;
+  /** The position of the journal the remembered stats are up to date with. */
+  @Nullable private ChangeJournal.Position position;
+  private boolean includeDigest;
+  private boolean includeLinks;
+  /** The remembered stats by path string, sorted so that whole directories can be dropped. */
+  private final TreeMap<String, FileStatusWithDigest> stats = new TreeMap<>();
+
+  private final AtomicLong requestCount = new AtomicLong();
+  private final AtomicLong hitCount = new AtomicLong();
+
+  JournaledBatchStat(BatchStat delegate, PathFragment watchedRoot) {
+    this.delegate = delegate;
+    this.watchedRoot = watchedRoot;
+  }
+
+  /**
+   * Sets the journal of the watcher of the directory, or null if it is not watched, in which case
+   * all batches are passed on. The remembered stats are kept if the journal stays the same.
+   */
+  synchronized void setJournal(@Nullable Path journalPath) {
+    if (journalPath == null || !journalPath.equals(this.journalPath)) {
+      this.journalPath = journalPath;
+      journal = journalPath == null ? null : new ChangeJournal(journalPath);
+      clear();
+    }
+  }
+
+  /** Forgets all remembered stats. */
+  synchronized void clear() {
+    stats.clear();
+    position = null;
+  }
+
+  /** Returns the number of paths that were asked for since the last call. */
+  long getAndResetRequestCount() {
+    return requestCount.getAndSet(0);
+  }
+
+  /** Returns the number of paths that were answered from memory since the last call. */
+  long getAndResetHitCount() {
+    return hitCount.getAndSet(0);
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+      Iterable<PathFragment> paths) throws IOException, InterruptedException {
+    List<PathFragment> pathList = ImmutableList.copyOf(paths);
+    requestCount.addAndGet(pathList.size());
+    FileStatusWithDigest[] result = new FileStatusWithDigest[pathList.size()];
+    List<PathFragment> missingPaths = new ArrayList<>();
+    List<Integer> missingIndexes = new ArrayList<>();
+    ChangeJournal.Position lookupPosition;
+    synchronized (this) {
+      lookupPosition = update(includeDigest, includeLinks);
+      for (int i = 0; i < result.length; i++) {
+        PathFragment path = pathList.get(i);
+        if (lookupPosition != null) {
+          result[i] = stats.get(path.getPathString());
+        }
+        if (result[i] == null) {
+          missingPaths.add(path);
+          missingIndexes.add(i);
+        }
+      }
+    }
+    hitCount.addAndGet(result.length - missingPaths.size());
+    if (missingPaths.isEmpty()) {
+      return Arrays.asList(result);
+    }
+
+    List<FileStatusWithDigest> missingStats =
+        delegate.batchStat(includeDigest, includeLinks, missingPaths);
+    synchronized (this) {
+      // If the journal moved on in the meantime, the stats may be older than its changes.
+      boolean remember = lookupPosition != null && lookupPosition.equals(position);
+      for (int i = 0; i < missingStats.size(); i++) {
+        PathFragment path = missingPaths.get(i);
+        FileStatusWithDigest stat = missingStats.get(i);
+        result[missingIndexes.get(i)] = stat;
+        if (remember && stat != null && path.startsWith(watchedRoot)) {
+          stats.put(path.getPathString(), stat);
+        }
+      }
+    }
+    return Arrays.asList(result);
+  }
+
+  /**
+   * Drops the stats of the paths that changed since the last batch, and returns the current
+   * position of the journal, or null if the batch should not be answered from memory.
+   */
+  @Nullable
+  private ChangeJournal.Position update(boolean includeDigest, boolean includeLinks) {
+    if (journal == null) {
+      return null;
+    }
+    ChangeJournal.Position current;
+    Set<PathFragment> changes;
+    try {
+      current = journal.getCurrentPosition();
+      changes = position == null ? null : journal.getChanges(position, current);
+    } catch (IOException e) {
+      clear();
+      return null;
+    }
+    if (changes == null || includeDigest != this.includeDigest
+        || includeLinks != this.includeLinks) {
+      stats.clear();
+    } else {
+      for (PathFragment change : changes) {
+        String changed = watchedRoot.getRelative(change).getPathString();
+        stats.remove(changed);
+        // A directory may have been moved or deleted as a whole. '0' is the character after '/'.
+        stats.subMap(changed + "/", changed + "0").clear();
+      }
+    }
+    this.includeDigest = includeDigest;
+    this.includeLinks = includeLinks;
+    position = current;
+    return current;
+  }
+}
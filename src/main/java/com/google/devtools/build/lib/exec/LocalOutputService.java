@@ -0,0 +1,230 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.actions.EnvironmentalExecException;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.analysis.BlazeDirectories;
+import com.google.devtools.build.lib.analysis.config.BinTools;
+import com.google.devtools.build.lib.packages.Target;
+import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.skyframe.InotifyDiffAwareness;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * An {@link OutputService} for an output tree on the local disk, which has the inotify-watcher
+ * helper watch the output tree, so that the check for external modifications at the beginning of
+ * a build only stats the outputs that changed since the previous check (see
+ * {@link JournaledBatchStat}). Everything else is done the same way as without an output service.
+ *
+ * <p>The watcher is started in the background, as it has to register every directory of the
+ * output tree first; builds stat all outputs until it is running. If it could not be started,
+ * typically because the output tree needs more inotify watches than the user is allowed, it is
+ * not tried again until the watch limit or the output tree changes.
+ */
+public final class LocalOutputService implements OutputService {
+
+  private static final Logger LOG = Logger.getLogger(LocalOutputService.class.getName());
+
+  private static final String MAX_USER_WATCHES = "/proc/sys/fs/inotify/max_user_watches";
+
+  private final BlazeDirectories directories;
+  private final Path watcherBinary;
+  private final BinTools binTools;
+  private final JournaledBatchStat batchStatter;
+  private final ExecutorService watcherStarter = Executors.newSingleThreadExecutor(
+      new ThreadFactoryBuilder().setNameFormat("inotify-watcher-starter").setDaemon(true).build());
+
+  // The following fields are guarded by this.
+  private boolean watcherStarting;
+  /** The result of {@link #getWatcherConditions} when the watcher last failed to start. */
+  @Nullable private String failedWatcherConditions;
+
+  /**
+   * @param watcherBinary the inotify-watcher helper
+   * @param binTools the embedded binaries, used for creating symlink trees
+   * @param delegate the batch statter for the outputs that may have changed; its paths are
+   *     relative to the exec root
+   */
+  public LocalOutputService(BlazeDirectories directories, Path watcherBinary, BinTools binTools,
+      BatchStat delegate) {
+    this.directories = directories;
+    this.watcherBinary = watcherBinary;
+    this.binTools = binTools;
+    this.batchStatter = new JournaledBatchStat(delegate,
+        directories.getOutputPath().relativeTo(directories.getExecRoot()));
+  }
+
+  @Override
+  public String getFilesSystemName() {
+    return FileSystemUtils.getFileSystem(directories.getOutputBase());
+  }
+
+  @Override
+  public boolean usesFuse() {
+    return false;
+  }
+
+  @Override
+  public String getName() {
+    return "local";
+  }
+
+  @Override
+  public void startBuild(UUID buildId) {
+    Path outputPath = directories.getOutputPath();
+    Path journal = null;
+    try {
+      FileSystemUtils.createDirectoryAndParents(outputPath);
+      journal = InotifyDiffAwareness.getJournal(outputPath, directories.getOutputBase());
+    } catch (IOException e) {
+      LOG.warning("Could not create " + outputPath + ": " + e);
+    }
+    if (journal != null && !InotifyDiffAwareness.isWatcherRunning(journal)) {
+      // Restarts the watcher if it exited, for example because the output tree was deleted. Its
+      // journal is only used once it is running, as it doesn't record anything before.
+      maybeStartWatcher(outputPath);
+      journal = null;
+    }
+    batchStatter.setJournal(journal);
+  }
+
+  /**
+   * Starts the watcher of {@code outputPath} in the background, unless it is already being
+   * started or failed to start under the current conditions.
+   */
+  private synchronized void maybeStartWatcher(final Path outputPath) {
+    if (watcherStarting) {
+      return;
+    }
+    final String conditions = getWatcherConditions(outputPath);
+    if (conditions.equals(failedWatcherConditions)) {
+      return;
+    }
+    watcherStarting = true;
+    watcherStarter.execute(new Runnable() {
+      @Override
+      public void run() {
+        Path journal = InotifyDiffAwareness.startWatcher(
+            watcherBinary, outputPath, directories.getOutputBase());
+        synchronized (LocalOutputService.this) {
+          watcherStarting = false;
+          failedWatcherConditions = journal == null ? conditions : null;
+        }
+        if (journal == null) {
+          LOG.info("Not watching " + outputPath + " until the inotify watch limit or the output "
+              + "tree changes");
+        }
+      }
+    });
+  }
+
+  /**
+   * Describes what starting the watcher depends on: the inotify watch limit of the user and the
+   * identity of the output tree, which changes when it is deleted and recreated.
+   */
+  private String getWatcherConditions(Path outputPath) {
+    String watchLimit;
+    try {
+      watchLimit = new String(FileSystemUtils.readContentAsLatin1(
+          outputPath.getFileSystem().getPath(MAX_USER_WATCHES))).trim();
+    } catch (IOException e) {
+      watchLimit = "unknown";
+    }
+    long nodeId;
+    try {
+      nodeId = outputPath.stat().getNodeId();
+    } catch (IOException e) {
+      nodeId = -1;
+    }
+    return watchLimit + ":" + nodeId;
+  }
+
+  @Override
+  public void finalizeBuild(boolean buildSuccessful) {
+    long requests = batchStatter.getAndResetRequestCount();
+    if (requests > 0) {
+      LOG.info(String.format("Answered %d of %d output stats without touching the disk",
+          batchStatter.getAndResetHitCount(), requests));
+    }
+  }
+
+  @Override
+  public Path stageTool(Target tool) {
+    return tool.getPackage().getPackageDirectory().getRelative(tool.getName());
+  }
+
+  @Override
+  public String getWorkspace() {
+    return directories.getWorkspace().getBaseName();
+  }
+
+  @Override
+  public BatchStat getBatchStatter() {
+    return batchStatter;
+  }
+
+  @Override
+  public boolean canCreateSymlinkTree() {
+    return false;
+  }
+
+  /**
+   * Runs build-runfiles directly. {@link SymlinkTreeStrategy} doesn't call this, as it can run
+   * build-runfiles as a spawn itself.
+   */
+  @Override
+  public void createSymlinkTree(Path inputPath, Path outputPath, boolean filesetTree,
+      PathFragment symlinkTreeRoot) throws ExecException {
+    Path execRoot = directories.getExecRoot();
+    SymlinkTreeHelper helper =
+        new SymlinkTreeHelper(inputPath.relativeTo(execRoot), symlinkTreeRoot, filesetTree);
+    try {
+      helper.createSymlinksUsingCommand(execRoot, /*config=*/null, binTools);
+    } catch (CommandException e) {
+      throw new EnvironmentalExecException("Could not create the symlink tree of " + inputPath, e);
+    }
+  }
+
+  @Override
+  public void clean() {
+    batchStatter.clear();
+    synchronized (this) {
+      // The output tree is about to be replaced, so the watcher may fit now.
+      failedWatcherConditions = null;
+    }
+  }
+
+  @Override
+  public boolean isRemoteFile(Path file) {
+    return false;
+  }
+
+  @Override
+  public boolean resolvedPathUnderTree(Path path) {
+    return path.startsWith(directories.getOutputPath());
+  }
+}
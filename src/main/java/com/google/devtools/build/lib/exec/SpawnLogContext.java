@@ -0,0 +1,230 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+import com.google.common.base.Strings;
+import com.google.common.io.BaseEncoding;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ExecutionStrategy;
+import com.google.devtools.build.lib.actions.ResourceManager;
+import com.google.devtools.build.lib.actions.ResourceUsage;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.exec.SpawnLog.EnvironmentVariable;
+import com.google.devtools.build.lib.exec.SpawnLog.SpawnExec;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.protobuf.ByteString;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Writes a {@link SpawnExec} record for every spawn executed by the spawn action contexts it
+ * {@linkplain #wrap wraps} to the file given by {@code --execution_log_file}.
+ *
+ * <p>The records are written as length-delimited protocol buffers in order of completion, so the
+ * file can be read with repeated calls to {@link SpawnExec#parseDelimitedFrom}. They contain
+ * everything needed to execute the spawns again, see the spawn log replayer.
+ */
+@ThreadSafe
+public final class SpawnLogContext {
+
+  private static final Logger LOG = Logger.getLogger(SpawnLogContext.class.getName());
+
+  private final Path execRoot;
+  private final OutputStream out;
+  private boolean disabled;
+
+  private SpawnLogContext(Path execRoot, OutputStream out) {
+    this.execRoot = execRoot;
+    this.out = out;
+  }
+
+  /**
+   * Creates a log that writes to {@code logFile}, replacing any previous contents.
+   */
+  public static SpawnLogContext create(Path execRoot, Path logFile) throws IOException {
+    return new SpawnLogContext(execRoot, new BufferedOutputStream(logFile.getOutputStream()));
+  }
+
+  /**
+   * Returns a spawn action context that executes spawns with {@code delegate} and records them
+   * in this log.
+   */
+  public SpawnActionContext wrap(SpawnActionContext delegate) {
+    return new LoggingSpawnActionContext(delegate);
+  }
+
+  /**
+   * Flushes and closes the log file. Spawns that are executed afterwards are not recorded.
+   */
+  public synchronized void close() throws IOException {
+    disabled = true;
+    out.close();
+  }
+
+  private synchronized void write(SpawnExec record) {
+    if (disabled) {
+      return;
+    }
+    try {
+      record.writeDelimitedTo(out);
+    } catch (IOException e) {
+      // The log is a diagnostic aid; don't fail the build because of it.
+      LOG.log(Level.WARNING, "Could not write to the execution log, disabling it", e);
+      disabled = true;
+    }
+  }
+
+  private static String getStrategyName(SpawnActionContext context) {
+    ExecutionStrategy annotation = context.getClass().getAnnotation(ExecutionStrategy.class);
+    return annotation != null && annotation.name().length > 0
+        ? annotation.name()[0]
+        : context.getClass().getSimpleName();
+  }
+
+  private final class LoggingSpawnActionContext implements SpawnActionContext {
+    private final SpawnActionContext delegate;
+    private final String strategyName;
+
+    private LoggingSpawnActionContext(SpawnActionContext delegate) {
+      this.delegate = delegate;
+      this.strategyName = getStrategyName(delegate);
+    }
+
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+        throws ExecException, InterruptedException {
+      SpawnExec.Builder builder = SpawnExec.newBuilder();
+      // Recorded before executing the spawn, since some strategies delete their inputs.
+      describeSpawn(spawn, actionExecutionContext, builder);
+      long queueTimeNanos = ResourceManager.instance().getThreadWaitTimeNanos();
+
+      ActionExecutionContext spawnContext = actionExecutionContext.withSeparateResourceUsage();
+      long startTime = BlazeClock.nanoTime();
+      boolean succeeded = false;
+      String failureMessage = "";
+      try {
+        delegate.exec(spawn, spawnContext);
+        succeeded = true;
+      } catch (ExecException e) {
+        failureMessage = Strings.nullToEmpty(e.getMessage());
+        throw e;
+      } catch (InterruptedException e) {
+        failureMessage = "interrupted";
+        throw e;
+      } finally {
+        long wallTimeNanos = BlazeClock.nanoTime() - startTime;
+        ResourceUsage usage = spawnContext.getResourceUsage();
+        actionExecutionContext.recordResourceUsage(usage);
+
+        builder
+            .setStrategy(strategyName)
+            .setSucceeded(succeeded)
+            .setFailureMessage(failureMessage)
+            .setQueueTimeMicros(TimeUnit.NANOSECONDS.toMicros(queueTimeNanos))
+            .setWallTimeMicros(TimeUnit.NANOSECONDS.toMicros(wallTimeNanos))
+            .setUserTimeMicros(usage.getUserTimeMicros())
+            .setSystemTimeMicros(usage.getSystemTimeMicros())
+            .setMaxResidentSetKb(usage.getMaxResidentSetKb())
+            .setMinorPageFaults(usage.getMinorPageFaults())
+            .setMajorPageFaults(usage.getMajorPageFaults())
+            .setBlockInputOps(usage.getBlockInputOps())
+            .setBlockOutputOps(usage.getBlockOutputOps())
+            .setVoluntaryContextSwitches(usage.getVoluntaryContextSwitches())
+            .setInvoluntaryContextSwitches(usage.getInvoluntaryContextSwitches());
+        describeOutputs(spawn, builder);
+        write(builder.build());
+      }
+    }
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return delegate.strategyLocality(mnemonic, remotable);
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return delegate.isRemotable(mnemonic, remotable);
+    }
+
+    @Override
+    public String toString() {
+      return delegate.toString();
+    }
+  }
+
+  private void describeSpawn(
+      Spawn spawn, ActionExecutionContext actionExecutionContext, SpawnExec.Builder builder) {
+    builder
+        .setMnemonic(spawn.getMnemonic())
+        .addAllCommandArgs(spawn.getArguments())
+        .setRemotable(spawn.isRemotable());
+    builder.getMutableExecutionInfo().putAll(spawn.getExecutionInfo());
+    for (Map.Entry<String, String> variable : spawn.getEnvironment().entrySet()) {
+      builder.addEnvironmentVariables(EnvironmentVariable.newBuilder()
+          .setName(variable.getKey())
+          .setValue(variable.getValue()));
+    }
+    for (ActionInput input : spawn.getInputFiles()) {
+      String digest = "";
+      try {
+        ByteString bytes = actionExecutionContext.getActionInputFileCache().getDigest(input);
+        if (bytes != null) {
+          digest = bytes.toString(US_ASCII);
+        }
+      } catch (IOException e) {
+        // Record the input without a digest.
+      }
+      builder.addInputs(SpawnLog.File.newBuilder()
+          .setPath(input.getExecPathString())
+          .setDigest(digest));
+    }
+    for (ActionInput output : spawn.getOutputFiles()) {
+      builder.addListedOutputs(output.getExecPathString());
+    }
+  }
+
+  private void describeOutputs(Spawn spawn, SpawnExec.Builder builder) {
+    for (ActionInput output : spawn.getOutputFiles()) {
+      Path path = execRoot.getRelative(output.getExecPathString());
+      if (!path.exists()) {
+        continue;
+      }
+      String digest = "";
+      try {
+        if (path.isFile()) {
+          digest = BaseEncoding.base16().lowerCase().encode(path.getMD5Digest());
+        }
+      } catch (IOException e) {
+        // Record the output without a digest.
+      }
+      builder.addActualOutputs(SpawnLog.File.newBuilder()
+          .setPath(output.getExecPathString())
+          .setDigest(digest));
+    }
+  }
+}
@@ -15,8 +15,6 @@ package com.google.devtools.build.lib.packages;
 
 import com.google.devtools.build.lib.events.Location;
 
-import java.util.BitSet;
-
 /**
  * Provides attribute setting and retrieval for a Rule. Encapsulating attribute access
  * here means it can be passed around independently of the Rule itself. In particular,
@@ -37,8 +35,9 @@ public class AttributeContainer {
   // Attribute values, keyed by attribute index:
   private final Object[] attributeValues;
 
-  // Whether an attribute value has been set explicitly in the BUILD file, keyed by attribute index.
-  private final BitSet attributeValueExplicitlySpecified;
+  // Whether an attribute value has been set explicitly in the BUILD file, keyed by attribute index,
+  // as a bit set packed into bytes. Unlike a BitSet, this needs no object besides the array.
+  private final byte[] attributeValueExplicitlySpecified;
 
   // Attribute locations, keyed by attribute index:
   private final Location[] attributeLocations;
@@ -49,7 +48,7 @@ public class AttributeContainer {
   AttributeContainer(RuleClass ruleClass) {
     this.ruleClass = ruleClass;
     this.attributeValues = new Object[ruleClass.getAttributeCount()];
-    this.attributeValueExplicitlySpecified = new BitSet(ruleClass.getAttributeCount());
+    this.attributeValueExplicitlySpecified = new byte[(ruleClass.getAttributeCount() + 7) / 8];
     this.attributeLocations = new Location[ruleClass.getAttributeCount()];
   }
 
@@ -78,7 +77,7 @@ public class AttributeContainer {
 
   public boolean isAttributeValueExplicitlySpecified(String attributeName) {
     Integer idx = ruleClass.getAttributeIndex(attributeName);
-    return idx != null && attributeValueExplicitlySpecified.get(idx);
+    return idx != null && (attributeValueExplicitlySpecified[idx >> 3] & (1 << (idx & 7))) != 0;
   }
 
   /**
@@ -96,13 +95,21 @@ public class AttributeContainer {
   void setAttributeValue(Attribute attribute, Object value, boolean explicit) {
     Integer index = ruleClass.getAttributeIndex(attribute.getName());
     attributeValues[index] = value;
-    attributeValueExplicitlySpecified.set(index, explicit);
+    setExplicitlySpecified(index, explicit);
   }
 
   void setAttributeValueByName(String attrName, Object value) {
     Integer index = ruleClass.getAttributeIndex(attrName);
     attributeValues[index] = value;
-    attributeValueExplicitlySpecified.set(index);
+    setExplicitlySpecified(index, true);
+  }
+
+  private void setExplicitlySpecified(int index, boolean explicit) {
+    if (explicit) {
+      attributeValueExplicitlySpecified[index >> 3] |= 1 << (index & 7);
+    } else {
+      attributeValueExplicitlySpecified[index >> 3] &= ~(1 << (index & 7));
+    }
   }
 
   void setAttributeLocation(int attrIndex, Location location) {
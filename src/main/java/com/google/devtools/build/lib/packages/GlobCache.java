@@ -17,9 +17,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.SettableFuture;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.concurrent.ThreadSafety;
@@ -32,6 +34,7 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -42,6 +45,8 @@ import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicReference;
 
+import javax.annotation.Nullable;
+
 /**
  * Caches the results of glob expansion for a package.
  */
@@ -89,6 +94,18 @@ public class GlobCache {
    */
   private final ThreadPoolExecutor globExecutor;
 
+  /**
+   * The glob results kept across server restarts, or null.
+   */
+  @Nullable private final PersistentGlobCache persistentCache;
+
+  /**
+   * The directories read by the globs that are still running or whose results were not fetched
+   * yet, for recording them in {@link #persistentCache}.
+   */
+  private final Map<Pair<String, Boolean>, PersistentGlobCache.DirectoryRecorder> recorders =
+      new HashMap<>();
+
   /**
    * Create a glob expansion cache.
    * @param packageDirectory globs will be expanded relatively to this
@@ -102,9 +119,23 @@ public class GlobCache {
                    final CachingPackageLocator locator,
                    AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls,
                    ThreadPoolExecutor globExecutor) {
+    this(packageDirectory, packageId, locator, syscalls, globExecutor, null);
+  }
+
+  /**
+   * Create a glob expansion cache that takes the results from and records them in
+   * {@code persistentCache}, if it is not null.
+   */
+  public GlobCache(final Path packageDirectory,
+                   final PackageIdentifier packageId,
+                   final CachingPackageLocator locator,
+                   AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls,
+                   ThreadPoolExecutor globExecutor,
+                   @Nullable PersistentGlobCache persistentCache) {
     this.packageDirectory = Preconditions.checkNotNull(packageDirectory);
     this.packageId = Preconditions.checkNotNull(packageId);
     this.globExecutor = Preconditions.checkNotNull(globExecutor);
+    this.persistentCache = persistentCache;
     this.syscalls = syscalls == null ? new AtomicReference<>(UnixGlob.DEFAULT_SYSCALLS) : syscalls;
 
     Preconditions.checkNotNull(locator);
@@ -155,12 +186,58 @@ public class GlobCache {
       throws BadGlobException {
     Future<List<Path>> cached = globCache.get(Pair.of(pattern, excludeDirs));
     if (cached == null) {
-      cached = safeGlob(pattern, excludeDirs);
-      setGlobPaths(pattern, excludeDirs, cached);
+      startGlobs(ImmutableList.of(pattern), excludeDirs);
+      cached = globCache.get(Pair.of(pattern, excludeDirs));
     }
     return cached;
   }
 
+  /**
+   * Starts the globs for those of {@code patterns} that are not in the cache yet. They are
+   * evaluated in a single traversal of the package directory, so directories that several of the
+   * patterns need are only read once.
+   *
+   * @throws BadGlobException if any of the patterns was syntactically invalid; none of the
+   *  patterns are started then.
+   */
+  void startGlobs(Iterable<String> patterns, boolean excludeDirs) throws BadGlobException {
+    List<String> missing = new ArrayList<>();
+    for (String pattern : patterns) {
+      if (!globCache.containsKey(Pair.of(pattern, excludeDirs)) && !missing.contains(pattern)) {
+        missing.add(pattern);
+      }
+    }
+    if (persistentCache != null) {
+      checkPatterns(missing);
+      for (Iterator<String> iterator = missing.iterator(); iterator.hasNext(); ) {
+        String pattern = iterator.next();
+        List<Path> persisted =
+            persistentCache.getGlob(packageDirectory, pattern, excludeDirs, syscalls.get());
+        if (persisted != null) {
+          iterator.remove();
+          setGlobPaths(pattern, excludeDirs, Futures.immediateFuture(persisted));
+        }
+      }
+      if (missing.isEmpty()) {
+        return;
+      }
+      // The patterns share a traversal, so each of them depends on every directory it read. This
+      // invalidates some globs more often than needed, but never too rarely.
+      PersistentGlobCache.DirectoryRecorder recorder =
+          new PersistentGlobCache.DirectoryRecorder(syscalls.get(), packageDirectory);
+      List<Future<List<Path>>> futures = safeGlobs(missing, excludeDirs, recorder);
+      for (int i = 0; i < missing.size(); i++) {
+        setGlobPaths(missing.get(i), excludeDirs, futures.get(i));
+        recorders.put(Pair.of(missing.get(i), excludeDirs), recorder);
+      }
+      return;
+    }
+    List<Future<List<Path>>> futures = safeGlobs(missing, excludeDirs);
+    for (int i = 0; i < missing.size(); i++) {
+      setGlobPaths(missing.get(i), excludeDirs, futures.get(i));
+    }
+  }
+
   @VisibleForTesting
   List<String> getGlob(String pattern)
       throws IOException, BadGlobException, InterruptedException {
@@ -172,6 +249,12 @@ public class GlobCache {
       throws IOException, BadGlobException, InterruptedException {
     Future<List<Path>> futureResult = getGlobAsync(pattern, excludeDirs);
     List<Path> globPaths = fromFuture(futureResult);
+    PersistentGlobCache.DirectoryRecorder recorder =
+        recorders.remove(Pair.of(pattern, excludeDirs));
+    if (recorder != null && recorder.getDirectories() != null) {
+      persistentCache.putGlob(
+          packageDirectory, pattern, excludeDirs, globPaths, recorder.getDirectories());
+    }
     // Replace the UnixGlob.GlobFuture with a completed future object, to allow
     // garbage collection of the GlobFuture and GlobVisitor objects.
     if (!(futureResult instanceof SettableFuture<?>)) {
@@ -207,22 +290,67 @@ public class GlobCache {
    */
   @VisibleForTesting
   Future<List<Path>> safeGlob(String pattern, boolean excludeDirs) throws BadGlobException {
-    // Forbidden patterns:
-    if (pattern.indexOf('?') != -1) {
-      throw new BadGlobException("glob pattern '" + pattern + "' contains forbidden '?' wildcard");
+    return Iterables.getOnlyElement(safeGlobs(ImmutableList.of(pattern), excludeDirs));
+  }
+
+  /**
+   * Like {@link #safeGlob}, but evaluates all {@code patterns} in one traversal and returns their
+   * results in the same order.
+   */
+  private List<Future<List<Path>>> safeGlobs(List<String> patterns, boolean excludeDirs)
+      throws BadGlobException {
+    return safeGlobs(patterns, excludeDirs, null);
+  }
+
+  /**
+   * Like {@link #safeGlobs(List, boolean)}, but records the directories that the globs read in
+   * {@code recorder}, if it is not null.
+   */
+  private List<Future<List<Path>>> safeGlobs(List<String> patterns, boolean excludeDirs,
+      @Nullable final PersistentGlobCache.DirectoryRecorder recorder) throws BadGlobException {
+    checkPatterns(patterns);
+    if (patterns.isEmpty()) {
+      return ImmutableList.of();
     }
-    // Patterns forbidden by UnixGlob library:
-    String error = UnixGlob.checkPatternForError(pattern);
-    if (error != null) {
-      throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
+    if (recorder == null) {
+      return UnixGlob.forPath(packageDirectory)
+          .addPatterns(patterns)
+          .setExcludeDirectories(excludeDirs)
+          .setDirectoryFilter(childDirectoryPredicate)
+          .setThreadPool(globExecutor)
+          .setFilesystemCalls(syscalls)
+          .globAsyncPerPattern(true);
     }
     return UnixGlob.forPath(packageDirectory)
-        .addPattern(pattern)
+        .addPatterns(patterns)
         .setExcludeDirectories(excludeDirs)
-        .setDirectoryFilter(childDirectoryPredicate)
+        .setDirectoryFilter(new Predicate<Path>() {
+          @Override
+          public boolean apply(Path directory) {
+            // Whether a subdirectory is a package changes its own modification time.
+            recorder.record(directory);
+            return childDirectoryPredicate.apply(directory);
+          }
+        })
         .setThreadPool(globExecutor)
-        .setFilesystemCalls(syscalls)
-        .globAsync(true);
+        .setFilesystemCalls(
+            new AtomicReference<UnixGlob.FilesystemCalls>(recorder.getFilesystemCalls()))
+        .globAsyncPerPattern(true);
+  }
+
+  private static void checkPatterns(List<String> patterns) throws BadGlobException {
+    for (String pattern : patterns) {
+      // Forbidden patterns:
+      if (pattern.indexOf('?') != -1) {
+        throw new BadGlobException(
+            "glob pattern '" + pattern + "' contains forbidden '?' wildcard");
+      }
+      // Patterns forbidden by UnixGlob library:
+      String error = UnixGlob.checkPatternForError(pattern);
+      if (error != null) {
+        throw new BadGlobException(error + " (in glob pattern '" + pattern + "')");
+      }
+    }
   }
 
   /**
@@ -248,16 +376,25 @@ public class GlobCache {
    * re-evaluate the globs.)
    */
   public boolean globsUpToDate() throws InterruptedException {
-    // Start all globs in parallel.
+    // Start all globs in parallel, in one traversal for each value of excludeDirs.
     Map<Pair<String, Boolean>, Future<List<Path>>> newGlobs = new HashMap<>();
     try {
-      for (Map.Entry<Pair<String, Boolean>, Future<List<Path>>> entry : globCache.entrySet()) {
-        Pair<String, Boolean> key = entry.getKey();
+      for (boolean excludeDirs : new boolean[] {false, true}) {
+        List<String> patterns = new ArrayList<>();
+        for (Pair<String, Boolean> key : globCache.keySet()) {
+          if (key.second == excludeDirs) {
+            patterns.add(key.first);
+          }
+        }
+        List<Future<List<Path>>> futures;
         try {
-          newGlobs.put(key, safeGlob(key.first, key.second));
+          futures = safeGlobs(patterns, excludeDirs);
         } catch (BadGlobException e) {
           return false;
         }
+        for (int i = 0; i < patterns.size(); i++) {
+          newGlobs.put(Pair.of(patterns.get(i), excludeDirs), futures.get(i));
+        }
       }
 
       for (Map.Entry<Pair<String, Boolean>, Future<List<Path>>> entry : globCache.entrySet()) {
@@ -290,9 +427,7 @@ public class GlobCache {
     // Start globbing all patterns in parallel. The getGlob() calls below will
     // block on an individual pattern's results, but the other globs can
     // continue in the background.
-    for (String pattern : Iterables.concat(includes, excludes)) {
-      getGlobAsync(pattern, excludeDirs);
-    }
+    startGlobs(Iterables.concat(includes, excludes), excludeDirs);
 
     LinkedHashSet<String> results = Sets.newLinkedHashSetWithExpectedSize(includes.size());
     for (String pattern : includes) {
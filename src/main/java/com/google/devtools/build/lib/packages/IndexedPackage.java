@@ -0,0 +1,465 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.StoredEventHandler;
+import com.google.devtools.build.lib.packages.AttributeMap.AcceptsLabelAttribute;
+import com.google.devtools.build.lib.packages.PackageDeserializer.DeserializationContext;
+import com.google.devtools.build.lib.packages.PackageDeserializer.EmptyLocation;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationException;
+import com.google.devtools.build.lib.packages.RuleClass.ParsedAttributeValue;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.syntax.GlobCriteria;
+import com.google.devtools.build.lib.syntax.GlobList;
+import com.google.devtools.build.lib.syntax.Label;
+import com.google.protobuf.CodedInputStream;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * A package serialized by {@link PackageSerializer#serializeIndexed}, whose targets are
+ * deserialized on demand.
+ *
+ * <p>The serialized form is laid out as follows, with all integers written as 4 big-endian bytes:
+ * <pre>
+ *   magic, version
+ *   string count, offsets of the strings (plus the end offset), UTF-8 bytes of the strings
+ *   length and bytes of the {@link Build.Package} message holding the package-level settings
+ *   target count, index entries: name, kind (1 byte), rule class or generating rule, offset
+ *   length and bytes of the target records
+ * </pre>
+ *
+ * <p>Labels, attribute names and other strings are referred to by their position in the string
+ * table, so each of them is stored once per package, and decoded from the buffer only when a
+ * target that uses it is deserialized. Rule records hold the common kinds of attribute values
+ * directly; the rest, as well as package groups and licenses, are embedded as protocol buffers.
+ * Output files are only listed in the index; they are recreated along with their rule.
+ *
+ * <p>Instances are thread-safe, provided the underlying buffer does not change.
+ */
+public final class IndexedPackage {
+
+  static final int MAGIC = 0x42504b47;  // "BPKG"
+  static final int VERSION = 1;
+  private static final int INDEX_ENTRY_SIZE = 13;
+
+  private final PackageDeserializer deserializer;
+  private final ByteBuffer buffer;
+  private final PackageIdentifier packageIdentifier;
+  private final Build.Package packagePb;
+  private final int stringCount;
+  private final int stringOffsetsStart;
+  private final int stringDataStart;
+  private final int targetCount;
+  private final int indexStart;
+  private final int targetDataStart;
+  private final int targetDataEnd;
+
+  // Decoded strings and labels, by position in the string table. Racy initialization is fine:
+  // both types are immutable, and each slot is always filled with an equal value.
+  private final String[] strings;
+  private final Label[] labels;
+
+  // Position of each target in the index, by name. Built the first time a target is looked up.
+  private volatile ImmutableMap<String, Integer> targetIndex;
+
+  IndexedPackage(PackageDeserializer deserializer, ByteBuffer buffer)
+      throws PackageDeserializationException {
+    this.deserializer = deserializer;
+    this.buffer = buffer.slice();
+    try {
+      check(this.buffer.getInt(0) == MAGIC, "not an indexed package");
+      check(this.buffer.getInt(4) == VERSION, "unsupported version");
+      stringCount = this.buffer.getInt(8);
+      check(stringCount >= 0, "invalid string count");
+      stringOffsetsStart = 12;
+      stringDataStart = stringOffsetsStart + (stringCount + 1) * 4;
+      int packageStart = stringDataStart + this.buffer.getInt(stringDataStart - 4);
+      check(packageStart >= stringDataStart && packageStart <= this.buffer.limit() - 4,
+          "invalid string table");
+      int packageLength = this.buffer.getInt(packageStart);
+      packagePb = Build.Package.parseFrom(message(packageStart + 4, packageLength));
+      int targetCountStart = packageStart + 4 + packageLength;
+      targetCount = this.buffer.getInt(targetCountStart);
+      check(targetCount >= 0, "invalid target count");
+      indexStart = targetCountStart + 4;
+      targetDataStart = indexStart + targetCount * INDEX_ENTRY_SIZE + 4;
+      targetDataEnd = targetDataStart + this.buffer.getInt(targetDataStart - 4);
+      check(targetDataEnd == this.buffer.limit(), "invalid target data length");
+    } catch (IndexOutOfBoundsException | IllegalArgumentException
+        | IOException e) {
+      throw new PackageDeserializationException("Malformed indexed package", e);
+    }
+    packageIdentifier = PackageDeserializer.deserializePackageIdentifier(packagePb);
+    strings = new String[stringCount];
+    labels = new Label[stringCount];
+  }
+
+  /** Returns the identifier of the package. */
+  public PackageIdentifier getPackageIdentifier() {
+    return packageIdentifier;
+  }
+
+  /** Returns the names of the targets of the package, in order. */
+  public List<String> getTargetNames() throws PackageDeserializationException {
+    return getTargetIndex().keySet().asList();
+  }
+
+  /** Returns whether the package has a target with the given name. */
+  public boolean containsTarget(String targetName) throws PackageDeserializationException {
+    return getTargetIndex().containsKey(targetName);
+  }
+
+  /**
+   * Returns the name of the rule class of the named rule, or null if the package does not have a
+   * rule with that name.
+   */
+  @Nullable
+  public String getRuleClass(String targetName) throws PackageDeserializationException {
+    Integer target = getTargetIndex().get(targetName);
+    if (target == null) {
+      return null;
+    }
+    int entry = indexStart + target * INDEX_ENTRY_SIZE;
+    return buffer.get(entry + 4) == Build.Target.Discriminator.RULE.getNumber()
+        ? string(buffer.getInt(entry + 5))
+        : null;
+  }
+
+  /**
+   * Deserializes the whole package. Equivalent to deserializing the output of
+   * {@link PackageSerializer#serialize} with {@link PackageDeserializer#deserialize}.
+   */
+  public Package getPackage() throws PackageDeserializationException, InterruptedException {
+    return buildPackage(null);
+  }
+
+  /**
+   * Deserializes a package that only contains the named targets, along with the package-level
+   * settings and the targets of the package that the named rules depend on or are visible to,
+   * transitively. Output files bring in their generating rule. Names that are not in
+   * {@link #getTargetNames} are ignored.
+   *
+   * <p>The package lacks the other targets, so rules that depend on the contents of the whole
+   * package, such as a {@code test_suite} without explicit tests, see only part of it.
+   */
+  public Package getPackage(Iterable<String> targetNames)
+      throws PackageDeserializationException, InterruptedException {
+    return buildPackage(targetNames);
+  }
+
+  private Package buildPackage(@Nullable Iterable<String> targetNames)
+      throws PackageDeserializationException, InterruptedException {
+    Package.Builder builder = new Package.Builder(packageIdentifier, null);
+    StoredEventHandler eventHandler = new StoredEventHandler();
+    deserializer.deserializePackageMetadata(packagePb, eventHandler, builder);
+    DeserializationContext context = new DeserializationContext(builder);
+    try {
+      if (targetNames == null) {
+        for (int target = 0; target < targetCount; target++) {
+          deserializeTarget(context, builder, target);
+        }
+      } else {
+        deserializeTargets(context, builder, targetNames);
+      }
+    } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException
+        | IOException e) {
+      throw new PackageDeserializationException("Malformed indexed package", e);
+    }
+    builder.addEvents(eventHandler.getEvents());
+    return builder.build();
+  }
+
+  private ImmutableMap<String, Integer> getTargetIndex() throws PackageDeserializationException {
+    ImmutableMap<String, Integer> result = targetIndex;
+    if (result == null) {
+      ImmutableMap.Builder<String, Integer> builder = ImmutableMap.builder();
+      try {
+        for (int target = 0; target < targetCount; target++) {
+          builder.put(string(buffer.getInt(indexStart + target * INDEX_ENTRY_SIZE)), target);
+        }
+        result = builder.build();
+      } catch (BufferUnderflowException | IndexOutOfBoundsException
+          | IllegalArgumentException e) {
+        throw new PackageDeserializationException("Malformed indexed package", e);
+      }
+      targetIndex = result;
+    }
+    return result;
+  }
+
+  /**
+   * Deserializes the named targets and the targets of the package they depend on, including the
+   * package groups in their visibility. Labels of the package that are not in the index are left
+   * for {@link Package.Builder#build} to turn into input files, as they are when loading the
+   * package.
+   */
+  private void deserializeTargets(DeserializationContext context, Package.Builder builder,
+      Iterable<String> targetNames)
+      throws PackageDeserializationException, InterruptedException, IOException {
+    ImmutableMap<String, Integer> targetIndex = getTargetIndex();
+    boolean[] visited = new boolean[targetCount];
+    final Deque<String> worklist = new ArrayDeque<>();
+    Iterables.addAll(worklist, targetNames);
+    while (!worklist.isEmpty()) {
+      Integer target = targetIndex.get(worklist.pop());
+      if (target == null || visited[target]) {
+        continue;
+      }
+      visited[target] = true;
+      int entry = indexStart + target * INDEX_ENTRY_SIZE;
+      if (buffer.get(entry + 4) == Build.Target.Discriminator.GENERATED_FILE.getNumber()) {
+        worklist.add(string(buffer.getInt(entry + 5)));
+        continue;
+      }
+      Rule rule = deserializeTarget(context, builder, target);
+      if (rule != null) {
+        AggregatingAttributeMapper.of(rule).visitLabels(new AcceptsLabelAttribute() {
+          @Override
+          public void acceptLabelAttribute(Label label, Attribute attribute) {
+            if (label.getPackageIdentifier().equals(packageIdentifier)) {
+              worklist.add(label.getName());
+            }
+          }
+        });
+        for (Label label : rule.getVisibility().getDependencyLabels()) {
+          if (label.getPackageIdentifier().equals(packageIdentifier)) {
+            worklist.add(label.getName());
+          }
+        }
+      }
+    }
+  }
+
+  /** Deserializes a target into the package, and returns it if it is a rule. */
+  @Nullable
+  private Rule deserializeTarget(DeserializationContext context, Package.Builder builder,
+      int target) throws PackageDeserializationException, InterruptedException,
+      IOException {
+    int entry = indexStart + target * INDEX_ENTRY_SIZE;
+    String name = string(buffer.getInt(entry));
+    ByteBuffer in = buffer.duplicate();
+    in.limit(targetDataEnd);
+    in.position(targetDataStart + buffer.getInt(entry + 9));
+    Build.Target.Discriminator kind = Build.Target.Discriminator.valueOf(buffer.get(entry + 4));
+    if (kind == null) {
+      throw new PackageDeserializationException("Invalid target kind in " + name);
+    }
+    switch (kind) {
+      case SOURCE_FILE:
+        List<Label> visibility = readLabels(in);
+        Build.License licensePb =
+            in.get() != 0 ? Build.License.parseFrom(readMessage(in)) : null;
+        deserializer.addInputFile(context, name, visibility, licensePb);
+        return null;
+      case GENERATED_FILE:
+        return null;
+      case PACKAGE_GROUP:
+        deserializer.deserializeTarget(context, Build.Target.parseFrom(readMessage(in)));
+        return null;
+      case RULE:
+        Label ruleLabel;
+        try {
+          ruleLabel = builder.createLabel(name);
+        } catch (LabelSyntaxException e) {
+          throw new PackageDeserializationException(e.getMessage(), e);
+        }
+        RuleClass ruleClass =
+            deserializer.getRuleClass(ruleLabel, string(buffer.getInt(entry + 5)));
+        int attributeCount = in.getInt();
+        Map<String, ParsedAttributeValue> attributeValues = new HashMap<>();
+        for (int i = 0; i < attributeCount; i++) {
+          String attributeName = string(in.getInt());
+          int type = in.get();
+          boolean explicitlySpecified = in.get() != 0;
+          Object value = readAttributeValue(in, type,
+              ruleClass.getAttributeByName(attributeName).getType());
+          attributeValues.put(attributeName,
+              new ParsedAttributeValue(explicitlySpecified, value, EmptyLocation.INSTANCE));
+        }
+        return deserializer.addRule(context, ruleLabel, ruleClass, attributeValues);
+      default:
+        throw new PackageDeserializationException("Unexpected target kind: " + kind);
+    }
+  }
+
+  /**
+   * Reads an attribute value written by {@code PackageSerializer.writeIndexedAttribute}. Mirrors
+   * {@link PackageDeserializer#deserializeAttributeValue}.
+   */
+  private Object readAttributeValue(ByteBuffer in, int type, Type<?> expectedType)
+      throws PackageDeserializationException, IOException {
+    Build.Attribute.Discriminator discriminator = Build.Attribute.Discriminator.valueOf(type);
+    if (discriminator == null) {
+      throw new PackageDeserializationException("Invalid discriminator: " + type);
+    }
+    switch (discriminator) {
+      case INTEGER:
+        return in.get() != 0 ? Integer.valueOf(in.getInt()) : null;
+
+      case STRING:
+        if (in.get() == 0) {
+          return null;
+        } else if (expectedType == Type.NODEP_LABEL) {
+          return label(in.getInt());
+        } else {
+          return string(in.getInt());
+        }
+
+      case LABEL:
+      case OUTPUT:
+        return in.get() != 0 ? label(in.getInt()) : null;
+
+      case STRING_LIST:
+        if (expectedType == Type.NODEP_LABEL_LIST) {
+          return readGlobs(in, readLabels(in));
+        } else {
+          return readGlobs(in, readStrings(in));
+        }
+
+      case LABEL_LIST:
+      case OUTPUT_LIST:
+        return readGlobs(in, readLabels(in));
+
+      case DISTRIBUTION_SET: {
+        List<String> distributions = readStrings(in);
+        readGlobs(in, distributions);
+        return PackageDeserializer.deserializeDistribs(distributions);
+      }
+
+      case BOOLEAN:
+        return in.get() != 0 ? in.get() != 0 : null;
+
+      case TRISTATE:
+        return in.get() != 0 ? PackageDeserializer.deserializeTriStateValue(string(in.getInt()))
+            : null;
+
+      case INTEGER_LIST: {
+        int count = in.getInt();
+        ImmutableList.Builder<Integer> builder = ImmutableList.builder();
+        for (int i = 0; i < count; i++) {
+          builder.add(in.getInt());
+        }
+        return builder.build();
+      }
+
+      default:
+        return PackageDeserializer.deserializeAttributeValue(
+            expectedType, Build.Attribute.parseFrom(readMessage(in)));
+    }
+  }
+
+  private List<?> readGlobs(ByteBuffer in, List<?> matches) throws PackageDeserializationException {
+    int count = in.getInt();
+    if (count == 0) {
+      return matches;
+    }
+
+    ImmutableList.Builder<GlobCriteria> criteriaBuilder = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      boolean glob = in.get() != 0;
+      ImmutableList<String> include = readStrings(in);
+      ImmutableList<String> exclude = readStrings(in);
+      criteriaBuilder.add(glob
+          ? GlobCriteria.fromGlobCall(include, exclude)
+          : GlobCriteria.fromList(include));
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"}) GlobList<?> result =
+        new GlobList(criteriaBuilder.build(), matches);
+    return result;
+  }
+
+  private ImmutableList<String> readStrings(ByteBuffer in) throws PackageDeserializationException {
+    int count = in.getInt();
+    ImmutableList.Builder<String> result = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      result.add(string(in.getInt()));
+    }
+    return result.build();
+  }
+
+  private ImmutableList<Label> readLabels(ByteBuffer in) throws PackageDeserializationException {
+    int count = in.getInt();
+    ImmutableList.Builder<Label> result = ImmutableList.builder();
+    for (int i = 0; i < count; i++) {
+      result.add(label(in.getInt()));
+    }
+    return result.build();
+  }
+
+  /** Reads a length-prefixed protocol buffer message, without copying it out of the buffer. */
+  private CodedInputStream readMessage(ByteBuffer in) {
+    int length = in.getInt();
+    CodedInputStream result = message(in.position(), length);
+    in.position(in.position() + length);
+    return result;
+  }
+
+  private CodedInputStream message(int start, int length) {
+    ByteBuffer message = buffer.duplicate();
+    message.limit(start + length);
+    message.position(start);
+    return CodedInputStream.newInstance(message.slice());
+  }
+
+  private String string(int index) throws PackageDeserializationException {
+    check(index >= 0 && index < stringCount, "invalid string reference");
+    String result = strings[index];
+    if (result == null) {
+      int start = buffer.getInt(stringOffsetsStart + index * 4);
+      int end = buffer.getInt(stringOffsetsStart + index * 4 + 4);
+      check(start >= 0 && start <= end, "invalid string offsets");
+      byte[] bytes = new byte[end - start];
+      ByteBuffer data = buffer.duplicate();
+      data.position(stringDataStart + start);
+      data.get(bytes);
+      result = new String(bytes, StandardCharsets.UTF_8);
+      strings[index] = result;
+    }
+    return result;
+  }
+
+  private Label label(int index) throws PackageDeserializationException {
+    String labelName = string(index);
+    Label result = labels[index];
+    if (result == null) {
+      result = PackageDeserializer.deserializeLabel(labelName);
+      labels[index] = result;
+    }
+    return result;
+  }
+
+  private static void check(boolean condition, String message)
+      throws PackageDeserializationException {
+    if (!condition) {
+      throw new PackageDeserializationException("Malformed indexed package: " + message);
+    }
+  }
+}
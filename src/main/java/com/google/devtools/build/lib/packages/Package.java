@@ -20,6 +20,8 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -51,6 +53,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -793,6 +796,15 @@ public class Package implements Serializable {
      */
     private Map<String, OutputFile> outputFilePrefixes = new HashMap<>();
 
+    /**
+     * The list and dict attribute values of the rules of this package, so that rules with equal
+     * values share a single copy, as the deps, copts or visibility of generated rules often are.
+     * The visibility of the rules is shared the same way, by attribute value. Like the output
+     * file prefixes, these are useless after the package has been loaded.
+     */
+    private final Interner<Object> attributeValues = Interners.newStrongInterner();
+    private final Map<List<Label>, RuleVisibility> visibilities = new IdentityHashMap<>();
+
     private boolean alreadyBuilt = false;
 
     private EventHandler builderEventHandler = new EventHandler() {
@@ -1023,6 +1035,32 @@ public class Package implements Serializable {
       return new Rule(pkg, label, ruleClass, ast, location);
     }
 
+    /**
+     * Returns the instance of the given attribute value that the rules of this package share, if
+     * it is an immutable list or map.
+     */
+    <T> T internAttributeValue(T value) {
+      if (value instanceof ImmutableList<?> || value instanceof ImmutableMap<?, ?>) {
+        @SuppressWarnings("unchecked")
+        T interned = (T) attributeValues.intern(value);
+        return interned;
+      }
+      return value;
+    }
+
+    /**
+     * Returns the visibility for the given value of a visibility attribute, shared by all rules
+     * with the same {@link #internAttributeValue interned} value.
+     */
+    RuleVisibility getVisibility(List<Label> value) {
+      RuleVisibility visibility = visibilities.get(value);
+      if (visibility == null) {
+        visibility = PackageFactory.getVisibility(value);
+        visibilities.put(value, visibility);
+      }
+      return visibility;
+    }
+
     /**
      * Called by the parser when a "mocksubinclude" is encountered, to record the
      * mappings from labels to absolute paths upon which that the validity of
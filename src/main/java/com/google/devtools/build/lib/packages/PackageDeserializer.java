@@ -45,6 +45,7 @@ import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -55,6 +56,8 @@ import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.annotation.Nullable;
+
 /**
  * Functionality to deserialize loaded packages.
  */
@@ -98,7 +101,7 @@ public class PackageDeserializer {
             });
 
   /** Class encapsulating state for a single package deserialization. */
-  private static class DeserializationContext {
+  static class DeserializationContext {
     private final Package.Builder packageBuilder;
 
     public DeserializationContext(Package.Builder packageBuilder) {
@@ -130,18 +133,28 @@ public class PackageDeserializer {
 
   private void deserializeInputFile(DeserializationContext context, Build.SourceFile sourceFile)
       throws PackageDeserializationException {
+    addInputFile(context, deserializeLabel(sourceFile.getName()).getName(),
+        deserializeLabels(sourceFile.getVisibilityLabelList()),
+        sourceFile.hasLicense() ? sourceFile.getLicense() : null);
+  }
+
+  /**
+   * Adds an input file to the package. Its visibility and license are only set if either of them
+   * was specified.
+   */
+  void addInputFile(DeserializationContext context, String name, List<Label> visibility,
+      @Nullable Build.License licensePb) throws PackageDeserializationException {
     InputFile inputFile;
     try {
-      inputFile = context.packageBuilder.createInputFile(
-          deserializeLabel(sourceFile.getName()).getName(), EmptyLocation.INSTANCE);
+      inputFile = context.packageBuilder.createInputFile(name, EmptyLocation.INSTANCE);
     } catch (GeneratedLabelConflict e) {
       throw new PackageDeserializationException(e);
     }
 
-    if (!sourceFile.getVisibilityLabelList().isEmpty() || sourceFile.hasLicense()) {
+    if (!visibility.isEmpty() || licensePb != null) {
       context.packageBuilder.setVisibilityAndLicense(inputFile,
-          PackageFactory.getVisibility(deserializeLabels(sourceFile.getVisibilityLabelList())),
-          deserializeLicense(sourceFile.getLicense()));
+          PackageFactory.getVisibility(visibility),
+          deserializeLicense(licensePb != null ? licensePb : Build.License.getDefaultInstance()));
     }
   }
 
@@ -174,7 +187,14 @@ public class PackageDeserializer {
       attributeValues.put(attrPb.getName(), deserializeAttribute(type, attrPb));
     }
 
-    Label ruleLabel = deserializeLabel(rulePb.getName());
+    addRule(context, deserializeLabel(rulePb.getName()), ruleClass, attributeValues);
+  }
+
+  /** Creates a rule from its deserialized attribute values and adds it to the package. */
+  Rule addRule(DeserializationContext context, Label ruleLabel, RuleClass ruleClass,
+      Map<String, ParsedAttributeValue> attributeValues)
+      throws PackageDeserializationException, InterruptedException {
+    Location ruleLocation = EmptyLocation.INSTANCE;
     try {
       Rule rule = ruleClass.createRuleWithParsedAttributeValues(
           ruleLabel, context.packageBuilder, ruleLocation, attributeValues,
@@ -182,14 +202,24 @@ public class PackageDeserializer {
       context.packageBuilder.addRule(rule);
 
       Preconditions.checkState(!rule.containsErrors());
+      return rule;
     } catch (NameConflictException | LabelSyntaxException e) {
       throw new PackageDeserializationException(e);
     }
   }
 
+  /**
+   * Returns the rule class of a rule, given its label and the name of its rule class.
+   */
+  RuleClass getRuleClass(Label ruleLabel, String ruleClassName) {
+    return packageDeserializationEnvironment.getRuleClass(
+        Build.Rule.newBuilder().setName(ruleLabel.toString()).setRuleClass(ruleClassName).build(),
+        EmptyLocation.INSTANCE);
+  }
+
   /** "Empty" location implementation, all methods should return non-null, but empty, values. */
-  private static class EmptyLocation extends Location {
-    private static final EmptyLocation INSTANCE = new EmptyLocation();
+  static class EmptyLocation extends Location {
+    static final EmptyLocation INSTANCE = new EmptyLocation();
 
     private static final PathFragment DEV_NULL = new PathFragment("/dev/null");
     private static final LineAndColumn EMPTY_LINE_AND_COLUMN = new LineAndColumn(0, 0);
@@ -228,11 +258,11 @@ public class PackageDeserializer {
    * Exception thrown when something goes wrong during package deserialization.
    */
   public static class PackageDeserializationException extends Exception {
-    private PackageDeserializationException(String message) {
+    PackageDeserializationException(String message) {
       super(message);
     }
 
-    private PackageDeserializationException(String message, Exception reason) {
+    PackageDeserializationException(String message, Exception reason) {
       super(message, reason);
     }
 
@@ -241,7 +271,7 @@ public class PackageDeserializer {
     }
   }
 
-  private static Label deserializeLabel(String labelName) throws PackageDeserializationException {
+  static Label deserializeLabel(String labelName) throws PackageDeserializationException {
     try {
       return labelCache.get(labelName);
     } catch (ExecutionException e) {
@@ -275,7 +305,7 @@ public class PackageDeserializer {
     }
   }
 
-  private static Set<DistributionType> deserializeDistribs(List<String> distributions)
+  static Set<DistributionType> deserializeDistribs(List<String> distributions)
       throws PackageDeserializationException {
     try {
       return License.parseDistributions(distributions);
@@ -284,7 +314,7 @@ public class PackageDeserializer {
     }
   }
 
-  private static TriState deserializeTriStateValue(String value)
+  static TriState deserializeTriStateValue(String value)
       throws PackageDeserializationException {
     if (value.equals("yes")) {
       return TriState.YES;
@@ -330,9 +360,18 @@ public class PackageDeserializer {
   private void deserializeInternal(Build.Package packagePb, StoredEventHandler eventHandler,
       Package.Builder builder, InputStream in)
       throws PackageDeserializationException, IOException, InterruptedException {
+    deserializePackageMetadata(packagePb, eventHandler, builder);
+    deserializeTargets(in, new DeserializationContext(builder));
+  }
+
+  /**
+   * Applies the package-level settings of {@code packagePb}, i.e. everything but its targets, to
+   * {@code builder}.
+   */
+  void deserializePackageMetadata(Build.Package packagePb, StoredEventHandler eventHandler,
+      Package.Builder builder) throws PackageDeserializationException {
     Path buildFile = packageDeserializationEnvironment.getPath(packagePb.getBuildFilePath());
     Preconditions.checkNotNull(buildFile);
-    DeserializationContext context = new DeserializationContext(builder);
     builder.setFilename(buildFile);
 
     if (packagePb.hasDefaultVisibilitySet() && packagePb.getDefaultVisibilitySet()) {
@@ -387,28 +426,30 @@ public class PackageDeserializer {
     if (packagePb.hasContainsErrors() && packagePb.getContainsErrors()) {
       builder.setContainsErrors();
     }
-
-    deserializeTargets(in, context);
   }
 
   private void deserializeTargets(InputStream in, DeserializationContext context)
       throws IOException, PackageDeserializationException, InterruptedException {
     Build.TargetOrTerminator tot;
     while (!(tot = Build.TargetOrTerminator.parseDelimitedFrom(in)).getIsTerminator()) {
-      Build.Target target = tot.getTarget();
-      switch (target.getType()) {
-        case SOURCE_FILE:
-          deserializeInputFile(context, target.getSourceFile());
-          break;
-        case PACKAGE_GROUP:
-          deserializePackageGroup(context, target.getPackageGroup());
-          break;
-        case RULE:
-          deserializeRule(context, target.getRule());
-          break;
-        default:
-          throw new IllegalStateException("Unexpected Target type: " + target.getType());
-      }
+      deserializeTarget(context, tot.getTarget());
+    }
+  }
+
+  void deserializeTarget(DeserializationContext context, Build.Target target)
+      throws PackageDeserializationException, InterruptedException {
+    switch (target.getType()) {
+      case SOURCE_FILE:
+        deserializeInputFile(context, target.getSourceFile());
+        break;
+      case PACKAGE_GROUP:
+        deserializePackageGroup(context, target.getPackageGroup());
+        break;
+      case RULE:
+        deserializeRule(context, target.getRule());
+        break;
+      default:
+        throw new IllegalStateException("Unexpected Target type: " + target.getType());
     }
   }
 
@@ -438,25 +479,43 @@ public class PackageDeserializer {
     }
   }
 
+  /**
+   * Opens a package written by {@link PackageSerializer#serializeIndexed}. Only the package-level
+   * settings and the index of the targets are read up front; the targets are deserialized on
+   * demand by the returned {@link IndexedPackage}.
+   *
+   * <p>{@code buffer} is read from its current position, and is typically mapped from a file.
+   * Its contents must not change while the returned package is in use. The deserialization
+   * environment is only given the name and the rule class of each rule, not its attributes.
+   *
+   * @throws PackageDeserializationException if {@code buffer} does not hold an indexed package
+   */
+  public IndexedPackage openIndexed(ByteBuffer buffer) throws PackageDeserializationException {
+    return new IndexedPackage(this, buffer);
+  }
+
   private Package deserializeInternal(InputStream in)
       throws PackageDeserializationException, IOException, InterruptedException {
     // Read the initial Package message so we have the data to initialize the builder. We will read
     // the Targets in individually later.
     Build.Package packagePb = Build.Package.parseDelimitedFrom(in);
-    Package.Builder builder;
-    try {
-      builder = new Package.Builder(
-          new PackageIdentifier(packagePb.getRepository(), new PathFragment(packagePb.getName())),
-          null);
-    } catch (LabelSyntaxException e) {
-      throw new PackageDeserializationException(e);
-    }
+    Package.Builder builder = new Package.Builder(deserializePackageIdentifier(packagePb), null);
     StoredEventHandler eventHandler = new StoredEventHandler();
     deserializeInternal(packagePb, eventHandler, builder, in);
     builder.addEvents(eventHandler.getEvents());
     return builder.build();
   }
 
+  static PackageIdentifier deserializePackageIdentifier(Build.Package packagePb)
+      throws PackageDeserializationException {
+    try {
+      return new PackageIdentifier(
+          packagePb.getRepository(), new PathFragment(packagePb.getName()));
+    } catch (LabelSyntaxException e) {
+      throw new PackageDeserializationException(e);
+    }
+  }
+
   private static void deserializeEvent(StoredEventHandler eventHandler, Build.Event event) {
     String message = event.getMessage();
     switch (event.getKind()) {
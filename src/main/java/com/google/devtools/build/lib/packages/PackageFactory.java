@@ -298,9 +298,7 @@ public final class PackageFactory {
     @Override
     public Token runAsync(List<String> includes, List<String> excludes, boolean excludeDirs)
         throws BadGlobException {
-      for (String pattern : Iterables.concat(includes, excludes)) {
-        globCache.getGlobAsync(pattern, excludeDirs);
-      }
+      globCache.startGlobs(Iterables.concat(includes, excludes), excludeDirs);
       return new Token(includes, excludes, excludeDirs);
     }
 
@@ -332,7 +330,9 @@ public final class PackageFactory {
   private final RuleClassProvider ruleClassProvider;
 
   private AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls;
+  @Nullable private PersistentGlobCache persistentGlobCache;
   private Preprocessor.Factory preprocessorFactory = Preprocessor.Factory.NullFactory.INSTANCE;
+  private boolean compileSkylarkFunctions;
 
   private final ThreadPoolExecutor threadPool;
   private Map<String, String> platformSetRegexps;
@@ -394,6 +394,29 @@ public final class PackageFactory {
     this.syscalls = Preconditions.checkNotNull(syscalls);
   }
 
+  /**
+   * Sets the cache of glob results that is kept across server restarts, or null for none.
+   */
+  public void setPersistentGlobCache(@Nullable PersistentGlobCache persistentGlobCache) {
+    this.persistentGlobCache = persistentGlobCache;
+  }
+
+  /**
+   * Sets whether the Skylark functions that are called often while loading packages are
+   * compiled instead of interpreted.
+   */
+  public void setCompileSkylarkFunctions(boolean compileSkylarkFunctions) {
+    this.compileSkylarkFunctions = compileSkylarkFunctions;
+  }
+
+  /**
+   * Returns whether the Skylark functions that are called often while loading packages are
+   * compiled instead of interpreted.
+   */
+  public boolean compilesSkylarkFunctions() {
+    return compileSkylarkFunctions;
+  }
+
   /**
    * Sets the max number of threads to use for globbing.
    */
@@ -991,7 +1014,27 @@ public final class PackageFactory {
     BuildFileAST buildFileAST = BuildFileAST.parseBuildFile(
         preprocessingResult.result, preludeStatements, localReporter, locator, false);
     LOG.fine("Finished parsing of " + packageId);
+    return createPackageFromAST(externalPkg, packageId, buildFile, preprocessingResult,
+        Iterables.concat(preprocessingEvents, localReporter.getEvents()), buildFileAST, imports,
+        skylarkFileDependencies, defaultVisibility, globber);
+  }
 
+  /**
+   * Same as {@link #createPackageFromPreprocessingResult}, but for a BUILD file that the caller
+   * has already parsed, for example to find its imports. {@code events} are the events of
+   * preprocessing and parsing it.
+   */
+  public Package.LegacyBuilder createPackageFromAST(
+      Package externalPkg,
+      PackageIdentifier packageId,
+      Path buildFile,
+      Preprocessor.Result preprocessingResult,
+      Iterable<Event> events,
+      BuildFileAST buildFileAST,
+      Map<PathFragment, Extension> imports,
+      ImmutableList<Label> skylarkFileDependencies,
+      RuleVisibility defaultVisibility,
+      Globber globber) throws InterruptedException {
     MakeEnvironment.Builder makeEnv = new MakeEnvironment.Builder();
     if (platformSetRegexps != null) {
       makeEnv.setPlatformSetRegexps(platformSetRegexps);
@@ -1007,7 +1050,7 @@ public final class PackageFactory {
           buildFileAST,
           buildFile,
           globber,
-          Iterables.concat(preprocessingEvents, localReporter.getEvents()),
+          events,
           defaultVisibility,
           preprocessingResult.containsErrors,
           makeEnv,
@@ -1112,7 +1155,7 @@ public final class PackageFactory {
   public LegacyGlobber createLegacyGlobber(Path packageDirectory, PackageIdentifier packageId,
       CachingPackageLocator locator) {
     return new LegacyGlobber(new GlobCache(packageDirectory, packageId, locator, syscalls,
-        threadPool));
+        threadPool, persistentGlobCache));
   }
 
   @Nullable
@@ -1261,7 +1304,8 @@ public final class PackageFactory {
           .setEventHandler(eventHandler)
           .setImportedExtensions(imports)
           .setLoadingPhase()
-          .build();
+          .build()
+          .setCompileHotFunctions(compileSkylarkFunctions);
 
       pkgBuilder.setGlobber(globber)
           .setFilename(buildFilePath)
@@ -45,10 +45,14 @@ import com.google.devtools.build.lib.syntax.GlobCriteria;
 import com.google.devtools.build.lib.syntax.GlobList;
 import com.google.devtools.build.lib.syntax.Label;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
@@ -110,8 +114,91 @@ public class PackageSerializer {
     serializePackageInternal(pkg, out);
   }
 
+  /**
+   * Serialize a package to {@code out} in the indexed format read by
+   * {@link PackageDeserializer#openIndexed}.
+   *
+   * <p>Unlike {@link #serialize}, which writes one protocol buffer per target, this format stores
+   * every string used by the targets once, in a table at the front, followed by an index of the
+   * targets, so that readers can deserialize just the targets they need. See
+   * {@link IndexedPackage} for the layout.
+   *
+   * @param pkg the {@link Package} to be serialized
+   * @param out the stream to pkg's serialized representation to
+   * @throws IOException on failure writing to {@code out}
+   */
+  public void serializeIndexed(Package pkg, OutputStream out) throws IOException {
+    Map<String, Integer> strings = new LinkedHashMap<>();
+    ByteArrayOutputStream indexBytes = new ByteArrayOutputStream();
+    DataOutputStream index = new DataOutputStream(indexBytes);
+    ByteArrayOutputStream targetBytes = new ByteArrayOutputStream();
+    DataOutputStream targets = new DataOutputStream(targetBytes);
+    int targetCount = 0;
+    for (Target target : pkg.getTargets()) {
+      int offset = targets.size();
+      Build.Target.Discriminator kind;
+      // The rule class of rules, and the generating rule of output files.
+      int ruleReference = -1;
+      if (target instanceof InputFile) {
+        kind = Build.Target.Discriminator.SOURCE_FILE;
+        writeIndexedInputFile((InputFile) target, strings, targets);
+      } else if (target instanceof OutputFile) {
+        // Output files have no record; they are recreated along with their generating rule.
+        kind = Build.Target.Discriminator.GENERATED_FILE;
+        ruleReference =
+            stringIndex(strings, ((OutputFile) target).getGeneratingRule().getName());
+      } else if (target instanceof PackageGroup) {
+        kind = Build.Target.Discriminator.PACKAGE_GROUP;
+        writeIndexedMessage(serializePackageGroup((PackageGroup) target).toByteArray(), targets);
+      } else if (target instanceof Rule) {
+        kind = Build.Target.Discriminator.RULE;
+        ruleReference = stringIndex(strings, ((Rule) target).getRuleClass());
+        writeIndexedRule((Rule) target, strings, targets);
+      } else {
+        continue;
+      }
+      index.writeInt(stringIndex(strings, target.getName()));
+      index.writeByte(kind.getNumber());
+      index.writeInt(ruleReference);
+      index.writeInt(offset);
+      targetCount++;
+    }
+
+    DataOutputStream data = new DataOutputStream(out);
+    data.writeInt(IndexedPackage.MAGIC);
+    data.writeInt(IndexedPackage.VERSION);
+    List<byte[]> encodedStrings = new ArrayList<>(strings.size());
+    data.writeInt(strings.size());
+    int stringOffset = 0;
+    for (String string : strings.keySet()) {
+      byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+      encodedStrings.add(bytes);
+      data.writeInt(stringOffset);
+      stringOffset += bytes.length;
+    }
+    data.writeInt(stringOffset);
+    for (byte[] bytes : encodedStrings) {
+      data.write(bytes);
+    }
+    writeIndexedMessage(serializePackageMetadata(pkg).toByteArray(), data);
+    data.writeInt(targetCount);
+    indexBytes.writeTo(data);
+    data.writeInt(targets.size());
+    targetBytes.writeTo(data);
+    data.flush();
+  }
+
   /** Serializes pkg to out as a series of protocol buffers */
   private void serializePackageInternal(Package pkg, OutputStream out) throws IOException {
+    serializePackageMetadata(pkg).writeDelimitedTo(out);
+
+    // Targets are emitted separately as individual protocol buffers as to prevent overwhelming
+    // protocol buffer deserialization size limits.
+    emitTargets(pkg.getTargets(), out);
+  }
+
+  /** Returns the package-level settings of pkg, i.e. everything but its targets. */
+  private Build.Package serializePackageMetadata(Package pkg) {
     Build.Package.Builder builder = Build.Package.newBuilder();
     builder.setName(pkg.getName());
     builder.setRepository(pkg.getPackageIdentifier().getRepository().toString());
@@ -166,12 +253,7 @@ public class PackageSerializer {
     }
 
     builder.setContainsErrors(pkg.containsErrors());
-
-    builder.build().writeDelimitedTo(out);
-
-    // Targets are emitted separately as individual protocol buffers as to prevent overwhelming
-    // protocol buffer deserialization size limits.
-    emitTargets(pkg.getTargets(), out);
+    return builder.build();
   }
 
   /**
@@ -452,6 +534,112 @@ public class PackageSerializer {
         .build();
   }
 
+  private void writeIndexedRule(Rule rule, Map<String, Integer> strings, DataOutputStream out)
+      throws IOException {
+    Collection<Attribute> attributes = rule.getAttributes();
+    out.writeInt(attributes.size());
+    for (Attribute attribute : attributes) {
+      writeIndexedAttribute(
+          serializeAttribute(attribute, getAttributeValues(rule, attribute),
+              rule.isAttributeValueExplicitlySpecified(attribute), /*includeGlobs=*/ true),
+          strings, out);
+    }
+  }
+
+  /**
+   * Writes an attribute in the indexed format. The common kinds of values refer to the string
+   * table; the rest are written as protocol buffers.
+   */
+  private static void writeIndexedAttribute(Build.Attribute attrPb, Map<String, Integer> strings,
+      DataOutputStream out) throws IOException {
+    out.writeInt(stringIndex(strings, attrPb.getName()));
+    out.writeByte(attrPb.getType().getNumber());
+    out.writeBoolean(attrPb.hasExplicitlySpecified() && attrPb.getExplicitlySpecified());
+    switch (attrPb.getType()) {
+      case INTEGER:
+        out.writeBoolean(attrPb.hasIntValue());
+        if (attrPb.hasIntValue()) {
+          out.writeInt(attrPb.getIntValue());
+        }
+        break;
+      case STRING:
+      case LABEL:
+      case OUTPUT:
+      case TRISTATE:
+        out.writeBoolean(attrPb.hasStringValue());
+        if (attrPb.hasStringValue()) {
+          out.writeInt(stringIndex(strings, attrPb.getStringValue()));
+        }
+        break;
+      case BOOLEAN:
+        out.writeBoolean(attrPb.hasBooleanValue());
+        if (attrPb.hasBooleanValue()) {
+          out.writeBoolean(attrPb.getBooleanValue());
+        }
+        break;
+      case STRING_LIST:
+      case LABEL_LIST:
+      case OUTPUT_LIST:
+      case DISTRIBUTION_SET:
+        writeIndexedStrings(attrPb.getStringListValueList(), strings, out);
+        out.writeInt(attrPb.getGlobCriteriaCount());
+        for (Build.GlobCriteria criteriaPb : attrPb.getGlobCriteriaList()) {
+          out.writeBoolean(criteriaPb.hasGlob() && criteriaPb.getGlob());
+          writeIndexedStrings(criteriaPb.getIncludeList(), strings, out);
+          writeIndexedStrings(criteriaPb.getExcludeList(), strings, out);
+        }
+        break;
+      case INTEGER_LIST:
+        out.writeInt(attrPb.getIntListValueCount());
+        for (int value : attrPb.getIntListValueList()) {
+          out.writeInt(value);
+        }
+        break;
+      default:
+        writeIndexedMessage(attrPb.toByteArray(), out);
+        break;
+    }
+  }
+
+  private void writeIndexedInputFile(InputFile inputFile, Map<String, Integer> strings,
+      DataOutputStream out) throws IOException {
+    List<String> visibility = new ArrayList<>();
+    if (inputFile.isVisibilitySpecified()) {
+      for (Label visibilityLabel : inputFile.getVisibility().getDeclaredLabels()) {
+        visibility.add(visibilityLabel.toString());
+      }
+    }
+    writeIndexedStrings(visibility, strings, out);
+    out.writeBoolean(inputFile.isLicenseSpecified());
+    if (inputFile.isLicenseSpecified()) {
+      writeIndexedMessage(serializeLicense(inputFile.getLicense()).toByteArray(), out);
+    }
+  }
+
+  private static void writeIndexedStrings(List<String> values, Map<String, Integer> strings,
+      DataOutputStream out) throws IOException {
+    out.writeInt(values.size());
+    for (String value : values) {
+      out.writeInt(stringIndex(strings, value));
+    }
+  }
+
+  private static void writeIndexedMessage(byte[] message, DataOutputStream out)
+      throws IOException {
+    out.writeInt(message.length);
+    out.write(message);
+  }
+
+  /** Returns the index of {@code value} in the string table, adding it if needed. */
+  private static int stringIndex(Map<String, Integer> strings, String value) {
+    Integer index = strings.get(value);
+    if (index == null) {
+      index = strings.size();
+      strings.put(value, index);
+    }
+    return index;
+  }
+
   private static List<Build.MakeVar> serializeMakeEnvironment(MakeEnvironment makeEnv) {
     List<Build.MakeVar> result = new ArrayList<>();
 
@@ -0,0 +1,584 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.util.Clock;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of glob results and directory listings that is kept on disk, so that a restarted server
+ * does not have to read the whole source tree again.
+ *
+ * <p>Every record carries the stamps (modification time and inode number) of the directories it
+ * was computed from. Adding, removing or renaming an entry of a directory changes its modification
+ * time, and replacing the directory changes its inode number, so a record is valid as long as the
+ * stamps of its directories are unchanged. The records are validated with a batch of parallel
+ * stat() calls when the cache is loaded, and each record is checked again when it is used, since
+ * the source tree can change during the lifetime of the server.
+ *
+ * <p>Directories that were modified less than {@link #RACY_INTERVAL_MILLIS} before they were read
+ * are not recorded: a later change could leave the modification time as it is.
+ */
+@ThreadSafe
+public final class PersistentGlobCache {
+
+  private static final Logger LOG = Logger.getLogger(PersistentGlobCache.class.getName());
+
+  private static final int VERSION = 1;
+
+  static final long RACY_INTERVAL_MILLIS = 2000;
+
+  private static final byte GLOB_RECORD = 0;
+  private static final byte LISTING_RECORD = 1;
+
+  /**
+   * A persisted value. The stamps are pairs of modification time and inode number, one pair for
+   * each directory.
+   */
+  private abstract static class Record {
+    final long[] stamps;
+
+    Record(long[] stamps) {
+      this.stamps = stamps;
+    }
+  }
+
+  /** The result of a glob, relative to the package directory, and the directories it read. */
+  private static final class GlobRecord extends Record {
+    final String[] directories;
+    final String[] matches;
+
+    GlobRecord(String[] directories, long[] stamps, String[] matches) {
+      super(stamps);
+      this.directories = directories;
+      this.matches = matches;
+    }
+  }
+
+  /** The entries of a directory, not following symbolic links. */
+  private static final class ListingRecord extends Record {
+    final Dirent[] dirents;
+
+    ListingRecord(long[] stamp, Dirent[] dirents) {
+      super(stamp);
+      this.dirents = dirents;
+    }
+  }
+
+  private static final class RecordMap extends PersistentMap<String, Record> {
+    RecordMap(Path mapFile, Path journalFile) {
+      super(VERSION, new HashMap<String, Record>(), mapFile, journalFile);
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // The records are written when the cache is saved.
+      return false;
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(Record value, DataOutputStream out) throws IOException {
+      if (value instanceof GlobRecord) {
+        GlobRecord glob = (GlobRecord) value;
+        out.writeByte(GLOB_RECORD);
+        writeStrings(glob.directories, out);
+        writeStamps(glob.stamps, out);
+        writeStrings(glob.matches, out);
+      } else {
+        ListingRecord listing = (ListingRecord) value;
+        out.writeByte(LISTING_RECORD);
+        writeStamps(listing.stamps, out);
+        out.writeInt(listing.dirents.length);
+        for (Dirent dirent : listing.dirents) {
+          out.writeUTF(dirent.getName());
+          out.writeByte(dirent.getType().ordinal());
+        }
+      }
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected Record readValue(DataInputStream in) throws IOException {
+      byte kind = in.readByte();
+      if (kind == GLOB_RECORD) {
+        String[] directories = readStrings(in);
+        long[] stamps = readStamps(in);
+        if (stamps.length != 2 * directories.length) {
+          throw new IOException("Corrupt glob record");
+        }
+        return new GlobRecord(directories, stamps, readStrings(in));
+      } else if (kind == LISTING_RECORD) {
+        long[] stamp = readStamps(in);
+        Dirent[] dirents = new Dirent[readLength(in)];
+        Dirent.Type[] types = Dirent.Type.values();
+        for (int i = 0; i < dirents.length; i++) {
+          String name = in.readUTF();
+          int type = in.readByte();
+          if (type < 0 || type >= types.length) {
+            throw new IOException("Corrupt directory listing");
+          }
+          dirents[i] = new Dirent(name, types[type]);
+        }
+        return new ListingRecord(stamp, dirents);
+      }
+      throw new IOException("Unknown record kind " + kind);
+    }
+
+    private static void writeStrings(String[] strings, DataOutputStream out) throws IOException {
+      out.writeInt(strings.length);
+      for (String string : strings) {
+        out.writeUTF(string);
+      }
+    }
+
+    private static String[] readStrings(DataInputStream in) throws IOException {
+      String[] strings = new String[readLength(in)];
+      for (int i = 0; i < strings.length; i++) {
+        strings[i] = in.readUTF();
+      }
+      return strings;
+    }
+
+    private static void writeStamps(long[] stamps, DataOutputStream out) throws IOException {
+      out.writeInt(stamps.length);
+      for (long stamp : stamps) {
+        out.writeLong(stamp);
+      }
+    }
+
+    private static long[] readStamps(DataInputStream in) throws IOException {
+      long[] stamps = new long[readLength(in)];
+      for (int i = 0; i < stamps.length; i++) {
+        stamps[i] = in.readLong();
+      }
+      return stamps;
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("found negative array size: " + length);
+      }
+      return length;
+    }
+  }
+
+  private final FileSystem fileSystem;
+  private final Clock clock;
+  private final RecordMap records;
+
+  private PersistentGlobCache(Path cacheFile, Clock clock) {
+    this.fileSystem = cacheFile.getFileSystem();
+    this.clock = clock;
+    this.records = new RecordMap(cacheFile,
+        cacheFile.getParentDirectory().getChild(cacheFile.getBaseName() + "_journal"));
+  }
+
+  /**
+   * Loads the cache from {@code cacheFile} and drops the records that are no longer valid, using
+   * {@code statThreads} threads to stat their directories. A missing or unreadable file results
+   * in an empty cache.
+   */
+  public static PersistentGlobCache load(Path cacheFile, Clock clock, int statThreads)
+      throws InterruptedException {
+    PersistentGlobCache cache = new PersistentGlobCache(cacheFile, clock);
+    try {
+      cache.records.load(/*failFast=*/true);
+    } catch (IOException e) {
+      LOG.warning("Discarding the glob cache " + cacheFile + ": " + e.getMessage());
+      cache.records.clear();
+    }
+    cache.validate(statThreads);
+    return cache;
+  }
+
+  /**
+   * Stats the directories of all records in parallel and removes the records of the directories
+   * that changed.
+   */
+  private synchronized void validate(int statThreads) throws InterruptedException {
+    Set<String> directories = new HashSet<>();
+    for (Map.Entry<String, Record> entry : records.entrySet()) {
+      Record record = entry.getValue();
+      if (record instanceof GlobRecord) {
+        for (String directory : ((GlobRecord) record).directories) {
+          directories.add(directory);
+        }
+      } else {
+        directories.add(entry.getKey());
+      }
+    }
+    final Map<String, long[]> stamps = new ConcurrentHashMap<>();
+    final CountDownLatch done = new CountDownLatch(directories.size());
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, statThreads));
+    try {
+      for (final String directory : directories) {
+        executor.execute(new Runnable() {
+          @Override
+          public void run() {
+            try {
+              long[] stamp = stamp(fileSystem.getPath(directory)
+                  .statNullable(Symlinks.FOLLOW));
+              if (stamp != null) {
+                stamps.put(directory, stamp);
+              }
+            } finally {
+              done.countDown();
+            }
+          }
+        });
+      }
+      done.await();
+    } finally {
+      executor.shutdownNow();
+    }
+
+    List<String> invalid = new ArrayList<>();
+    for (Map.Entry<String, Record> entry : records.entrySet()) {
+      Record record = entry.getValue();
+      String[] recordDirectories = record instanceof GlobRecord
+          ? ((GlobRecord) record).directories
+          : new String[] {entry.getKey()};
+      for (int i = 0; i < recordDirectories.length; i++) {
+        long[] stamp = stamps.get(recordDirectories[i]);
+        if (stamp == null || stamp[0] != record.stamps[2 * i]
+            || stamp[1] != record.stamps[2 * i + 1]) {
+          invalid.add(entry.getKey());
+          break;
+        }
+      }
+    }
+    for (String key : invalid) {
+      records.remove(key);
+    }
+    LOG.info(String.format("Loaded %d glob cache records, dropped %d changed ones",
+        records.size(), invalid.size()));
+  }
+
+  /**
+   * Writes the cache to disk.
+   *
+   * @return the size of the cache file
+   */
+  public synchronized long save() throws IOException {
+    return records.save();
+  }
+
+  /** Returns the number of records in the cache. */
+  public synchronized int size() {
+    return records.size();
+  }
+
+  private static String globKey(Path packageDirectory, String pattern, boolean excludeDirs) {
+    // Neither paths nor patterns can contain NUL characters.
+    return packageDirectory.getPathString() + "\0" + (excludeDirs ? "d" : "") + "\0" + pattern;
+  }
+
+  /**
+   * Returns the result of the glob {@code pattern} in {@code packageDirectory} if it is in the
+   * cache and none of the directories it read have changed, and null otherwise. The directories
+   * are checked with {@code syscalls}.
+   */
+  @Nullable
+  public List<Path> getGlob(Path packageDirectory, String pattern, boolean excludeDirs,
+      UnixGlob.FilesystemCalls syscalls) {
+    String key = globKey(packageDirectory, pattern, excludeDirs);
+    GlobRecord record;
+    synchronized (this) {
+      record = (GlobRecord) records.get(key);
+    }
+    if (record == null) {
+      return null;
+    }
+    for (int i = 0; i < record.directories.length; i++) {
+      long[] stamp = stamp(
+          syscalls.statNullable(fileSystem.getPath(record.directories[i]), Symlinks.FOLLOW));
+      if (stamp == null || stamp[0] != record.stamps[2 * i]
+          || stamp[1] != record.stamps[2 * i + 1]) {
+        synchronized (this) {
+          if (records.get(key) == record) {
+            records.remove(key);
+          }
+        }
+        return null;
+      }
+    }
+    List<Path> matches = new ArrayList<>(record.matches.length);
+    for (String match : record.matches) {
+      matches.add(packageDirectory.getRelative(match));
+    }
+    return matches;
+  }
+
+  /**
+   * Records the result of the glob {@code pattern} in {@code packageDirectory}, given the status
+   * of every directory that it read (or whose entries it stat()ed) before it was read. Does nothing
+   * if one of the directories changed too recently.
+   */
+  public void putGlob(Path packageDirectory, String pattern, boolean excludeDirs,
+      Collection<Path> matches, Map<Path, FileStatus> directories) {
+    long racyTime = clock.currentTimeMillis() - RACY_INTERVAL_MILLIS;
+    String[] directoryNames = new String[directories.size()];
+    long[] stamps = new long[2 * directories.size()];
+    int i = 0;
+    for (Map.Entry<Path, FileStatus> entry : directories.entrySet()) {
+      long[] stamp = stamp(entry.getValue());
+      if (stamp == null || stamp[0] >= racyTime) {
+        return;
+      }
+      directoryNames[i] = entry.getKey().getPathString();
+      stamps[2 * i] = stamp[0];
+      stamps[2 * i + 1] = stamp[1];
+      i++;
+    }
+    String[] relativeMatches = new String[matches.size()];
+    i = 0;
+    for (Path match : matches) {
+      relativeMatches[i++] = match.relativeTo(packageDirectory).getPathString();
+    }
+    GlobRecord record = new GlobRecord(directoryNames, stamps, relativeMatches);
+    synchronized (this) {
+      records.put(globKey(packageDirectory, pattern, excludeDirs), record);
+    }
+  }
+
+  /**
+   * Returns filesystem calls that answer the readdir() calls that do not follow symbolic links
+   * from the cache where possible, and record their results otherwise. A listing is taken from the
+   * cache if a stat() of the directory through {@code delegate} matches its stamp. All other calls
+   * go to {@code delegate}.
+   */
+  public UnixGlob.FilesystemCalls getListingCalls(final UnixGlob.FilesystemCalls delegate) {
+    return new UnixGlob.FilesystemCalls() {
+      @Override
+      public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+        if (symlinks != Symlinks.NOFOLLOW) {
+          return delegate.readdir(path, symlinks);
+        }
+        return readdirNoFollow(path, delegate);
+      }
+
+      @Override
+      public FileStatus statNullable(Path path, Symlinks symlinks) {
+        return delegate.statNullable(path, symlinks);
+      }
+
+      @Override
+      public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+        return delegate.statIfFound(path, symlinks);
+      }
+
+      @Override
+      public PathFragment readlink(Path path) throws IOException {
+        return delegate.readlink(path);
+      }
+    };
+  }
+
+  private Collection<Dirent> readdirNoFollow(Path path, UnixGlob.FilesystemCalls delegate)
+      throws IOException {
+    long[] stamp = stamp(delegate.statNullable(path, Symlinks.FOLLOW));
+    String key = path.getPathString();
+    ListingRecord record;
+    synchronized (this) {
+      record = (ListingRecord) records.get(key);
+    }
+    if (record != null && stamp != null && record.stamps[0] == stamp[0]
+        && record.stamps[1] == stamp[1]) {
+      return ImmutableList.copyOf(record.dirents);
+    }
+
+    Collection<Dirent> dirents = delegate.readdir(path, Symlinks.NOFOLLOW);
+    synchronized (this) {
+      if (stamp != null && stamp[0] < clock.currentTimeMillis() - RACY_INTERVAL_MILLIS) {
+        records.put(key, new ListingRecord(stamp, dirents.toArray(new Dirent[dirents.size()])));
+      } else if (record != null) {
+        records.remove(key);
+      }
+    }
+    return dirents;
+  }
+
+  /** Returns the modification time and the inode number in {@code status}, or null. */
+  @Nullable
+  private static long[] stamp(@Nullable FileStatus status) {
+    if (status == null || !status.isDirectory()) {
+      return null;
+    }
+    try {
+      return new long[] {status.getLastModifiedTime(), status.getNodeId()};
+    } catch (IOException | UnsupportedOperationException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Records the status of the directories that a glob depends on, by wrapping the filesystem calls
+   * and the directory predicate of the glob.
+   *
+   * <p>A glob that follows a symbolic link to a directory depends on the directory the link
+   * points to, whose stamp is recorded like any other. A glob that follows a symbolic link to
+   * anything else, or a dangling one, depends on a file whose appearance or change of type need
+   * not change any directory it read, so it is not recorded at all.
+   */
+  static final class DirectoryRecorder {
+    private final UnixGlob.FilesystemCalls delegate;
+    private final Path base;
+    private final Map<Path, FileStatus> directories = new ConcurrentHashMap<>();
+    private volatile boolean incomplete = false;
+    private volatile boolean followedSymlinkToNonDirectory = false;
+
+    DirectoryRecorder(UnixGlob.FilesystemCalls delegate, Path base) {
+      this.delegate = delegate;
+      this.base = base;
+    }
+
+    void record(Path directory) {
+      if (!directories.containsKey(directory)) {
+        FileStatus status = delegate.statNullable(directory, Symlinks.FOLLOW);
+        if (status == null) {
+          incomplete = true;
+        } else {
+          directories.put(directory, status);
+        }
+      }
+    }
+
+    /**
+     * Returns the status of the recorded directories, or null if one could not be stat()ed or if
+     * the glob followed a symbolic link to something other than a directory.
+     */
+    @Nullable
+    Map<Path, FileStatus> getDirectories() {
+      return incomplete || followedSymlinkToNonDirectory ? null : directories;
+    }
+
+    /**
+     * Lists a directory like a readdir() that follows symbolic links, but from a listing that
+     * does not follow them, so that the links can be told apart.
+     */
+    private Collection<Dirent> readdirFollow(Path path) throws IOException {
+      Collection<Dirent> dirents = delegate.readdir(path, Symlinks.NOFOLLOW);
+      List<Dirent> result = null;
+      int i = 0;
+      for (Dirent dirent : dirents) {
+        if (dirent.getType() == Dirent.Type.SYMLINK) {
+          if (result == null) {
+            result = new ArrayList<>(dirents);
+          }
+          FileStatus status = symlinkTarget(
+              delegate.statNullable(path.getChild(dirent.getName()), Symlinks.FOLLOW));
+          Dirent.Type type = Dirent.Type.UNKNOWN;
+          if (status != null && status.isFile()) {
+            type = Dirent.Type.FILE;
+          } else if (status != null && status.isDirectory()) {
+            type = Dirent.Type.DIRECTORY;
+          }
+          result.set(i, new Dirent(dirent.getName(), type));
+        }
+        i++;
+      }
+      return result == null ? dirents : result;
+    }
+
+    /** Notes if the target of a symbolic link, given its status, is not a directory. */
+    @Nullable
+    private FileStatus symlinkTarget(@Nullable FileStatus status) {
+      if (status == null || !status.isDirectory()) {
+        followedSymlinkToNonDirectory = true;
+      }
+      return status;
+    }
+
+    UnixGlob.FilesystemCalls getFilesystemCalls() {
+      return new UnixGlob.FilesystemCalls() {
+        @Override
+        public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+          record(path);
+          return symlinks == Symlinks.FOLLOW
+              ? readdirFollow(path)
+              : delegate.readdir(path, symlinks);
+        }
+
+        @Override
+        public FileStatus statNullable(Path path, Symlinks symlinks) {
+          if (path.equals(base)) {
+            record(path);
+            return delegate.statNullable(path, symlinks);
+          }
+          // A file appearing or disappearing changes the directory it is in.
+          record(path.getParentDirectory());
+          FileStatus status = delegate.statNullable(path, Symlinks.NOFOLLOW);
+          return symlinks == Symlinks.FOLLOW && status != null && status.isSymbolicLink()
+              ? symlinkTarget(delegate.statNullable(path, Symlinks.FOLLOW))
+              : status;
+        }
+
+        @Override
+        public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+          if (path.equals(base)) {
+            record(path);
+            return delegate.statIfFound(path, symlinks);
+          }
+          record(path.getParentDirectory());
+          FileStatus status = delegate.statIfFound(path, Symlinks.NOFOLLOW);
+          return symlinks == Symlinks.FOLLOW && status != null && status.isSymbolicLink()
+              ? symlinkTarget(delegate.statIfFound(path, Symlinks.FOLLOW))
+              : status;
+        }
+
+        @Override
+        public PathFragment readlink(Path path) throws IOException {
+          return delegate.readlink(path);
+        }
+      };
+    }
+  }
+}
@@ -1379,13 +1379,14 @@ public final class RuleClass {
         continue;
       }
 
-      rule.setAttributeValue(attribute, value.getValue(), value.getExplicitlySpecified());
+      Object attributeValue = pkgBuilder.internAttributeValue(value.getValue());
+      rule.setAttributeValue(attribute, attributeValue, value.getExplicitlySpecified());
       rule.setAttributeLocation(attribute, value.getLocation());
       checkAllowedValues(rule, attribute, eventHandler);
 
       if (attribute.getName().equals("visibility")) {
         // TODO(bazel-team): Verify that this cast works
-        rule.setVisibility(PackageFactory.getVisibility((List<Label>) value.getValue()));
+        rule.setVisibility(pkgBuilder.getVisibility((List<Label>) attributeValue));
       }
     }
 
@@ -1414,7 +1415,8 @@ public final class RuleClass {
       if (attributeValue == Runtime.NONE) {  // Ignore all None values.
         continue;
       }
-      Integer attrIndex = setRuleAttributeValue(rule, eventHandler, attributeName, attributeValue);
+      Integer attrIndex = setRuleAttributeValue(
+          rule, pkgBuilder, eventHandler, attributeName, attributeValue);
       if (attrIndex != null) {
         definedAttrs.set(attrIndex);
         checkAttrValNonEmpty(rule, eventHandler, attributeValue, attrIndex);
@@ -1622,6 +1624,7 @@ public final class RuleClass {
    */
   @SuppressWarnings("unchecked")
   private Integer setRuleAttributeValue(Rule rule,
+                                        Package.Builder pkgBuilder,
                                         EventHandler eventHandler,
                                         String attrName,
                                         Object attrVal) {
@@ -1654,6 +1657,7 @@ public final class RuleClass {
         }
         converted = ImmutableList.copyOf((List<?>) converted);
       }
+      converted = pkgBuilder.internAttributeValue(converted);
     } catch (Type.ConversionException e) {
       rule.reportError(rule.getLabel() + ": " + e.getMessage(), eventHandler);
       return null;
@@ -1666,7 +1670,7 @@ public final class RuleClass {
         rule.reportError(rule.getLabel() + ": //visibility:legacy_public only allowed in package "
             + "declaration", eventHandler);
       }
-      rule.setVisibility(PackageFactory.getVisibility(attrList));
+      rule.setVisibility(pkgBuilder.getVisibility(attrList));
     }
 
     rule.setAttributeValue(attr, converted, /*explicit=*/true);
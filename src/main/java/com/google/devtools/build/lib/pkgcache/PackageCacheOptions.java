@@ -130,6 +130,29 @@ public class PackageCacheOptions extends OptionsBase {
       help = "Number of threads to use for glob evaluation.")
   public int globbingThreads;
 
+  @Option(name = "experimental_persistent_glob_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If enabled, glob results and directory listings are kept in the output base across "
+          + "server restarts, and reused as long as the directories they were read from are "
+          + "unchanged.")
+  public boolean persistentGlobCache;
+
+  @Option(name = "experimental_persistent_skylark_cache",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If enabled, the syntax trees of BUILD and .bzl files, and the globals of .bzl files "
+          + "that only define plain values, are kept in the output base across server restarts, "
+          + "keyed by the content of the files.")
+  public boolean persistentSkylarkCache;
+
+  @Option(name = "experimental_compile_skylark_functions",
+      defaultValue = "false",
+      category = "undocumented",
+      help = "If enabled, Skylark functions that are called often are compiled to a tree of "
+          + "closures instead of being interpreted. The results are the same either way.")
+  public boolean compileSkylarkFunctions;
+
   @Option(name = "min_pkg_count_for_ct_node_eviction",
       defaultValue = "3700",
       // Why is the default value 3700? As of December 2013, a medium target loads about this many
@@ -85,6 +85,9 @@ public enum ProfilerTask {
   SKYLARK_PARSER("Skylark Parser"),
   SKYLARK_USER_FN("Skylark user function call", -1, 0xCC0033, 0),
   SKYLARK_BUILTIN_FN("Skylark builtin function call", -1, 0x990033, 0),
+  // The duration of these tasks is the CPU time (user plus system) of the processes of an action,
+  // not a wall time interval.
+  LOCAL_CPU_TIME("CPU time of local processes", -1, 0x996699, 30),
   UNKNOWN("Unknown event", -1, 0x339966, 0);
 
   // Size of the ProfilerTask value space.
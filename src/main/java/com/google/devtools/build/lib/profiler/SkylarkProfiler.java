@@ -0,0 +1,407 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.devtools.build.lib.profiler;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Skylark profiler.
+ *
+ * <p>While started, records every call to a Skylark function, whether defined in a .bzl file or
+ * built in, with the wall time and the bytes allocated by the calling thread between the entry
+ * and the exit of the function. At {@code stop}, writes:
+ * <ul>
+ * <li>the self wall time of each call stack, in microseconds, as folded stacks: one line per
+ *     stack, with the functions separated by semicolons, followed by a space and the time. This is
+ *     the input format of flame graph tools such as {@code flamegraph.pl};
+ * <li>a summary of the call counts, self and total wall time and allocated bytes of each
+ *     function, and of the functions defined in each file, sorted by self time.
+ * </ul>
+ *
+ * <p>Self figures exclude the calls made by the function; total figures include them. The total
+ * of a file counts the calls nested in another function of the same file once. Allocated bytes
+ * are only reported on JVMs that can measure them per thread.
+ */
+public final class SkylarkProfiler {
+
+  private static final SkylarkProfiler INSTANCE = new SkylarkProfiler();
+
+  public static SkylarkProfiler instance() {
+    return INSTANCE;
+  }
+
+  private static final String BUILTIN = "<builtin>";
+
+  private PrintStream foldedStacks;
+  private PrintStream summary;
+  private volatile Session session;
+  private final ThreadLocal<Recorder> recorders = new ThreadLocal<>();
+
+  /**
+   * Starts profiling. The folded stacks and the summary are written to the given streams, when
+   * non-null, at {@link #stop}. A session that is still active, because it was never stopped, is
+   * written out and its streams are closed first.
+   */
+  public synchronized void start(@Nullable OutputStream foldedStacks,
+      @Nullable OutputStream summary) {
+    finish();
+    this.foldedStacks = (foldedStacks == null) ? null : new PrintStream(foldedStacks);
+    this.summary = (summary == null) ? null : new PrintStream(summary);
+    this.session = new Session();
+  }
+
+  /** Stops profiling, writes the profile and closes the streams given to {@link #start}. */
+  public synchronized void stop() throws IOException {
+    if (!finish()) {
+      throw new IOException("Error while writing the Skylark profile");
+    }
+  }
+
+  /**
+   * Ends the active session, if any, writing its profile and closing its streams. Returns false
+   * if writing failed.
+   */
+  private boolean finish() {
+    Session stopped = session;
+    if (stopped == null) {
+      return true;
+    }
+    session = null;
+    boolean failed = false;
+    try {
+      if (foldedStacks != null) {
+        stopped.writeFoldedStacks(foldedStacks);
+      }
+      if (summary != null) {
+        stopped.writeSummary(summary);
+      }
+    } finally {
+      // Close both streams even if writing the profile threw.
+      if (foldedStacks != null) {
+        foldedStacks.close();
+        failed |= foldedStacks.checkError();
+        foldedStacks = null;
+      }
+      if (summary != null) {
+        summary.close();
+        failed |= summary.checkError();
+        summary = null;
+      }
+    }
+    return !failed;
+  }
+
+  public boolean isActive() {
+    return session != null;
+  }
+
+  /**
+   * Records the entry into a function.
+   *
+   * @param function the name of the function
+   * @param file the file where the function is defined, or null for built-in functions
+   */
+  public void enter(String function, @Nullable String file) {
+    Session current = session;
+    if (current == null) {
+      return;
+    }
+    Recorder recorder = recorders.get();
+    if (recorder == null || recorder.session != current) {
+      // Frames left over from a previous session, if any, are dropped with their recorder.
+      recorder = current.newRecorder();
+      recorders.set(recorder);
+    }
+    recorder.enter(function, file);
+  }
+
+  /** Records the exit from the function most recently entered by this thread. */
+  public void exit() {
+    Session current = session;
+    if (current == null) {
+      return;
+    }
+    Recorder recorder = recorders.get();
+    // Functions entered before the session started have no frame.
+    if (recorder != null && recorder.session == current) {
+      recorder.exit();
+    }
+  }
+
+  /** The figures of a function, or of the functions of a file. */
+  private static final class Stats {
+    private final String name;
+    @Nullable private final String file;
+    private long calls;
+    private long selfNanos;
+    private long totalNanos;
+    private long selfBytes;
+    private long totalBytes;
+    // Number of frames currently on the stack, to count nested calls once in the totals.
+    private int active;
+
+    Stats(String name, @Nullable String file) {
+      this.name = name;
+      this.file = file;
+    }
+
+    void enter() {
+      active++;
+    }
+
+    void exit(long nanos, long bytes, long childNanos, long childBytes) {
+      calls++;
+      selfNanos += nanos - childNanos;
+      selfBytes += bytes - childBytes;
+      if (--active == 0) {
+        totalNanos += nanos;
+        totalBytes += bytes;
+      }
+    }
+
+    void add(Stats other) {
+      calls += other.calls;
+      selfNanos += other.selfNanos;
+      totalNanos += other.totalNanos;
+      selfBytes += other.selfBytes;
+      totalBytes += other.totalBytes;
+    }
+  }
+
+  /** A node of the call tree, i.e. a call stack. */
+  private static final class Node {
+    private final Node parent;
+    private final String name;
+    private final Map<String, Node> children = new HashMap<>();
+    private long selfNanos;
+
+    Node(Node parent, String name) {
+      this.parent = parent;
+      this.name = name;
+    }
+
+    Node child(String name) {
+      Node child = children.get(name);
+      if (child == null) {
+        child = new Node(this, name);
+        children.put(name, child);
+      }
+      return child;
+    }
+  }
+
+  /** A function being executed. Frames are reused from one call to the next. */
+  private static final class Frame {
+    private Stats stats;
+    private Stats fileStats;
+    private Node node;
+    private long startNanos;
+    private long startBytes;
+    private long childNanos;
+    private long childBytes;
+  }
+
+  /** The profile of a session, gathered from one recorder per thread. */
+  private static final class Session {
+    private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    private final boolean measureAllocations = measureAllocations(threads);
+    private final List<Recorder> recorders = new ArrayList<>();
+
+    private static boolean measureAllocations(ThreadMXBean threads) {
+      if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+        return false;
+      }
+      com.sun.management.ThreadMXBean sunThreads = (com.sun.management.ThreadMXBean) threads;
+      return sunThreads.isThreadAllocatedMemorySupported()
+          && sunThreads.isThreadAllocatedMemoryEnabled();
+    }
+
+    synchronized Recorder newRecorder() {
+      Recorder recorder = new Recorder(this);
+      recorders.add(recorder);
+      return recorder;
+    }
+
+    long allocatedBytes() {
+      return measureAllocations
+          ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(
+              Thread.currentThread().getId())
+          : 0;
+    }
+
+    synchronized void writeFoldedStacks(PrintStream out) {
+      Map<String, Long> stacks = new TreeMap<>();
+      for (Recorder recorder : recorders) {
+        synchronized (recorder) {
+          addStacks(recorder.root, stacks);
+        }
+      }
+      for (Map.Entry<String, Long> stack : stacks.entrySet()) {
+        long micros = stack.getValue() / 1000;
+        if (micros > 0) {
+          out.println(stack.getKey() + " " + micros);
+        }
+      }
+    }
+
+    private static void addStacks(Node node, Map<String, Long> stacks) {
+      if (node.parent != null && node.selfNanos > 0) {
+        StringBuilder stack = new StringBuilder(node.name);
+        for (Node caller = node.parent; caller.parent != null; caller = caller.parent) {
+          stack.insert(0, ';').insert(0, caller.name);
+        }
+        Long previous = stacks.get(stack.toString());
+        stacks.put(stack.toString(), node.selfNanos + (previous == null ? 0 : previous));
+      }
+      for (Node child : node.children.values()) {
+        addStacks(child, stacks);
+      }
+    }
+
+    synchronized void writeSummary(PrintStream out) {
+      Map<String, Stats> functions = new HashMap<>();
+      Map<String, Stats> files = new HashMap<>();
+      for (Recorder recorder : recorders) {
+        synchronized (recorder) {
+          merge(recorder.functions, functions);
+          merge(recorder.files, files);
+        }
+      }
+
+      out.println("Skylark functions, by self time:");
+      writeStats(out, functions.values(), "function");
+      out.println();
+      out.println("Skylark files, by self time of the functions they define:");
+      writeStats(out, files.values(), "file");
+      out.flush();
+    }
+
+    private static void merge(Map<String, Stats> from, Map<String, Stats> into) {
+      for (Map.Entry<String, Stats> entry : from.entrySet()) {
+        Stats stats = entry.getValue();
+        Stats merged = into.get(entry.getKey());
+        if (merged == null) {
+          merged = new Stats(stats.name, stats.file);
+          into.put(entry.getKey(), merged);
+        }
+        merged.add(stats);
+      }
+    }
+
+    private void writeStats(PrintStream out, Iterable<Stats> stats, String kind) {
+      List<Stats> sorted = new ArrayList<>();
+      for (Stats s : stats) {
+        sorted.add(s);
+      }
+      Collections.sort(sorted, new Comparator<Stats>() {
+        @Override
+        public int compare(Stats a, Stats b) {
+          return a.selfNanos == b.selfNanos
+              ? a.name.compareTo(b.name)
+              : (a.selfNanos > b.selfNanos ? -1 : 1);
+        }
+      });
+      out.printf("%10s %12s %12s %14s %14s  %s%n",
+          "calls", "self ms", "total ms", "self bytes", "total bytes", kind);
+      for (Stats s : sorted) {
+        out.printf("%10d %12.3f %12.3f %14d %14d  %s%n",
+            s.calls, s.selfNanos / 1e6, s.totalNanos / 1e6, s.selfBytes, s.totalBytes,
+            s.file == null || s.file.equals(s.name) ? s.name : s.file + ":" + s.name);
+      }
+    }
+  }
+
+  /**
+   * Records the calls of one thread during a session. Only that thread updates it; it is locked
+   * so that the session can read it at the end.
+   */
+  private static final class Recorder {
+    private final Session session;
+    private final Node root = new Node(null, "");
+    private final Map<String, Stats> functions = new HashMap<>();
+    private final Map<String, Stats> files = new HashMap<>();
+    private final List<Frame> frames = new ArrayList<>();
+    private int depth;
+
+    Recorder(Session session) {
+      this.session = session;
+    }
+
+    synchronized void enter(String function, @Nullable String file) {
+      String key = file == null ? function : file + ":" + function;
+      Stats stats = functions.get(key);
+      if (stats == null) {
+        stats = new Stats(function, file);
+        functions.put(key, stats);
+      }
+      String fileKey = file == null ? BUILTIN : file;
+      Stats fileStats = files.get(fileKey);
+      if (fileStats == null) {
+        fileStats = new Stats(fileKey, fileKey);
+        files.put(fileKey, fileStats);
+      }
+      stats.enter();
+      fileStats.enter();
+      if (depth == frames.size()) {
+        frames.add(new Frame());
+      }
+      Frame frame = frames.get(depth);
+      frame.stats = stats;
+      frame.fileStats = fileStats;
+      frame.node = (depth == 0 ? root : frames.get(depth - 1).node).child(key);
+      frame.childNanos = 0;
+      frame.childBytes = 0;
+      depth++;
+      frame.startBytes = session.allocatedBytes();
+      frame.startNanos = System.nanoTime();
+    }
+
+    synchronized void exit() {
+      long nanos = System.nanoTime();
+      long bytes = session.allocatedBytes();
+      if (depth == 0) {
+        return;
+      }
+      depth--;
+      Frame frame = frames.get(depth);
+      nanos -= frame.startNanos;
+      bytes -= frame.startBytes;
+      frame.stats.exit(nanos, bytes, frame.childNanos, frame.childBytes);
+      frame.fileStats.exit(nanos, bytes, frame.childNanos, frame.childBytes);
+      frame.node.selfNanos += nanos - frame.childNanos;
+      if (depth > 0) {
+        Frame caller = frames.get(depth - 1);
+        caller.childNanos += nanos;
+        caller.childBytes += bytes;
+      }
+      frame.stats = null;
+      frame.fileStats = null;
+      frame.node = null;
+    }
+  }
+}
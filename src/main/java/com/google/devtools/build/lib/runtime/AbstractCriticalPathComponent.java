@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.runtime;
 
 import com.google.common.base.Preconditions;
 import com.google.devtools.build.lib.actions.Action;
+import com.google.devtools.build.lib.actions.ResourceUsage;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
 import com.google.devtools.build.lib.util.Clock;
 
@@ -40,6 +41,9 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
   /** The action for which we are storing the stat. */
   private final Action action;
 
+  /** The resources consumed by the processes of the action, if known. */
+  private ResourceUsage resourceUsage = ResourceUsage.EMPTY;
+
   /**
    * Child with the maximum critical path.
    */
@@ -63,9 +67,19 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
    */
   public synchronized boolean finishActionExecution(long relativeStartNanos,
       long relativeFinishNanos) {
+    return finishActionExecution(relativeStartNanos, relativeFinishNanos, ResourceUsage.EMPTY);
+  }
+
+  /**
+   * Like {@link #finishActionExecution(long, long)}, but also records the resources consumed by
+   * the processes of the action.
+   */
+  public synchronized boolean finishActionExecution(long relativeStartNanos,
+      long relativeFinishNanos, ResourceUsage resourceUsage) {
     if (isRunning || relativeFinishNanos - relativeStartNanos > getElapsedTimeNanos()) {
       this.relativeStartNanos = relativeStartNanos;
       this.relativeFinishNanos = relativeFinishNanos;
+      this.resourceUsage = resourceUsage;
       isRunning = false;
       return true;
     }
@@ -92,6 +106,14 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
     }
   }
 
+  /**
+   * Returns the resources consumed by the processes of the action, or {@link ResourceUsage#EMPTY}
+   * if they are not known.
+   */
+  public synchronized ResourceUsage getResourceUsage() {
+    return resourceUsage;
+  }
+
   public long getElapsedTimeMillis() {
     return TimeUnit.NANOSECONDS.toMillis(getElapsedTimeNanos());
   }
@@ -133,6 +155,10 @@ public class AbstractCriticalPathComponent<C extends AbstractCriticalPathCompone
     String currentTime = "still running ";
     if (!isRunning) {
       currentTime = String.format("%.2f", getElapsedTimeMillis() / 1000.0) + "s ";
+      ResourceUsage usage = getResourceUsage();
+      if (!usage.isEmpty()) {
+        currentTime += "(" + usage + ") ";
+      }
     }
     return currentTime + action.describe();
   }
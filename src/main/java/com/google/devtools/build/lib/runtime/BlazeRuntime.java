@@ -66,6 +66,7 @@ import com.google.devtools.build.lib.profiler.ProfilePhase;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.Profiler.ProfiledTaskKinds;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.profiler.SkylarkProfiler;
 import com.google.devtools.build.lib.query2.output.OutputFormatter;
 import com.google.devtools.build.lib.rules.test.CoverageReportActionFactory;
 import com.google.devtools.build.lib.runtime.commands.BuildCommand;
@@ -100,11 +101,13 @@ import com.google.devtools.build.lib.util.OsUtils;
 import com.google.devtools.build.lib.util.ThreadUtils;
 import com.google.devtools.build.lib.util.io.OutErr;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileSystem;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixBatchStat;
 import com.google.devtools.build.lib.vfs.UnixFileSystem;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionName;
@@ -256,6 +259,19 @@ public final class BlazeRuntime {
     return firstFactory;
   }
 
+  /**
+   * Returns the batch statter used to check the output tree for external modifications when no
+   * output service provides one, or null if the output tree is not on the local file system.
+   */
+  @Nullable
+  private BatchStat createLocalBatchStatter() {
+    if (!(directories.getFileSystem() instanceof UnixFileSystem)) {
+      return null;
+    }
+    return new UnixBatchStat(
+        getExecRoot(), /*computeDigests=*/false, UnixBatchStat.DEFAULT_NUM_THREADS);
+  }
+
   /**
    * Figures out what file system we are writing output to. Here we use
    * outputBase instead of outputPath because we need a file system to create the latter.
@@ -660,7 +676,7 @@ public final class BlazeRuntime {
     }
 
     skyframeExecutor.setBatchStatter(outputService == null
-        ? null
+        ? createLocalBatchStatter()
         : outputService.getBatchStatter());
 
     outputFileSystem = determineOutputFileSystem();
@@ -709,6 +725,32 @@ public final class BlazeRuntime {
       }
     }
 
+    if (options.skylarkProfilePath != null || options.skylarkProfileSummaryPath != null) {
+      OutputStream foldedStacks = null;
+      try {
+        if (options.skylarkProfilePath != null) {
+          foldedStacks =
+              getWorkingDirectory().getRelative(options.skylarkProfilePath).getOutputStream();
+        }
+        OutputStream summary = null;
+        if (options.skylarkProfileSummaryPath != null) {
+          summary = getWorkingDirectory().getRelative(options.skylarkProfileSummaryPath)
+              .getOutputStream();
+        }
+        SkylarkProfiler.instance().start(foldedStacks, summary);
+      } catch (IOException e) {
+        if (foldedStacks != null) {
+          try {
+            foldedStacks.close();
+          } catch (IOException ignored) {
+            // The error opening the other file is reported below.
+          }
+        }
+        env.getReporter().handle(
+            Event.error("Error while creating Skylark profile file: " + e.getMessage()));
+      }
+    }
+
     if (command.builds()) {
       Map<String, String> testEnv = new TreeMap<>();
       for (Map.Entry<String, String> entry :
@@ -774,12 +816,28 @@ public final class BlazeRuntime {
 
     clearEventBus();
 
+    skyframeExecutor.clearPerBuildSyscallCache();
+    try {
+      skyframeExecutor.savePersistentCaches();
+    } catch (IOException e) {
+      env.getReporter().handle(
+          Event.warn("Error while writing the persistent caches: " + e.getMessage()));
+    }
+
+    // Each profiler is stopped on its own, so that a failure to write one profile does not leave
+    // the others running into the next command.
     try {
       Profiler.instance().stop();
-      MemoryProfiler.instance().stop();
     } catch (IOException e) {
       env.getReporter().handle(Event.error("Error while writing profile file: " + e.getMessage()));
     }
+    MemoryProfiler.instance().stop();
+    try {
+      SkylarkProfiler.instance().stop();
+    } catch (IOException e) {
+      env.getReporter().handle(
+          Event.error("Error while writing Skylark profile file: " + e.getMessage()));
+    }
   }
 
   // Make sure we keep a strong reference to this logger, so that the
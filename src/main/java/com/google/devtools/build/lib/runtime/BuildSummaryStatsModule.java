@@ -22,6 +22,7 @@ import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.Reporter;
 import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
+import com.google.devtools.build.lib.skyframe.SkyframeExecutor;
 import com.google.devtools.build.lib.util.BlazeClock;
 
 import java.util.ArrayList;
@@ -39,10 +40,12 @@ public class BuildSummaryStatsModule extends BlazeModule {
   private SimpleCriticalPathComputer criticalPathComputer;
   private EventBus eventBus;
   private Reporter reporter;
+  private SkyframeExecutor skyframeExecutor;
 
   @Override
   public void beforeCommand(Command command, CommandEnvironment env) {
     this.reporter = env.getReporter();
+    this.skyframeExecutor = env.getSkyframeExecutor();
     this.eventBus = env.getEventBus();
     eventBus.register(this);
   }
@@ -68,6 +71,10 @@ public class BuildSummaryStatsModule extends BlazeModule {
         LOG.info(criticalPath.toString());
         LOG.info("Slowest actions:\n  " + Joiner.on("\n  ")
             .join(criticalPathComputer.getSlowestComponents()));
+        if (!criticalPathComputer.getHungriestComponents().isEmpty()) {
+          LOG.info("Actions using the most CPU time:\n  " + Joiner.on("\n  ")
+              .join(criticalPathComputer.getHungriestComponents()));
+        }
         // We reverse the critical path because the profiler expect events ordered by the time
         // when the actions were executed while critical path computation is stored in the reverse
         // way.
@@ -80,6 +87,11 @@ public class BuildSummaryStatsModule extends BlazeModule {
         Profiler.instance().completeTask(ProfilerTask.CRITICAL_PATH);
       }
 
+      String skylarkCacheSummary = skyframeExecutor.getPersistentSkylarkCacheSummary();
+      if (skylarkCacheSummary != null) {
+        items.add(skylarkCacheSummary);
+      }
+
       reporter.handle(Event.info(Joiner.on(", ").join(items)));
     } finally {
       criticalPathComputer = null;
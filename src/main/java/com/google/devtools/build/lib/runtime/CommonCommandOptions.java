@@ -199,6 +199,22 @@ public class CommonCommandOptions extends OptionsBase {
           + "file at phase ends.")
   public PathFragment memoryProfilePath;
 
+  @Option(name = "skylark_profile",
+      defaultValue = "null",
+      category = "undocumented",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, write the time spent in each Skylark call stack to the specified file, "
+          + "as folded stacks that flame graph tools can read.")
+  public PathFragment skylarkProfilePath;
+
+  @Option(name = "skylark_profile_summary",
+      defaultValue = "null",
+      category = "undocumented",
+      converter = OptionsUtils.PathFragmentConverter.class,
+      help = "If set, write the call counts, time and allocated bytes of each Skylark function "
+          + "and .bzl file to the specified file.")
+  public PathFragment skylarkProfileSummaryPath;
+
   @Option(name = "gc_watchdog",
       defaultValue = "false",
       category = "undocumented",
@@ -25,6 +25,7 @@ import com.google.devtools.build.lib.actions.ActionStartedEvent;
 import com.google.devtools.build.lib.actions.Actions;
 import com.google.devtools.build.lib.actions.Artifact;
 import com.google.devtools.build.lib.actions.CachedActionEvent;
+import com.google.devtools.build.lib.actions.ResourceUsage;
 import com.google.devtools.build.lib.util.Clock;
 
 import java.util.ArrayList;
@@ -68,6 +69,19 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
       }
   );
 
+  /**
+   * The list of individual components whose processes used the most CPU time.
+   */
+  private final PriorityQueue<C> hungriestComponents = new PriorityQueue<>(SLOWEST_COMPONENTS_SIZE,
+      new Comparator<C>() {
+        @Override
+        public int compare(C o1, C o2) {
+          return Long.compare(o1.getResourceUsage().getCpuTimeMicros(),
+              o2.getResourceUsage().getCpuTimeMicros());
+        }
+      }
+  );
+
   private final Object lock = new Object();
 
   protected CriticalPathComputer(Clock clock) {
@@ -175,7 +189,8 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
     Action action = event.getAction();
     C component = Preconditions.checkNotNull(
         outputArtifactToComponent.get(action.getPrimaryOutput()));
-    finalizeActionStat(event.getRelativeActionStartTime(), action, component);
+    finalizeActionStat(event.getRelativeActionStartTime(), action, component,
+        event.getResourceUsage());
   }
 
   /** Maximum critical path component found during the build. */
@@ -197,8 +212,27 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
     return ImmutableList.copyOf(list).reverse();
   }
 
+  /**
+   * The list of components whose processes used the most CPU time, for the spawn strategies that
+   * measure it.
+   */
+  public ImmutableList<C> getHungriestComponents() {
+    ArrayList<C> list;
+    synchronized (lock) {
+      list = new ArrayList<>(hungriestComponents);
+      Collections.sort(list, hungriestComponents.comparator());
+    }
+    return ImmutableList.copyOf(list).reverse();
+  }
+
   private void finalizeActionStat(long startTimeNanos, Action action, C component) {
-    boolean updated = component.finishActionExecution(startTimeNanos, clock.nanoTime());
+    finalizeActionStat(startTimeNanos, action, component, ResourceUsage.EMPTY);
+  }
+
+  private void finalizeActionStat(long startTimeNanos, Action action, C component,
+      ResourceUsage resourceUsage) {
+    boolean updated =
+        component.finishActionExecution(startTimeNanos, clock.nanoTime(), resourceUsage);
 
     for (Artifact input : action.getInputs()) {
       addArtifactDependency(component, input);
@@ -217,19 +251,30 @@ public abstract class CriticalPathComputer<C extends AbstractCriticalPathCompone
       // because of the other one. In this case, the cache hit would not appear in the 30 slowest
       // actions or we had a very fast build, so we do not care :).
       if (updated) {
-        if (slowestComponents.size() == SLOWEST_COMPONENTS_SIZE) {
-          // The new component is faster than any of the slow components, avoid insertion.
-          if (slowestComponents.peek().getElapsedTimeNanos() >= component.getElapsedTimeNanos()) {
-            return;
-          }
-          // Remove the head element to make space (The fastest component in the queue).
-          slowestComponents.remove();
+        addToTopComponents(slowestComponents, component);
+        if (!resourceUsage.isEmpty()) {
+          addToTopComponents(hungriestComponents, component);
         }
-        slowestComponents.add(component);
       }
     }
   }
 
+  /**
+   * Adds {@code component} to {@code queue} unless the queue is full and all its elements are
+   * larger than the component according to the queue's comparator.
+   */
+  private void addToTopComponents(PriorityQueue<C> queue, C component) {
+    if (queue.size() == SLOWEST_COMPONENTS_SIZE) {
+      // The new component is smaller than any of the components in the queue, avoid insertion.
+      if (queue.comparator().compare(queue.peek(), component) >= 0) {
+        return;
+      }
+      // Remove the head element to make space (The smallest component in the queue).
+      queue.remove();
+    }
+    queue.add(component);
+  }
+
   private boolean isBiggestCriticalPath(C newCriticalPath) {
     synchronized (lock) {
       return maxCriticalPath == null
@@ -0,0 +1,359 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadCompatible;
+import com.google.devtools.build.lib.unix.FilesystemUtils;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * A reusable copy of the execution root that is populated with hard links to a spawn's inputs, so
+ * that it can be mounted into the sandbox with a single bind mount instead of one bind mount per
+ * input.
+ *
+ * <p>A hard link shares its inode with the input, so a spawn that writes to it in place would
+ * modify the real file. Only inputs that are not writable are therefore hard linked; Blaze makes
+ * the outputs of actions read-only, so this covers generated inputs, which are the bulk of them.
+ * Writable inputs, typically source files, are copied if they live in the execution root (which
+ * this tree is mounted over), and represented by symbolic links to their resolved location
+ * otherwise, just like inputs that cannot be hard linked because they live on a different file
+ * system. These locations must be mounted into the sandbox by the caller, see {@link
+ * #getRequiredMounts}. This does not stop a spawn from making a hard linked input writable again
+ * first, but that is no different from what it can do to the mounted inputs without this tree.
+ *
+ * <p>The tree is kept after the spawn has finished. The next spawn that gets this instance only
+ * creates the links it is missing and deletes the ones it does not need; links that are kept are
+ * checked to still point to the current version of their source first.
+ */
+@ThreadCompatible
+final class HardlinkedExecRoot {
+  /** Number of tasks the link operations of a single update are split into. */
+  private static final int PARALLELISM = Math.max(4, Runtime.getRuntime().availableProcessors());
+
+  /** How a single entry of the tree is materialized. */
+  private enum Kind {
+    HARDLINK,
+    SYMLINK,
+    DIRECTORY,
+    COPY,
+  }
+
+  /** A single entry of the linked tree. */
+  private static final class Link {
+    private final Path source;
+    private final Path resolvedSource;
+    private final Kind kind;
+
+    private Link(Path source, Path resolvedSource, Kind kind) {
+      this.source = source;
+      this.resolvedSource = resolvedSource;
+      this.kind = kind;
+    }
+  }
+
+  private final Path execRoot;
+  private final Path root;
+
+  /** The entries currently present in the tree, keyed by their location in the tree. */
+  private final Map<Path, Link> links = new HashMap<>();
+
+  /** All directories of the tree that contain at least one entry of {@link #links}. */
+  private final Set<Path> directories = new HashSet<>();
+
+  private int linksCreated;
+  private int linksReused;
+
+  HardlinkedExecRoot(Path execRoot, Path root) {
+    this.execRoot = execRoot;
+    this.root = root;
+  }
+
+  /** Returns the directory that is to be mounted onto the execution root inside the sandbox. */
+  Path getRoot() {
+    return root;
+  }
+
+  /** Returns the number of links created by the last call to {@link #update}. */
+  @VisibleForTesting
+  int getLinksCreated() {
+    return linksCreated;
+  }
+
+  /** Returns the number of links kept by the last call to {@link #update}. */
+  @VisibleForTesting
+  int getLinksReused() {
+    return linksReused;
+  }
+
+  /**
+   * Brings the tree in sync with the given inputs.
+   *
+   * @param inputs a map from paths under the execution root (as they should appear inside the
+   *     sandbox) to the files they should refer to
+   * @param executor the executor used for creating, checking and deleting links in parallel
+   */
+  void update(Map<Path, Path> inputs, ExecutorService executor) throws IOException {
+    final Map<Path, Path> wanted = new HashMap<>();
+    for (Entry<Path, Path> input : inputs.entrySet()) {
+      wanted.put(toLinkedPath(input.getKey()), input.getValue());
+    }
+
+    final List<Path> stale = new ArrayList<>();
+    final List<Path> candidates = new ArrayList<>();
+    for (Entry<Path, Link> link : links.entrySet()) {
+      Path source = wanted.get(link.getKey());
+      if (source != null && source.equals(link.getValue().source)) {
+        candidates.add(link.getKey());
+      } else {
+        stale.add(link.getKey());
+      }
+    }
+
+    // Delete the links that are no longer needed and check whether the others are still current.
+    final Set<Path> outdated = Sets.newConcurrentHashSet();
+    runInParallel(executor, stale, new LinkOperation() {
+      @Override
+      public void run(Path target) throws IOException {
+        delete(target, links.get(target));
+      }
+    });
+    runInParallel(executor, candidates, new LinkOperation() {
+      @Override
+      public void run(Path target) throws IOException {
+        Link link = links.get(target);
+        if (!isCurrent(target, link)) {
+          delete(target, link);
+          outdated.add(target);
+        }
+      }
+    });
+    for (Path target : stale) {
+      links.remove(target);
+    }
+    for (Path target : outdated) {
+      links.remove(target);
+    }
+    linksReused = links.size();
+
+    // Create the missing links, starting with all of their parent directories.
+    final List<Path> missing = new ArrayList<>();
+    directories.clear();
+    for (Path target : wanted.keySet()) {
+      if (!links.containsKey(target)) {
+        missing.add(target);
+      }
+      addDirectoryAndParents(target.getParentDirectory());
+    }
+    for (Path directory : directories) {
+      FileSystemUtils.createDirectoryAndParents(directory);
+    }
+
+    final Map<Path, Link> created = new ConcurrentHashMap<>();
+    runInParallel(executor, missing, new LinkOperation() {
+      @Override
+      public void run(Path target) throws IOException {
+        created.put(target, create(target, wanted.get(target)));
+      }
+    });
+    links.putAll(created);
+    linksCreated = created.size();
+  }
+
+  /**
+   * Returns the mounts needed for the symbolic links in the tree to resolve inside the sandbox.
+   */
+  ImmutableMap<Path, Path> getRequiredMounts() {
+    Map<Path, Path> mounts = new HashMap<>();
+    for (Link link : links.values()) {
+      if (link.kind == Kind.SYMLINK) {
+        mounts.put(link.resolvedSource, link.resolvedSource);
+      }
+    }
+    return ImmutableMap.copyOf(mounts);
+  }
+
+  /**
+   * Removes everything from the tree that was not put there by {@link #update}, e.g. the outputs
+   * and temporary files of the last spawn, so that they cannot leak into the next one.
+   */
+  void removeUndeclaredFiles() throws IOException {
+    if (!root.exists()) {
+      links.clear();
+      return;
+    }
+    removeUndeclaredFiles(root);
+  }
+
+  private void removeUndeclaredFiles(Path directory) throws IOException {
+    for (Dirent dirent : directory.readdir(Symlinks.NOFOLLOW)) {
+      Path child = directory.getChild(dirent.getName());
+      Link link = links.get(child);
+      if (dirent.getType() == Dirent.Type.DIRECTORY
+          && (directories.contains(child) || (link != null && link.kind == Kind.DIRECTORY))) {
+        removeUndeclaredFiles(child);
+      } else if (link == null) {
+        FileSystemUtils.deleteTree(child);
+      }
+    }
+  }
+
+  /** Deletes the whole tree. */
+  void destroy() throws IOException {
+    links.clear();
+    directories.clear();
+    if (root.exists()) {
+      FilesystemUtils.rmTree(root.getPathString());
+    }
+  }
+
+  private Path toLinkedPath(Path path) {
+    return root.getRelative(path.relativeTo(execRoot));
+  }
+
+  private void addDirectoryAndParents(Path directory) {
+    while (directory != null && directory.startsWith(root)
+        && directories.add(directory)) {
+      directory = directory.getParentDirectory();
+    }
+  }
+
+  /**
+   * Creates the entry for {@code target}. Read-only regular files are hard linked; if that is not
+   * possible or the file is writable, a symbolic link to the resolved source is created instead,
+   * unless the source lives in the execution root itself (which this tree is mounted over inside
+   * the sandbox) in which case it is copied.
+   */
+  private Link create(Path target, Path source) throws IOException {
+    Path resolvedSource = source.resolveSymbolicLinks();
+    if (resolvedSource.isDirectory()) {
+      FileSystemUtils.createDirectoryAndParents(target);
+      return new Link(source, resolvedSource, Kind.DIRECTORY);
+    }
+    if (!resolvedSource.isWritable()) {
+      try {
+        FilesystemUtils.link(resolvedSource.getPathString(), target.getPathString());
+        return new Link(source, resolvedSource, Kind.HARDLINK);
+      } catch (IOException e) {
+        // Most likely EXDEV, i.e. the source is on a different file system.
+      }
+    }
+    if (resolvedSource.startsWith(execRoot)) {
+      FileSystemUtils.copyFile(resolvedSource, target);
+      return new Link(source, resolvedSource, Kind.COPY);
+    }
+    target.createSymbolicLink(resolvedSource);
+    return new Link(source, resolvedSource, Kind.SYMLINK);
+  }
+
+  /** Checks whether a link created by an earlier spawn still refers to the current source. */
+  private static boolean isCurrent(Path target, Link link) throws IOException {
+    switch (link.kind) {
+      case HARDLINK:
+        FileStatus targetStatus = target.statIfFound(Symlinks.NOFOLLOW);
+        FileStatus sourceStatus = link.source.statIfFound(Symlinks.FOLLOW);
+        // The source may have been made writable since the link was created.
+        return targetStatus != null
+            && sourceStatus != null
+            && targetStatus.getNodeId() == sourceStatus.getNodeId()
+            && !link.source.isWritable();
+      case SYMLINK:
+        return target.isSymbolicLink()
+            && target.readSymbolicLink().equals(link.resolvedSource.asFragment())
+            && link.source.resolveSymbolicLinks().equals(link.resolvedSource);
+      case DIRECTORY:
+        return target.isDirectory(Symlinks.NOFOLLOW) && link.source.isDirectory();
+      default:
+        // Copies can't be checked cheaply; they are rare enough to simply recreate them.
+        return false;
+    }
+  }
+
+  private static void delete(Path target, Link link) throws IOException {
+    if (link.kind == Kind.DIRECTORY) {
+      // The directory may still contain other entries; it is removed later on if it is empty.
+      return;
+    }
+    target.delete();
+  }
+
+  /** An operation on a single entry of the tree. */
+  private interface LinkOperation {
+    void run(Path target) throws IOException;
+  }
+
+  /**
+   * Runs {@code operation} on all {@code targets}, split into {@link #PARALLELISM} tasks, and
+   * waits for it to finish.
+   */
+  private static void runInParallel(
+      ExecutorService executor, List<Path> targets, final LinkOperation operation)
+      throws IOException {
+    if (targets.isEmpty()) {
+      return;
+    }
+    int partitionSize = (targets.size() + PARALLELISM - 1) / PARALLELISM;
+    List<Future<Void>> futures = new ArrayList<>();
+    for (final List<Path> partition : Lists.partition(targets, partitionSize)) {
+      futures.add(
+          executor.submit(
+              new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                  for (Path target : partition) {
+                    operation.run(target);
+                  }
+                  return null;
+                }
+              }));
+    }
+    try {
+      for (Future<Void> future : futures) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while preparing the sandbox");
+    } catch (ExecutionException e) {
+      Throwables.propagateIfPossible(e.getCause(), IOException.class);
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+}
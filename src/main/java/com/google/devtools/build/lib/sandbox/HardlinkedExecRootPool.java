@@ -0,0 +1,97 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * A per-server pool of {@link HardlinkedExecRoot}s.
+ *
+ * <p>Every spawn takes one execution root out of the pool and puts it back once it is done with
+ * it, so there are never more execution roots than concurrently running sandboxed spawns. The
+ * most recently returned execution root is handed out first, as it is the most likely one to
+ * already contain the inputs of the next spawn.
+ */
+@ThreadSafe
+final class HardlinkedExecRootPool {
+  private final Path execRoot;
+  private final Path baseDirectory;
+  private final Deque<HardlinkedExecRoot> available = new ArrayDeque<>();
+  private int created;
+  private boolean disposed;
+
+  HardlinkedExecRootPool(Path execRoot, Path baseDirectory) {
+    this.execRoot = execRoot;
+    this.baseDirectory = baseDirectory;
+  }
+
+  Path getExecRoot() {
+    return execRoot;
+  }
+
+  /**
+   * Returns an execution root that is not in use by any other spawn. Directories left over from a
+   * previous server are deleted before being handed out, as their contents are unknown.
+   */
+  HardlinkedExecRoot acquire() throws IOException {
+    HardlinkedExecRoot execRootCopy;
+    synchronized (this) {
+      execRootCopy = available.pollFirst();
+      if (execRootCopy != null) {
+        return execRootCopy;
+      }
+      execRootCopy =
+          new HardlinkedExecRoot(execRoot, baseDirectory.getRelative("reusable-" + created++));
+    }
+    execRootCopy.destroy();
+    return execRootCopy;
+  }
+
+  /**
+   * Returns an execution root to the pool. If the pool has been disposed of in the meantime, the
+   * execution root is deleted instead.
+   */
+  void release(HardlinkedExecRoot execRootCopy) throws IOException {
+    synchronized (this) {
+      if (!disposed) {
+        available.addFirst(execRootCopy);
+        return;
+      }
+    }
+    execRootCopy.destroy();
+  }
+
+  /**
+   * Deletes the execution roots of this pool, which must not be used to acquire execution roots
+   * any more. The ones that are still in use are deleted when they are released.
+   */
+  void dispose() throws IOException {
+    List<HardlinkedExecRoot> execRootCopies;
+    synchronized (this) {
+      disposed = true;
+      execRootCopies = new ArrayList<>(available);
+      available.clear();
+    }
+    for (HardlinkedExecRoot execRootCopy : execRootCopies) {
+      execRootCopy.destroy();
+    }
+  }
+}
@@ -55,6 +55,8 @@ import java.util.UUID;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses sandboxing to execute a process.
  */
@@ -69,6 +71,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final boolean sandboxDebug;
   private final StandaloneSpawnStrategy standaloneStrategy;
+  @Nullable private final HardlinkedExecRootPool execRootPool;
   private final UUID uuid = UUID.randomUUID();
   private final AtomicInteger execCounter = new AtomicInteger();
 
@@ -111,6 +114,21 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
       ExecutorService backgroundWorkers,
       boolean verboseFailures,
       boolean sandboxDebug) {
+    this(clientEnv, blazeDirs, backgroundWorkers, verboseFailures, sandboxDebug, null);
+  }
+
+  /**
+   * Creates a sandboxed strategy that materializes the inputs of each spawn as hard links in an
+   * execution root taken from {@code execRootPool}, unless the pool is null, in which case every
+   * input is bind-mounted into the sandbox individually.
+   */
+  public LinuxSandboxedStrategy(
+      Map<String, String> clientEnv,
+      BlazeDirectories blazeDirs,
+      ExecutorService backgroundWorkers,
+      boolean verboseFailures,
+      boolean sandboxDebug,
+      @Nullable HardlinkedExecRootPool execRootPool) {
     this.clientEnv = ImmutableMap.copyOf(clientEnv);
     this.blazeDirs = blazeDirs;
     this.execRoot = blazeDirs.getExecRoot();
@@ -118,6 +136,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
     this.verboseFailures = verboseFailures;
     this.sandboxDebug = sandboxDebug;
     this.standaloneStrategy = new StandaloneSpawnStrategy(blazeDirs.getExecRoot(), verboseFailures);
+    this.execRootPool = execRootPool;
   }
 
   /**
@@ -149,12 +168,25 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
     Path sandboxPath =
         execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative(execId);
 
+    // With hard linked inputs, the execution root inside the sandbox is backed by this directory.
+    Path sandboxExecRoot = sandboxPath.getRelative(execRoot.asFragment().relativeTo("/"));
+    HardlinkedExecRoot hardlinkedExecRoot = null;
+
     ImmutableMap<Path, Path> mounts;
     try {
       // Gather all necessary mounts for the sandbox.
-      mounts = getMounts(spawn, actionExecutionContext);
-      createTestTmpDir(spawn, sandboxPath);
+      if (execRootPool != null) {
+        hardlinkedExecRoot = execRootPool.acquire();
+        sandboxExecRoot = hardlinkedExecRoot.getRoot();
+        mounts = getHardlinkedMounts(spawn, actionExecutionContext, hardlinkedExecRoot);
+      } else {
+        mounts = getMounts(spawn, actionExecutionContext);
+      }
+      createTestTmpDir(spawn, sandboxPath, sandboxExecRoot);
     } catch (IllegalArgumentException | IOException e) {
+      if (hardlinkedExecRoot != null) {
+        recycle(hardlinkedExecRoot);
+      }
       throw new UserExecException("Could not prepare mounts for sandbox execution", e);
     }
 
@@ -162,7 +194,8 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
 
     try {
       final NamespaceSandboxRunner runner =
-          new NamespaceSandboxRunner(execRoot, sandboxPath, mounts, verboseFailures, sandboxDebug);
+          new NamespaceSandboxRunner(
+              execRoot, sandboxPath, sandboxExecRoot, mounts, verboseFailures, sandboxDebug);
       try {
         runner.run(
             spawn.getArguments(),
@@ -172,6 +205,11 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
             spawn.getOutputFiles(),
             timeout);
       } finally {
+        actionExecutionContext.recordResourceUsage(runner.consumeResourceUsage());
+        if (hardlinkedExecRoot != null) {
+          recycle(hardlinkedExecRoot);
+        }
+
         // Due to the Linux kernel behavior, if we try to remove the sandbox too quickly after the
         // process has exited, we get "Device busy" errors because some of the mounts have not yet
         // been undone. A second later it usually works. We will just clean the old sandboxes up
@@ -201,6 +239,30 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
     }
   }
 
+  /**
+   * Removes everything the spawn left behind from the given execution root and returns it to the
+   * pool, using a background worker.
+   */
+  private void recycle(final HardlinkedExecRoot hardlinkedExecRoot) {
+    backgroundWorkers.execute(
+        new Runnable() {
+          @Override
+          public void run() {
+            try {
+              try {
+                hardlinkedExecRoot.removeUndeclaredFiles();
+              } catch (IOException e) {
+                // Start over with an empty execution root the next time it is used.
+                hardlinkedExecRoot.destroy();
+              }
+              execRootPool.release(hardlinkedExecRoot);
+            } catch (IOException e) {
+              // Don't return it to the pool, a new one will be created instead.
+            }
+          }
+        });
+  }
+
   private int getTimeout(Spawn spawn) throws UserExecException {
     String timeoutStr = spawn.getExecutionInfo().get("timeout");
     if (timeoutStr != null) {
@@ -217,17 +279,51 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
    * Tests are a special case and we have to mount the TEST_SRCDIR where the test expects it to be
    * and also provide a TEST_TMPDIR to the test where it can store temporary files.
    */
-  private void createTestTmpDir(Spawn spawn, Path sandboxPath) throws IOException {
+  private void createTestTmpDir(Spawn spawn, Path sandboxPath, Path sandboxExecRoot)
+      throws IOException {
     if (spawn.getEnvironment().containsKey("TEST_TMPDIR")) {
       FileSystem fs = blazeDirs.getFileSystem();
       Path source = fs.getPath(spawn.getEnvironment().get("TEST_TMPDIR"));
-      Path target = sandboxPath.getRelative(source.asFragment().relativeTo("/"));
+      Path target = source.startsWith(execRoot)
+          ? sandboxExecRoot.getRelative(source.relativeTo(execRoot))
+          : sandboxPath.getRelative(source.asFragment().relativeTo("/"));
       FileSystemUtils.createDirectoryAndParents(target);
     }
   }
 
   private ImmutableMap<Path, Path> getMounts(
       Spawn spawn, ActionExecutionContext executionContext) throws IOException {
+    return validateMounts(withResolvedSymlinks(gatherMounts(spawn, executionContext)));
+  }
+
+  /**
+   * Like {@link #getMounts}, but everything that would be mounted somewhere in the execution root
+   * is materialized in {@code hardlinkedExecRoot} instead, which is then mounted as a whole.
+   */
+  private ImmutableMap<Path, Path> getHardlinkedMounts(
+      Spawn spawn, ActionExecutionContext executionContext, HardlinkedExecRoot hardlinkedExecRoot)
+      throws IOException {
+    MountMap<Path, Path> linked = new MountMap<>();
+    MountMap<Path, Path> mounted = new MountMap<>();
+    for (Entry<Path, Path> mount : gatherMounts(spawn, executionContext).entrySet()) {
+      if (mount.getKey().startsWith(execRoot)) {
+        linked.put(mount.getKey(), mount.getValue());
+      } else {
+        mounted.put(mount.getKey(), mount.getValue());
+      }
+    }
+    hardlinkedExecRoot.update(linked, backgroundWorkers);
+
+    // The execution root has to be mounted first, as the other mounts might be below it.
+    MountMap<Path, Path> mounts = new MountMap<>();
+    mounts.put(execRoot, hardlinkedExecRoot.getRoot());
+    mounts.putAll(withResolvedSymlinks(mounted));
+    mounts.putAll(hardlinkedExecRoot.getRequiredMounts());
+    return validateMounts(mounts);
+  }
+
+  private MountMap<Path, Path> gatherMounts(
+      Spawn spawn, ActionExecutionContext executionContext) throws IOException {
     MountMap<Path, Path> mounts = new MountMap<>();
     mounts.putAll(mountUsualUnixDirs());
     mounts.putAll(withRecursedDirs(setupBlazeUtils()));
@@ -235,7 +331,7 @@ public class LinuxSandboxedStrategy implements SpawnActionContext {
     mounts.putAll(withRecursedDirs(mountRunfilesFromSuppliers(spawn)));
     mounts.putAll(withRecursedDirs(mountInputs(spawn, executionContext)));
     mounts.putAll(withRecursedDirs(mountRunUnderCommand(spawn)));
-    return validateMounts(withResolvedSymlinks(mounts));
+    return mounts;
   }
 
   /**
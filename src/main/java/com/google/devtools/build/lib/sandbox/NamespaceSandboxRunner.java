@@ -18,6 +18,7 @@ import com.google.common.collect.ImmutableMap;
 import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ResourceUsage;
 import com.google.devtools.build.lib.actions.UserExecException;
 import com.google.devtools.build.lib.analysis.config.BinTools;
 import com.google.devtools.build.lib.runtime.BlazeRuntime;
@@ -52,6 +53,7 @@ public class NamespaceSandboxRunner {
   private final ImmutableMap<Path, Path> mounts;
   private final boolean verboseFailures;
   private final boolean sandboxDebug;
+  private final Path statsFile;
 
   public NamespaceSandboxRunner(
       Path execRoot,
@@ -59,12 +61,36 @@ public class NamespaceSandboxRunner {
       ImmutableMap<Path, Path> mounts,
       boolean verboseFailures,
       boolean sandboxDebug) {
+    this(
+        execRoot,
+        sandboxPath,
+        sandboxPath.getRelative(execRoot.asFragment().relativeTo("/")),
+        mounts,
+        verboseFailures,
+        sandboxDebug);
+  }
+
+  /**
+   * Creates a runner for a sandbox whose execution root is backed by {@code sandboxExecRoot}, which
+   * must be mounted onto {@code execRoot} by one of the given {@code mounts}. This is where the
+   * output directories are created and where the outputs are collected from after the spawn.
+   */
+  public NamespaceSandboxRunner(
+      Path execRoot,
+      Path sandboxPath,
+      Path sandboxExecRoot,
+      ImmutableMap<Path, Path> mounts,
+      boolean verboseFailures,
+      boolean sandboxDebug) {
     this.execRoot = execRoot;
     this.sandboxPath = sandboxPath;
-    this.sandboxExecRoot = sandboxPath.getRelative(execRoot.asFragment().relativeTo("/"));
+    this.sandboxExecRoot = sandboxExecRoot;
     this.mounts = mounts;
     this.verboseFailures = verboseFailures;
     this.sandboxDebug = sandboxDebug;
+    // Outside of the sandbox directory, so that it survives until the strategy has read it.
+    this.statsFile = sandboxPath.getParentDirectory().getRelative(
+        sandboxPath.getBaseName() + ".rusage");
   }
 
   static boolean isSupported(BlazeRuntime runtime) {
@@ -124,6 +150,10 @@ public class NamespaceSandboxRunner {
     args.add("-S");
     args.add(sandboxPath.getPathString());
 
+    // Resource usage of the spawn.
+    args.add("-s");
+    args.add(statsFile.getPathString());
+
     // Working directory of the spawn.
     args.add("-W");
     args.add(cwd.toString());
@@ -196,6 +226,14 @@ public class NamespaceSandboxRunner {
     }
   }
 
+  /**
+   * Returns the resources used by the last spawn run in this sandbox and deletes its statistics
+   * file, or {@link ResourceUsage#EMPTY} if they are not known.
+   */
+  public ResourceUsage consumeResourceUsage() {
+    return ResourceUsage.consumeStatsFile(statsFile);
+  }
+
   public void cleanup() throws IOException {
     if (sandboxPath.exists()) {
       FilesystemUtils.rmTree(sandboxPath.getPathString());
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.sandbox;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.eventbus.Subscribe;
+import com.google.devtools.build.lib.Constants;
 import com.google.devtools.build.lib.actions.ActionContextConsumer;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
@@ -26,8 +27,10 @@ import com.google.devtools.build.lib.runtime.BlazeRuntime;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
 import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.common.options.OptionsBase;
 
+import java.io.IOException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
@@ -44,6 +47,7 @@ public class SandboxModule extends BlazeModule {
   // Per-server state
   private final ExecutorService backgroundWorkers = Executors.newCachedThreadPool();
   private Boolean sandboxingSupported = null;
+  private HardlinkedExecRootPool execRootPool = null;
 
   // Per-command state
   private CommandEnvironment env;
@@ -56,13 +60,46 @@ public class SandboxModule extends BlazeModule {
     return sandboxingSupported.booleanValue();
   }
 
+  /**
+   * Returns the pool of hard linked execution roots for the given execution root, which is kept
+   * across commands so that the execution roots can be reused by later builds. The pool of a
+   * previous execution root is disposed of in the background.
+   */
+  private synchronized HardlinkedExecRootPool getExecRootPool(Path execRoot) {
+    if (execRootPool == null || !execRootPool.getExecRoot().equals(execRoot)) {
+      if (execRootPool != null) {
+        final HardlinkedExecRootPool oldPool = execRootPool;
+        backgroundWorkers.execute(
+            new Runnable() {
+              @Override
+              public void run() {
+                try {
+                  oldPool.dispose();
+                } catch (IOException e) {
+                  // Whatever is left is deleted by the next pool for that execution root.
+                }
+              }
+            });
+      }
+      execRootPool =
+          new HardlinkedExecRootPool(
+              execRoot,
+              execRoot.getRelative(Constants.PRODUCT_NAME + "-sandbox").getRelative("execroots"));
+    }
+    return execRootPool;
+  }
+
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
     Preconditions.checkNotNull(buildRequest);
     Preconditions.checkNotNull(env);
     if (isSandboxingSupported(env.getRuntime())) {
+      HardlinkedExecRootPool pool =
+          buildRequest.getOptions(SandboxOptions.class).sandboxHardlinkInputs
+              ? getExecRootPool(env.getDirectories().getExecRoot())
+              : null;
       return ImmutableList.<ActionContextProvider>of(
-          new SandboxActionContextProvider(env, buildRequest, backgroundWorkers));
+          new SandboxActionContextProvider(env, buildRequest, backgroundWorkers, pool));
     }
 
     // For now, sandboxing is only supported on Linux and there's not much point in showing a scary
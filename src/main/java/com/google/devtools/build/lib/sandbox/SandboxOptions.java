@@ -38,4 +38,17 @@ public class SandboxOptions extends OptionsBase {
             + "Bazel or Skylark rules with debugging failures due to missing input files, etc."
   )
   public boolean sandboxDebug;
+
+  @Option(
+    name = "experimental_sandbox_hardlink_inputs",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "Instead of bind-mounting every input into the sandbox, create hard links to the inputs in "
+            + "a copy of the execution root that is reused across actions and mount it as a whole. "
+            + "Only read-only inputs, such as the outputs of other actions, are hard linked; "
+            + "writable inputs and inputs on a different file system are copied or symlinked and "
+            + "mounted individually."
+  )
+  public boolean sandboxHardlinkInputs;
 }
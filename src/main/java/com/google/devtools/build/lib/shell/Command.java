@@ -400,13 +400,36 @@ public final class Command {
                                final OutputStream stdErr,
                                final boolean killSubprocessOnInterrupt)
     throws CommandException {
+    return execute(stdinInput, observer, stdOut, stdErr, killSubprocessOnInterrupt, false);
+  }
+
+  /**
+   * Like {@link #execute(byte[], KillableObserver, OutputStream, OutputStream,
+   * boolean)} but optionally copies the output without dedicated threads.
+   *
+   * @param multiplexOutput if set to true, stdout and stderr of the subprocess
+   * are copied into <code>stdOut/stdErr</code> by a single thread shared with
+   * all other commands executed this way, rather than by two threads per
+   * command. This saves a lot of threads when many commands run concurrently,
+   * at the cost of a few milliseconds of latency before output appears in the
+   * streams.
+   */
+  public CommandResult execute(final byte[] stdinInput,
+                               final KillableObserver observer,
+                               final OutputStream stdOut,
+                               final OutputStream stdErr,
+                               final boolean killSubprocessOnInterrupt,
+                               final boolean multiplexOutput)
+    throws CommandException {
     nullCheck(stdinInput, "stdinInput");
     nullCheck(observer, "observer");
     nullCheck(stdOut, "stdOut");
     nullCheck(stdErr, "stdErr");
     return doExecute(new ByteArrayInputSource(stdinInput),
                      observer,
-                     Consumers.createStreamingConsumers(stdOut, stdErr),
+                     multiplexOutput
+                         ? Consumers.createMultiplexedStreamingConsumers(stdOut, stdErr)
+                         : Consumers.createStreamingConsumers(stdOut, stdErr),
                      killSubprocessOnInterrupt, false).get();
   }
 
@@ -32,7 +32,8 @@ import java.util.logging.Logger;
  * output and error streams with different consumption policies:
  * discarding ({@link #createDiscardingConsumers()},
  * accumulating ({@link #createAccumulatingConsumers()},
- * and streaming ({@link #createStreamingConsumers(OutputStream, OutputStream)}).
+ * and streaming ({@link #createStreamingConsumers(OutputStream, OutputStream)}
+ * and {@link #createMultiplexedStreamingConsumers(OutputStream, OutputStream)}).
  */
 class Consumers {
 
@@ -60,6 +61,17 @@ class Consumers {
                                new StreamingConsumer(err));
   }
 
+  /**
+   * Like {@link #createStreamingConsumers(OutputStream, OutputStream)}, but
+   * the streams are pumped by the shared {@link OutputMultiplexer} thread
+   * instead of a thread each.
+   */
+  static OutErrConsumers createMultiplexedStreamingConsumers(OutputStream out,
+                                                             OutputStream err) {
+    return new OutErrConsumers(new MultiplexedConsumer(out),
+                               new MultiplexedConsumer(err));
+  }
+
   static class OutErrConsumers {
 
     private final OutputConsumer out;
@@ -200,6 +212,44 @@ class Consumers {
     }
   }
 
+  /**
+   * This consumer sends the input to a stream, like {@link StreamingConsumer},
+   * but without a thread of its own.
+   */
+  private static class MultiplexedConsumer implements OutputConsumer {
+    private final OutputStream out;
+    private OutputMultiplexer.Registration registration;
+
+    MultiplexedConsumer(OutputStream out) {
+      this.out = out;
+    }
+
+    @Override
+    public ByteArrayOutputStream getAccumulatedOut() {
+      return CommandResult.NO_OUTPUT_COLLECTED;
+    }
+
+    @Override
+    public void logConsumptionStrategy() {
+      log.finer("Output will be sent to streams provided by client, multiplexed");
+    }
+
+    @Override
+    public void registerInput(InputStream in, boolean closeConsumer) {
+      registration = OutputMultiplexer.getInstance().register(in, out, closeConsumer);
+    }
+
+    @Override
+    public void cancel() {
+      registration.cancel();
+    }
+
+    @Override
+    public void waitForCompletion() throws IOException {
+      registration.finish();
+    }
+  }
+
   /**
    * A mixin that makes consumers active - this is where we kick of
    * multithreading ({@link #registerInput(InputStream, boolean)}), cancel actions
@@ -0,0 +1,240 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Throwables;
+import com.google.common.collect.Sets;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pumps the output of any number of subprocesses into their sinks from a single thread.
+ *
+ * <p>The streaming {@link Consumers} dedicate a thread to each stdout and stderr pipe, most of
+ * which sit idle in a blocking read. With many concurrent subprocesses, that is a lot of threads
+ * and stacks for little work. The multiplexer instead visits all registered pipes in turn from one
+ * daemon thread and copies whatever is {@linkplain InputStream#available available} without
+ * blocking, backing off when no pipe has data. The JDK gives no access to a selectable channel for
+ * a subprocess pipe, hence the polling.
+ *
+ * <p>The multiplexer never reads until end-of-file: the thread that waits for the subprocess calls
+ * {@link Registration#finish} once the subprocess has terminated, which copies the rest of the
+ * output in the calling thread, outside of any lock that the multiplexer needs. A grandchild that
+ * inherited the pipe and keeps it open therefore blocks only that thread, as it would with the
+ * streaming consumers, and not the output of the other subprocesses.
+ */
+final class OutputMultiplexer implements Runnable {
+
+  private static final Logger log =
+    Logger.getLogger("com.google.devtools.build.lib.shell.Command");
+
+  /** The shortest and longest time the multiplexer sleeps when no pipe has data. */
+  private static final long MIN_IDLE_MILLIS = 1;
+  private static final long MAX_IDLE_MILLIS = 20;
+
+  private static final int BUFFER_SIZE = 16 * 1024;
+
+  private static OutputMultiplexer instance;
+
+  /** Returns the multiplexer shared by all commands, starting its thread on the first call. */
+  static synchronized OutputMultiplexer getInstance() {
+    if (instance == null) {
+      instance = new OutputMultiplexer();
+      Thread thread = new Thread(instance, "Command-Output-Multiplexer");
+      // Don't let this thread hold up JVM exit
+      thread.setDaemon(true);
+      thread.start();
+    }
+    return instance;
+  }
+
+  private final Set<Registration> registrations = Sets.newConcurrentHashSet();
+
+  /** Only accessed by the multiplexer thread. */
+  private final byte[] buffer = new byte[BUFFER_SIZE];
+
+  private OutputMultiplexer() {}
+
+  /**
+   * A pipe serviced by the multiplexer.
+   */
+  final class Registration {
+    private final InputStream in;
+    private final OutputStream out;
+    private final boolean closeOutput;
+    private boolean finished;
+    private Exception error;
+
+    private Registration(InputStream in, OutputStream out, boolean closeOutput) {
+      this.in = in;
+      this.out = out;
+      this.closeOutput = closeOutput;
+    }
+
+    /**
+     * Copies the data that is available without blocking and returns whether there was any.
+     */
+    private synchronized boolean pump() {
+      if (finished) {
+        return false;
+      }
+      int read;
+      try {
+        int available = in.available();
+        if (available <= 0) {
+          return false;
+        }
+        read = in.read(buffer, 0, Math.min(available, buffer.length));
+      } catch (IOException e) {
+        recordError(e);
+        finished = true;
+        return false;
+      }
+      if (read <= 0) {
+        return false;
+      }
+      write(buffer, read);
+      return true;
+    }
+
+    /**
+     * Writes to the sink unless that has failed before, in which case the data is discarded so
+     * that the subprocess does not block on a full pipe.
+     */
+    private void write(byte[] data, int length) {
+      if (out != null && error == null) {
+        try {
+          out.write(data, 0, length);
+          out.flush();
+        } catch (IOException | RuntimeException e) {
+          // Don't let a broken sink take down the thread that serves all others.
+          recordError(e);
+        }
+      }
+    }
+
+    private void recordError(Exception e) {
+      if (error == null) {
+        error = e;
+      }
+    }
+
+    /**
+     * Removes this pipe from the multiplexer, copies the remaining output to the sink and closes
+     * the pipe. Must only be called after the subprocess has terminated.
+     *
+     * @throws IOException if reading from the pipe or writing to the sink failed at any point
+     */
+    void finish() throws IOException {
+      registrations.remove(this);
+      boolean drain;
+      // Waits for a pump() in progress, after which the multiplexer no longer touches this pipe.
+      synchronized (this) {
+        drain = !finished;
+        finished = true;
+      }
+      try {
+        // Read to end-of-file without the lock, which may take as long as a grandchild keeps the
+        // pipe open.
+        if (drain) {
+          byte[] data = new byte[4096];
+          int read;
+          while ((read = in.read(data)) != -1) {
+            write(data, read);
+          }
+        }
+        if (error != null) {
+          Throwables.propagateIfPossible(error, IOException.class);
+        }
+      } finally {
+        silentClose(in);
+        if (closeOutput && out != null) {
+          silentClose(out);
+        }
+      }
+    }
+
+    /**
+     * Removes this pipe from the multiplexer and closes it, discarding any remaining output.
+     */
+    synchronized void cancel() {
+      registrations.remove(this);
+      finished = true;
+      silentClose(in);
+    }
+  }
+
+  /**
+   * Starts copying {@code in} into {@code out}, or discarding it if {@code out} is null.
+   * {@code out} is flushed after every write and is closed by {@link Registration#finish} if
+   * {@code closeOutput} is set.
+   */
+  Registration register(InputStream in, OutputStream out, boolean closeOutput) {
+    Registration registration = new Registration(in, out, closeOutput);
+    registrations.add(registration);
+    synchronized (this) {
+      notify();
+    }
+    return registration;
+  }
+
+  @VisibleForTesting
+  int getRegistrationCount() {
+    return registrations.size();
+  }
+
+  @Override
+  public void run() {
+    long idleMillis = MIN_IDLE_MILLIS;
+    while (true) {
+      boolean progress = false;
+      for (Registration registration : registrations) {
+        progress |= registration.pump();
+      }
+      try {
+        if (progress) {
+          idleMillis = MIN_IDLE_MILLIS;
+          continue;
+        }
+        synchronized (this) {
+          if (registrations.isEmpty()) {
+            wait();
+            idleMillis = MIN_IDLE_MILLIS;
+          } else {
+            wait(idleMillis);
+            idleMillis = Math.min(idleMillis * 2, MAX_IDLE_MILLIS);
+          }
+        }
+      } catch (InterruptedException e) {
+        // Nobody interrupts this thread on purpose; keep serving the pipes.
+        log.log(Level.WARNING, "Output multiplexer interrupted", e);
+      }
+    }
+  }
+
+  private static void silentClose(Closeable closeable) {
+    try {
+      closeable.close();
+    } catch (IOException ioe) {
+      log.log(Level.WARNING, "Unexpected exception while closing stream", ioe);
+    }
+  }
+}
@@ -15,7 +15,9 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.collect.ImmutableList;
+import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.events.StoredEventHandler;
 import com.google.devtools.build.lib.packages.CachingPackageLocator;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.pkgcache.PathPackageLocator;
@@ -113,13 +115,16 @@ public class ASTFileLookupFunction implements SkyFunction {
   private final AtomicReference<PathPackageLocator> pkgLocator;
   private final RuleClassProvider ruleClassProvider;
   private final CachingPackageLocator packageManager;
+  private final AtomicReference<PersistentSkylarkCache> skylarkCache;
 
   public ASTFileLookupFunction(AtomicReference<PathPackageLocator> pkgLocator,
       CachingPackageLocator packageManager,
-      RuleClassProvider ruleClassProvider) {
+      RuleClassProvider ruleClassProvider,
+      AtomicReference<PersistentSkylarkCache> skylarkCache) {
     this.pkgLocator = pkgLocator;
     this.packageManager = packageManager;
     this.ruleClassProvider = ruleClassProvider;
+    this.skylarkCache = skylarkCache;
   }
 
   @Override
@@ -141,17 +146,30 @@ public class ASTFileLookupFunction implements SkyFunction {
     boolean parseAsSkylark = astFilePathFragment.getPathString().endsWith(".bzl");
     try {
       if (parseAsSkylark) {
+        PersistentSkylarkCache cache = skylarkCache.get();
+        if (cache != null) {
+          ast = cache.getAST(path, HashCode.fromBytes(path.getMD5Digest()).toString());
+          if (ast != null) {
+            return ASTFileLookupValue.withFile(ast);
+          }
+        }
+        StoredEventHandler eventHandler = new StoredEventHandler();
         try (Mutability mutability = Mutability.create("validate")) {
-            ast = BuildFileAST.parseSkylarkFile(path, fileSize, env.getListener(),
+            ast = BuildFileAST.parseSkylarkFile(path, fileSize, eventHandler,
                 packageManager, new ValidationEnvironment(
                     ruleClassProvider.createSkylarkRuleClassEnvironment(
                         mutability,
-                        env.getListener(),
+                        eventHandler,
                         // the two below don't matter for extracting the ValidationEnvironment:
                         /*astFileContentHashCode=*/null,
                         /*importMap=*/null)
                     .setupDynamic(Runtime.PKG_NAME, Runtime.NONE)));
         }
+        eventHandler.replayOn(env.getListener());
+        // Only a file without any errors or warnings can be cached, since the events are not.
+        if (cache != null && eventHandler.isEmpty() && !ast.containsErrors()) {
+          cache.putAST(path, ast.getContentHashCode(), ast);
+        }
       } else {
         ast = BuildFileAST.parseBuildFile(path, fileSize, env.getListener(), packageManager, false);
       }
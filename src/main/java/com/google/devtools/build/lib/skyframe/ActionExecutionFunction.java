@@ -40,6 +40,7 @@ import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionException;
 import com.google.devtools.build.skyframe.SkyKey;
@@ -56,6 +57,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -75,12 +77,17 @@ import javax.annotation.Nullable;
 public class ActionExecutionFunction implements SkyFunction, CompletionReceiver {
   private final SkyframeActionExecutor skyframeActionExecutor;
   private final TimestampGranularityMonitor tsgm;
+  private final ExternalFilesHelper externalFilesHelper;
+  private final AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls;
   private ConcurrentMap<Action, ContinuationState> stateMap;
 
   public ActionExecutionFunction(SkyframeActionExecutor skyframeActionExecutor,
-      TimestampGranularityMonitor tsgm) {
+      TimestampGranularityMonitor tsgm, ExternalFilesHelper externalFilesHelper,
+      AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls) {
     this.skyframeActionExecutor = skyframeActionExecutor;
     this.tsgm = tsgm;
+    this.externalFilesHelper = externalFilesHelper;
+    this.syscalls = syscalls;
     stateMap = Maps.newConcurrentMap();
   }
 
@@ -307,6 +314,11 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
     }
   }
 
+  private ActionMetadataHandler newMetadataHandler(Action action, ContinuationState state) {
+    return new ActionMetadataHandler(state.inputArtifactData, action.getOutputs(), tsgm,
+        externalFilesHelper, syscalls.get());
+  }
+
   private ActionExecutionValue checkCacheAndExecuteIfNeeded(
       Action action,
       ContinuationState state,
@@ -317,8 +329,7 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
       return skyframeActionExecutor.executeAction(action, null, -1, null);
     }
     // This may be recreated if we discover inputs.
-    ActionMetadataHandler metadataHandler = new ActionMetadataHandler(state.inputArtifactData,
-        action.getOutputs(), tsgm);
+    ActionMetadataHandler metadataHandler = newMetadataHandler(action, state);
     long actionStartTime = System.nanoTime();
     // We only need to check the action cache if we haven't done it on a previous run.
     if (!state.hasCheckedActionCache()) {
@@ -358,8 +369,7 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
           }
           state.inputArtifactData = inputArtifactData;
           perActionFileCache = new PerActionFileCache(state.inputArtifactData);
-          metadataHandler =
-              new ActionMetadataHandler(state.inputArtifactData, action.getOutputs(), tsgm);
+          metadataHandler = newMetadataHandler(action, state);
         }
       }
       actionExecutionContext =
@@ -417,8 +427,7 @@ public class ActionExecutionFunction implements SkyFunction, CompletionReceiver
         inputArtifactData.putAll(state.inputArtifactData);
         inputArtifactData.putAll(metadataFoundDuringActionExecution);
         state.inputArtifactData = inputArtifactData;
-        metadataHandler =
-            new ActionMetadataHandler(state.inputArtifactData, action.getOutputs(), tsgm);
+        metadataHandler = newMetadataHandler(action, state);
       }
     }
     skyframeActionExecutor.afterExecution(action, metadataHandler, state.token);
@@ -32,6 +32,7 @@ import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -72,14 +73,30 @@ public class ActionMetadataHandler implements MetadataHandler {
   private final Set<Artifact> injectedArtifacts = Sets.newConcurrentHashSet();
   private final ImmutableSet<Artifact> outputs;
   private final TimestampGranularityMonitor tsgm;
+  @Nullable private final ExternalFilesHelper externalFilesHelper;
+  private final UnixGlob.FilesystemCalls syscalls;
 
   @VisibleForTesting
   public ActionMetadataHandler(Map<Artifact, FileArtifactValue> inputArtifactData,
       Iterable<Artifact> outputs,
       TimestampGranularityMonitor tsgm) {
+    this(inputArtifactData, outputs, tsgm, null, UnixGlob.DEFAULT_SYSCALLS);
+  }
+
+  /**
+   * Creates a handler that reads the targets of output symlinks that point into the package roots
+   * (as determined by {@code externalFilesHelper}) through the per-build {@code syscalls}.
+   */
+  ActionMetadataHandler(Map<Artifact, FileArtifactValue> inputArtifactData,
+      Iterable<Artifact> outputs,
+      TimestampGranularityMonitor tsgm,
+      @Nullable ExternalFilesHelper externalFilesHelper,
+      UnixGlob.FilesystemCalls syscalls) {
     this.inputArtifactData = Preconditions.checkNotNull(inputArtifactData);
     this.outputs = ImmutableSet.copyOf(outputs);
     this.tsgm = tsgm;
+    this.externalFilesHelper = externalFilesHelper;
+    this.syscalls = Preconditions.checkNotNull(syscalls);
   }
 
   @Override
@@ -167,7 +184,7 @@ public class ActionMetadataHandler implements MetadataHandler {
     }
     // We do not cache exceptions besides nonexistence here, because it is unlikely that the file
     // will be requested from this cache too many times.
-    fileValue = fileValueFromArtifact(artifact, null, tsgm);
+    fileValue = fileValueFromArtifact(artifact, null, tsgm, externalFilesHelper, syscalls);
     FileValue oldFileValue = outputArtifactData.putIfAbsent(artifact, fileValue);
     checkInconsistentData(artifact, oldFileValue, value);
     return maybeStoreAdditionalData(artifact, fileValue, null);
@@ -239,7 +256,7 @@ public class ActionMetadataHandler implements MetadataHandler {
         // from the filesystem, this FileValue will not compare equal to another one created for the
         // same file, because the other one will be missing its digest.
         fileValue = fileValueFromArtifact(artifact, FileStatusWithDigestAdapter.adapt(statNoFollow),
-            tsgm);
+            tsgm, externalFilesHelper, syscalls);
         // Ensure the digest supplied matches the actual digest if it exists.
         byte[] fileDigest = fileValue.getDigest();
         if (fileDigest != null && !Arrays.equals(digest, fileDigest)) {
@@ -349,6 +366,18 @@ public class ActionMetadataHandler implements MetadataHandler {
   static FileValue fileValueFromArtifact(Artifact artifact,
       @Nullable FileStatusWithDigest statNoFollow, TimestampGranularityMonitor tsgm)
       throws IOException {
+    return fileValueFromArtifact(artifact, statNoFollow, tsgm, null, UnixGlob.DEFAULT_SYSCALLS);
+  }
+
+  /**
+   * Like {@link #fileValueFromArtifact(Artifact, FileStatusWithDigest,
+   * TimestampGranularityMonitor)}, but if the artifact is a symlink into the package roots (as
+   * determined by {@code externalFilesHelper}), its target is read through {@code syscalls}.
+   */
+  private static FileValue fileValueFromArtifact(Artifact artifact,
+      @Nullable FileStatusWithDigest statNoFollow, TimestampGranularityMonitor tsgm,
+      @Nullable ExternalFilesHelper externalFilesHelper, UnixGlob.FilesystemCalls syscalls)
+      throws IOException {
     Path path = artifact.getPath();
     RootedPath rootedPath =
         RootedPath.toRootedPath(artifact.getRoot().getPath(), artifact.getRootRelativePath());
@@ -376,10 +405,14 @@ public class ActionMetadataHandler implements MetadataHandler {
     FileStateValue realFileStateValue;
     try {
       fileStateValue = FileStateValue.createWithStatNoFollow(rootedPath, statNoFollow, tsgm);
-      // TODO(bazel-team): consider avoiding a 'stat' here when the symlink target hasn't changed
-      // and is a source file (since changes to those are checked separately).
-      realFileStateValue = realPath.equals(path) ? fileStateValue
-          : FileStateValue.create(realRootedPath, tsgm);
+      if (realPath.equals(path)) {
+        realFileStateValue = fileStateValue;
+      } else if (externalFilesHelper != null && externalFilesHelper.isUnderPackageRoots(realPath)) {
+        // Source files don't change during the build, so their status may well be cached already.
+        realFileStateValue = FileStateValue.create(realRootedPath, syscalls, tsgm);
+      } else {
+        realFileStateValue = FileStateValue.create(realRootedPath, tsgm);
+      }
     } catch (InconsistentFilesystemException e) {
       throw new IOException(e);
     }
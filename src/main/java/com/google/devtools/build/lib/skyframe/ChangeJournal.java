@@ -0,0 +1,260 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Objects;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reads the journal of file changes written by the inotify-watcher helper, see its source for the
+ * format.
+ *
+ * <p>A {@link Position} in the journal stays meaningful for as long as the journal exists, also
+ * across server restarts, so it can be stored (see {@link Position#toString} and
+ * {@link Position#parse}) and later be used to ask what changed since.
+ */
+public final class ChangeJournal {
+
+  /** A point in time of the journal: after all records up to a sequence number. */
+  public static final class Position {
+    /**
+     * The sequence number of the first record of the journal file; changes when the journal is
+     * truncated, which invalidates the offset.
+     */
+    private final long generation;
+    private final long sequenceNumber;
+    /** The offset just behind the record with the sequence number. */
+    private final long offset;
+
+    private Position(long generation, long sequenceNumber, long offset) {
+      this.generation = generation;
+      this.sequenceNumber = sequenceNumber;
+      this.offset = offset;
+    }
+
+    public long getSequenceNumber() {
+      return sequenceNumber;
+    }
+
+    /**
+     * Parses the result of {@link #toString}.
+     *
+     * @throws IllegalArgumentException if {@code position} is malformed
+     */
+    public static Position parse(String position) {
+      String[] parts = position.split(":");
+      Preconditions.checkArgument(parts.length == 3, "Malformed journal position '%s'", position);
+      try {
+        return new Position(
+            Long.parseLong(parts[0]), Long.parseLong(parts[1]), Long.parseLong(parts[2]));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Malformed journal position '" + position + "'", e);
+      }
+    }
+
+    @Override
+    public boolean equals(Object other) {
+      if (!(other instanceof Position)) {
+        return false;
+      }
+      Position that = (Position) other;
+      return generation == that.generation && sequenceNumber == that.sequenceNumber
+          && offset == that.offset;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(generation, sequenceNumber, offset);
+    }
+
+    @Override
+    public String toString() {
+      return generation + ":" + sequenceNumber + ":" + offset;
+    }
+  }
+
+  private static final Position EMPTY = new Position(0, 0, 0);
+
+  private final Path journal;
+  /** The result of the last {@link #getCurrentPosition} call; reading continues from there. */
+  private Position lastPosition = EMPTY;
+
+  public ChangeJournal(Path journal) {
+    this.journal = journal;
+  }
+
+  /**
+   * Returns the position after the last complete record of the journal.
+   */
+  public synchronized Position getCurrentPosition() throws IOException {
+    byte[] contents;
+    long generation;
+    long start;
+    try (InputStream in = new BufferedInputStream(journal.getInputStream())) {
+      // Reading just the first record is cheap; it tells whether lastPosition is still valid.
+      byte[] firstLine = readLine(in);
+      if (firstLine == null) {
+        return EMPTY;
+      }
+      generation = parseSequenceNumber(firstLine, 0, firstLine.length);
+      if (generation == lastPosition.generation && lastPosition.offset >= firstLine.length + 1) {
+        start = lastPosition.offset;
+        ByteStreams.skipFully(in, start - (firstLine.length + 1));
+        contents = ByteStreams.toByteArray(in);
+      } else {
+        start = 0;
+        byte[] rest = ByteStreams.toByteArray(in);
+        contents = new byte[firstLine.length + 1 + rest.length];
+        System.arraycopy(firstLine, 0, contents, 0, firstLine.length);
+        contents[firstLine.length] = '\n';
+        System.arraycopy(rest, 0, contents, firstLine.length + 1, rest.length);
+      }
+    }
+
+    int end = lastIndexOf(contents, contents.length, (byte) '\n');
+    if (end == -1) {
+      // Nothing new.
+      return start == 0 ? EMPTY : lastPosition;
+    }
+    int lineStart = lastIndexOf(contents, end, (byte) '\n') + 1;
+    lastPosition = new Position(
+        generation, parseSequenceNumber(contents, lineStart, end), start + end + 1);
+    return lastPosition;
+  }
+
+  /**
+   * Returns the paths (relative to the watched root) that changed between two positions returned
+   * by {@link #getCurrentPosition}, or {@code null} if they are not known, in which case
+   * anything may have changed.
+   */
+  @Nullable
+  public ImmutableSet<PathFragment> getChanges(Position from, Position to) throws IOException {
+    if (from.generation != to.generation || from.offset > to.offset) {
+      return null;
+    }
+    if (from.offset == to.offset) {
+      return ImmutableSet.of();
+    }
+    byte[] contents;
+    try (InputStream in = new BufferedInputStream(journal.getInputStream())) {
+      byte[] firstLine = readLine(in);
+      if (firstLine == null || parseSequenceNumber(firstLine, 0, firstLine.length)
+          != to.generation) {
+        // The journal has been truncated in the meantime.
+        return null;
+      }
+      ByteStreams.skipFully(in, from.offset - (firstLine.length + 1));
+      contents = new byte[(int) (to.offset - from.offset)];
+      ByteStreams.readFully(in, contents);
+    }
+
+    ImmutableSet.Builder<PathFragment> changes = ImmutableSet.builder();
+    int lineStart = 0;
+    while (lineStart < contents.length) {
+      int lineEnd = indexOf(contents, lineStart, (byte) '\n');
+      if (lineEnd == -1) {
+        throw new IOException("Truncated record in " + journal);
+      }
+      int typeStart = indexOf(contents, lineStart, (byte) ' ') + 1;
+      if (typeStart == 0 || typeStart >= lineEnd) {
+        throw new IOException("Malformed record in " + journal);
+      }
+      switch (contents[typeStart]) {
+        case 'C':
+          if (typeStart + 2 >= lineEnd) {
+            throw new IOException("Malformed record in " + journal);
+          }
+          changes.add(new PathFragment(
+              new String(contents, typeStart + 2, lineEnd - typeStart - 2, ISO_8859_1)));
+          break;
+        case 'R':
+        case 'O':
+          // A watcher (re)started or lost events.
+          return null;
+        default:
+          throw new IOException("Unknown record type in " + journal);
+      }
+      lineStart = lineEnd + 1;
+    }
+    return changes.build();
+  }
+
+  /** Reads a line without the newline, or returns null if there is no complete line. */
+  @Nullable
+  private static byte[] readLine(InputStream in) throws IOException {
+    byte[] buffer = new byte[32];
+    int length = 0;
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '\n') {
+        byte[] line = new byte[length];
+        System.arraycopy(buffer, 0, line, 0, length);
+        return line;
+      }
+      if (length == buffer.length) {
+        byte[] newBuffer = new byte[buffer.length * 2];
+        System.arraycopy(buffer, 0, newBuffer, 0, length);
+        buffer = newBuffer;
+      }
+      buffer[length++] = (byte) c;
+    }
+    return null;
+  }
+
+  private long parseSequenceNumber(byte[] line, int start, int end) throws IOException {
+    long result = 0;
+    int i = start;
+    for (; i < end && line[i] != ' '; i++) {
+      if (line[i] < '0' || line[i] > '9') {
+        throw new IOException("Malformed record in " + journal);
+      }
+      result = result * 10 + (line[i] - '0');
+    }
+    if (i == start) {
+      throw new IOException("Malformed record in " + journal);
+    }
+    return result;
+  }
+
+  private static int indexOf(byte[] bytes, int from, byte b) {
+    for (int i = from; i < bytes.length; i++) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Returns the last index of {@code b} before {@code before}, or -1. */
+  private static int lastIndexOf(byte[] bytes, int before, byte b) {
+    for (int i = before - 1; i >= 0; i--) {
+      if (bytes[i] == b) {
+        return i;
+      }
+    }
+    return -1;
+  }
+}
@@ -14,25 +14,31 @@
 package com.google.devtools.build.lib.skyframe;
 
 import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionException;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link SkyFunction} for {@link DirectoryListingStateValue}s.
  *
  * <p>Merely calls DirectoryListingStateValue#create, but also has special handling for
- * directories outside the package roots (see {@link ExternalFilesHelper}).
+ * directories outside the package roots (see {@link ExternalFilesHelper}). Directories inside the
+ * package roots are read through the per-build syscall cache (see {@link PerBuildSyscallCache}).
  */
 public class DirectoryListingStateFunction implements SkyFunction {
 
   private final ExternalFilesHelper externalFilesHelper;
+  private final AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls;
 
-  public DirectoryListingStateFunction(ExternalFilesHelper externalFilesHelper) {
+  public DirectoryListingStateFunction(ExternalFilesHelper externalFilesHelper,
+      AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls) {
     this.externalFilesHelper = externalFilesHelper;
+    this.syscalls = syscalls;
   }
 
   @Override
@@ -45,7 +51,9 @@ public class DirectoryListingStateFunction implements SkyFunction {
       if (env.valuesMissing()) {
         return null;
       }
-      return DirectoryListingStateValue.create(dirRootedPath);
+      return DirectoryListingStateValue.create(dirRootedPath,
+          externalFilesHelper.isInternalFile(dirRootedPath)
+              ? syscalls.get() : UnixGlob.DEFAULT_SYSCALLS);
     } catch (FileOutsidePackageRootsException e) {
       throw new DirectoryListingStateFunctionException(e);
     } catch (IOException e) {
@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.Dirent.Type;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
@@ -53,7 +54,16 @@ final class DirectoryListingStateValue implements SkyValue {
   }
 
   public static DirectoryListingStateValue create(RootedPath dirRootedPath) throws IOException {
-    Collection<Dirent> dirents = dirRootedPath.asPath().readdir(Symlinks.NOFOLLOW);
+    return create(dirRootedPath, UnixGlob.DEFAULT_SYSCALLS);
+  }
+
+  /**
+   * Like {@link #create(RootedPath)}, but reads the directory through {@code syscalls}, which may
+   * answer from a cache.
+   */
+  public static DirectoryListingStateValue create(RootedPath dirRootedPath,
+      UnixGlob.FilesystemCalls syscalls) throws IOException {
+    Collection<Dirent> dirents = syscalls.readdir(dirRootedPath.asPath(), Symlinks.NOFOLLOW);
     return new DirectoryListingStateValue(dirents);
   }
 
@@ -85,6 +85,24 @@ public class ExternalFilesHelper {
     return FileType.INTERNAL_FILE;
   }
 
+  /**
+   * Returns whether {@code rootedPath} is inside the package roots, that is, whether it is a source
+   * file that is assumed not to change during a build.
+   */
+  boolean isInternalFile(RootedPath rootedPath) {
+    return getFileType(rootedPath) == FileType.INTERNAL_FILE;
+  }
+
+  /** Returns whether {@code path} is under one of the package roots. */
+  boolean isUnderPackageRoots(Path path) {
+    for (Path root : pkgLocator.get().getPathEntries()) {
+      if (path.startsWith(root)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
   public boolean shouldAssumeImmutable(RootedPath rootedPath) {
     return getFileType(rootedPath) == FileType.EXTERNAL_IMMUTABLE_FILE;
   }
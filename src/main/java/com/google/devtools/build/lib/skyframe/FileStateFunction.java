@@ -15,28 +15,34 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.SkyFunction;
 import com.google.devtools.build.skyframe.SkyFunctionException;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A {@link SkyFunction} for {@link FileStateValue}s.
  *
  * <p>Merely calls FileStateValue#create, but also has special handling for files outside the
- * package roots (see {@link ExternalFilesHelper}).
+ * package roots (see {@link ExternalFilesHelper}). Files inside the package roots are read through
+ * the per-build syscall cache (see {@link PerBuildSyscallCache}).
  */
 public class FileStateFunction implements SkyFunction {
 
   private final TimestampGranularityMonitor tsgm;
   private final ExternalFilesHelper externalFilesHelper;
+  private final AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls;
 
   public FileStateFunction(TimestampGranularityMonitor tsgm,
-      ExternalFilesHelper externalFilesHelper) {
+      ExternalFilesHelper externalFilesHelper,
+      AtomicReference<? extends UnixGlob.FilesystemCalls> syscalls) {
     this.tsgm = tsgm;
     this.externalFilesHelper = externalFilesHelper;
+    this.syscalls = syscalls;
   }
 
   @Override
@@ -48,7 +54,10 @@ public class FileStateFunction implements SkyFunction {
       if (env.valuesMissing()) {
         return null;
       }
-      return FileStateValue.create(rootedPath, tsgm);
+      return FileStateValue.create(rootedPath,
+          externalFilesHelper.isInternalFile(rootedPath)
+              ? syscalls.get() : UnixGlob.DEFAULT_SYSCALLS,
+          tsgm);
     } catch (FileOutsidePackageRootsException e) {
       throw new FileStateFunctionException(e);
     } catch (IOException e) {
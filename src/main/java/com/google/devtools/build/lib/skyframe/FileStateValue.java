@@ -24,6 +24,7 @@ import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
 import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
@@ -69,26 +70,44 @@ public abstract class FileStateValue implements SkyValue {
   static FileStateValue create(RootedPath rootedPath,
       @Nullable TimestampGranularityMonitor tsgm) throws InconsistentFilesystemException,
       IOException {
+    return create(rootedPath, UnixGlob.DEFAULT_SYSCALLS, tsgm);
+  }
+
+  /**
+   * Like {@link #create(RootedPath, TimestampGranularityMonitor)}, but reads the filesystem
+   * through {@code syscalls}, which may answer from a cache.
+   */
+  static FileStateValue create(RootedPath rootedPath, UnixGlob.FilesystemCalls syscalls,
+      @Nullable TimestampGranularityMonitor tsgm) throws InconsistentFilesystemException,
+      IOException {
     Path path = rootedPath.asPath();
     // Stat, but don't throw an exception for the common case of a nonexistent file. This still
     // throws an IOException in case any other IO error is encountered.
-    FileStatus stat = path.statIfFound(Symlinks.NOFOLLOW);
+    FileStatus stat = syscalls.statIfFound(path, Symlinks.NOFOLLOW);
     if (stat == null) {
       return NONEXISTENT_FILE_STATE_NODE;
     }
-    return createWithStatNoFollow(rootedPath, FileStatusWithDigestAdapter.adapt(stat), tsgm);
+    return createWithStatNoFollow(
+        rootedPath, FileStatusWithDigestAdapter.adapt(stat), syscalls, tsgm);
   }
 
   static FileStateValue createWithStatNoFollow(RootedPath rootedPath,
       FileStatusWithDigest statNoFollow, @Nullable TimestampGranularityMonitor tsgm)
           throws InconsistentFilesystemException, IOException {
+    return createWithStatNoFollow(rootedPath, statNoFollow, UnixGlob.DEFAULT_SYSCALLS, tsgm);
+  }
+
+  private static FileStateValue createWithStatNoFollow(RootedPath rootedPath,
+      FileStatusWithDigest statNoFollow, UnixGlob.FilesystemCalls syscalls,
+      @Nullable TimestampGranularityMonitor tsgm)
+          throws InconsistentFilesystemException, IOException {
     Path path = rootedPath.asPath();
     if (statNoFollow.isFile()) {
       return FileFileStateValue.fromPath(path, statNoFollow, tsgm);
     } else if (statNoFollow.isDirectory()) {
       return DIRECTORY_FILE_STATE_NODE;
     } else if (statNoFollow.isSymbolicLink()) {
-      return new SymlinkFileStateValue(path.readSymbolicLinkUnchecked());
+      return new SymlinkFileStateValue(syscalls.readlink(path));
     }
     throw new InconsistentFilesystemException("according to stat, existing path " + path + " is "
         + "neither a file nor directory nor symlink.");
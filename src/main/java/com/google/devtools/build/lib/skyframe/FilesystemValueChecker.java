@@ -13,17 +13,19 @@
 // limitations under the License.
 package com.google.devtools.build.lib.skyframe;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.actions.Artifact;
-import com.google.devtools.build.lib.concurrent.ExecutorUtil;
 import com.google.devtools.build.lib.concurrent.Sharder;
 import com.google.devtools.build.lib.concurrent.ThrowableRecordingRunnableWrapper;
 import com.google.devtools.build.lib.skyframe.SkyValueDirtinessChecker.DirtyResult;
@@ -32,6 +34,8 @@ import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
 import com.google.devtools.build.lib.vfs.BatchStat;
 import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.RootedPath;
 import com.google.devtools.build.skyframe.Differencer;
 import com.google.devtools.build.skyframe.MemoizingEvaluator;
 import com.google.devtools.build.skyframe.SkyFunctionName;
@@ -39,15 +43,20 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -57,10 +66,35 @@ import javax.annotation.Nullable;
 /**
  * A helper class to find dirty values by accessing the filesystem directly (contrast with
  * {@link DiffAwareness}).
+ *
+ * <p>Values are checked in batches of keys that live in the same directory, on a thread pool that
+ * is shared by all checkers. The number of threads is chosen for each check from the latency of
+ * the first few checks: a local disk with a warm cache is saturated by a few threads per core,
+ * while a network filesystem needs many more requests in flight.
  */
 class FilesystemValueChecker {
 
-  private static final int DIRTINESS_CHECK_THREADS = 50;
+  /** The number of values checked in the calling thread to measure the filesystem latency. */
+  private static final int PROBE_CHECKS = 64;
+
+  /** How long a single check takes when the filesystem does not make the caller wait. */
+  private static final long CPU_BOUND_CHECK_NANOS = TimeUnit.MICROSECONDS.toNanos(10);
+
+  private static final int MAX_DIRTINESS_CHECK_THREADS = 200;
+
+  /** The maximum number of keys checked by one task, so that large directories are split. */
+  private static final int MAX_BATCH_SIZE = 256;
+
+  /**
+   * The threads that check values. They are kept across builds and are only released after
+   * having been idle for a while.
+   */
+  private static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(
+      new ThreadFactoryBuilder()
+          .setNameFormat("FileSystem Value Invalidator %d")
+          .setDaemon(true)
+          .build());
+
   private static final Logger LOG = Logger.getLogger(FilesystemValueChecker.class.getName());
 
   private static final Predicate<SkyKey> ACTION_FILTER =
@@ -72,6 +106,10 @@ class FilesystemValueChecker {
   private final Supplier<Map<SkyKey, SkyValue>> valuesSupplier;
   private AtomicInteger modifiedOutputFilesCounter = new AtomicInteger(0);
   private AtomicInteger modifiedOutputFilesIntraBuildCounter = new AtomicInteger(0);
+  private final AtomicInteger checkedValuesCounter = new AtomicInteger(0);
+  private final AtomicInteger skippedValuesCounter = new AtomicInteger(0);
+  /** The measured time of a single check, or -1 if it was not measured yet. */
+  private long nanosPerCheck = -1;
 
   FilesystemValueChecker(Supplier<Map<SkyKey, SkyValue>> valuesSupplier,
       TimestampGranularityMonitor tsgm, @Nullable Range<Long> lastExecutionTimeRange) {
@@ -136,29 +174,21 @@ class FilesystemValueChecker {
     }
     LOG.info("Sharded action values for batching");
 
-    ExecutorService executor = Executors.newFixedThreadPool(
-        numOutputJobs,
-        new ThreadFactoryBuilder().setNameFormat("FileSystem Output File Invalidator %d").build());
-
     Collection<SkyKey> dirtyKeys = Sets.newConcurrentHashSet();
     ThrowableRecordingRunnableWrapper wrapper =
         new ThrowableRecordingRunnableWrapper("FileSystemValueChecker#getDirtyActionValues");
 
     modifiedOutputFilesCounter.set(0);
     modifiedOutputFilesIntraBuildCounter.set(0);
+    List<Runnable> jobs = new ArrayList<>();
     for (List<Pair<SkyKey, ActionExecutionValue>> shard : outputShards) {
-      Runnable job = (batchStatter == null)
+      jobs.add((batchStatter == null)
           ? outputStatJob(dirtyKeys, shard)
-          : batchStatJob(dirtyKeys, shard, batchStatter);
-      executor.submit(wrapper.wrap(job));
+          : batchStatJob(dirtyKeys, shard, batchStatter));
     }
 
-    boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
-    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+    runInParallel(jobs, 0, numOutputJobs, wrapper);
     LOG.info("Completed output file stat checks");
-    if (interrupted) {
-      throw new InterruptedException();
-    }
     return dirtyKeys;
   }
 
@@ -282,40 +312,246 @@ class FilesystemValueChecker {
     return isDirty;
   }
 
+  /**
+   * Returns the number of values whose dirtiness was checked by the last call to
+   * {@link #getDirtyKeys} or {@link #getNewAndOldValues}.
+   */
+  int getNumberOfCheckedValues() {
+    return checkedValuesCounter.get();
+  }
+
+  /**
+   * Returns the number of values that were known to be dirty or clean without a check, because
+   * they are below a directory that was deleted.
+   */
+  int getNumberOfSkippedValues() {
+    return skippedValuesCounter.get();
+  }
+
   private BatchDirtyResult getDirtyValues(
-      Iterable<SkyKey> values, final SkyValueDirtinessChecker checker,
-      final boolean checkMissingValues) throws InterruptedException {
-    ExecutorService executor =
-        Executors.newFixedThreadPool(
-            DIRTINESS_CHECK_THREADS,
-            new ThreadFactoryBuilder().setNameFormat("FileSystem Value Invalidator %d").build());
-
-    final BatchDirtyResult batchResult = new BatchDirtyResult();
+      Iterable<SkyKey> keys, SkyValueDirtinessChecker checker, boolean checkMissingValues)
+      throws InterruptedException {
+    long startTime = System.nanoTime();
+    checkedValuesCounter.set(0);
+    skippedValuesCounter.set(0);
+
+    // Directories are checked first, so that the contents of deleted directories need not be.
+    Map<Object, List<Pair<SkyKey, SkyValue>>> directoryBatches = new LinkedHashMap<>();
+    Map<Object, List<Pair<SkyKey, SkyValue>>> batches = new LinkedHashMap<>();
+    int numValues = 0;
+    for (SkyKey key : keys) {
+      SkyValue value = valuesSupplier.get().get(key);
+      if (value == null && !checkMissingValues) {
+        continue;
+      }
+      numValues++;
+      boolean isDirectory = key.functionName().equals(SkyFunctions.FILE_STATE)
+          && value instanceof FileStateValue
+          && ((FileStateValue) value).getType() == FileStateValue.Type.DIRECTORY;
+      Map<Object, List<Pair<SkyKey, SkyValue>>> target = isDirectory ? directoryBatches : batches;
+      Object directory = getDirectory(key);
+      List<Pair<SkyKey, SkyValue>> batch = target.get(directory);
+      if (batch == null) {
+        batch = new ArrayList<>();
+        target.put(directory, batch);
+      }
+      batch.add(Pair.of(key, value));
+    }
+
+    BatchDirtyResult batchResult = new BatchDirtyResult();
+    Set<Path> deletedDirectories =
+        Collections.newSetFromMap(new ConcurrentHashMap<Path, Boolean>());
+    int threads = checkBatches(directoryBatches.values(), checker, batchResult,
+        deletedDirectories, ImmutableSet.<Path>of());
+    threads = Math.max(threads, checkBatches(
+        batches.values(), checker, batchResult, null, deletedDirectories));
+
+    LOG.info(String.format("Checked %d of %d values with %d threads in %d ms, skipped %d below "
+        + "%d deleted directories", checkedValuesCounter.get(), numValues, threads,
+        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime), skippedValuesCounter.get(),
+        deletedDirectories.size()));
+    return batchResult;
+  }
+
+  /**
+   * Returns the directory whose contents the given key depends on, or the key itself if it is not
+   * a filesystem key.
+   */
+  private static Object getDirectory(SkyKey key) {
+    if (key.argument() instanceof RootedPath) {
+      Path path = ((RootedPath) key.argument()).asPath();
+      if (key.functionName().equals(SkyFunctions.DIRECTORY_LISTING_STATE)) {
+        return path;
+      }
+      if (key.functionName().equals(SkyFunctions.FILE_STATE) && path.getParentDirectory() != null) {
+        return path.getParentDirectory();
+      }
+    }
+    return key;
+  }
+
+  /**
+   * Checks the given batches of keys, adding the dirty ones to {@code batchResult}. Directories
+   * found to be deleted are added to {@code deletedDirectories} if it is not null, and keys below
+   * {@code knownDeletedDirectories} are not checked at all. Returns the number of threads used.
+   */
+  private int checkBatches(Collection<List<Pair<SkyKey, SkyValue>>> batches,
+      final SkyValueDirtinessChecker checker, final BatchDirtyResult batchResult,
+      @Nullable final Set<Path> deletedDirectories, final Set<Path> knownDeletedDirectories)
+      throws InterruptedException {
+    List<Runnable> jobs = new ArrayList<>();
+    for (List<Pair<SkyKey, SkyValue>> batch : batches) {
+      for (int i = 0; i < batch.size(); i += MAX_BATCH_SIZE) {
+        final List<Pair<SkyKey, SkyValue>> slice =
+            batch.subList(i, Math.min(batch.size(), i + MAX_BATCH_SIZE));
+        jobs.add(new Runnable() {
+          @Override
+          public void run() {
+            for (Pair<SkyKey, SkyValue> keyAndValue : slice) {
+              checkValue(keyAndValue.getFirst(), keyAndValue.getSecond(), checker, batchResult,
+                  deletedDirectories, knownDeletedDirectories);
+            }
+          }
+        });
+      }
+    }
     ThrowableRecordingRunnableWrapper wrapper =
         new ThrowableRecordingRunnableWrapper("FilesystemValueChecker#getDirtyValues");
-    for (final SkyKey key : values) {
-      final SkyValue value = valuesSupplier.get().get(key);
-      executor.execute(
-          wrapper.wrap(
-              new Runnable() {
-                @Override
-                public void run() {
-                  if (value != null || checkMissingValues) {
-                    DirtyResult result = checker.maybeCheck(key, value, tsgm);
-                    if (result != null && result.isDirty()) {
-                      batchResult.add(key, value, result.getNewValue());
-                    }
-                  }
-                }
-              }));
+
+    int probed = 0;
+    if (nanosPerCheck < 0) {
+      // Measure the latency of the filesystem by doing some of the work in this thread.
+      long start = System.nanoTime();
+      int startCount = checkedValuesCounter.get();
+      while (probed < jobs.size() && checkedValuesCounter.get() - startCount < PROBE_CHECKS) {
+        wrapper.wrap(jobs.get(probed++)).run();
+      }
+      Throwables.propagateIfPossible(wrapper.getFirstThrownError());
+      int checked = checkedValuesCounter.get() - startCount;
+      if (checked >= PROBE_CHECKS) {
+        nanosPerCheck = (System.nanoTime() - start) / checked;
+      }
     }
+    if (probed == jobs.size()) {
+      return 1;
+    }
+    int threads = getThreadCount(nanosPerCheck);
+    runInParallel(jobs, probed, threads, wrapper);
+    return threads;
+  }
 
-    boolean interrupted = ExecutorUtil.interruptibleShutdown(executor);
-    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
-    if (interrupted) {
-      throw new InterruptedException();
+  private void checkValue(SkyKey key, @Nullable SkyValue value, SkyValueDirtinessChecker checker,
+      BatchDirtyResult batchResult, @Nullable Set<Path> deletedDirectories,
+      Set<Path> knownDeletedDirectories) {
+    if (!knownDeletedDirectories.isEmpty() && key.argument() instanceof RootedPath
+        && isBelow(((RootedPath) key.argument()).asPath(), knownDeletedDirectories)) {
+      // The path does not exist any more, so there is no need to ask the filesystem.
+      skippedValuesCounter.incrementAndGet();
+      if (value instanceof FileStateValue
+          && ((FileStateValue) value).getType() == FileStateValue.Type.NONEXISTENT) {
+        return;
+      }
+      if (key.functionName().equals(SkyFunctions.FILE_STATE)) {
+        batchResult.add(key, value, FileStateValue.NONEXISTENT_FILE_STATE_NODE);
+      } else {
+        batchResult.add(key, value, null);
+      }
+      return;
     }
-    return batchResult;
+    checkedValuesCounter.incrementAndGet();
+    DirtyResult result = checker.maybeCheck(key, value, tsgm);
+    if (result != null && result.isDirty()) {
+      SkyValue newValue = result.getNewValue();
+      batchResult.add(key, value, newValue);
+      if (deletedDirectories != null && newValue instanceof FileStateValue
+          && ((FileStateValue) newValue).getType() != FileStateValue.Type.DIRECTORY
+          && ((FileStateValue) newValue).getType() != FileStateValue.Type.SYMLINK) {
+        deletedDirectories.add(((RootedPath) key.argument()).asPath());
+      }
+    }
+  }
+
+  private static boolean isBelow(Path path, Set<Path> directories) {
+    for (Path parent = path.getParentDirectory(); parent != null;
+        parent = parent.getParentDirectory()) {
+      if (directories.contains(parent)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the number of threads to use when a single check takes the given time. Waiting for
+   * the filesystem does not use the CPU, so the slower the checks, the more threads are useful.
+   */
+  @VisibleForTesting
+  static int getThreadCount(long nanosPerCheck) {
+    int processors = Runtime.getRuntime().availableProcessors();
+    long threadsPerProcessor =
+        Math.min(MAX_DIRTINESS_CHECK_THREADS, nanosPerCheck / CPU_BOUND_CHECK_NANOS);
+    return (int) Math.max(processors,
+        Math.min(MAX_DIRTINESS_CHECK_THREADS, processors * threadsPerProcessor));
+  }
+
+  /**
+   * Runs the jobs from the given index on at most {@code threads} threads of the shared pool, and
+   * waits for them. If the calling thread is interrupted, the jobs that did not start are dropped,
+   * and the running ones are interrupted.
+   */
+  private static void runInParallel(final List<Runnable> jobs, int from, int threads,
+      ThrowableRecordingRunnableWrapper wrapper) throws InterruptedException {
+    final AtomicInteger next = new AtomicInteger(from);
+    final Set<Thread> running = new HashSet<>();
+    final boolean[] cancelled = new boolean[1];
+    int workers = Math.min(threads, jobs.size() - from);
+    final CountDownLatch done = new CountDownLatch(workers);
+    for (int i = 0; i < workers; i++) {
+      final Runnable worker = wrapper.wrap(new Runnable() {
+        @Override
+        public void run() {
+          int index;
+          while ((index = next.getAndIncrement()) < jobs.size()) {
+            jobs.get(index).run();
+          }
+        }
+      });
+      EXECUTOR.execute(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            synchronized (running) {
+              if (cancelled[0]) {
+                return;
+              }
+              running.add(Thread.currentThread());
+            }
+            worker.run();
+          } finally {
+            synchronized (running) {
+              running.remove(Thread.currentThread());
+              // Do not leak an interrupt meant for this job to the next user of the thread.
+              Thread.interrupted();
+            }
+            done.countDown();
+          }
+        }
+      });
+    }
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      synchronized (running) {
+        cancelled[0] = true;
+        next.set(jobs.size());
+        for (Thread thread : running) {
+          thread.interrupt();
+        }
+      }
+      Uninterruptibles.awaitUninterruptibly(done);
+      throw e;
+    }
+    Throwables.propagateIfPossible(wrapper.getFirstThrownError());
   }
 
   /**
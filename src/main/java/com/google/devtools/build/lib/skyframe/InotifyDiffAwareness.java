@@ -0,0 +1,214 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.shell.CommandException;
+import com.google.devtools.build.lib.util.Fingerprint;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.ModifiedFileSet;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * File system watcher for local filesystems on Linux. The watching is done by the inotify-watcher
+ * helper, which registers the directories natively and records the changes in a journal.
+ *
+ * <p>Unlike the watch service of {@link LocalDiffAwareness}, the helper outlives the server, so a
+ * restarted server doesn't have to register every directory again, and the journal keeps the
+ * changes in between (see {@link ChangeJournal}). An overflow of the kernel queue only makes the
+ * next diff inexact instead of breaking the watcher.
+ */
+public final class InotifyDiffAwareness implements DiffAwareness {
+
+  private static final Logger LOG = Logger.getLogger(InotifyDiffAwareness.class.getName());
+
+  /** Factory for creating {@link InotifyDiffAwareness} instances. */
+  public static class Factory implements DiffAwareness.Factory {
+    private final Path binary;
+    private final Path journalDirectory;
+
+    /**
+     * Creates a factory that starts the watchers with the inotify-watcher {@code binary} and keeps
+     * their journals in {@code journalDirectory}. The watchers exit when their journal is deleted.
+     */
+    public Factory(Path binary, Path journalDirectory) {
+      this.binary = binary;
+      this.journalDirectory = journalDirectory;
+    }
+
+    @Override
+    public DiffAwareness maybeCreate(Path pathEntry) {
+      Path journal = startWatcher(binary, pathEntry, journalDirectory);
+      if (journal == null) {
+        return null;
+      }
+      try {
+        return new InotifyDiffAwareness(pathEntry.resolveSymbolicLinks(), journal);
+      } catch (IOException e) {
+        return null;
+      }
+    }
+  }
+
+  /**
+   * Makes sure that an inotify-watcher is watching {@code root}, and returns its journal in
+   * {@code journalDirectory}. Returns null if the watcher could not be started, for example
+   * because this is not Linux.
+   */
+  @Nullable
+  public static Path startWatcher(Path binary, Path root, Path journalDirectory) {
+    if (OS.getCurrent() != OS.LINUX || !binary.exists()) {
+      return null;
+    }
+    Path resolvedRoot;
+    Path journal;
+    try {
+      resolvedRoot = root.resolveSymbolicLinks();
+      journal = getJournal(resolvedRoot, journalDirectory);
+    } catch (IOException e) {
+      return null;
+    }
+    try {
+      FileSystemUtils.createDirectoryAndParents(journalDirectory);
+      // Returns immediately if a watcher is already running.
+      new Command(new String[] {
+          binary.getPathString(), resolvedRoot.getPathString(), journal.getPathString()})
+          .execute();
+    } catch (IOException | CommandException e) {
+      LOG.warning("Could not start inotify-watcher for " + resolvedRoot + ": " + e);
+      return null;
+    }
+    return journal;
+  }
+
+  /**
+   * Returns the journal in {@code journalDirectory} of the watcher of {@code root}, whether or
+   * not that watcher is running.
+   */
+  public static Path getJournal(Path root, Path journalDirectory) throws IOException {
+    return journalDirectory.getRelative("inotify-"
+        + Fingerprint.md5Digest(root.resolveSymbolicLinks().getPathString()) + ".journal");
+  }
+
+  /**
+   * Returns whether a watcher is writing {@code journal}. The watcher holds a lock on the lock
+   * file next to its journal for as long as it runs.
+   */
+  public static boolean isWatcherRunning(Path journal) {
+    Path lockPath = journal.getParentDirectory().getRelative(journal.getBaseName() + ".lock");
+    try (RandomAccessFile file = new RandomAccessFile(lockPath.getPathFile(), "rw");
+        FileChannel channel = file.getChannel()) {
+      FileLock lock = channel.tryLock();
+      if (lock == null) {
+        return true;
+      }
+      lock.release();
+      return false;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /** The position in the journal of the watcher at some point in time. */
+  private static class JournalView implements DiffAwareness.View {
+    private final Path journal;
+    private final ChangeJournal.Position position;
+
+    private JournalView(Path journal, ChangeJournal.Position position) {
+      this.journal = journal;
+      this.position = position;
+    }
+
+    @Override
+    public String toString() {
+      return String.format("JournalView[journal=%s, position=%s]", journal, position);
+    }
+  }
+
+  private final Path watchRoot;
+  private final Path journalPath;
+  private final ChangeJournal journal;
+
+  private InotifyDiffAwareness(Path watchRoot, Path journalPath) {
+    this.watchRoot = watchRoot;
+    this.journalPath = journalPath;
+    this.journal = new ChangeJournal(journalPath);
+  }
+
+  @Override
+  public View getCurrentView() throws BrokenDiffAwarenessException {
+    // Read the position first: if the watcher dies right after, its last records are still valid.
+    ChangeJournal.Position position;
+    try {
+      position = journal.getCurrentPosition();
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException("Error reading the inotify journal " + e);
+    }
+    if (!isWatcherRunning(journalPath)) {
+      close();
+      throw new BrokenDiffAwarenessException("The inotify-watcher of " + watchRoot + " exited");
+    }
+    return new JournalView(journalPath, position);
+  }
+
+  @Override
+  public ModifiedFileSet getDiff(View oldView, View newView)
+      throws IncompatibleViewException, BrokenDiffAwarenessException {
+    JournalView oldJournalView;
+    JournalView newJournalView;
+    try {
+      oldJournalView = (JournalView) oldView;
+      newJournalView = (JournalView) newView;
+    } catch (ClassCastException e) {
+      throw new IncompatibleViewException("Given views are not from InotifyDiffAwareness");
+    }
+    if (!oldJournalView.journal.equals(journalPath)
+        || !newJournalView.journal.equals(journalPath)) {
+      throw new IncompatibleViewException("Given views are from a different journal");
+    }
+    ImmutableSet<PathFragment> changes;
+    try {
+      changes = journal.getChanges(oldJournalView.position, newJournalView.position);
+    } catch (IOException e) {
+      close();
+      throw new BrokenDiffAwarenessException("Error reading the inotify journal " + e);
+    }
+    if (changes == null) {
+      return ModifiedFileSet.EVERYTHING_MODIFIED;
+    }
+    return ModifiedFileSet.builder().modifyAll(changes).build();
+  }
+
+  @Override
+  public String name() {
+    return "inotify";
+  }
+
+  @Override
+  public void close() {
+    // The watcher deliberately keeps running, so that it can be reused by the next instance.
+  }
+}
@@ -21,6 +21,7 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import com.google.devtools.build.lib.cmdline.LabelSyntaxException;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier;
 import com.google.devtools.build.lib.cmdline.PackageIdentifier.RepositoryName;
@@ -49,6 +50,8 @@ import com.google.devtools.build.lib.skyframe.SkylarkImportLookupFunction.Skylar
 import com.google.devtools.build.lib.syntax.BuildFileAST;
 import com.google.devtools.build.lib.syntax.Environment.Extension;
 import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.ExpressionStatement;
+import com.google.devtools.build.lib.syntax.FuncallExpression;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.syntax.ParserInputSource;
 import com.google.devtools.build.lib.syntax.Statement;
@@ -65,6 +68,7 @@ import com.google.devtools.build.skyframe.ValueOrException3;
 import com.google.devtools.build.skyframe.ValueOrException4;
 
 import java.io.IOException;
+import java.nio.CharBuffer;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
@@ -73,6 +77,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
 
@@ -88,6 +93,7 @@ public class PackageFunction implements SkyFunction {
   private final Cache<PackageIdentifier, Preprocessor.Result> preprocessCache;
   private final AtomicBoolean showLoadingProgress;
   private final AtomicInteger numPackagesLoaded;
+  private final AtomicReference<PersistentSkylarkCache> skylarkCache;
   private final Profiler profiler = Profiler.instance();
 
   private final PathFragment preludePath;
@@ -99,7 +105,8 @@ public class PackageFunction implements SkyFunction {
       CachingPackageLocator pkgLocator, AtomicBoolean showLoadingProgress,
       Cache<PackageIdentifier, Package.LegacyBuilder> packageFunctionCache,
       Cache<PackageIdentifier, Preprocessor.Result> preprocessCache,
-      AtomicInteger numPackagesLoaded) {
+      AtomicInteger numPackagesLoaded,
+      AtomicReference<PersistentSkylarkCache> skylarkCache) {
     this.reporter = reporter;
 
     // Can be null in tests.
@@ -112,6 +119,7 @@ public class PackageFunction implements SkyFunction {
     this.packageFunctionCache = packageFunctionCache;
     this.preprocessCache = preprocessCache;
     this.numPackagesLoaded = numPackagesLoaded;
+    this.skylarkCache = skylarkCache;
   }
 
   private static void maybeThrowFilesystemInconsistency(PackageIdentifier packageIdentifier,
@@ -551,27 +559,18 @@ public class PackageFunction implements SkyFunction {
     return ok;
   }
 
-  // TODO(bazel-team): this should take the AST so we don't parse the file twice.
   @Nullable
   private SkylarkImportResult discoverSkylarkImports(
       Path buildFilePath,
       PathFragment buildFileFragment,
       PackageIdentifier packageId,
       Environment env,
-      ParserInputSource inputSource,
-      List<Statement> preludeStatements)
+      BuildFileAST buildFileAST,
+      StoredEventHandler parseEvents)
       throws PackageFunctionException {
-    StoredEventHandler eventHandler = new StoredEventHandler();
-    BuildFileAST buildFileAST =
-        BuildFileAST.parseBuildFile(
-            inputSource,
-            preludeStatements,
-            eventHandler,
-            /* package locator */ null,
-            /* parse python */ false);
     SkylarkImportResult importResult;
     boolean includeRepositoriesFetched;
-    if (eventHandler.hasErrors()) {
+    if (parseEvents.hasErrors()) {
       importResult =
           new SkylarkImportResult(
               ImmutableMap.<PathFragment, Extension>of(),
@@ -840,23 +839,26 @@ public class PackageFunction implements SkyFunction {
           preprocessCache.put(packageId, preprocessingResult);
         }
 
+        StoredEventHandler parseEvents = new StoredEventHandler();
+        BuildFileAST buildFileAST = parseBuildFile(buildFilePath,
+            preprocessingResult.result, parseEvents).prependStatements(preludeStatements);
         SkylarkImportResult importResult =
             discoverSkylarkImports(
                 buildFilePath,
                 buildFileFragment,
                 packageId,
                 env,
-                preprocessingResult.result,
-                preludeStatements);
+                buildFileAST,
+                parseEvents);
         if (importResult == null) {
           return null;
         }
         preprocessCache.invalidate(packageId);
 
-        pkgBuilder = packageFactory.createPackageFromPreprocessingResult(externalPkg, packageId,
-            buildFilePath, preprocessingResult, preprocessingResult.events, preludeStatements,
-            importResult.importMap, importResult.fileDependencies, packageLocator,
-            defaultVisibility, globber);
+        pkgBuilder = packageFactory.createPackageFromAST(externalPkg, packageId, buildFilePath,
+            preprocessingResult,
+            Iterables.concat(preprocessingResult.events, parseEvents.getEvents()), buildFileAST,
+            importResult.importMap, importResult.fileDependencies, defaultVisibility, globber);
         numPackagesLoaded.incrementAndGet();
         packageFunctionCache.put(packageId, pkgBuilder);
       } finally {
@@ -866,6 +868,46 @@ public class PackageFunction implements SkyFunction {
     return pkgBuilder;
   }
 
+  /**
+   * Parses the (preprocessed) content of a BUILD file, or takes its syntax tree from the
+   * persistent cache if the same content was parsed before.
+   */
+  private BuildFileAST parseBuildFile(Path buildFilePath, ParserInputSource input,
+      StoredEventHandler parseEvents) {
+    PersistentSkylarkCache cache = skylarkCache.get();
+    String digest = null;
+    if (cache != null) {
+      digest = Hashing.md5().hashUnencodedChars(CharBuffer.wrap(input.getContent())).toString();
+      BuildFileAST ast = cache.getAST(buildFilePath, digest);
+      if (ast != null) {
+        return ast;
+      }
+    }
+    BuildFileAST ast = BuildFileAST.parseBuildFile(
+        input, parseEvents, packageLocator, /*parsePython=*/false);
+    // Only a file without any errors or warnings can be cached, since the events are not, and
+    // neither are the files that it includes.
+    if (cache != null && parseEvents.isEmpty() && !ast.containsErrors() && !hasIncludes(ast)) {
+      cache.putAST(buildFilePath, digest, ast);
+    }
+    return ast;
+  }
+
+  /** Returns whether the parser inlined another file for an {@code include} in the BUILD file. */
+  private static boolean hasIncludes(BuildFileAST ast) {
+    for (Statement statement : ast.getStatements()) {
+      if (statement instanceof ExpressionStatement
+          && ((ExpressionStatement) statement).getExpression() instanceof FuncallExpression) {
+        FuncallExpression call =
+            (FuncallExpression) ((ExpressionStatement) statement).getExpression();
+        if (call.getFunction().getName().equals("mocksubinclude")) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
   private static class InternalInconsistentFilesystemException extends NoSuchPackageException {
     private boolean isTransient;
 
@@ -15,11 +15,13 @@ package com.google.devtools.build.lib.skyframe;
 
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.devtools.build.lib.util.Pair;
 import com.google.devtools.build.lib.vfs.Dirent;
 import com.google.devtools.build.lib.vfs.FileStatus;
 import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
 import com.google.devtools.build.lib.vfs.Symlinks;
 import com.google.devtools.build.lib.vfs.UnixGlob;
 
@@ -27,15 +29,20 @@ import java.io.IOException;
 import java.util.Collection;
 
 /**
- * A per-build cache of filesystem operations for Skyframe invocations of legacy package loading.
+ * A per-build cache of filesystem operations on the source tree, shared by legacy package loading
+ * and the Skyframe functions that read the filesystem ({@link FileStateFunction},
+ * {@link DirectoryListingStateFunction} and {@link ActionMetadataHandler} for symlinks into the
+ * source tree). Nonexistent paths and errors are cached as well.
+ *
+ * <p>The source tree is assumed not to change during a build, so a new instance has to be used
+ * for every build.
  */
 public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
 
-  private final LoadingCache<Pair<Path, Symlinks>, FileStatus> statCache;
+  private final LoadingCache<Pair<Path, Symlinks>, Pair<FileStatus, IOException>> statCache;
   private final LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>
       readdirCache;
-
-  private static final FileStatus NO_STATUS = new FakeFileStatus();
+  private final LoadingCache<Path, Pair<PathFragment, IOException>> readlinkCache;
 
   /**
    * Create a new per-build filesystem cache.
@@ -44,8 +51,17 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
    * @param maxReaddirs Max readdir results to keep in cache, or -1 for unbounded.
    */
   public PerBuildSyscallCache(int maxStats, int maxReaddirs) {
-    statCache = newStatMap(maxStats);
-    readdirCache = newReaddirMap(maxReaddirs);
+    this(maxStats, maxReaddirs, UnixGlob.DEFAULT_SYSCALLS);
+  }
+
+  /**
+   * Create a new per-build filesystem cache that sends the calls it does not have the result of
+   * to {@code delegate}.
+   */
+  public PerBuildSyscallCache(int maxStats, int maxReaddirs, UnixGlob.FilesystemCalls delegate) {
+    statCache = newStatMap(maxStats, delegate);
+    readdirCache = newReaddirMap(maxReaddirs, delegate);
+    readlinkCache = newReadlinkMap(maxStats, delegate);
   }
 
   public static PerBuildSyscallCache newUnboundedCache() {
@@ -65,60 +81,70 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
 
   @Override
   public FileStatus statNullable(Path path, Symlinks symlinks) {
-    FileStatus status = statCache.getUnchecked(Pair.of(path, symlinks));
-    return (status == NO_STATUS) ? null : status;
+    return statCache.getUnchecked(Pair.of(path, symlinks)).getFirst();
   }
 
-  // This is used because the cache implementations don't allow null.
-  private static final class FakeFileStatus implements FileStatus {
-    @Override
-    public long getLastChangeTime() {
-      throw new UnsupportedOperationException();
-    }
-
-    @Override
-    public long getNodeId() {
-      throw new UnsupportedOperationException();
+  @Override
+  public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+    Pair<FileStatus, IOException> result = statCache.getUnchecked(Pair.of(path, symlinks));
+    if (result.getSecond() != null) {
+      throw result.getSecond();
     }
+    return result.getFirst();
+  }
 
-    @Override
-    public long getLastModifiedTime() {
-      throw new UnsupportedOperationException();
+  @Override
+  public PathFragment readlink(Path path) throws IOException {
+    Pair<PathFragment, IOException> result = readlinkCache.getUnchecked(path);
+    PathFragment target = result.getFirst();
+    if (target != null) {
+      return target;
     }
+    throw result.getSecond();
+  }
 
-    @Override
-    public long getSize() {
-      throw new UnsupportedOperationException();
-    }
+  /** Returns the number of calls that were answered from the cache. */
+  public long hitCount() {
+    return totalStats().hitCount();
+  }
 
-    @Override
-    public boolean isDirectory() {
-      throw new UnsupportedOperationException();
-    }
+  /** Returns the number of calls to this cache. */
+  public long requestCount() {
+    return totalStats().requestCount();
+  }
 
-    @Override
-    public boolean isFile() {
-      throw new UnsupportedOperationException();
-    }
+  private CacheStats totalStats() {
+    return statCache.stats().plus(readdirCache.stats()).plus(readlinkCache.stats());
+  }
 
-    @Override
-    public boolean isSymbolicLink() {
-      throw new UnsupportedOperationException();
-    }
+  @Override
+  public String toString() {
+    CacheStats stat = statCache.stats();
+    CacheStats readdir = readdirCache.stats();
+    CacheStats readlink = readlinkCache.stats();
+    CacheStats total = totalStats();
+    return String.format("%d of %d filesystem calls cached (hit ratio %.2f; stat %d/%d, "
+        + "readdir %d/%d, readlink %d/%d)", total.hitCount(), total.requestCount(),
+        total.hitRate(), stat.hitCount(), stat.requestCount(), readdir.hitCount(),
+        readdir.requestCount(), readlink.hitCount(), readlink.requestCount());
   }
 
   /**
    * A cache of stat calls.
    * Input: (path, following_symlinks)
-   * Output: FileStatus
+   * Output: A union of (FileStatus, IOException); both are null if the path does not exist.
    */
-  private static LoadingCache<Pair<Path, Symlinks>, FileStatus> newStatMap(int maxStats) {
+  private static LoadingCache<Pair<Path, Symlinks>, Pair<FileStatus, IOException>> newStatMap(
+      int maxStats, final UnixGlob.FilesystemCalls delegate) {
     return builderWithOptionalMax(maxStats).build(
-        new CacheLoader<Pair<Path, Symlinks>, FileStatus>() {
+        new CacheLoader<Pair<Path, Symlinks>, Pair<FileStatus, IOException>>() {
           @Override
-          public FileStatus load(Pair<Path, Symlinks> p) {
-            FileStatus f = p.first.statNullable(p.second);
-            return (f == null) ? NO_STATUS : f;
+          public Pair<FileStatus, IOException> load(Pair<Path, Symlinks> p) {
+            try {
+              return Pair.of(delegate.statIfFound(p.first, p.second), null);
+            } catch (IOException e) {
+              return Pair.of(null, e);
+            }
           }
         });
   }
@@ -130,7 +156,7 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
    */
   private static
   LoadingCache<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>> newReaddirMap(
-      int maxReaddirs) {
+      int maxReaddirs, final UnixGlob.FilesystemCalls delegate) {
     return builderWithOptionalMax(maxReaddirs).build(
         new CacheLoader<Pair<Path, Symlinks>, Pair<Collection<Dirent>, IOException>>() {
           @Override
@@ -138,7 +164,27 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
             try {
               // TODO(bazel-team): Consider storing the Collection of Dirent values more compactly
               // by reusing DirectoryEntryListingStateValue#CompactSortedDirents.
-              return Pair.of(p.first.readdir(p.second), null);
+              return Pair.of(delegate.readdir(p.first, p.second), null);
+            } catch (IOException e) {
+              return Pair.of(null, e);
+            }
+          }
+        });
+  }
+
+  /**
+   * A cache of readlink calls.
+   * Input: path
+   * Output: A union of (PathFragment, IOException).
+   */
+  private static LoadingCache<Path, Pair<PathFragment, IOException>> newReadlinkMap(
+      int maxReadlinks, final UnixGlob.FilesystemCalls delegate) {
+    return builderWithOptionalMax(maxReadlinks).build(
+        new CacheLoader<Path, Pair<PathFragment, IOException>>() {
+          @Override
+          public Pair<PathFragment, IOException> load(Path path) {
+            try {
+              return Pair.of(delegate.readlink(path), null);
             } catch (IOException e) {
               return Pair.of(null, e);
             }
@@ -147,7 +193,7 @@ public class PerBuildSyscallCache implements UnixGlob.FilesystemCalls {
   }
 
   private static CacheBuilder<Object, Object> builderWithOptionalMax(int maxEntries) {
-    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder();
+    CacheBuilder<Object, Object> builder = CacheBuilder.newBuilder().recordStats();
     if (maxEntries >= 0) {
       builder = builder.maximumSize(maxEntries);
     }
@@ -0,0 +1,477 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.EvalException;
+import com.google.devtools.build.lib.syntax.Runtime;
+import com.google.devtools.build.lib.syntax.SkylarkList;
+import com.google.devtools.build.lib.syntax.SyntaxTreeCodec;
+import com.google.devtools.build.lib.util.PersistentMap;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Logger;
+
+import javax.annotation.Nullable;
+
+/**
+ * A cache of parsed BUILD and .bzl files and of Skylark extensions that is kept on disk, so that a
+ * restarted server does not have to parse and execute the same files again.
+ *
+ * <p>The syntax tree of a file is cached under the digest of its content, encoded by the
+ * {@link SyntaxTreeCodec}, which is several times faster to decode than parsing. The globals that
+ * the execution of a .bzl file defines are cached under its transitive content hash code (see
+ * {@link com.google.devtools.build.lib.syntax.Environment.Extension}), which covers the files it
+ * loads, but only if all of them are plain values: strings, integers, booleans, None, and lists,
+ * tuples and dicts of those. Extensions that define functions or rules are executed again, from
+ * their cached syntax tree.
+ *
+ * <p>The entries are content-addressed, so they never become stale, but they are only valid for
+ * the binary that wrote them; the cache is discarded when it was written by another one.
+ */
+@ThreadSafe
+final class PersistentSkylarkCache {
+
+  private static final Logger LOG = Logger.getLogger(PersistentSkylarkCache.class.getName());
+
+  private static final int VERSION = 1;
+
+  /**
+   * The number of entries, and their total size, above which entries are dropped on save: first
+   * those that were not used since the cache was loaded, then the least recently used ones.
+   */
+  private static final int MAX_ENTRIES = 200000;
+  private static final long MAX_BYTES = 256L << 20;
+
+  /** The key of the entry that holds the fingerprint of the binary that wrote the cache. */
+  private static final String BINARY_KEY = "binary";
+
+  private static final byte NONE = 0;
+  private static final byte FALSE = 1;
+  private static final byte TRUE = 2;
+  private static final byte INTEGER = 3;
+  private static final byte STRING = 4;
+  private static final byte LIST = 5;
+  private static final byte TUPLE = 6;
+  private static final byte DICT = 7;
+
+  private static final class EntryMap extends PersistentMap<String, byte[]> {
+    EntryMap(Path mapFile, Path journalFile) {
+      super(VERSION, new HashMap<String, byte[]>(), mapFile, journalFile);
+    }
+
+    @Override
+    protected boolean updateJournal() {
+      // The entries are written when the cache is saved.
+      return false;
+    }
+
+    @Override
+    protected void writeKey(String key, DataOutputStream out) throws IOException {
+      out.writeUTF(key);
+    }
+
+    @Override
+    protected void writeValue(byte[] value, DataOutputStream out) throws IOException {
+      out.writeInt(value.length);
+      out.write(value);
+    }
+
+    @Override
+    protected String readKey(DataInputStream in) throws IOException {
+      return in.readUTF();
+    }
+
+    @Override
+    protected byte[] readValue(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+        throw new IOException("found negative array size: " + length);
+      }
+      byte[] value = new byte[length];
+      in.readFully(value);
+      return value;
+    }
+  }
+
+  private final EntryMap entries;
+  private final int maxEntries;
+  private final long maxBytes;
+  /**
+   * The keys of the entries that were read or written since the cache was loaded, from the least
+   * to the most recently used.
+   */
+  private final Set<String> used = new LinkedHashSet<>();
+
+  // The lookups since the statistics were last reset.
+  private int astHits;
+  private int astMisses;
+  private int globalsHits;
+  private int globalsMisses;
+
+  private PersistentSkylarkCache(Path cacheFile, int maxEntries, long maxBytes) {
+    this.entries = new EntryMap(cacheFile,
+        cacheFile.getParentDirectory().getChild(cacheFile.getBaseName() + "_journal"));
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Loads the cache from {@code cacheFile}. A missing or unreadable file, or one that was written
+   * by a binary with another fingerprint, results in an empty cache.
+   */
+  static PersistentSkylarkCache load(Path cacheFile, String binaryFingerprint) {
+    return load(cacheFile, binaryFingerprint, MAX_ENTRIES, MAX_BYTES);
+  }
+
+  @VisibleForTesting
+  static PersistentSkylarkCache load(Path cacheFile, String binaryFingerprint, int maxEntries,
+      long maxBytes) {
+    PersistentSkylarkCache cache = new PersistentSkylarkCache(cacheFile, maxEntries, maxBytes);
+    byte[] fingerprint = binaryFingerprint.getBytes(UTF_8);
+    try {
+      cache.entries.load(/*failFast=*/true);
+      if (!cache.entries.isEmpty()
+          && !Arrays.equals(fingerprint, cache.entries.get(BINARY_KEY))) {
+        LOG.info("Discarding the Skylark cache " + cacheFile + " of another binary");
+        cache.entries.clear();
+      }
+    } catch (IOException e) {
+      LOG.warning("Discarding the Skylark cache " + cacheFile + ": " + e.getMessage());
+      cache.entries.clear();
+    }
+    if (!Arrays.equals(fingerprint, cache.entries.get(BINARY_KEY))) {
+      // Putting the entry dirties the map, so only do it when it is new, or the whole cache
+      // would be written again after every command.
+      cache.entries.put(BINARY_KEY, fingerprint);
+    }
+    cache.used.add(BINARY_KEY);
+    LOG.info(String.format("Loaded %d Skylark cache entries", cache.entries.size() - 1));
+    return cache;
+  }
+
+  /**
+   * Writes the cache to disk. If it has grown too large, the entries that this server has not
+   * used are dropped first, then the least recently used ones until it fits.
+   *
+   * @return the size of the cache file
+   */
+  synchronized long save() throws IOException {
+    long bytes = 0;
+    for (byte[] value : entries.values()) {
+      bytes += value.length;
+    }
+    if (size() > maxEntries || bytes > maxBytes) {
+      // Removed through the map itself, which records the removals.
+      for (String key : new ArrayList<>(entries.keySet())) {
+        if (!used.contains(key)) {
+          bytes -= entries.remove(key).length;
+        }
+      }
+      Iterator<String> leastRecentlyUsed = used.iterator();
+      while ((size() > maxEntries || bytes > maxBytes) && leastRecentlyUsed.hasNext()) {
+        String key = leastRecentlyUsed.next();
+        if (!key.equals(BINARY_KEY)) {
+          leastRecentlyUsed.remove();
+          bytes -= entries.remove(key).length;
+        }
+      }
+    }
+    return entries.save();
+  }
+
+  /** Returns the number of cached syntax trees and globals. */
+  synchronized int size() {
+    return entries.size() - 1;
+  }
+
+  /**
+   * Summarizes how many lookups found their entry since the statistics were last reset, or
+   * returns null if there were no lookups.
+   */
+  @Nullable
+  synchronized String getHitSummary() {
+    if (astHits + astMisses + globalsHits + globalsMisses == 0) {
+      return null;
+    }
+    return String.format("Skylark cache: %d/%d files, %d/%d extensions",
+        astHits, astHits + astMisses, globalsHits, globalsHits + globalsMisses);
+  }
+
+  /** Describes how many lookups found their entry since the statistics were last reset. */
+  @Override
+  public synchronized String toString() {
+    return String.format("%d of %d syntax trees and %d of %d extensions found, %d entries",
+        astHits, astHits + astMisses, globalsHits, globalsHits + globalsMisses, size());
+  }
+
+  synchronized void resetStatistics() {
+    astHits = 0;
+    astMisses = 0;
+    globalsHits = 0;
+    globalsMisses = 0;
+  }
+
+  private synchronized byte[] get(String key) {
+    byte[] value = entries.get(key);
+    if (value != null) {
+      markUsed(key);
+    }
+    return value;
+  }
+
+  private synchronized void put(String key, byte[] value) {
+    entries.put(key, value);
+    markUsed(key);
+  }
+
+  private synchronized void remove(String key) {
+    entries.remove(key);
+    used.remove(key);
+  }
+
+  /** Moves the key to the end of {@link #used}. */
+  private void markUsed(String key) {
+    used.remove(key);
+    used.add(key);
+  }
+
+  private synchronized void countAST(boolean hit) {
+    if (hit) {
+      astHits++;
+    } else {
+      astMisses++;
+    }
+  }
+
+  private synchronized void countGlobals(boolean hit) {
+    if (hit) {
+      globalsHits++;
+    } else {
+      globalsMisses++;
+    }
+  }
+
+  private static String astKey(Path file, String digest) {
+    return "ast\0" + file.getPathString() + "\0" + digest;
+  }
+
+  private static String globalsKey(PathFragment file, String transitiveContentHashCode) {
+    return "globals\0" + file.getPathString() + "\0" + transitiveContentHashCode;
+  }
+
+  /**
+   * Returns the syntax tree of the BUILD or .bzl file at {@code file} whose content has the given
+   * digest, or null if it is not in the cache.
+   */
+  @Nullable
+  BuildFileAST getAST(Path file, String digest) {
+    String key = astKey(file, digest);
+    byte[] bytes = get(key);
+    BuildFileAST ast = null;
+    if (bytes != null) {
+      try {
+        ast = SyntaxTreeCodec.decode(bytes);
+      } catch (IOException e) {
+        LOG.warning("Dropping the cached syntax tree of " + file + ": " + e.getMessage());
+        remove(key);
+      }
+    }
+    countAST(ast != null);
+    return ast;
+  }
+
+  /**
+   * Records the syntax tree of the BUILD or .bzl file at {@code file}, which must have been parsed
+   * without any errors or warnings. Trees that the {@link SyntaxTreeCodec} cannot encode are
+   * not recorded.
+   */
+  void putAST(Path file, String digest, BuildFileAST ast) {
+    byte[] bytes = SyntaxTreeCodec.encode(ast);
+    if (bytes != null) {
+      put(astKey(file, digest), bytes);
+    }
+  }
+
+  /**
+   * Returns the globals that the execution of the .bzl file {@code file} with the given
+   * transitive content hash code defined, or null if they are not in the cache.
+   */
+  @Nullable
+  Map<String, Object> getGlobals(PathFragment file, String transitiveContentHashCode) {
+    String key = globalsKey(file, transitiveContentHashCode);
+    byte[] bytes = get(key);
+    if (bytes == null) {
+      countGlobals(false);
+      return null;
+    }
+    try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+      int size = in.readInt();
+      Map<String, Object> globals = new LinkedHashMap<>();
+      for (int i = 0; i < size; i++) {
+        globals.put(in.readUTF(), readValue(in));
+      }
+      countGlobals(true);
+      return globals;
+    } catch (IOException | EvalException e) {
+      LOG.warning("Dropping the cached globals of " + file + ": " + e);
+      remove(key);
+      countGlobals(false);
+      return null;
+    }
+  }
+
+  /**
+   * Records the globals that the execution of the .bzl file {@code file} defined, if all of them
+   * are plain values. Returns whether they were recorded.
+   */
+  boolean putGlobals(PathFragment file, String transitiveContentHashCode,
+      Map<String, Object> globals) {
+    for (Object value : globals.values()) {
+      if (!isPlainValue(value)) {
+        return false;
+      }
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(globals.size());
+      for (Map.Entry<String, Object> entry : globals.entrySet()) {
+        out.writeUTF(entry.getKey());
+        writeValue(entry.getValue(), out);
+      }
+    } catch (IOException e) {
+      LOG.warning("Cannot cache the globals of " + file + ": " + e);
+      return false;
+    }
+    put(globalsKey(file, transitiveContentHashCode), bytes.toByteArray());
+    return true;
+  }
+
+  private static boolean isPlainValue(Object value) {
+    if (value == Runtime.NONE || value instanceof Boolean || value instanceof Integer) {
+      return true;
+    } else if (value instanceof String) {
+      // Longer strings do not fit in writeUTF().
+      return ((String) value).length() < 16384;
+    } else if (value instanceof SkylarkList) {
+      for (Object element : (SkylarkList) value) {
+        if (!isPlainValue(element)) {
+          return false;
+        }
+      }
+      return true;
+    } else if (value instanceof ImmutableMap<?, ?>) {
+      for (Map.Entry<?, ?> entry : ((ImmutableMap<?, ?>) value).entrySet()) {
+        if (!isPlainValue(entry.getKey()) || !isPlainValue(entry.getValue())) {
+          return false;
+        }
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private static void writeValue(Object value, DataOutputStream out) throws IOException {
+    if (value == Runtime.NONE) {
+      out.writeByte(NONE);
+    } else if (value instanceof Boolean) {
+      out.writeByte((Boolean) value ? TRUE : FALSE);
+    } else if (value instanceof Integer) {
+      out.writeByte(INTEGER);
+      out.writeInt((Integer) value);
+    } else if (value instanceof String) {
+      out.writeByte(STRING);
+      out.writeUTF((String) value);
+    } else if (value instanceof SkylarkList) {
+      SkylarkList list = (SkylarkList) value;
+      out.writeByte(list.isTuple() ? TUPLE : LIST);
+      out.writeInt(list.size());
+      for (Object element : list) {
+        writeValue(element, out);
+      }
+    } else {
+      Map<?, ?> dict = (Map<?, ?>) value;
+      out.writeByte(DICT);
+      out.writeInt(dict.size());
+      for (Map.Entry<?, ?> entry : dict.entrySet()) {
+        writeValue(entry.getKey(), out);
+        writeValue(entry.getValue(), out);
+      }
+    }
+  }
+
+  private static Object readValue(DataInputStream in) throws IOException, EvalException {
+    byte kind = in.readByte();
+    switch (kind) {
+      case NONE:
+        return Runtime.NONE;
+      case FALSE:
+        return false;
+      case TRUE:
+        return true;
+      case INTEGER:
+        return in.readInt();
+      case STRING:
+        return in.readUTF();
+      case LIST:
+      case TUPLE:
+        List<Object> elements = new ArrayList<>();
+        for (int i = readLength(in); i > 0; i--) {
+          elements.add(readValue(in));
+        }
+        return kind == TUPLE
+            ? SkylarkList.tuple(elements)
+            : SkylarkList.list(elements, Location.BUILTIN);
+      case DICT:
+        // Like a dict literal, which keeps the order of its entries.
+        Map<Object, Object> dict = new LinkedHashMap<>();
+        for (int i = readLength(in); i > 0; i--) {
+          Object key = readValue(in);
+          dict.put(key, readValue(in));
+        }
+        return ImmutableMap.copyOf(dict);
+      default:
+        throw new IOException("Unknown value kind " + kind);
+    }
+  }
+
+  private static int readLength(DataInputStream in) throws IOException {
+    int length = in.readInt();
+    if (length < 0) {
+      throw new IOException("found negative array size: " + length);
+    }
+    return length;
+  }
+}
@@ -447,7 +447,7 @@ public final class SequencedSkyframeExecutor extends SkyframeExecutor {
     } else {
       diff = getDiff(modifiedFileSet.modifiedSourceFiles(), pathEntry);
     }
-    syscalls.set(newPerBuildSyscallCache());
+    resetPerBuildSyscallCache();
     recordingDiffer.invalidate(diff.changedKeysWithoutNewValues());
     recordingDiffer.inject(diff.changedKeysWithNewValues());
     // Blaze invalidates transient errors on every build.
@@ -51,6 +51,7 @@ import com.google.devtools.build.lib.actions.PackageRootResolutionException;
 import com.google.devtools.build.lib.actions.PackageRootResolver;
 import com.google.devtools.build.lib.actions.ResourceManager;
 import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.ResourceUsage;
 import com.google.devtools.build.lib.actions.TargetOutOfDateException;
 import com.google.devtools.build.lib.actions.cache.MetadataHandler;
 import com.google.devtools.build.lib.concurrent.ExecutorUtil;
@@ -87,6 +88,7 @@ import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nullable;
@@ -713,7 +715,13 @@ public final class SkyframeActionExecutor implements ActionExecutionContextFacto
         resourceManager.releaseResources(action, estimate);
       }
       statusReporter.remove(action);
-      postEvent(new ActionCompletionEvent(actionStartTime, action));
+      ResourceUsage resourceUsage = context.getResourceUsage();
+      if (!resourceUsage.isEmpty()) {
+        profiler.logSimpleTaskDuration(actionStartTime,
+            TimeUnit.MICROSECONDS.toNanos(resourceUsage.getCpuTimeMicros()),
+            ProfilerTask.LOCAL_CPU_TIME, action.describe() + " (" + resourceUsage + ")");
+      }
+      postEvent(new ActionCompletionEvent(actionStartTime, action, resourceUsage));
     }
   }
 
@@ -32,6 +32,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Range;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.EventBus;
+import com.google.common.hash.HashCode;
 import com.google.devtools.build.lib.actions.Action;
 import com.google.devtools.build.lib.actions.ActionCacheChecker;
 import com.google.devtools.build.lib.actions.ActionExecutionContextFactory;
@@ -76,6 +77,7 @@ import com.google.devtools.build.lib.packages.NoSuchPackageException;
 import com.google.devtools.build.lib.packages.NoSuchThingException;
 import com.google.devtools.build.lib.packages.Package;
 import com.google.devtools.build.lib.packages.PackageFactory;
+import com.google.devtools.build.lib.packages.PersistentGlobCache;
 import com.google.devtools.build.lib.packages.Preprocessor;
 import com.google.devtools.build.lib.packages.RuleClassProvider;
 import com.google.devtools.build.lib.packages.RuleVisibility;
@@ -91,6 +93,7 @@ import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ActionCompl
 import com.google.devtools.build.lib.skyframe.SkyframeActionExecutor.ProgressSupplier;
 import com.google.devtools.build.lib.syntax.Label;
 import com.google.devtools.build.lib.util.AbruptExitException;
+import com.google.devtools.build.lib.util.BlazeClock;
 import com.google.devtools.build.lib.util.ExitCode;
 import com.google.devtools.build.lib.util.ResourceUsage;
 import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
@@ -156,6 +159,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   private final BlazeDirectories directories;
   @Nullable
   private BatchStat batchStatter;
+  @Nullable
+  private PersistentGlobCache persistentGlobCache;
+  private final AtomicReference<PersistentSkylarkCache> persistentSkylarkCache =
+      new AtomicReference<>();
 
   // TODO(bazel-team): Figure out how to handle value builders that block internally. Blocking
   // operations may need to be handled in another (bigger?) thread pool. Also, we should detect
@@ -250,6 +257,13 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
 
   private static final Logger LOG = Logger.getLogger(SkyframeExecutor.class.getName());
 
+  /**
+   * The number of stat and readlink results, and of directory listings, that the per-build
+   * syscall cache keeps, so that a build over a huge source tree does not hold all of them.
+   */
+  private static final int PER_BUILD_SYSCALL_CACHE_MAX_STATS = 500000;
+  private static final int PER_BUILD_SYSCALL_CACHE_MAX_READDIRS = 100000;
+
   protected SkyframeExecutor(
       Reporter reporter,
       EvaluatorSupplier evaluatorSupplier,
@@ -301,9 +315,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     // is inserted.
     ImmutableMap.Builder<SkyFunctionName, SkyFunction> map = ImmutableMap.builder();
     map.put(SkyFunctions.PRECOMPUTED, new PrecomputedFunction());
-    map.put(SkyFunctions.FILE_STATE, new FileStateFunction(tsgm, externalFilesHelper));
+    map.put(SkyFunctions.FILE_STATE, new FileStateFunction(tsgm, externalFilesHelper, syscalls));
     map.put(SkyFunctions.DIRECTORY_LISTING_STATE,
-        new DirectoryListingStateFunction(externalFilesHelper));
+        new DirectoryListingStateFunction(externalFilesHelper, syscalls));
     map.put(SkyFunctions.FILE_SYMLINK_CYCLE_UNIQUENESS,
         new FileSymlinkCycleUniquenessFunction());
     map.put(SkyFunctions.FILE_SYMLINK_INFINITE_EXPANSION_UNIQUENESS,
@@ -313,9 +327,9 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.PACKAGE_LOOKUP, new PackageLookupFunction(deletedPackages));
     map.put(SkyFunctions.CONTAINING_PACKAGE_LOOKUP, new ContainingPackageLookupFunction());
     map.put(SkyFunctions.AST_FILE_LOOKUP, new ASTFileLookupFunction(
-        pkgLocator, packageManager, ruleClassProvider));
+        pkgLocator, packageManager, ruleClassProvider, persistentSkylarkCache));
     map.put(SkyFunctions.SKYLARK_IMPORTS_LOOKUP, new SkylarkImportLookupFunction(
-        ruleClassProvider, pkgFactory));
+        ruleClassProvider, pkgFactory, persistentSkylarkCache));
     map.put(SkyFunctions.GLOB, newGlobFunction());
     map.put(SkyFunctions.TARGET_PATTERN, new TargetPatternFunction(pkgLocator));
     map.put(SkyFunctions.PREPARE_DEPS_OF_PATTERNS, new PrepareDepsOfPatternsFunction());
@@ -325,7 +339,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.RECURSIVE_PKG, new RecursivePkgFunction());
     map.put(SkyFunctions.PACKAGE, new PackageFunction(
         reporter, pkgFactory, packageManager, showLoadingProgress, packageFunctionCache,
-        preprocessCache, numPackagesLoaded));
+        preprocessCache, numPackagesLoaded, persistentSkylarkCache));
     map.put(SkyFunctions.PACKAGE_ERROR, new PackageErrorFunction());
     map.put(SkyFunctions.TARGET_MARKER, new TargetMarkerFunction());
     map.put(SkyFunctions.TRANSITIVE_TARGET, new TransitiveTargetFunction(ruleClassProvider));
@@ -353,7 +367,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     map.put(SkyFunctions.BUILD_INFO, new WorkspaceStatusFunction());
     map.put(SkyFunctions.COVERAGE_REPORT, new CoverageReportFunction());
     ActionExecutionFunction actionExecutionFunction =
-        new ActionExecutionFunction(skyframeActionExecutor, tsgm);
+        new ActionExecutionFunction(skyframeActionExecutor, tsgm, externalFilesHelper, syscalls);
     map.put(SkyFunctions.ACTION_EXECUTION, actionExecutionFunction);
     this.actionExecutionFunction = actionExecutionFunction;
     map.put(SkyFunctions.RECURSIVE_FILESYSTEM_TRAVERSAL,
@@ -368,7 +382,90 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
   }
 
   protected PerBuildSyscallCache newPerBuildSyscallCache() {
-    return PerBuildSyscallCache.newUnboundedCache();
+    UnixGlob.FilesystemCalls delegate = persistentGlobCache != null
+        ? persistentGlobCache.getListingCalls(UnixGlob.DEFAULT_SYSCALLS)
+        : UnixGlob.DEFAULT_SYSCALLS;
+    return new PerBuildSyscallCache(PER_BUILD_SYSCALL_CACHE_MAX_STATS,
+        PER_BUILD_SYSCALL_CACHE_MAX_READDIRS, delegate);
+  }
+
+  /**
+   * Loads the glob cache from the output base the first time it is enabled, or drops it when it is
+   * disabled.
+   */
+  private void setupPersistentGlobCache(boolean enabled, Path outputBase, int statThreads)
+      throws InterruptedException {
+    if (!enabled) {
+      persistentGlobCache = null;
+    } else if (persistentGlobCache == null) {
+      persistentGlobCache = PersistentGlobCache.load(
+          outputBase.getRelative("glob_cache"), BlazeClock.instance(), statThreads);
+    }
+    pkgFactory.setPersistentGlobCache(persistentGlobCache);
+  }
+
+  /**
+   * Loads the Skylark cache from the output base the first time it is enabled, or drops it when it
+   * is disabled.
+   */
+  private void setupPersistentSkylarkCache(boolean enabled, Path outputBase) {
+    if (!enabled) {
+      persistentSkylarkCache.set(null);
+    } else if (persistentSkylarkCache.get() == null) {
+      HashCode installMD5 = directories.getInstallMD5();
+      persistentSkylarkCache.set(PersistentSkylarkCache.load(
+          outputBase.getRelative("skylark_cache"),
+          installMD5 == null ? "" : installMD5.toString()));
+    }
+  }
+
+  /**
+   * Returns how many parsed files and extensions the Skylark cache provided during the command, or
+   * null if it is disabled or was not used.
+   */
+  @Nullable
+  public String getPersistentSkylarkCacheSummary() {
+    PersistentSkylarkCache skylarkCache = persistentSkylarkCache.get();
+    return skylarkCache == null ? null : skylarkCache.getHitSummary();
+  }
+
+  /**
+   * Writes the glob cache and the Skylark cache to the output base, if they are enabled, logging
+   * how many parsed files and extensions the Skylark cache provided during the command.
+   */
+  public void savePersistentCaches() throws IOException {
+    if (persistentGlobCache != null) {
+      persistentGlobCache.save();
+    }
+    PersistentSkylarkCache skylarkCache = persistentSkylarkCache.get();
+    if (skylarkCache != null) {
+      LOG.info("Skylark cache: " + skylarkCache);
+      skylarkCache.resetStatistics();
+      skylarkCache.save();
+    }
+  }
+
+  /**
+   * Replaces the per-build syscall cache with an empty one, logging how many filesystem calls the
+   * previous one saved.
+   */
+  protected void resetPerBuildSyscallCache() {
+    logPerBuildSyscallCache(syscalls.getAndSet(newPerBuildSyscallCache()));
+  }
+
+  /**
+   * Drops the per-build syscall cache at the end of a command, logging how many filesystem calls
+   * it saved, so that its entries are not kept while the server is idle.
+   */
+  public void clearPerBuildSyscallCache() {
+    logPerBuildSyscallCache(syscalls.getAndSet(UnixGlob.DEFAULT_SYSCALLS));
+  }
+
+  private static void logPerBuildSyscallCache(UnixGlob.FilesystemCalls cache) {
+    if (cache instanceof PerBuildSyscallCache
+        && ((PerBuildSyscallCache) cache).requestCount() > 0) {
+      LOG.info("Per-build syscall cache: " + cache);
+    }
   }
 
  @ThreadCompatible
@@ -845,7 +942,7 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
     setupDefaultPackage(defaultsPackageContents);
     setPackageLocator(pkgLocator);
 
-    syscalls.set(newPerBuildSyscallCache());
+    resetPerBuildSyscallCache();
     this.pkgFactory.setGlobbingThreads(globbingThreads);
     checkPreprocessorFactory();
     emittedEventState.clear();
@@ -1580,6 +1677,10 @@ public abstract class SkyframeExecutor implements WalkableGraphFactory {
       String defaultsPackageContents, UUID commandId) throws InterruptedException,
       AbruptExitException{
 
+    setupPersistentGlobCache(packageCacheOptions.persistentGlobCache, outputBase,
+        packageCacheOptions.globbingThreads);
+    setupPersistentSkylarkCache(packageCacheOptions.persistentSkylarkCache, outputBase);
+    pkgFactory.setCompileSkylarkFunctions(packageCacheOptions.compileSkylarkFunctions);
     preparePackageLoading(
         createPackageLocator(
             packageCacheOptions, outputBase, directories.getWorkspace(), workingDirectory),
@@ -37,7 +37,9 @@ import com.google.devtools.build.skyframe.SkyKey;
 import com.google.devtools.build.skyframe.SkyValue;
 
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * A Skyframe function to look up and import a single Skylark extension.
@@ -46,11 +48,14 @@ public class SkylarkImportLookupFunction implements SkyFunction {
 
   private final RuleClassProvider ruleClassProvider;
   private final PackageFactory packageFactory;
+  private final AtomicReference<PersistentSkylarkCache> skylarkCache;
 
   public SkylarkImportLookupFunction(
-    RuleClassProvider ruleClassProvider, PackageFactory packageFactory) {
+    RuleClassProvider ruleClassProvider, PackageFactory packageFactory,
+    AtomicReference<PersistentSkylarkCache> skylarkCache) {
     this.ruleClassProvider = ruleClassProvider;
     this.packageFactory = packageFactory;
+    this.skylarkCache = skylarkCache;
   }
 
   @Override
@@ -183,7 +188,21 @@ public class SkylarkImportLookupFunction implements SkyFunction {
       com.google.devtools.build.lib.syntax.Environment extensionEnv =
           ruleClassProvider.createSkylarkRuleClassEnvironment(
               mutability, eventHandler, ast.getContentHashCode(), importMap)
-          .setupOverride("native", packageFactory.getNativeModule());
+          .setupOverride("native", packageFactory.getNativeModule())
+          .setCompileHotFunctions(packageFactory.compilesSkylarkFunctions());
+      PersistentSkylarkCache cache = skylarkCache.get();
+      String transitiveContentHashCode = null;
+      if (cache != null) {
+        transitiveContentHashCode = extensionEnv.getTransitiveContentHashCode();
+        Map<String, Object> globals = cache.getGlobals(file, transitiveContentHashCode);
+        if (globals != null) {
+          for (Map.Entry<String, Object> global : globals.entrySet()) {
+            extensionEnv.setupOverride(global.getKey(), global.getValue());
+          }
+          return new Extension(extensionEnv);
+        }
+      }
+      Map<String, Object> initialGlobals = getGlobals(extensionEnv);
       ast.exec(extensionEnv, eventHandler);
       SkylarkRuleClassFunctions.exportRuleFunctions(extensionEnv, file);
 
@@ -191,10 +210,34 @@ public class SkylarkImportLookupFunction implements SkyFunction {
       if (eventHandler.hasErrors()) {
         throw new SkylarkImportLookupFunctionException(SkylarkImportFailedException.errors(file));
       }
+      // Only the globals defined by an execution without any events can be cached, since the
+      // events are not.
+      if (cache != null && eventHandler.isEmpty()) {
+        Map<String, Object> globals = getGlobals(extensionEnv);
+        boolean initialGlobalsUnchanged = true;
+        for (Map.Entry<String, Object> initial : initialGlobals.entrySet()) {
+          if (globals.remove(initial.getKey()) != initial.getValue()) {
+            initialGlobalsUnchanged = false;
+          }
+        }
+        if (initialGlobalsUnchanged) {
+          cache.putGlobals(file, transitiveContentHashCode, globals);
+        }
+      }
       return new Extension(extensionEnv);
     }
   }
 
+  /** Returns the globals defined in the global frame of the extension's environment. */
+  private static Map<String, Object> getGlobals(
+      com.google.devtools.build.lib.syntax.Environment extensionEnv) {
+    Map<String, Object> globals = new LinkedHashMap<>();
+    for (String name : extensionEnv.getGlobals().getDirectVariableNames()) {
+      globals.put(name, extensionEnv.getGlobals().get(name));
+    }
+    return globals;
+  }
+
   @Override
   public String extractTag(SkyKey skyKey) {
     return null;
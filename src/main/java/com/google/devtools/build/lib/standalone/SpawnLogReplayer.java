@@ -0,0 +1,396 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.eventbus.EventBus;
+import com.google.devtools.build.lib.actions.AbstractActionOwner;
+import com.google.devtools.build.lib.actions.ActionContextProvider;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.ActionMetadata;
+import com.google.devtools.build.lib.actions.ActionOwner;
+import com.google.devtools.build.lib.actions.Artifact;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.BlazeExecutor;
+import com.google.devtools.build.lib.actions.EmptyRunfilesSupplier;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.Executor.ActionContext;
+import com.google.devtools.build.lib.actions.ExecutorInitException;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.ResourceUsage;
+import com.google.devtools.build.lib.actions.RunfilesSupplier;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.extra.SpawnInfo;
+import com.google.devtools.build.lib.events.EventKind;
+import com.google.devtools.build.lib.events.PrintingEventHandler;
+import com.google.devtools.build.lib.events.Reporter;
+import com.google.devtools.build.lib.exec.SpawnLog;
+import com.google.devtools.build.lib.exec.SpawnLog.EnvironmentVariable;
+import com.google.devtools.build.lib.exec.SpawnLog.SpawnExec;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.UnixFileSystem;
+import com.google.devtools.common.options.OptionsBase;
+import com.google.devtools.common.options.OptionsClassProvider;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Executes the spawns recorded with {@code --execution_log_file} again, to benchmark execution
+ * strategies and machines on the workload of a real build without running Blaze.
+ *
+ * <p>The spawns are replayed in the order in which they completed, with the given number of
+ * spawns in flight at a time. Dependencies between them are not tracked: the replayer expects all
+ * inputs to be present in the execution root already, as they are after the build that wrote the
+ * log. Beware that the outputs in the execution root are overwritten.
+ *
+ * <p>Usage: {@code SpawnLogReplayer <log-file> <exec-root> [jobs] [strategy] [spawn-server]},
+ * where strategy is one of "standalone" (the default), "multiplexed" or "spawn-server". The latter
+ * needs the path to the spawn-server binary. All strategies expect process-wrapper in the
+ * {@code _bin} directory of the execution root.
+ */
+public final class SpawnLogReplayer {
+
+  /** The outcome of replaying one spawn. */
+  public static final class Result {
+    private final SpawnExec record;
+    private final boolean succeeded;
+    private final long wallTimeMicros;
+    private final ResourceUsage resourceUsage;
+
+    private Result(
+        SpawnExec record, boolean succeeded, long wallTimeMicros, ResourceUsage resourceUsage) {
+      this.record = record;
+      this.succeeded = succeeded;
+      this.wallTimeMicros = wallTimeMicros;
+      this.resourceUsage = resourceUsage;
+    }
+
+    /** Returns the record of the spawn in the log. */
+    public SpawnExec getRecord() {
+      return record;
+    }
+
+    public boolean succeeded() {
+      return succeeded;
+    }
+
+    public long getWallTimeMicros() {
+      return wallTimeMicros;
+    }
+
+    public ResourceUsage getResourceUsage() {
+      return resourceUsage;
+    }
+  }
+
+  private final SpawnActionContext strategy;
+  private final Executor executor;
+  private final Path outErrDir;
+  private final int jobs;
+
+  /**
+   * Creates a replayer that executes spawns with {@code strategy}, {@code jobs} at a time. The
+   * output of the spawns goes to files in {@code outErrDir}.
+   */
+  public SpawnLogReplayer(
+      SpawnActionContext strategy, Executor executor, Path outErrDir, int jobs) {
+    this.strategy = strategy;
+    this.executor = executor;
+    this.outErrDir = outErrDir;
+    this.jobs = jobs;
+  }
+
+  /**
+   * Reads all records of an execution log.
+   */
+  public static List<SpawnExec> readLog(InputStream in) throws IOException {
+    List<SpawnExec> records = new ArrayList<>();
+    SpawnExec record;
+    while ((record = SpawnExec.parseDelimitedFrom(in)) != null) {
+      records.add(record);
+    }
+    return records;
+  }
+
+  /**
+   * Replays the given spawns and returns the results in the same order. Failing spawns do not
+   * stop the replay.
+   */
+  public List<Result> replay(List<SpawnExec> records)
+      throws IOException, InterruptedException {
+    FileSystemUtils.createDirectoryAndParents(outErrDir);
+    ExecutorService pool = Executors.newFixedThreadPool(jobs);
+    try {
+      List<Future<Result>> futures = new ArrayList<>();
+      for (int i = 0; i < records.size(); i++) {
+        final SpawnExec record = records.get(i);
+        final FileOutErr outErr = new FileOutErr(
+            outErrDir.getRelative(i + ".out"), outErrDir.getRelative(i + ".err"));
+        futures.add(pool.submit(new Callable<Result>() {
+          @Override
+          public Result call() throws Exception {
+            return replayOne(record, outErr);
+          }
+        }));
+      }
+      List<Result> results = new ArrayList<>();
+      for (Future<Result> future : futures) {
+        try {
+          results.add(future.get());
+        } catch (ExecutionException e) {
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return results;
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  private Result replayOne(SpawnExec record, FileOutErr outErr) throws InterruptedException {
+    ActionExecutionContext context =
+        ActionExecutionContext.normal(executor, null, null, outErr, null);
+    long startTime = BlazeClock.nanoTime();
+    boolean succeeded = false;
+    try {
+      strategy.exec(new ReplayedSpawn(record), context);
+      succeeded = true;
+    } catch (ExecException e) {
+      outErr.printErrLn("Replay failed: " + e.getMessage());
+    }
+    long wallTimeMicros = TimeUnit.NANOSECONDS.toMicros(BlazeClock.nanoTime() - startTime);
+    return new Result(record, succeeded, wallTimeMicros, context.getResourceUsage());
+  }
+
+  /**
+   * A spawn reconstructed from its record. It has no owning action.
+   */
+  private static final class ReplayedSpawn implements Spawn {
+    private final SpawnExec record;
+    private final ImmutableMap<String, String> environment;
+
+    private ReplayedSpawn(SpawnExec record) {
+      this.record = record;
+      ImmutableMap.Builder<String, String> environment = ImmutableMap.builder();
+      for (EnvironmentVariable variable : record.getEnvironmentVariablesList()) {
+        environment.put(variable.getName(), variable.getValue());
+      }
+      this.environment = environment.build();
+    }
+
+    @Override
+    public boolean isRemotable() {
+      return record.getRemotable();
+    }
+
+    @Override
+    public ImmutableMap<String, String> getExecutionInfo() {
+      return ImmutableMap.copyOf(record.getExecutionInfo());
+    }
+
+    @Override
+    public String asShellCommand(Path workingDir) {
+      return BaseSpawn.asShellCommand(getArguments(), workingDir, getEnvironment());
+    }
+
+    @Override
+    public ImmutableMap<PathFragment, Artifact> getRunfilesManifests() {
+      return ImmutableMap.of();
+    }
+
+    @Override
+    public RunfilesSupplier getRunfilesSupplier() {
+      return EmptyRunfilesSupplier.INSTANCE;
+    }
+
+    @Override
+    public ImmutableList<Artifact> getFilesetManifests() {
+      return ImmutableList.of();
+    }
+
+    @Override
+    public SpawnInfo getExtraActionInfo() {
+      return SpawnInfo.getDefaultInstance();
+    }
+
+    @Override
+    public ImmutableList<String> getArguments() {
+      return ImmutableList.copyOf(record.getCommandArgsList());
+    }
+
+    @Override
+    public ImmutableMap<String, String> getEnvironment() {
+      return environment;
+    }
+
+    @Override
+    public Iterable<? extends ActionInput> getInputFiles() {
+      List<String> paths = new ArrayList<>();
+      for (SpawnLog.File input : record.getInputsList()) {
+        paths.add(input.getPath());
+      }
+      return ActionInputHelper.fromPaths(paths);
+    }
+
+    @Override
+    public Collection<? extends ActionInput> getOutputFiles() {
+      return ActionInputHelper.fromPaths(record.getListedOutputsList());
+    }
+
+    @Override
+    public ActionMetadata getResourceOwner() {
+      return null;
+    }
+
+    @Override
+    public ResourceSet getLocalResources() {
+      return ResourceSet.ZERO;
+    }
+
+    @Override
+    public ActionOwner getOwner() {
+      return AbstractActionOwner.SYSTEM_ACTION_OWNER;
+    }
+
+    @Override
+    public String getMnemonic() {
+      return record.getMnemonic();
+    }
+  }
+
+  private static BlazeExecutor createExecutor(Path execRoot, SpawnActionContext strategy)
+      throws ExecutorInitException {
+    OptionsClassProvider noOptions = new OptionsClassProvider() {
+      @Override
+      public <O extends OptionsBase> O getOptions(Class<O> optionsClass) {
+        return null;
+      }
+    };
+    return new BlazeExecutor(execRoot, execRoot,
+        new Reporter(new PrintingEventHandler(EventKind.ERRORS_AND_WARNINGS)), new EventBus(),
+        BlazeClock.instance(), noOptions, /*verboseFailures=*/true, /*showSubcommands=*/false,
+        ImmutableList.<ActionContext>of(), ImmutableMap.of("", strategy),
+        ImmutableList.<ActionContextProvider>of());
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 2) {
+      System.err.println("Usage: SpawnLogReplayer <log-file> <exec-root> [jobs]"
+          + " [standalone|multiplexed|spawn-server] [spawn-server-binary]");
+      System.exit(2);
+    }
+    FileSystem fileSystem = new UnixFileSystem();
+    Path logFile = fileSystem.getPath(args[0]);
+    Path execRoot = fileSystem.getPath(args[1]);
+    int jobs = args.length > 2 ? Integer.parseInt(args[2]) : 1;
+    String strategyName = args.length > 3 ? args[3] : "standalone";
+
+    SpawnServer spawnServer = null;
+    SpawnActionContext strategy;
+    switch (strategyName) {
+      case "standalone":
+        strategy = new StandaloneSpawnStrategy(execRoot, true);
+        break;
+      case "multiplexed":
+        strategy = new StandaloneSpawnStrategy(execRoot, true, null, true);
+        break;
+      case "spawn-server":
+        if (args.length < 5) {
+          System.err.println("The spawn-server strategy needs the spawn-server binary");
+          System.exit(2);
+        }
+        spawnServer = SpawnServer.start(fileSystem.getPath(args[4]),
+            logFile.getParentDirectory().getRelative(logFile.getBaseName() + ".socket"));
+        strategy = new StandaloneSpawnStrategy(execRoot, true, spawnServer, false);
+        break;
+      default:
+        System.err.println("Unknown strategy: " + strategyName);
+        System.exit(2);
+        return;
+    }
+
+    List<SpawnExec> records;
+    try (InputStream in = new BufferedInputStream(logFile.getInputStream())) {
+      records = readLog(in);
+    }
+    SpawnLogReplayer replayer = new SpawnLogReplayer(strategy, createExecutor(execRoot, strategy),
+        logFile.getParentDirectory().getRelative(logFile.getBaseName() + ".outerr"), jobs);
+
+    long startTime = BlazeClock.nanoTime();
+    List<Result> results;
+    try {
+      results = replayer.replay(records);
+    } finally {
+      if (spawnServer != null) {
+        spawnServer.destroy();
+      }
+    }
+    long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(BlazeClock.nanoTime() - startTime);
+
+    // Per mnemonic: spawns, failures, recorded wall time, replayed wall time, replayed CPU time.
+    Map<String, long[]> totals = new TreeMap<>();
+    int failures = 0;
+    long recordedWallTimeMicros = 0;
+    for (Result result : results) {
+      long[] total = totals.get(result.getRecord().getMnemonic());
+      if (total == null) {
+        total = new long[5];
+        totals.put(result.getRecord().getMnemonic(), total);
+      }
+      total[0]++;
+      if (!result.succeeded()) {
+        total[1]++;
+        failures++;
+      }
+      total[2] += result.getRecord().getWallTimeMicros();
+      recordedWallTimeMicros += result.getRecord().getWallTimeMicros();
+      total[3] += result.getWallTimeMicros();
+      total[4] += result.getResourceUsage().getCpuTimeMicros();
+    }
+    System.out.printf("%-30s %8s %8s %12s %12s %12s%n",
+        "mnemonic", "spawns", "failed", "recorded s", "replayed s", "cpu s");
+    for (Map.Entry<String, long[]> entry : totals.entrySet()) {
+      long[] total = entry.getValue();
+      System.out.printf("%-30s %8d %8d %12.2f %12.2f %12.2f%n", entry.getKey(), total[0],
+          total[1], total[2] / 1e6, total[3] / 1e6, total[4] / 1e6);
+    }
+    System.out.printf("Replayed %d spawns (%d failed) with %d jobs using %s in %.2fs; "
+        + "the recorded spawns took %.2fs in total%n", results.size(), failures, jobs,
+        strategyName, elapsedMillis / 1e3, recordedWallTimeMicros / 1e6);
+    System.exit(failures == 0 ? 0 : 1);
+  }
+}
@@ -0,0 +1,223 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.actions.ResourceUsage;
+import com.google.devtools.build.lib.concurrent.ThreadSafety.ThreadSafe;
+import com.google.devtools.build.lib.shell.TerminationStatus;
+import com.google.devtools.build.lib.unix.LocalClientSocket;
+import com.google.devtools.build.lib.unix.LocalSocketAddress;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.lang.ProcessBuilder.Redirect;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Interface to the spawn-server helper process, which forks and executes subprocesses on behalf of
+ * the Blaze server.
+ *
+ * <p>Forking the Blaze server itself for every action is expensive because of its size, and
+ * {@link com.google.devtools.build.lib.shell.Command} additionally needs a process-wrapper and two
+ * threads per subprocess to pump its output. The spawn-server is started once, listens on a Unix
+ * domain socket and runs every request with the semantics of process-wrapper, writing stdout and
+ * stderr directly into the given files and returning the exit status together with the resource
+ * usage of the subprocess.
+ */
+@ThreadSafe
+public final class SpawnServer {
+
+  /** The outcome of a single subprocess run by the spawn-server. */
+  public static final class Result {
+    private final TerminationStatus status;
+    private final ResourceUsage resourceUsage;
+
+    private Result(TerminationStatus status, ResourceUsage resourceUsage) {
+      this.status = status;
+      this.resourceUsage = resourceUsage;
+    }
+
+    public TerminationStatus getTerminationStatus() {
+      return status;
+    }
+
+    /** Returns the resources consumed by the subprocess and its children. */
+    public ResourceUsage getResourceUsage() {
+      return resourceUsage;
+    }
+  }
+
+  /** How often an executing request checks whether the calling thread was interrupted. */
+  private static final long INTERRUPT_CHECK_INTERVAL_MILLIS = 100;
+
+  private final Process process;
+  private final Thread shutdownHook;
+  private final LocalSocketAddress address;
+
+  private SpawnServer(Process process, Thread shutdownHook, LocalSocketAddress address) {
+    this.process = process;
+    this.shutdownHook = shutdownHook;
+    this.address = address;
+  }
+
+  /**
+   * Starts the spawn-server binary {@code binary}, listening on {@code socket}, and waits until it
+   * accepts requests.
+   */
+  public static SpawnServer start(Path binary, Path socket) throws IOException {
+    final Process process =
+        new ProcessBuilder(binary.getPathString(), socket.getPathString())
+            .redirectError(Redirect.INHERIT)
+            .start();
+
+    Thread shutdownHook = new Thread() {
+      @Override
+      public void run() {
+        process.destroy();
+      }
+    };
+    Runtime.getRuntime().addShutdownHook(shutdownHook);
+
+    // The spawn-server announces that it is listening on stdout.
+    BufferedReader reader =
+        new BufferedReader(new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+    String line = reader.readLine();
+    if (!"ready".equals(line)) {
+      Runtime.getRuntime().removeShutdownHook(shutdownHook);
+      process.destroy();
+      throw new IOException("spawn-server failed to start");
+    }
+    return new SpawnServer(process, shutdownHook, new LocalSocketAddress(socket.getPathFile()));
+  }
+
+  /**
+   * Returns whether the spawn-server is still running.
+   */
+  public boolean isAlive() {
+    try {
+      process.exitValue();
+      return false;
+    } catch (IllegalThreadStateException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Stops the spawn-server. Subprocesses that are still running are not affected.
+   */
+  public void destroy() {
+    Runtime.getRuntime().removeShutdownHook(shutdownHook);
+    process.destroy();
+  }
+
+  /**
+   * Runs a subprocess and waits for it to finish.
+   *
+   * <p>If the calling thread is interrupted while waiting, the subprocess and all of its children
+   * are killed and the result reports termination by {@code SIGKILL}; the interrupted status of the
+   * thread is preserved.
+   *
+   * @param args the command line of the subprocess
+   * @param env the complete environment of the subprocess
+   * @param cwd the working directory of the subprocess
+   * @param stdout the file that stdout of the subprocess is appended to
+   * @param stderr the file that stderr of the subprocess is appended to
+   * @param timeoutSeconds the timeout after which the subprocess is killed, or -1 for no timeout;
+   *     a subprocess killed because of the timeout is reported as terminated by {@code SIGALRM}
+   * @param killDelaySeconds the time given to a subprocess between SIGTERM and SIGKILL when it
+   *     runs into the timeout
+   * @throws IOException if the communication with the spawn-server fails
+   */
+  public Result exec(
+      List<String> args,
+      Map<String, String> env,
+      Path cwd,
+      Path stdout,
+      Path stderr,
+      int timeoutSeconds,
+      int killDelaySeconds)
+      throws IOException {
+    Preconditions.checkArgument(!args.isEmpty());
+    ByteArrayOutputStream request = new ByteArrayOutputStream();
+    writeField(request, Integer.toString(timeoutSeconds));
+    writeField(request, Integer.toString(killDelaySeconds));
+    writeField(request, cwd.getPathString());
+    writeField(request, stdout.getPathString());
+    writeField(request, stderr.getPathString());
+    writeField(request, Integer.toString(args.size()));
+    for (String arg : args) {
+      writeField(request, arg);
+    }
+    writeField(request, Integer.toString(env.size()));
+    for (Map.Entry<String, String> entry : env.entrySet()) {
+      writeField(request, entry.getKey() + "=" + entry.getValue());
+    }
+
+    try (LocalClientSocket socket = new LocalClientSocket(address)) {
+      OutputStream out = socket.getOutputStream();
+      out.write((request.size() + "\n").getBytes(StandardCharsets.UTF_8));
+      request.writeTo(out);
+      out.flush();
+
+      // Closing the connection makes the spawn-server kill the subprocess.
+      while (!socket.waitForInput(INTERRUPT_CHECK_INTERVAL_MILLIS)) {
+        if (Thread.currentThread().isInterrupted()) {
+          return new Result(new TerminationStatus(128 + 9 /* SIGKILL */), ResourceUsage.EMPTY);
+        }
+      }
+      BufferedReader reader =
+          new BufferedReader(
+              new InputStreamReader(socket.getInputStream(), StandardCharsets.UTF_8));
+      return parseResult(reader.readLine());
+    }
+  }
+
+  private static void writeField(ByteArrayOutputStream request, String value) {
+    byte[] bytes = value.getBytes(StandardCharsets.ISO_8859_1);
+    request.write(bytes, 0, bytes.length);
+    request.write(0);
+  }
+
+  private static Result parseResult(String line) throws IOException {
+    if (line == null || line.startsWith("error")) {
+      throw new IOException("spawn-server failed to run the command: " + line);
+    }
+    List<String> fields = ImmutableList.copyOf(Splitter.on(' ').split(line));
+    try {
+      return new Result(
+          new TerminationStatus(Integer.parseInt(fields.get(0))),
+          new ResourceUsage(
+              Long.parseLong(fields.get(1)),
+              Long.parseLong(fields.get(2)),
+              Long.parseLong(fields.get(3)),
+              Long.parseLong(fields.get(4)),
+              Long.parseLong(fields.get(5)),
+              Long.parseLong(fields.get(6)),
+              Long.parseLong(fields.get(7)),
+              Long.parseLong(fields.get(8)),
+              Long.parseLong(fields.get(9))));
+    } catch (NumberFormatException | IndexOutOfBoundsException e) {
+      throw new IOException("Malformed response from spawn-server: " + line, e);
+    }
+  }
+}
@@ -37,6 +37,8 @@ import com.google.devtools.build.lib.vfs.FileSystemUtils;
 
 import java.io.IOException;
 
+import javax.annotation.Nullable;
+
 /**
  * Provide a standalone, local execution context.
  */
@@ -64,8 +66,11 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
   private final ImmutableList<ActionContext> strategies;
   private final BlazeRuntime runtime;
 
-  public StandaloneActionContextProvider(CommandEnvironment env, BuildRequest buildRequest) {
+  public StandaloneActionContextProvider(
+      CommandEnvironment env, BuildRequest buildRequest, @Nullable SpawnServer spawnServer) {
     boolean verboseFailures = buildRequest.getOptions(ExecutionOptions.class).verboseFailures;
+    boolean multiplexOutput =
+        buildRequest.getOptions(StandaloneOptions.class).multiplexProcessOutput;
 
     this.runtime = env.getRuntime();
 
@@ -79,7 +84,8 @@ public class StandaloneActionContextProvider extends ActionContextProvider {
     // could potentially be used and a spawnActionContext doesn't specify which one it wants, the
     // last one from strategies list will be used
     strategiesBuilder.add(
-        new StandaloneSpawnStrategy(runtime.getExecRoot(), verboseFailures),
+        new StandaloneSpawnStrategy(
+            runtime.getExecRoot(), verboseFailures, spawnServer, multiplexOutput),
         new DummyIncludeScanningContext(),
         new LocalLinkStrategy(),
         testStrategy,
@@ -18,21 +18,73 @@ import com.google.common.eventbus.Subscribe;
 import com.google.devtools.build.lib.actions.ActionContextProvider;
 import com.google.devtools.build.lib.buildtool.BuildRequest;
 import com.google.devtools.build.lib.buildtool.buildevent.BuildStartingEvent;
+import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.runtime.BlazeModule;
 import com.google.devtools.build.lib.runtime.Command;
 import com.google.devtools.build.lib.runtime.CommandEnvironment;
+import com.google.devtools.build.lib.util.OS;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.common.options.OptionsBase;
+
+import java.io.IOException;
 
 /**
  * StandaloneModule provides pluggable functionality for blaze.
  */
 public class StandaloneModule extends BlazeModule {
+  // Unix domain socket paths are limited to 108 bytes on Linux.
+  private static final int MAX_SOCKET_PATH_LENGTH = 100;
+
+  // Per-server state
+  private SpawnServer spawnServer;
+
+  // Per-command state
   private CommandEnvironment env;
   private BuildRequest buildRequest;
 
   @Override
   public Iterable<ActionContextProvider> getActionContextProviders() {
+    SpawnServer spawnServer = null;
+    if (buildRequest.getOptions(StandaloneOptions.class).spawnServer) {
+      spawnServer = getSpawnServer();
+    }
     return ImmutableList.<ActionContextProvider>of(
-        new StandaloneActionContextProvider(env, buildRequest));
+        new StandaloneActionContextProvider(env, buildRequest, spawnServer));
+  }
+
+  /**
+   * Returns the spawn-server of this Blaze server, starting it if necessary, or null if it is not
+   * available on this platform or could not be started.
+   */
+  private synchronized SpawnServer getSpawnServer() {
+    if (spawnServer != null && spawnServer.isAlive()) {
+      return spawnServer;
+    }
+    if (OS.getCurrent() == OS.WINDOWS) {
+      return null;
+    }
+    Path outputBase = env.getDirectories().getOutputBase();
+    Path binary = env.getDirectories().getEmbeddedBinariesRoot().getRelative("spawn-server");
+    Path socket = outputBase.getRelative("spawn-server.sock");
+    if (socket.getPathString().length() > MAX_SOCKET_PATH_LENGTH) {
+      socket = outputBase.getFileSystem().getPath(System.getProperty("java.io.tmpdir"))
+          .getRelative("spawn-server-" + outputBase.getBaseName() + ".sock");
+    }
+    try {
+      spawnServer = SpawnServer.start(binary, socket);
+    } catch (IOException e) {
+      env.getReporter().handle(Event.warn("Could not start the spawn-server, falling back to "
+          + "forking processes directly: " + e.getMessage()));
+      spawnServer = null;
+    }
+    return spawnServer;
+  }
+
+  @Override
+  public Iterable<Class<? extends OptionsBase>> getCommandOptions(Command command) {
+    return command.builds()
+        ? ImmutableList.<Class<? extends OptionsBase>>of(StandaloneOptions.class)
+        : ImmutableList.<Class<? extends OptionsBase>>of();
   }
 
   @Override
@@ -51,4 +103,12 @@ public class StandaloneModule extends BlazeModule {
   public void buildStarting(BuildStartingEvent event) {
     buildRequest = event.getRequest();
   }
+
+  @Override
+  public synchronized void blazeShutdown() {
+    if (spawnServer != null) {
+      spawnServer.destroy();
+      spawnServer = null;
+    }
+  }
 }
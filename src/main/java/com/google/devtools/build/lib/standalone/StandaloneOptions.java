@@ -0,0 +1,44 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.devtools.common.options.Option;
+import com.google.devtools.common.options.OptionsBase;
+
+/**
+ * Options for standalone (local) execution.
+ */
+public class StandaloneOptions extends OptionsBase {
+
+  @Option(
+    name = "experimental_spawn_server",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "Let a small helper process that is started once per server fork and execute the "
+            + "processes of the standalone strategy, instead of forking the server for each of "
+            + "them."
+  )
+  public boolean spawnServer;
+
+  @Option(
+    name = "experimental_multiplex_process_output",
+    defaultValue = "false",
+    category = "strategy",
+    help =
+        "Copy the output of the processes of the standalone strategy with a single thread "
+            + "shared by all of them, instead of two threads per process."
+  )
+  public boolean multiplexProcessOutput;
+}
@@ -17,6 +17,7 @@ import com.google.devtools.build.lib.actions.ActionExecutionContext;
 import com.google.devtools.build.lib.actions.ExecException;
 import com.google.devtools.build.lib.actions.ExecutionStrategy;
 import com.google.devtools.build.lib.actions.Executor;
+import com.google.devtools.build.lib.actions.ResourceUsage;
 import com.google.devtools.build.lib.actions.Spawn;
 import com.google.devtools.build.lib.actions.SpawnActionContext;
 import com.google.devtools.build.lib.actions.UserExecException;
@@ -32,9 +33,12 @@ import com.google.devtools.build.lib.util.io.FileOutErr;
 import com.google.devtools.build.lib.vfs.Path;
 
 import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Strategy that uses subprocessing to execute a process.
  */
@@ -42,11 +46,25 @@ import java.util.List;
 public class StandaloneSpawnStrategy implements SpawnActionContext {
   private final boolean verboseFailures;
   private final Path processWrapper;
+  @Nullable private final SpawnServer spawnServer;
+  private final boolean multiplexOutput;
 
   public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures) {
+    this(execRoot, verboseFailures, null, false);
+  }
+
+  /**
+   * Creates a strategy that runs spawns through {@code spawnServer} if it is not null, and by
+   * forking the Blaze server otherwise. In the latter case, {@code multiplexOutput} selects whether
+   * the output of the spawns is copied by a single shared thread.
+   */
+  public StandaloneSpawnStrategy(Path execRoot, boolean verboseFailures,
+      @Nullable SpawnServer spawnServer, boolean multiplexOutput) {
     this.verboseFailures = verboseFailures;
     this.processWrapper = execRoot.getRelative(
         "_bin/process-wrapper" + OsUtils.executableExtension());
+    this.spawnServer = spawnServer;
+    this.multiplexOutput = multiplexOutput;
   }
 
   /**
@@ -73,16 +91,30 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       }
     }
 
+    FileOutErr outErr = actionExecutionContext.getFileOutErr();
+    if (spawnServer != null && outErr.getOutputFile() != null && outErr.getErrorFile() != null) {
+      execWithSpawnServer(
+          spawnServer, spawn, actionExecutionContext, executor.getExecRoot(), outErr, timeout);
+      return;
+    }
+
     // We must wrap the subprocess with process-wrapper to kill the process tree.
     // All actions therefore depend on the process-wrapper file. Since it's embedded,
     // we don't bother with declaring it as an input.
     List<String> args = new ArrayList<>();
+    Path statsFile = null;
     if (OS.getCurrent() != OS.WINDOWS) {
       // TODO(bazel-team): process-wrapper seems to work on Windows, but requires
       // additional setup as it is an msys2 binary, so it needs msys2 DLLs on %PATH%.
       // Disable it for now to make the setup easier and to avoid further PATH hacks.
       // Ideally we should have a native implementation of process-wrapper for Windows.
       args.add(processWrapper.getPathString());
+      if (outErr.getOutputFile() != null) {
+        statsFile = outErr.getOutputFile().getParentDirectory().getRelative(
+            outErr.getOutputFile().getBaseName() + ".rusage");
+        args.add("--stats");
+        args.add(statsFile.getPathString());
+      }
       args.add(Integer.toString(timeout));
       args.add("5"); /* kill delay: give some time to print stacktraces and whatnot. */
 
@@ -96,14 +128,14 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
     String cwd = executor.getExecRoot().getPathString();
     Command cmd = new Command(args.toArray(new String[]{}), spawn.getEnvironment(), new File(cwd));
 
-    FileOutErr outErr = actionExecutionContext.getFileOutErr();
     try {
       cmd.execute(
           /* stdin */ new byte[]{},
           Command.NO_OBSERVER,
           outErr.getOutputStream(),
           outErr.getErrorStream(),
-          /*killSubprocessOnInterrupt*/ true);
+          /*killSubprocessOnInterrupt*/ true,
+          multiplexOutput);
     } catch (AbnormalTerminationException e) {
       TerminationStatus status = e.getResult().getTerminationStatus();
       boolean timedOut = !status.exited() && (status.getTerminatingSignal() == 14 /* SIGALRM */);
@@ -115,6 +147,48 @@ public class StandaloneSpawnStrategy implements SpawnActionContext {
       String message = CommandFailureUtils.describeCommandFailure(
           verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
       throw new UserExecException(message, e);
+    } finally {
+      if (statsFile != null) {
+        actionExecutionContext.recordResourceUsage(ResourceUsage.consumeStatsFile(statsFile));
+      }
+    }
+  }
+
+  /**
+   * Executes the given {@code spawn} through the spawn-server, which takes care of the timeout and
+   * of killing the process tree, just like process-wrapper does.
+   */
+  private void execWithSpawnServer(SpawnServer spawnServer, Spawn spawn,
+      ActionExecutionContext actionExecutionContext, Path execRoot, FileOutErr outErr, int timeout)
+      throws ExecException {
+    String cwd = execRoot.getPathString();
+    SpawnServer.Result result;
+    try {
+      // The spawn-server appends to the files directly, so anything buffered must go first.
+      outErr.getOutputStream().flush();
+      outErr.getErrorStream().flush();
+      result =
+          spawnServer.exec(
+              spawn.getArguments(),
+              spawn.getEnvironment(),
+              execRoot,
+              outErr.getOutputFile(),
+              outErr.getErrorFile(),
+              timeout,
+              /* killDelaySeconds */ 5);
+    } catch (IOException e) {
+      String message = CommandFailureUtils.describeCommandFailure(
+          verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(message, e);
+    }
+    actionExecutionContext.recordResourceUsage(result.getResourceUsage());
+    TerminationStatus status = result.getTerminationStatus();
+    if (!status.success()) {
+      boolean timedOut = !status.exited() && (status.getTerminatingSignal() == 14 /* SIGALRM */);
+      String message =
+          CommandFailureUtils.describeCommandFailure(
+              verboseFailures, spawn.getArguments(), spawn.getEnvironment(), cwd);
+      throw new UserExecException(String.format("%s: %s", message, status), timedOut);
     }
   }
 
@@ -22,6 +22,8 @@ import com.google.common.collect.Ordering;
 import com.google.common.collect.Sets;
 import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.packages.Type.ConversionException;
+import com.google.devtools.build.lib.profiler.SkylarkProfiler;
+import com.google.devtools.build.lib.vfs.PathFragment;
 
 import java.util.ArrayList;
 import java.util.HashMap;
@@ -424,7 +426,17 @@ public abstract class BaseFunction implements SkylarkValue {
     Object[] arguments = processArguments(args, kwargs, loc);
     canonicalizeArguments(arguments, loc);
 
-    return call(arguments, ast, env);
+    SkylarkProfiler profiler = SkylarkProfiler.instance();
+    if (!profiler.isActive()) {
+      return call(arguments, ast, env);
+    }
+    PathFragment file = location == null ? null : location.getPath();
+    profiler.enter(getName(), file == null ? null : file.getPathString());
+    try {
+      return call(arguments, ast, env);
+    } finally {
+      profiler.exit();
+    }
   }
 
   /**
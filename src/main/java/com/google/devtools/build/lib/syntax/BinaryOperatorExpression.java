@@ -118,8 +118,13 @@ public final class BinaryOperatorExpression extends Expression {
       }
     }
 
-    Object rval = rhs.eval(env);
+    return evaluate(lval, rhs.eval(env));
+  }
 
+  /**
+   * Applies the operator, which must not be short-circuit, to the values of the operands.
+   */
+  Object evaluate(Object lval, Object rval) throws EvalException {
     switch (operator) {
       case PLUS:
         return plus(lval, rval);
@@ -292,6 +297,16 @@ public final class BinaryOperatorExpression extends Expression {
     if (lval instanceof Map<?, ?> && rval instanceof Map<?, ?>) {
       Map<?, ?> ldict = (Map<?, ?>) lval;
       Map<?, ?> rdict = (Map<?, ?>) rval;
+      if (rdict.isEmpty() && ldict instanceof ImmutableMap<?, ?>) {
+        return ldict;
+      }
+      if (ldict.isEmpty() && rdict instanceof ImmutableMap<?, ?>) {
+        return rdict;
+      }
+      if (Collections.disjoint(ldict.keySet(), rdict.keySet())) {
+        // The common case, e.g. when a dict is extended in a loop: copy each entry only once.
+        return ImmutableMap.builder().putAll(ldict).putAll(rdict).build();
+      }
       Map<Object, Object> result = new LinkedHashMap<>(ldict.size() + rdict.size());
       result.putAll(ldict);
       result.putAll(rdict);
@@ -71,6 +71,16 @@ public class BuildFileAST extends ASTNode {
     }
   }
 
+  /** Creates a file from its parts, for example those decoded by {@link SyntaxTreeCodec}. */
+  BuildFileAST(List<Statement> stmts, List<Comment> comments, boolean containsErrors,
+      @Nullable String contentHashCode, Location location) {
+    this.stmts = ImmutableList.copyOf(stmts);
+    this.comments = ImmutableList.copyOf(comments);
+    this.containsErrors = containsErrors;
+    this.contentHashCode = contentHashCode;
+    setLocation(location);
+  }
+
   private ImmutableSet<String> fetchIncludes(List<Statement> stmts) {
     ImmutableSet.Builder<String> result = new ImmutableSet.Builder<>();
     for (Statement stmt : stmts) {
@@ -128,6 +138,19 @@ public class BuildFileAST extends ASTNode {
     return stmts;
   }
 
+  /**
+   * Returns this file with the given statements, for example those of a prelude, executed before
+   * its own.
+   */
+  public BuildFileAST prependStatements(List<Statement> preludeStatements) {
+    if (preludeStatements.isEmpty()) {
+      return this;
+    }
+    return new BuildFileAST(
+        ImmutableList.<Statement>builder().addAll(preludeStatements).addAll(stmts).build(),
+        comments, containsErrors, contentHashCode, getLocation());
+  }
+
   /**
    * Returns an (immutable, ordered) list of comments in this BUILD file.
    */
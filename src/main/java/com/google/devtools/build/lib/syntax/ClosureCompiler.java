@@ -0,0 +1,345 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+
+import java.util.List;
+
+/**
+ * Compiles the body of a {@link UserDefinedFunction} into a tree of closures that evaluate it
+ * faster than walking the syntax tree.
+ *
+ * <p>Each closure is specialized for its node when it is compiled: the statements of a block are
+ * in an array, the operator of a binary expression is known, and the value of a literal is a
+ * constant. Statements return a signal instead of throwing a
+ * {@link ReturnStatement.ReturnException} or a {@link FlowStatement.FlowException}, which makes
+ * {@code return}, {@code break} and {@code continue} cheap. Expressions without a closure of their
+ * own, such as function calls, are evaluated by their syntax node.
+ *
+ * <p>The closures behave exactly like the syntax tree: errors are reported by the same nodes, so
+ * they get the same locations and stack traces, and variables are read and assigned through the
+ * {@link Environment}, which enforces the {@link Mutability} of its Frames.
+ */
+final class ClosureCompiler {
+
+  private ClosureCompiler() {}
+
+  /** A compiled expression. */
+  abstract static class Code {
+    abstract Object eval(Environment env) throws EvalException, InterruptedException;
+  }
+
+  /**
+   * A compiled statement. It returns {@link #NEXT} if execution continues with the next
+   * statement, {@link #BREAK} or {@link #CONTINUE} for a flow statement, and otherwise the value
+   * of a return statement.
+   */
+  abstract static class Block {
+    abstract Object exec(Environment env) throws EvalException, InterruptedException;
+  }
+
+  private static final Object NEXT = new Object();
+  private static final Object BREAK = new Object();
+  private static final Object CONTINUE = new Object();
+
+  /**
+   * Compiles the body of a function. The returned expression evaluates to the return value of
+   * the function, once the parameters are bound in the environment.
+   */
+  static Code compileFunction(List<Statement> statements) {
+    final Block body = compileBlock(statements);
+    return new Code() {
+      @Override
+      Object eval(Environment env) throws EvalException, InterruptedException {
+        Object signal = body.exec(env);
+        return signal == NEXT ? Runtime.NONE : signal;
+      }
+    };
+  }
+
+  private static Block compileBlock(List<Statement> statements) {
+    if (statements.size() == 1) {
+      return compile(statements.get(0));
+    }
+    final Block[] blocks = new Block[statements.size()];
+    for (int i = 0; i < blocks.length; i++) {
+      blocks[i] = compile(statements.get(i));
+    }
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        for (Block block : blocks) {
+          Object signal = block.exec(env);
+          if (signal != NEXT) {
+            return signal;
+          }
+        }
+        return NEXT;
+      }
+    };
+  }
+
+  private static Block compile(Statement statement) {
+    if (statement instanceof ExpressionStatement) {
+      return compileExpressionStatement((ExpressionStatement) statement);
+    } else if (statement instanceof AssignmentStatement) {
+      return compileAssignment((AssignmentStatement) statement);
+    } else if (statement instanceof ReturnStatement) {
+      return compileReturn((ReturnStatement) statement);
+    } else if (statement instanceof IfStatement) {
+      return compileIf((IfStatement) statement);
+    } else if (statement instanceof ForStatement) {
+      return compileFor((ForStatement) statement);
+    } else if (statement == FlowStatement.BREAK) {
+      return constant(BREAK);
+    } else if (statement == FlowStatement.CONTINUE) {
+      return constant(CONTINUE);
+    }
+    return interpret(statement);
+  }
+
+  private static Block constant(final Object signal) {
+    return new Block() {
+      @Override
+      Object exec(Environment env) {
+        return signal;
+      }
+    };
+  }
+
+  /** Executes a statement without a closure of its own by walking its syntax tree. */
+  private static Block interpret(final Statement statement) {
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          statement.exec(env);
+          return NEXT;
+        } catch (ReturnStatement.ReturnException e) {
+          return e.getValue();
+        } catch (FlowStatement.FlowException e) {
+          return e.mustTerminateLoop() ? BREAK : CONTINUE;
+        }
+      }
+    };
+  }
+
+  private static Block compileExpressionStatement(final ExpressionStatement statement) {
+    final Code expression = compile(statement.getExpression());
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          expression.eval(env);
+          return NEXT;
+        } catch (EvalException | RuntimeException e) {
+          throw statement.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Block compileAssignment(final AssignmentStatement statement) {
+    final LValue lvalue = statement.getLValue();
+    final Code expression = compile(statement.getExpression());
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          lvalue.assign(env, statement.getLocation(), expression.eval(env));
+          return NEXT;
+        } catch (EvalException | RuntimeException e) {
+          throw statement.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Block compileReturn(final ReturnStatement statement) {
+    final Code expression = compile(statement.getReturnExpression());
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          return expression.eval(env);
+        } catch (EvalException | RuntimeException e) {
+          throw statement.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Block compileIf(final IfStatement statement) {
+    ImmutableList<ConditionalStatements> thenBlocks = statement.getThenBlocks();
+    final Code[] conditions = new Code[thenBlocks.size()];
+    final Block[] blocks = new Block[thenBlocks.size()];
+    for (int i = 0; i < conditions.length; i++) {
+      conditions[i] = compile(thenBlocks.get(i).getCondition());
+      blocks[i] = compileBlock(thenBlocks.get(i).getStmts());
+    }
+    final Block elseBlock = compileBlock(statement.getElseBlock());
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          for (int i = 0; i < conditions.length; i++) {
+            if (EvalUtils.toBoolean(conditions[i].eval(env))) {
+              return blocks[i].exec(env);
+            }
+          }
+          return elseBlock.exec(env);
+        } catch (EvalException | RuntimeException e) {
+          throw statement.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Block compileFor(final ForStatement statement) {
+    final LValue variable = statement.getVariable();
+    final Code collection = compile(statement.getCollection());
+    final Block body = compileBlock(statement.block());
+    return new Block() {
+      @Override
+      Object exec(Environment env) throws EvalException, InterruptedException {
+        try {
+          Location location = statement.getLocation();
+          Iterable<?> col = EvalUtils.toIterable(collection.eval(env), location);
+          int i = 0;
+          for (Object it : ImmutableList.copyOf(col)) {
+            variable.assign(env, location, it);
+            Object signal = body.exec(env);
+            if (signal == BREAK) {
+              return NEXT;
+            } else if (signal != NEXT && signal != CONTINUE) {
+              return signal;
+            }
+            i++;
+          }
+          if (i != EvalUtils.size(col)) {
+            throw new EvalException(location, String.format(
+                "Cannot modify '%s' during during iteration.", statement.getCollection()));
+          }
+          return NEXT;
+        } catch (EvalException | RuntimeException e) {
+          throw statement.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Code compile(final Expression expression) {
+    if (expression instanceof Literal<?>) {
+      final Object value = ((Literal<?>) expression).getValue();
+      return new Code() {
+        @Override
+        Object eval(Environment env) {
+          return value;
+        }
+      };
+    } else if (expression instanceof BinaryOperatorExpression) {
+      return compileBinaryOperator((BinaryOperatorExpression) expression);
+    } else if (expression instanceof NotExpression) {
+      return compileNot((NotExpression) expression);
+    } else if (expression instanceof ConditionalExpression) {
+      return compileConditional((ConditionalExpression) expression);
+    }
+    return new Code() {
+      @Override
+      Object eval(Environment env) throws EvalException, InterruptedException {
+        return expression.eval(env);
+      }
+    };
+  }
+
+  private static Code compileBinaryOperator(final BinaryOperatorExpression expression) {
+    final Code lhs = compile(expression.getLhs());
+    final Code rhs = compile(expression.getRhs());
+    switch (expression.getOperator()) {
+      case AND:
+        return new Code() {
+          @Override
+          Object eval(Environment env) throws EvalException, InterruptedException {
+            try {
+              Object lval = lhs.eval(env);
+              return EvalUtils.toBoolean(lval) ? rhs.eval(env) : lval;
+            } catch (EvalException | RuntimeException e) {
+              throw expression.handleException(e);
+            }
+          }
+        };
+
+      case OR:
+        return new Code() {
+          @Override
+          Object eval(Environment env) throws EvalException, InterruptedException {
+            try {
+              Object lval = lhs.eval(env);
+              return EvalUtils.toBoolean(lval) ? lval : rhs.eval(env);
+            } catch (EvalException | RuntimeException e) {
+              throw expression.handleException(e);
+            }
+          }
+        };
+
+      default:
+        return new Code() {
+          @Override
+          Object eval(Environment env) throws EvalException, InterruptedException {
+            try {
+              Object lval = lhs.eval(env);
+              return expression.evaluate(lval, rhs.eval(env));
+            } catch (EvalException | RuntimeException e) {
+              throw expression.handleException(e);
+            }
+          }
+        };
+    }
+  }
+
+  private static Code compileNot(final NotExpression expression) {
+    final Code operand = compile(expression.getExpression());
+    return new Code() {
+      @Override
+      Object eval(Environment env) throws EvalException, InterruptedException {
+        try {
+          return !EvalUtils.toBoolean(operand.eval(env));
+        } catch (EvalException | RuntimeException e) {
+          throw expression.handleException(e);
+        }
+      }
+    };
+  }
+
+  private static Code compileConditional(final ConditionalExpression expression) {
+    final Code condition = compile(expression.getCondition());
+    final Code thenCase = compile(expression.getThenCase());
+    final Code elseCase = compile(expression.getElseCase());
+    return new Code() {
+      @Override
+      Object eval(Environment env) throws EvalException, InterruptedException {
+        try {
+          return EvalUtils.toBoolean(condition.eval(env))
+              ? thenCase.eval(env)
+              : elseCase.eval(env);
+        } catch (EvalException | RuntimeException e) {
+          throw expression.handleException(e);
+        }
+      }
+    };
+  }
+}
@@ -19,6 +19,8 @@ import com.google.devtools.build.lib.syntax.FuncallExpression.MethodDescriptor;
 
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Syntax node for a dot expression.
  * e.g.  obj.field, but not obj.method()
@@ -29,6 +31,22 @@ public final class DotExpression extends Expression {
 
   private final Identifier field;
 
+  /**
+   * The class of the last object whose field was read, and its method that implements the
+   * field, if any.
+   */
+  private static final class FieldCache {
+    final Class<?> objClass;
+    @Nullable final MethodDescriptor method;
+
+    FieldCache(Class<?> objClass, @Nullable MethodDescriptor method) {
+      this.objClass = objClass;
+      this.method = method;
+    }
+  }
+
+  @Nullable private transient FieldCache fieldCache;
+
   public DotExpression(Expression obj, Identifier field) {
     this.obj = obj;
     this.field = field;
@@ -51,7 +69,19 @@ public final class DotExpression extends Expression {
   Object doEval(Environment env) throws EvalException, InterruptedException {
     Object objValue = obj.eval(env);
     String name = field.getName();
-    Object result = eval(objValue, name, getLocation());
+    Object result = getClassObjectField(objValue, name, getLocation());
+    if (result == null) {
+      FieldCache cache = fieldCache;
+      if (cache == null || cache.objClass != objValue.getClass()) {
+        cache = new FieldCache(objValue.getClass(),
+            findFieldMethod(objValue.getClass(), name, getLocation()));
+        fieldCache = cache;
+      }
+      if (cache.method != null) {
+        result = FuncallExpression.callMethod(
+            cache.method, name, objValue, new Object[] {}, getLocation());
+      }
+    }
     if (result == null) {
       if (objValue instanceof ClassObject) {
         String customErrorMessage = ((ClassObject) objValue).errorMessage(name);
@@ -69,6 +99,20 @@ public final class DotExpression extends Expression {
    * Returns the field of the given name of the struct objValue, or null if no such field exists.
    */
   public static Object eval(Object objValue, String name, Location loc) throws EvalException {
+    Object result = getClassObjectField(objValue, name, loc);
+    if (result != null) {
+      return result;
+    }
+    MethodDescriptor method = findFieldMethod(objValue.getClass(), name, loc);
+    if (method != null) {
+      return FuncallExpression.callMethod(method, name, objValue, new Object[] {}, loc);
+    }
+    return null;
+  }
+
+  @Nullable
+  private static Object getClassObjectField(Object objValue, String name, Location loc)
+      throws EvalException {
     if (objValue instanceof ClassObject) {
       Object result = null;
       try {
@@ -86,13 +130,21 @@ public final class DotExpression extends Expression {
         return result;
       }
     }
+    return null;
+  }
 
-    List<MethodDescriptor> methods =
-        FuncallExpression.getMethods(objValue.getClass(), name, 0, loc);
+  /**
+   * Returns the method of the given class that implements the field of the given name, or null
+   * if there is none.
+   */
+  @Nullable
+  private static MethodDescriptor findFieldMethod(Class<?> objClass, String name, Location loc)
+      throws EvalException {
+    List<MethodDescriptor> methods = FuncallExpression.getMethods(objClass, name, 0, loc);
     if (methods != null && !methods.isEmpty()) {
       MethodDescriptor method = Iterables.getOnlyElement(methods);
       if (method.getAnnotation().structField()) {
-        return FuncallExpression.callMethod(method, name, objValue, new Object[] {}, loc);
+        return method;
       }
     }
     return null;
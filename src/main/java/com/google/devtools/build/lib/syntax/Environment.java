@@ -197,6 +197,12 @@ public final class Environment implements Freezable {
     /** Whether the caller is in Skylark mode. */
     boolean isSkylark;
 
+    /** The local variables of the caller, if it keeps them in slots. */
+    @Nullable FunctionScope localScope;
+
+    /** The values of the local variables of the caller. */
+    @Nullable Object[] localSlots;
+
     Continuation(
         Continuation continuation,
         BaseFunction function,
@@ -204,13 +210,17 @@ public final class Environment implements Freezable {
         Frame lexicalFrame,
         Frame globalFrame,
         Set<String> knownGlobalVariables,
-        boolean isSkylark) {
+        boolean isSkylark,
+        FunctionScope localScope,
+        Object[] localSlots) {
       this.continuation = continuation;
       this.function = function;
       this.caller = caller;
       this.lexicalFrame = lexicalFrame;
       this.globalFrame = globalFrame;
       this.isSkylark = isSkylark;
+      this.localScope = localScope;
+      this.localSlots = localSlots;
     }
   }
 
@@ -335,6 +345,15 @@ public final class Environment implements Freezable {
    */
   @Nullable private Continuation continuation;
 
+  /**
+   * When in the lexical Frame of a {@link UserDefinedFunction}, the local variables of the
+   * function. Their values are kept in {@link #localSlots} rather than in the lexical Frame.
+   */
+  @Nullable private FunctionScope localScope;
+
+  /** The values of the local variables in {@link #localScope}, or null if not assigned yet. */
+  @Nullable private Object[] localSlots;
+
   /**
    * Enters a scope by saving state to a new Continuation
    * @param function the function whose scope to enter
@@ -342,12 +361,26 @@ public final class Environment implements Freezable {
    * @param globals the global Frame that this function closes over from its definition Environment
    */
   void enterScope(BaseFunction function, FuncallExpression caller, Frame globals) {
-    continuation = new Continuation(
-        continuation, function, caller, lexicalFrame, globalFrame, knownGlobalVariables, isSkylark);
+    enterScope(function, caller, globals, null);
+  }
+
+  /**
+   * Enters a scope by saving state to a new Continuation
+   * @param function the function whose scope to enter
+   * @param caller the source AST node for the caller
+   * @param globals the global Frame that this function closes over from its definition Environment
+   * @param scope the local variables of the function, which are kept in slots, if any
+   */
+  void enterScope(BaseFunction function, FuncallExpression caller, Frame globals,
+      @Nullable FunctionScope scope) {
+    continuation = new Continuation(continuation, function, caller, lexicalFrame, globalFrame,
+        knownGlobalVariables, isSkylark, localScope, localSlots);
     lexicalFrame = new Frame(mutability(), null);
     globalFrame = globals;
     knownGlobalVariables = new HashSet<String>();
     isSkylark = true;
+    localScope = scope;
+    localSlots = scope == null ? null : new Object[scope.size()];
   }
 
   /**
@@ -359,6 +392,8 @@ public final class Environment implements Freezable {
     globalFrame = continuation.globalFrame;
     knownGlobalVariables = continuation.knownGlobalVariables;
     isSkylark = continuation.isSkylark;
+    localScope = continuation.localScope;
+    localSlots = continuation.localSlots;
     continuation = continuation.continuation;
   }
 
@@ -367,6 +402,35 @@ public final class Environment implements Freezable {
    */
   @Nullable private String fileContentHashCode;
 
+  /**
+   * The number of calls after which the functions called in this Environment are compiled by the
+   * {@link ClosureCompiler}, or -1 if they are only ever interpreted.
+   */
+  private int compileThreshold = -1;
+
+  /**
+   * Sets whether functions that are called often in this Environment are compiled to closures
+   * instead of being interpreted by walking their syntax trees. Both give the same results.
+   * @return this Environment, in fluid style
+   */
+  public Environment setCompileHotFunctions(boolean compile) {
+    return setCompileThreshold(compile ? UserDefinedFunction.HOT_FUNCTION_CALLS : -1);
+  }
+
+  /**
+   * Sets the number of calls after which functions are compiled, or -1 to never compile them.
+   * @return this Environment, in fluid style
+   */
+  @VisibleForTesting
+  Environment setCompileThreshold(int compileThreshold) {
+    this.compileThreshold = compileThreshold;
+    return this;
+  }
+
+  int getCompileThreshold() {
+    return compileThreshold;
+  }
+
   /**
    * Is this Environment being evaluated during the loading phase?
    * This is fixed during Environment setup, and enables various functions
@@ -635,14 +699,13 @@ public final class Environment implements Freezable {
    */
   public Environment update(String varname, Object value) throws EvalException {
     Preconditions.checkNotNull(value, "update(value == null)");
-    // prevents clashes between static and dynamic variables.
-    if (dynamicFrame.get(varname) != null) {
-      throw new EvalException(
-          null, String.format("Trying to update special read-only global variable '%s'", varname));
-    }
-    if (isKnownGlobalVariable(varname)) {
-      throw new EvalException(
-          null, String.format("Trying to update read-only global variable '%s'", varname));
+    checkUpdate(varname);
+    if (localScope != null) {
+      int slot = localScope.getSlot(varname);
+      if (slot >= 0) {
+        localSlots[slot] = value;
+        return this;
+      }
     }
     try {
       currentFrame().put(this, varname, Preconditions.checkNotNull(value));
@@ -659,6 +722,62 @@ public final class Environment implements Freezable {
     return this;
   }
 
+  private void checkUpdate(String varname) throws EvalException {
+    // prevents clashes between static and dynamic variables.
+    if (dynamicFrame.get(varname) != null) {
+      throw new EvalException(
+          null, String.format("Trying to update special read-only global variable '%s'", varname));
+    }
+    if (isKnownGlobalVariable(varname)) {
+      throw new EvalException(
+          null, String.format("Trying to update read-only global variable '%s'", varname));
+    }
+  }
+
+  /**
+   * Returns whether the code being evaluated is the body of the function with the given local
+   * variables.
+   */
+  boolean isInScope(FunctionScope scope) {
+    return localScope == scope;
+  }
+
+  /**
+   * Like {@link #update}, for a local variable of the function being evaluated.
+   * @param scope the local variables of the function
+   * @param slot the slot of the variable in the scope
+   * @param varname the name of the variable
+   * @param value the value to bind to the variable
+   */
+  void updateLocal(FunctionScope scope, int slot, String varname, Object value)
+      throws EvalException {
+    if (localScope != scope) {
+      update(varname, value);
+      return;
+    }
+    Preconditions.checkNotNull(value, "update(value == null)");
+    checkUpdate(varname);
+    localSlots[slot] = value;
+  }
+
+  /**
+   * Like {@link #lookup(String)}, for a local variable of the function being evaluated.
+   * @param scope the local variables of the function
+   * @param slot the slot of the variable in the scope
+   * @param varname the name of the variable
+   */
+  Object lookupLocal(FunctionScope scope, int slot, String varname)
+      throws NoSuchVariableException {
+    if (localScope == scope) {
+      Object value = localSlots[slot];
+      if (value != null) {
+        return value;
+      }
+    }
+    // Not assigned yet: a global variable of the same name may be read until it is.
+    return lookup(varname);
+  }
+
   private boolean hasVariable(String varname) {
     try {
       lookup(varname);
@@ -703,6 +822,12 @@ public final class Environment implements Freezable {
    */
   public Object lookup(String varname) throws NoSuchVariableException {
     // Which Frame to lookup first doesn't matter because update prevents clashes.
+    if (localScope != null) {
+      int slot = localScope.getSlot(varname);
+      if (slot >= 0 && localSlots[slot] != null) {
+        return localSlots[slot];
+      }
+    }
     if (lexicalFrame != null) {
       Object lexicalValue = lexicalFrame.get(varname);
       if (lexicalValue != null) {
@@ -758,6 +883,13 @@ public final class Environment implements Freezable {
     if (lexicalFrame != null) {
       lexicalFrame.addVariableNamesTo(vars);
     }
+    if (localScope != null) {
+      for (int slot = 0; slot < localSlots.length; slot++) {
+        if (localSlots[slot] != null) {
+          vars.add(localScope.getName(slot));
+        }
+      }
+    }
     globalFrame.addVariableNamesTo(vars);
     dynamicFrame.addVariableNamesTo(vars);
     return vars;
@@ -57,6 +57,11 @@ public final class FlowStatement extends Statement {
     visitor.visit(this);
   }
 
+  /** Keeps {@link #BREAK} and {@link #CONTINUE} unique when a syntax tree is deserialized. */
+  private Object readResolve() {
+    return ex.mustTerminateLoop() ? BREAK : CONTINUE;
+  }
+
   /**
    * An exception that signals changes in the control flow (e.g. break or continue)
    */
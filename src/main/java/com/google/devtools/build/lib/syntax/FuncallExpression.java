@@ -26,7 +26,9 @@ import com.google.devtools.build.lib.events.Location;
 import com.google.devtools.build.lib.syntax.EvalException.EvalExceptionWithJavaCause;
 import com.google.devtools.build.lib.util.StringUtilities;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.ArrayList;
@@ -56,6 +58,8 @@ public final class FuncallExpression extends Expression {
   public static final class MethodDescriptor {
     private final Method method;
     private final SkylarkCallable annotation;
+    /** The method as a handle of type (Object, Object[])Object, created on first use. */
+    private volatile MethodHandle methodHandle;
 
     private MethodDescriptor(Method method, SkylarkCallable annotation) {
       this.method = method;
@@ -66,6 +70,28 @@ public final class FuncallExpression extends Expression {
       return method;
     }
 
+    /**
+     * Returns a handle that invokes the method on a receiver, which is ignored by static
+     * methods, with the arguments in an array.
+     */
+    MethodHandle getMethodHandle() throws IllegalAccessException {
+      MethodHandle handle = methodHandle;
+      if (handle == null) {
+        // This happens when the interface is public but the implementation classes
+        // have reduced visibility.
+        method.setAccessible(true);
+        handle = MethodHandles.lookup().unreflect(method);
+        int arity = method.getParameterTypes().length;
+        if (Modifier.isStatic(method.getModifiers())) {
+          handle = MethodHandles.dropArguments(handle, 0, Object.class);
+        }
+        handle = handle.asType(MethodType.genericMethodType(arity + 1))
+            .asSpreader(Object[].class, arity);
+        methodHandle = handle;
+      }
+      return handle;
+    }
+
     /**
      * Returns the SkylarkCallable annotation corresponding to this method.
      */
@@ -170,6 +196,64 @@ public final class FuncallExpression extends Expression {
     }
   }
 
+  /**
+   * An inline cache of a method call: what the call resolved to for the last class of receiver,
+   * so that calling the method again on an object of the same class needs no lookup. Builtin
+   * functions are registered when their classes are initialized, before any code is evaluated,
+   * and the Java methods of a class never change.
+   */
+  private static final class CallSiteCache {
+    final Class<?> objClass;
+    /** The builtin function of the receiver's type, or null if there is none. */
+    @Nullable final BaseFunction function;
+    final boolean isNamespace;
+
+    /** The class the Java method was looked up in, or null if none was. */
+    @Nullable final Class<?> methodClass;
+    @Nullable final Class<?>[] argClasses;
+    @Nullable final MethodDescriptor method;
+
+    CallSiteCache(Class<?> objClass, @Nullable BaseFunction function, boolean isNamespace) {
+      this(objClass, function, isNamespace, null, null, null);
+    }
+
+    private CallSiteCache(Class<?> objClass, @Nullable BaseFunction function,
+        boolean isNamespace, @Nullable Class<?> methodClass, @Nullable Class<?>[] argClasses,
+        @Nullable MethodDescriptor method) {
+      this.objClass = objClass;
+      this.function = function;
+      this.isNamespace = isNamespace;
+      this.methodClass = methodClass;
+      this.argClasses = argClasses;
+      this.method = method;
+    }
+
+    /**
+     * Returns the Java method that was found for the given class and arguments, or null if it
+     * was looked up for other classes.
+     */
+    @Nullable
+    MethodDescriptor getMethod(Class<?> methodClass, List<Object> args) {
+      if (this.methodClass != methodClass || argClasses.length != args.size()) {
+        return null;
+      }
+      for (int i = 0; i < argClasses.length; i++) {
+        if (argClasses[i] != args.get(i).getClass()) {
+          return null;
+        }
+      }
+      return method;
+    }
+
+    CallSiteCache withMethod(Class<?> methodClass, List<Object> args, MethodDescriptor method) {
+      Class<?>[] argClasses = new Class<?>[args.size()];
+      for (int i = 0; i < argClasses.length; i++) {
+        argClasses[i] = args.get(i).getClass();
+      }
+      return new CallSiteCache(objClass, function, isNamespace, methodClass, argClasses, method);
+    }
+  }
+
   @Nullable private final Expression obj;
 
   private final Identifier func;
@@ -178,6 +262,9 @@ public final class FuncallExpression extends Expression {
 
   private final int numPositionalArgs;
 
+  /** What this call of a method resolved to the last time, or null. */
+  @Nullable private transient CallSiteCache callSiteCache;
+
   /**
    * Note: the grammar definition restricts the function value in a function
    * call expression to be a global identifier; however, the representation of
@@ -319,47 +406,45 @@ public final class FuncallExpression extends Expression {
 
   static Object callMethod(MethodDescriptor methodDescriptor, String methodName, Object obj,
       Object[] args, Location loc) throws EvalException {
+    Method method = methodDescriptor.getMethod();
+    if (obj == null && !Modifier.isStatic(method.getModifiers())) {
+      throw new EvalException(loc, "Method '" + methodName + "' is not static");
+    }
+    MethodHandle handle;
     try {
-      Method method = methodDescriptor.getMethod();
-      if (obj == null && !Modifier.isStatic(method.getModifiers())) {
-        throw new EvalException(loc, "Method '" + methodName + "' is not static");
-      }
-      // This happens when the interface is public but the implementation classes
-      // have reduced visibility.
-      method.setAccessible(true);
-      Object result = method.invoke(obj, args);
-      if (method.getReturnType().equals(Void.TYPE)) {
-        return Runtime.NONE;
-      }
-      if (result == null) {
-        if (methodDescriptor.getAnnotation().allowReturnNones()) {
-          return Runtime.NONE;
-        } else {
-          throw new EvalException(loc,
-              "Method invocation returned None, please contact Skylark developers: " + methodName
-              + Printer.listString(ImmutableList.copyOf(args), "(", ", ", ")", null));
-        }
-      }
-      result = SkylarkType.convertToSkylark(result, method);
-      if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
-        throw new EvalException(loc, Printer.format(
-            "Method '%s' returns an object of invalid type %r", methodName, result.getClass()));
-      }
-      return result;
+      handle = methodDescriptor.getMethodHandle();
     } catch (IllegalAccessException e) {
       // TODO(bazel-team): Print a nice error message. Maybe the method exists
       // and an argument is missing or has the wrong type.
       throw new EvalException(loc, "Method invocation failed: " + e);
-    } catch (InvocationTargetException e) {
-      if (e.getCause() instanceof FuncallException) {
-        throw new EvalException(loc, e.getCause().getMessage());
-      } else if (e.getCause() != null) {
-        throw new EvalExceptionWithJavaCause(loc, e.getCause());
+    }
+    Object result;
+    try {
+      result = (Object) handle.invokeExact(obj, args);
+    } catch (FuncallException e) {
+      throw new EvalException(loc, e.getMessage());
+    } catch (Throwable e) {
+      // Like Method.invoke, which wraps whatever the method throws.
+      throw new EvalExceptionWithJavaCause(loc, e);
+    }
+    if (method.getReturnType().equals(Void.TYPE)) {
+      return Runtime.NONE;
+    }
+    if (result == null) {
+      if (methodDescriptor.getAnnotation().allowReturnNones()) {
+        return Runtime.NONE;
       } else {
-        // This is unlikely to happen
-        throw new EvalException(loc, "Method invocation failed: " + e);
+        throw new EvalException(loc,
+            "Method invocation returned None, please contact Skylark developers: " + methodName
+            + Printer.listString(ImmutableList.copyOf(args), "(", ", ", ")", null));
       }
     }
+    result = SkylarkType.convertToSkylark(result, method);
+    if (result != null && !EvalUtils.isSkylarkAcceptable(result.getClass())) {
+      throw new EvalException(loc, Printer.format(
+          "Method '%s' returns an object of invalid type %r", methodName, result.getClass()));
+    }
+    return result;
   }
 
   // TODO(bazel-team): If there's exactly one usable method, this works. If there are multiple
@@ -513,10 +598,17 @@ public final class FuncallExpression extends Expression {
     // Strings, lists and dictionaries (maps) have functions that we want to use in
     // MethodLibrary.
     // For other classes, we can call the Java methods.
-    BaseFunction function =
-        Runtime.getFunction(EvalUtils.getSkylarkType(objValue.getClass()), func.getName());
+    CallSiteCache cache = callSiteCache;
+    if (cache == null || cache.objClass != objValue.getClass()) {
+      Class<?> objClass = objValue.getClass();
+      cache = new CallSiteCache(objClass,
+          Runtime.getFunction(EvalUtils.getSkylarkType(objClass), func.getName()),
+          isNamespace(objClass));
+      callSiteCache = cache;
+    }
+    BaseFunction function = cache.function;
     if (function != null) {
-      if (!isNamespace(objValue.getClass())) {
+      if (!cache.isNamespace) {
         // Add self as an implicit parameter in front.
         posargs.add(objValue);
       }
@@ -556,7 +648,11 @@ public final class FuncallExpression extends Expression {
       }
       String name = func.getName();
       ImmutableList<Object> args = posargs.build();
-      MethodDescriptor method = findJavaMethod(objClass, name, args);
+      MethodDescriptor method = cache.getMethod(objClass, args);
+      if (method == null) {
+        method = findJavaMethod(objClass, name, args);
+        callSiteCache = cache.withMethod(objClass, args, method);
+      }
       if (!kwargs.isEmpty()) {
         throw new EvalException(
             func.getLocation(),
@@ -18,6 +18,8 @@ import com.google.common.collect.ImmutableList;
 import java.util.ArrayList;
 import java.util.List;
 
+import javax.annotation.Nullable;
+
 /**
  * Syntax node for a function definition.
  */
@@ -27,6 +29,7 @@ public class FunctionDefStatement extends Statement {
   private final FunctionSignature.WithValues<Expression, Expression> signature;
   private final ImmutableList<Statement> statements;
   private final ImmutableList<Parameter<Expression, Expression>> parameters;
+  @Nullable private transient FunctionScope scope;
 
   public FunctionDefStatement(Identifier ident,
       Iterable<Parameter<Expression, Expression>> parameters,
@@ -57,9 +60,18 @@ public class FunctionDefStatement extends Statement {
             FunctionSignature.WithValues.<Object, SkylarkType>create(
                 signature.getSignature(), defaultValues, types),
             statements,
+            getScope(),
             env.getGlobals()));
   }
 
+  /** Returns the local variables of the function, resolving its body on the first call. */
+  synchronized FunctionScope getScope() {
+    if (scope == null) {
+      scope = FunctionScope.resolve(this);
+    }
+    return scope;
+  }
+
   @Override
   public String toString() {
     return "def " + ident + "(" + signature + "):\n";
@@ -116,5 +128,7 @@ public class FunctionDefStatement extends Statement {
     for (Statement stmts : statements) {
       stmts.validate(localEnv);
     }
+    // The body is valid, so its variables can be resolved before it is ever evaluated.
+    getScope();
   }
 }
@@ -0,0 +1,119 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The local variables of a function defined by a {@link FunctionDefStatement}: its parameters,
+ * in the order of its signature, followed by all the variables that are assigned in its body.
+ *
+ * <p>While the function is evaluated, the value of each local variable is kept in a slot of an
+ * array in the {@link Environment}. {@link #resolve} tells every {@link Identifier} of the body
+ * whether it refers to a local variable, and if so the index of its slot, so that evaluating it
+ * needs no lookup by name.
+ */
+final class FunctionScope {
+
+  private final ImmutableList<String> names;
+  private final ImmutableMap<String, Integer> slots;
+  /** The slots of the parameters, in the order of the signature. */
+  private final int[] parameterSlots;
+
+  private FunctionScope(Set<String> names, ImmutableList<String> parameters) {
+    this.names = ImmutableList.copyOf(names);
+    ImmutableMap.Builder<String, Integer> slots = ImmutableMap.builder();
+    for (int i = 0; i < this.names.size(); i++) {
+      slots.put(this.names.get(i), i);
+    }
+    this.slots = slots.build();
+    this.parameterSlots = new int[parameters.size()];
+    for (int i = 0; i < parameterSlots.length; i++) {
+      parameterSlots[i] = getSlot(parameters.get(i));
+    }
+  }
+
+  /** Returns the number of local variables. */
+  int size() {
+    return names.size();
+  }
+
+  /** Returns the name of the local variable in the given slot. */
+  String getName(int slot) {
+    return names.get(slot);
+  }
+
+  /** Returns the slot of the parameter with the given index in the signature. */
+  int getParameterSlot(int parameter) {
+    return parameterSlots[parameter];
+  }
+
+  /** Returns the slot of the local variable with the given name, or -1 if there is none. */
+  int getSlot(String name) {
+    Integer slot = slots.get(name);
+    return slot == null ? -1 : slot;
+  }
+
+  /**
+   * Computes the local variables of a function and resolves the identifiers of its body. The
+   * parameter defaults are not part of the body, as they are evaluated where the function is
+   * defined.
+   */
+  static FunctionScope resolve(FunctionDefStatement function) {
+    ImmutableList<String> parameters = function.getSignature().getSignature().getNames();
+    final Set<String> names = new LinkedHashSet<>(parameters);
+    // Every identifier that is assigned anywhere in the body is a local variable.
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(LValue node) {
+        addNames(node.getExpression());
+      }
+
+      private void addNames(Expression lvalue) {
+        if (lvalue instanceof Identifier) {
+          names.add(((Identifier) lvalue).getName());
+        } else if (lvalue instanceof ListLiteral) {
+          for (Expression element : ((ListLiteral) lvalue).getElements()) {
+            addNames(element);
+          }
+        }
+      }
+
+      @Override
+      public void accept(DictComprehension node) {
+        super.accept(node);
+        visit(node.getLoopVar());
+      }
+
+      @Override
+      public void visit(ForStatement node) {
+        super.visit(node);
+        visit(node.getVariable());
+      }
+    }.visitAll(function.getStatements());
+
+    final FunctionScope scope = new FunctionScope(names, parameters);
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(Identifier node) {
+        node.resolve(scope, scope.getSlot(node.getName()));
+      }
+    }.visitAll(function.getStatements());
+    return scope;
+  }
+}
@@ -20,16 +20,35 @@ import javax.annotation.Nullable;
 // (1) intern the strings, so we can use == to compare, and have .equals use the assumption.
 // Then have Argument and Parameter use Identifier again instead of String as keys.
 // (2) Use Identifier, not String, as keys in the Environment, which will be cleaner.
-// (3) For performance, avoid doing HashMap lookups at runtime, and compile local variable access
-// into array reference with a constant index. Variable lookups are currently a speed bottleneck,
-// as previously measured in an experiment.
 /**
  *  Syntax node for an identifier.
+ *
+ *  <p>Identifiers in the body of a function are resolved by {@link FunctionScope#resolve}: a
+ *  local variable is read from its slot, and the value of any other variable is remembered as
+ *  long as the global Frame of the function stays the same and frozen.
  */
 public final class Identifier extends Expression {
 
+  /** A value of a variable in a frozen global Frame. */
+  private static final class GlobalBinding {
+    final Environment.Frame globals;
+    final Object value;
+
+    GlobalBinding(Environment.Frame globals, Object value) {
+      this.globals = globals;
+      this.value = value;
+    }
+  }
+
   private final String name;
 
+  /** The scope of the function whose body contains this identifier, if it was resolved. */
+  @Nullable private transient FunctionScope scope;
+  /** The slot of the local variable in the scope, or -1 if the variable is not local. */
+  private transient int slot = -1;
+  /** The last value of a variable that is not local, with the Frame that it was found in. */
+  @Nullable private transient GlobalBinding globalBinding;
+
   public Identifier(String name) {
     this.name = name;
   }
@@ -64,15 +83,56 @@ public final class Identifier extends Expression {
     return name.hashCode();
   }
   
+  /**
+   * Resolves this identifier as part of the body of a function.
+   *
+   * @param slot the slot of the local variable, or -1 if the variable is not local
+   */
+  void resolve(FunctionScope scope, int slot) {
+    this.scope = scope;
+    this.slot = slot;
+  }
+
+  /**
+   * Binds the variable to a value, as would an {@link AssignmentStatement}.
+   */
+  void assign(Environment env, Object value) throws EvalException {
+    if (scope != null && slot >= 0) {
+      env.updateLocal(scope, slot, name, value);
+    } else {
+      env.update(name, value);
+    }
+  }
+
   @Override
   Object doEval(Environment env) throws EvalException {
     try {
-      return env.lookup(name);
+      if (scope == null) {
+        return env.lookup(name);
+      }
+      if (slot >= 0) {
+        return env.lookupLocal(scope, slot, name);
+      }
+      return lookupGlobal(env);
     } catch (Environment.NoSuchVariableException e) {
       throw createInvalidIdentifierException();
     }
   }
 
+  private Object lookupGlobal(Environment env) throws Environment.NoSuchVariableException {
+    Environment.Frame globals = env.getGlobals();
+    GlobalBinding binding = globalBinding;
+    if (binding != null && binding.globals == globals && env.isInScope(scope)) {
+      return binding.value;
+    }
+    Object value = env.lookup(name);
+    // A frozen Frame never changes, and local variables and dynamic variables can't shadow it.
+    if (!globals.mutability().isMutable() && env.isInScope(scope) && globals.get(name) == value) {
+      globalBinding = new GlobalBinding(globals, value);
+    }
+    return value;
+  }
+
   @Override
   public void accept(SyntaxTreeVisitor visitor) {
     visitor.visit(this);
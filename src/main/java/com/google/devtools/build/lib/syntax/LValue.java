@@ -93,7 +93,7 @@ public class LValue implements Serializable {
                 ident.getName()));
       }
     }
-    env.update(ident.getName(), result);
+    ident.assign(env, result);
   }
 
   void validate(ValidationEnvironment env, Location loc) throws EvalException {
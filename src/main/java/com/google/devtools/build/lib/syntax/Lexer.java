@@ -14,6 +14,7 @@
 
 package com.google.devtools.build.lib.syntax;
 
+import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 import com.google.devtools.build.lib.events.Event;
@@ -37,8 +38,9 @@ import java.util.Stack;
  * See: <a href="https://docs.python.org/2/reference/lexical_analysis.html"/>
  * for some details.
  * <p>
- * Since BUILD files are small, we just tokenize the entire file a-priori
- * instead of interleaving scanning with parsing.
+ * The input is scanned on demand, one token at a time, as the parser asks for
+ * it with {@link #advance}; {@link #getTokens} tokenizes the entire file at
+ * once instead.
  */
 public final class Lexer {
 
@@ -77,7 +79,32 @@ public final class Lexer {
   // bottom.
   private final Stack<Integer> indentStack = new Stack<>();
 
-  private final List<Token> tokens = new ArrayList<>();
+  // The tokens that were scanned but not yet returned by advance(), in a ring buffer of parallel
+  // arrays so that scanning does not allocate a Token per token. It usually holds a single token,
+  // but one newline can add several.
+  private TokenKind[] pendingKinds = new TokenKind[16];
+  private int[] pendingLefts = new int[16];
+  private int[] pendingRights = new int[16];
+  private Object[] pendingValues = new Object[16];
+  private int pendingStart;
+  private int pendingCount;
+
+  // The kind of the last token that was scanned, or null before the first one.
+  private TokenKind lastKind;
+
+  // The current token, as returned by advance().
+  private TokenKind tokenKind;
+  private int tokenLeft;
+  private int tokenRight;
+  private Object tokenValue;
+
+  // All tokens of the input, once getTokens() was called.
+  private List<Token> tokens;
+
+  // When profiling, the time at which scanning started and the time spent scanning so far, which
+  // are logged as a single SKYLARK_LEXER task once the whole input is scanned.
+  private long scanStartTime = -1;
+  private long scanNanos;
 
   // The number of unclosed open-parens ("(", '{', '[') at the current point in
   // the stream. Whitespace is handled differently when this is nonzero.
@@ -85,6 +112,11 @@ public final class Lexer {
 
   private boolean containsErrors;
 
+  // The identifiers of the input, so that each occurrence of the same identifier shares one
+  // String. An open-addressing table, kept at most half full.
+  private String[] identifiers = new String[64];
+  private int identifierCount;
+
   private boolean parsePython;
 
   /**
@@ -100,9 +132,6 @@ public final class Lexer {
     this.locationInfo = new LocationInfo(input.getPath(), lineNumberTable);
 
     indentStack.push(0);
-    long startTime = Profiler.nanoTimeMaybe();
-    tokenize();
-    Profiler.instance().logSimpleTask(startTime, ProfilerTask.SKYLARK_LEXER, getFilename());
   }
 
   public Lexer(ParserInputSource input, EventHandler eventHandler) {
@@ -127,18 +156,127 @@ public final class Lexer {
    * Returns true if there were errors during scanning of this input file or
    * string. The Lexer may attempt to recover from errors, but clients should
    * not rely on the results of scanning if this flag is set.
+   *
+   * <p>Scans the rest of the input if it was not yet consumed, keeping its
+   * tokens for {@link #advance}.
    */
   public boolean containsErrors() {
+    if (lastKind != TokenKind.EOF) {
+      long startTime = Profiler.nanoTimeMaybe();
+      do {
+        scanNext();
+      } while (lastKind != TokenKind.EOF);
+      profileScan(startTime);
+    }
     return containsErrors;
   }
 
   /**
    * Returns the (mutable) list of tokens generated by the Lexer.
+   *
+   * <p>This tokenizes the whole input, and cannot be combined with {@link #advance}.
    */
   public List<Token> getTokens() {
+    if (tokens == null) {
+      Preconditions.checkState(tokenKind == null, "tokens of %s were already consumed",
+          getFilename());
+      tokens = new ArrayList<>();
+      do {
+        tokens.add(nextToken());
+      } while (tokenKind != TokenKind.EOF);
+    }
     return tokens;
   }
 
+  /**
+   * Moves to the next token of the input, scanning only as much of the input as that takes, and
+   * returns its kind. The offsets and value of the token are returned by {@link #tokenLeft},
+   * {@link #tokenRight} and {@link #tokenValue} until the next call. Once the EOF token is
+   * reached, the lexer stays there.
+   *
+   * <p>Unlike {@link #getTokens} and {@link #nextToken}, this allocates no objects, except for
+   * the values of identifiers and string literals. The parser reads the tokens this way.
+   *
+   * <p>As scanning is interleaved with parsing, the time spent scanning is added up and logged as
+   * a single {@link ProfilerTask#SKYLARK_LEXER} task once the whole input is scanned.
+   */
+  TokenKind advance() {
+    if (pendingCount == 0) {
+      if (lastKind == TokenKind.EOF) {
+        return tokenKind;
+      }
+      long startTime = Profiler.nanoTimeMaybe();
+      do {
+        scanNext();
+      } while (pendingCount == 0);
+      profileScan(startTime);
+    }
+    int index = pendingStart;
+    tokenKind = pendingKinds[index];
+    tokenLeft = pendingLefts[index];
+    tokenRight = pendingRights[index];
+    tokenValue = pendingValues[index];
+    pendingValues[index] = null;
+    pendingStart = (index + 1) & (pendingKinds.length - 1);
+    pendingCount--;
+    return tokenKind;
+  }
+
+  /** Returns the start offset of the current token. */
+  int tokenLeft() {
+    return tokenLeft;
+  }
+
+  /** Returns the end offset of the current token. */
+  int tokenRight() {
+    return tokenRight;
+  }
+
+  /**
+   * Returns the value of the current token: the name of an identifier, the content of a string
+   * literal, the {@code Integer} of an integer literal, the text of a comment, or null.
+   */
+  Object tokenValue() {
+    return tokenValue;
+  }
+
+  /** Moves to the next token of the input, like {@link #advance}, and returns it. */
+  Token nextToken() {
+    advance();
+    return new Token(tokenKind, tokenLeft, tokenRight, tokenValue);
+  }
+
+  /** Scans the next token of the input, or the tokens that end it. */
+  private void scanNext() {
+    if (pos < buffer.length) {
+      scanToken();
+    } else {
+      scanEnd();
+    }
+  }
+
+  /**
+   * Adds the time since {@code startTime} to the scanning time, and logs the SKYLARK_LEXER task
+   * once the input is scanned. Does nothing if the profiler was not active at {@code startTime}.
+   */
+  private void profileScan(long startTime) {
+    if (startTime == -1) {
+      return;
+    }
+    long endTime = Profiler.nanoTimeMaybe();
+    if (endTime == -1) {
+      return;
+    }
+    if (scanStartTime == -1) {
+      scanStartTime = startTime;
+    }
+    scanNanos += endTime - startTime;
+    if (lastKind == TokenKind.EOF) {
+      Profiler.instance().logSimpleTaskDuration(
+          scanStartTime, scanNanos, ProfilerTask.SKYLARK_LEXER, getFilename());
+    }
+  }
+
   private void popParen() {
     if (openParenStackDepth == 0) {
       error("indentation error");
@@ -163,13 +301,21 @@ public final class Lexer {
   // Don't use an inner class as we don't want to close over the Lexer, only
   // the LocationInfo.
   @Immutable
-  private static final class LexerLocation extends Location {
+  static final class LexerLocation extends Location {
 
     private final LineNumberTable lineNumberTable;
 
     LexerLocation(LocationInfo locationInfo, int start, int end) {
+      this(locationInfo.lineNumberTable, start, end);
+    }
+
+    LexerLocation(LineNumberTable lineNumberTable, int start, int end) {
       super(start, end);
-      this.lineNumberTable = locationInfo.lineNumberTable;
+      this.lineNumberTable = lineNumberTable;
+    }
+
+    LineNumberTable getLineNumberTable() {
+      return lineNumberTable;
     }
 
     @Override
@@ -205,8 +351,41 @@ public final class Lexer {
   }
 
   /** invariant: symbol positions are half-open intervals. */
-  private void addToken(Token s) {
-    tokens.add(s);
+  private void addToken(TokenKind kind, int left, int right) {
+    addToken(kind, left, right, null);
+  }
+
+  private void addToken(TokenKind kind, int left, int right, Object value) {
+    if (pendingCount == pendingKinds.length) {
+      growPending();
+    }
+    int index = (pendingStart + pendingCount) & (pendingKinds.length - 1);
+    pendingKinds[index] = kind;
+    pendingLefts[index] = left;
+    pendingRights[index] = right;
+    pendingValues[index] = value;
+    pendingCount++;
+    lastKind = kind;
+  }
+
+  private void growPending() {
+    int length = pendingKinds.length;
+    TokenKind[] kinds = new TokenKind[length * 2];
+    int[] lefts = new int[length * 2];
+    int[] rights = new int[length * 2];
+    Object[] values = new Object[length * 2];
+    for (int i = 0; i < pendingCount; i++) {
+      int index = (pendingStart + i) & (length - 1);
+      kinds[i] = pendingKinds[index];
+      lefts[i] = pendingLefts[index];
+      rights[i] = pendingRights[index];
+      values[i] = pendingValues[index];
+    }
+    pendingKinds = kinds;
+    pendingLefts = lefts;
+    pendingRights = rights;
+    pendingValues = values;
+    pendingStart = 0;
   }
 
   /**
@@ -239,7 +418,7 @@ public final class Lexer {
 
   private void newlineOutsideExpression() {
     if (pos > 1) { // skip over newline at start of file
-      addToken(new Token(TokenKind.NEWLINE, pos - 1, pos));
+      addToken(TokenKind.NEWLINE, pos - 1, pos);
     }
 
     // we're in a stmt: suck up space at beginning of next line
@@ -260,7 +439,7 @@ public final class Lexer {
         while (pos < buffer.length && c != '\n') {
           c = buffer[pos++];
         }
-        addToken(new Token(TokenKind.COMMENT, oldPos, pos - 1, bufferSlice(oldPos, pos - 1)));
+        addToken(TokenKind.COMMENT, oldPos, pos - 1, bufferSlice(oldPos, pos - 1));
         indentLen = 0;
       } else { // printing character
         break;
@@ -274,12 +453,12 @@ public final class Lexer {
     int peekedIndent = indentStack.peek();
     if (peekedIndent < indentLen) { // push a level
       indentStack.push(indentLen);
-      addToken(new Token(TokenKind.INDENT, pos - 1, pos));
+      addToken(TokenKind.INDENT, pos - 1, pos);
 
     } else if (peekedIndent > indentLen) { // pop one or more levels
       while (peekedIndent > indentLen) {
         indentStack.pop();
-        addToken(new Token(TokenKind.OUTDENT, pos - 1, pos));
+        addToken(TokenKind.OUTDENT, pos - 1, pos);
         peekedIndent = indentStack.peek();
       }
 
@@ -308,9 +487,9 @@ public final class Lexer {
    * <p>ON ENTRY: 'pos' is 1 + the index of the first delimiter
    * ON EXIT: 'pos' is 1 + the index of the last delimiter.
    *
-   * @return the string-literal token.
+   * <p>Adds the string-literal token.
    */
-  private Token escapedStringLiteral(char quot) {
+  private void escapedStringLiteral(char quot) {
     boolean inTriplequote = skipTripleQuote(quot);
 
     int oldPos = pos - 1;
@@ -327,12 +506,14 @@ public final class Lexer {
           } else {
             error("unterminated string literal at eol", oldPos, pos);
             newline();
-            return new Token(TokenKind.STRING, oldPos, pos, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos, literal.toString());
+            return;
           }
         case '\\':
           if (pos == buffer.length) {
             error("unterminated string literal at eof", oldPos, pos);
-            return new Token(TokenKind.STRING, oldPos, pos, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos, literal.toString());
+            return;
           }
           c = buffer[pos];
           pos++;
@@ -397,7 +578,8 @@ public final class Lexer {
             literal.append(c);
           } else {
             // Matching close-delimiter, all done.
-            return new Token(TokenKind.STRING, oldPos, pos, literal.toString());
+            addToken(TokenKind.STRING, oldPos, pos, literal.toString());
+            return;
           }
           break;
         default:
@@ -406,7 +588,7 @@ public final class Lexer {
       }
     }
     error("unterminated string literal at eof", oldPos, pos);
-    return new Token(TokenKind.STRING, oldPos, pos, literal.toString());
+    addToken(TokenKind.STRING, oldPos, pos, literal.toString());
   }
 
   /**
@@ -417,16 +599,18 @@ public final class Lexer {
    * <li> ON EXIT: 'pos' is 1 + the index of the last delimiter.
    * </ul>
    *
+   * <p>Adds the string-literal token.
+   *
    * @param isRaw if true, do not escape the string.
-   * @return the string-literal token.
    */
-  private Token stringLiteral(char quot, boolean isRaw) {
+  private void stringLiteral(char quot, boolean isRaw) {
     int oldPos = pos - 1;
 
     // Don't even attempt to parse triple-quotes here.
     if (skipTripleQuote(quot)) {
       pos -= 2;
-      return escapedStringLiteral(quot);
+      escapedStringLiteral(quot);
+      return;
     }
 
     // first quick optimistic scan for a simple non-escaped string
@@ -435,10 +619,10 @@ public final class Lexer {
       switch (c) {
         case '\n':
           error("unterminated string literal at eol", oldPos, pos);
-          Token t = new Token(TokenKind.STRING, oldPos, pos,
-                              bufferSlice(oldPos + 1, pos - 1));
+          String literal = bufferSlice(oldPos + 1, pos - 1);
           newline();
-          return t;
+          addToken(TokenKind.STRING, oldPos, pos, literal);
+          return;
         case '\\':
           if (isRaw) {
             // skip the next character
@@ -447,21 +631,21 @@ public final class Lexer {
           } else {
             // oops, hit an escape, need to start over & build a new string buffer
             pos = oldPos + 1;
-            return escapedStringLiteral(quot);
+            escapedStringLiteral(quot);
+            return;
           }
         case '\'':
         case '"':
           if (c == quot) {
             // close-quote, all done.
-            return new Token(TokenKind.STRING, oldPos, pos,
-                             bufferSlice(oldPos + 1, pos - 1));
+            addToken(TokenKind.STRING, oldPos, pos, bufferSlice(oldPos + 1, pos - 1));
+            return;
           }
       }
     }
 
     error("unterminated string literal at eof", oldPos, pos);
-    return new Token(TokenKind.STRING, oldPos, pos,
-                     bufferSlice(oldPos + 1, pos));
+    addToken(TokenKind.STRING, oldPos, pos, bufferSlice(oldPos + 1, pos));
   }
 
   private static final Map<String, TokenKind> keywordMap = new HashMap<>();
@@ -499,13 +683,30 @@ public final class Lexer {
     keywordMap.put("yield", TokenKind.YIELD);
   }
 
-  private TokenKind getTokenKindForIdentfier(String id) {
-    TokenKind kind = keywordMap.get(id);
-    return kind == null ? TokenKind.IDENTIFIER : kind;
+  // The keywords in an open-addressing table like the one of the identifiers, so that a keyword
+  // can be recognized in the buffer without making a String of it.
+  private static final String[] KEYWORDS = new String[128];
+  private static final TokenKind[] KEYWORD_KINDS = new TokenKind[KEYWORDS.length];
+
+  static {
+    for (Map.Entry<String, TokenKind> entry : keywordMap.entrySet()) {
+      int index = slot(entry.getKey().hashCode(), KEYWORDS.length);
+      while (KEYWORDS[index] != null) {
+        index = (index + 1) & (KEYWORDS.length - 1);
+      }
+      KEYWORDS[index] = entry.getKey();
+      KEYWORD_KINDS[index] = entry.getValue();
+    }
   }
 
-  private String scanIdentifier() {
-    int oldPos = pos - 1;
+  private static int slot(int hash, int tableLength) {
+    return (hash ^ (hash >>> 16)) & (tableLength - 1);
+  }
+
+  /**
+   * Advances 'pos' past the identifier characters that follow it.
+   */
+  private void scanIdentifier() {
     while (pos < buffer.length) {
       switch (buffer[pos]) {
         case '_':
@@ -524,10 +725,81 @@ public final class Lexer {
           pos++;
           break;
        default:
-          return bufferSlice(oldPos, pos);
+          return;
+      }
+    }
+  }
+
+  /**
+   * Returns the {@link String#hashCode} of the given offsets of the buffer.
+   */
+  private int hash(int start, int end) {
+    int hash = 0;
+    for (int i = start; i < end; i++) {
+      hash = 31 * hash + buffer[i];
+    }
+    return hash;
+  }
+
+  /**
+   * Returns the kind of the keyword at the given offsets of the buffer, or null if it is not a
+   * keyword.
+   */
+  private TokenKind keyword(int hash, int start, int end) {
+    int index = slot(hash, KEYWORDS.length);
+    for (String keyword = KEYWORDS[index]; keyword != null; keyword = KEYWORDS[index]) {
+      if (keyword.hashCode() == hash && regionMatches(keyword, start, end)) {
+        return KEYWORD_KINDS[index];
+      }
+      index = (index + 1) & (KEYWORDS.length - 1);
+    }
+    return null;
+  }
+
+  /**
+   * Returns the identifier at the given offsets of the buffer, reusing the String of an earlier
+   * occurrence if there is one.
+   */
+  private String internIdentifier(int hash, int start, int end) {
+    int index = slot(hash, identifiers.length);
+    for (String id = identifiers[index]; id != null; id = identifiers[index]) {
+      if (id.hashCode() == hash && regionMatches(id, start, end)) {
+        return id;
+      }
+      index = (index + 1) & (identifiers.length - 1);
+    }
+    String id = bufferSlice(start, end);
+    identifiers[index] = id;
+    if (++identifierCount * 2 > identifiers.length) {
+      growIdentifiers();
+    }
+    return id;
+  }
+
+  private boolean regionMatches(String id, int start, int end) {
+    if (id.length() != end - start) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (id.charAt(i - start) != buffer[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void growIdentifiers() {
+    String[] oldIdentifiers = identifiers;
+    identifiers = new String[oldIdentifiers.length * 2];
+    for (String id : oldIdentifiers) {
+      if (id != null) {
+        int index = slot(id.hashCode(), identifiers.length);
+        while (identifiers[index] != null) {
+          index = (index + 1) & (identifiers.length - 1);
+        }
+        identifiers[index] = id;
       }
     }
-    return bufferSlice(oldPos, pos);
   }
 
   /**
@@ -536,14 +808,18 @@ public final class Lexer {
    * <p>ON ENTRY: 'pos' is 1 + the index of the first char in the identifier.
    * ON EXIT: 'pos' is 1 + the index of the last char in the identifier.
    *
-   * @return the identifier or keyword token.
+   * <p>Adds the identifier or keyword token.
    */
-  private Token identifierOrKeyword() {
+  private void identifierOrKeyword() {
     int oldPos = pos - 1;
-    String id = scanIdentifier();
-    TokenKind kind = getTokenKindForIdentfier(id);
-    return new Token(kind, oldPos, pos,
-        (kind == TokenKind.IDENTIFIER) ? id : null);
+    scanIdentifier();
+    int hash = hash(oldPos, pos);
+    TokenKind kind = keyword(hash, oldPos, pos);
+    if (kind != null) {
+      addToken(kind, oldPos, pos);
+    } else {
+      addToken(TokenKind.IDENTIFIER, oldPos, pos, internIdentifier(hash, oldPos, pos));
+    }
   }
 
   private String scanInteger() {
@@ -582,9 +858,9 @@ public final class Lexer {
    * <p>ON ENTRY: 'pos' is 1 + the index of the first char in the literal.
    * ON EXIT: 'pos' is 1 + the index of the last char in the literal.
    *
-   * @return the integer token.
+   * <p>Adds the integer token.
    */
-  private Token integer() {
+  private void integer() {
     int oldPos = pos - 1;
     String literal = scanInteger();
 
@@ -608,7 +884,7 @@ public final class Lexer {
       error("invalid base-" + radix + " integer constant: " + literal);
     }
 
-    return new Token(TokenKind.INT, oldPos, pos, value);
+    addToken(TokenKind.INT, oldPos, pos, value);
   }
 
   /**
@@ -630,184 +906,189 @@ public final class Lexer {
     if (tok == null) {
       return false;
     } else {
-      addToken(new Token(tok, pos, pos + 2));
+      addToken(tok, pos, pos + 2);
       return true;
     }
   }
 
   /**
-   * Performs tokenization of the character buffer of file contents provided to
-   * the constructor.
+   * Scans the next lexeme of the character buffer of file contents provided to
+   * the constructor. This adds no token for whitespace, and several for some
+   * newlines.
    */
-  private void tokenize() {
-    while (pos < buffer.length) {
-      if (tokenizeTwoChars()) {
-        pos += 2;
-        continue;
-      }
-      char c = buffer[pos];
-      pos++;
-      switch (c) {
-      case '{': {
-        addToken(new Token(TokenKind.LBRACE, pos - 1, pos));
-        openParenStackDepth++;
-        break;
-      }
-      case '}': {
-        addToken(new Token(TokenKind.RBRACE, pos - 1, pos));
-        popParen();
-        break;
-      }
-      case '(': {
-        addToken(new Token(TokenKind.LPAREN, pos - 1, pos));
-        openParenStackDepth++;
-        break;
-      }
-      case ')': {
-        addToken(new Token(TokenKind.RPAREN, pos - 1, pos));
-        popParen();
-        break;
-      }
-      case '[': {
-        addToken(new Token(TokenKind.LBRACKET, pos - 1, pos));
-        openParenStackDepth++;
-        break;
-      }
-      case ']': {
-        addToken(new Token(TokenKind.RBRACKET, pos - 1, pos));
-        popParen();
-        break;
-      }
-      case '>': {
-        addToken(new Token(TokenKind.GREATER, pos - 1, pos));
-        break;
-      }
-      case '<': {
-        addToken(new Token(TokenKind.LESS, pos - 1, pos));
-        break;
-      }
-      case ':': {
-        addToken(new Token(TokenKind.COLON, pos - 1, pos));
-        break;
-      }
-      case ',': {
-        addToken(new Token(TokenKind.COMMA, pos - 1, pos));
-        break;
-      }
-      case '+': {
-        addToken(new Token(TokenKind.PLUS, pos - 1, pos));
-        break;
-      }
-      case '-': {
-        addToken(new Token(TokenKind.MINUS, pos - 1, pos));
-        break;
-      }
-      case '|': {
-        addToken(new Token(TokenKind.PIPE, pos - 1, pos));
-        break;
-      }
-      case '=': {
-        addToken(new Token(TokenKind.EQUALS, pos - 1, pos));
-        break;
-      }
-      case '%': {
-        addToken(new Token(TokenKind.PERCENT, pos - 1, pos));
-        break;
-      }
-      case '/': {
-        addToken(new Token(TokenKind.SLASH, pos - 1, pos));
-        break;
-      }
-      case ';': {
-        addToken(new Token(TokenKind.SEMI, pos - 1, pos));
-        break;
-      }
-      case '.': {
-        addToken(new Token(TokenKind.DOT, pos - 1, pos));
-        break;
-      }
-      case '*': {
-        addToken(new Token(TokenKind.STAR, pos - 1, pos));
-        break;
-      }
-      case ' ':
-      case '\t':
-      case '\r': {
-        /* ignore */
-        break;
+  private void scanToken() {
+    if (tokenizeTwoChars()) {
+      pos += 2;
+      return;
+    }
+    char c = buffer[pos];
+    pos++;
+    switch (c) {
+    case '{': {
+      addToken(TokenKind.LBRACE, pos - 1, pos);
+      openParenStackDepth++;
+      break;
+    }
+    case '}': {
+      addToken(TokenKind.RBRACE, pos - 1, pos);
+      popParen();
+      break;
+    }
+    case '(': {
+      addToken(TokenKind.LPAREN, pos - 1, pos);
+      openParenStackDepth++;
+      break;
+    }
+    case ')': {
+      addToken(TokenKind.RPAREN, pos - 1, pos);
+      popParen();
+      break;
+    }
+    case '[': {
+      addToken(TokenKind.LBRACKET, pos - 1, pos);
+      openParenStackDepth++;
+      break;
+    }
+    case ']': {
+      addToken(TokenKind.RBRACKET, pos - 1, pos);
+      popParen();
+      break;
+    }
+    case '>': {
+      addToken(TokenKind.GREATER, pos - 1, pos);
+      break;
+    }
+    case '<': {
+      addToken(TokenKind.LESS, pos - 1, pos);
+      break;
+    }
+    case ':': {
+      addToken(TokenKind.COLON, pos - 1, pos);
+      break;
+    }
+    case ',': {
+      addToken(TokenKind.COMMA, pos - 1, pos);
+      break;
+    }
+    case '+': {
+      addToken(TokenKind.PLUS, pos - 1, pos);
+      break;
+    }
+    case '-': {
+      addToken(TokenKind.MINUS, pos - 1, pos);
+      break;
+    }
+    case '|': {
+      addToken(TokenKind.PIPE, pos - 1, pos);
+      break;
+    }
+    case '=': {
+      addToken(TokenKind.EQUALS, pos - 1, pos);
+      break;
+    }
+    case '%': {
+      addToken(TokenKind.PERCENT, pos - 1, pos);
+      break;
+    }
+    case '/': {
+      addToken(TokenKind.SLASH, pos - 1, pos);
+      break;
+    }
+    case ';': {
+      addToken(TokenKind.SEMI, pos - 1, pos);
+      break;
+    }
+    case '.': {
+      addToken(TokenKind.DOT, pos - 1, pos);
+      break;
+    }
+    case '*': {
+      addToken(TokenKind.STAR, pos - 1, pos);
+      break;
+    }
+    case ' ':
+    case '\t':
+    case '\r': {
+      /* ignore */
+      break;
+    }
+    case '\\': {
+      // Backslash character is valid only at the end of a line (or in a string)
+      if (pos + 1 < buffer.length && buffer[pos] == '\n') {
+        pos++; // skip the end of line character
+      } else {
+        addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
       }
-      case '\\': {
-        // Backslash character is valid only at the end of a line (or in a string)
-        if (pos + 1 < buffer.length && buffer[pos] == '\n') {
-          pos++; // skip the end of line character
+      break;
+    }
+    case '\n': {
+      newline();
+      break;
+    }
+    case '#': {
+      int oldPos = pos - 1;
+      while (pos < buffer.length) {
+        c = buffer[pos];
+        if (c == '\n') {
+          break;
         } else {
-          addToken(new Token(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c)));
-        }
-        break;
-      }
-      case '\n': {
-        newline();
-        break;
-      }
-      case '#': {
-        int oldPos = pos - 1;
-        while (pos < buffer.length) {
-          c = buffer[pos];
-          if (c == '\n') {
-            break;
-          } else {
-            pos++;
-          }
+          pos++;
         }
-        addToken(new Token(TokenKind.COMMENT, oldPos, pos, bufferSlice(oldPos, pos)));
-        break;
       }
-      case '\'':
-      case '\"': {
-        addToken(stringLiteral(c, false));
+      addToken(TokenKind.COMMENT, oldPos, pos, bufferSlice(oldPos, pos));
+      break;
+    }
+    case '\'':
+    case '\"': {
+      stringLiteral(c, false);
+      break;
+    }
+    default: {
+      // detect raw strings, e.g. r"str"
+      if (c == 'r' && pos < buffer.length
+          && (buffer[pos] == '\'' || buffer[pos] == '\"')) {
+        c = buffer[pos];
+        pos++;
+        stringLiteral(c, true);
         break;
       }
-      default: {
-        // detect raw strings, e.g. r"str"
-        if (c == 'r' && pos < buffer.length
-            && (buffer[pos] == '\'' || buffer[pos] == '\"')) {
-          c = buffer[pos];
-          pos++;
-          addToken(stringLiteral(c, true));
-          break;
-        }
 
-        if (Character.isDigit(c)) {
-          addToken(integer());
-        } else if (Character.isJavaIdentifierStart(c) && c != '$') {
-          addToken(identifierOrKeyword());
+      if (Character.isDigit(c)) {
+        integer();
+      } else if (Character.isJavaIdentifierStart(c) && c != '$') {
+        identifierOrKeyword();
+      } else {
+        // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
+        if (parsePython) {
+          addToken(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c));
         } else {
-          // Some characters in Python are not recognized in Blaze syntax (e.g. '!')
-          if (parsePython) {
-            addToken(new Token(TokenKind.ILLEGAL, pos - 1, pos, Character.toString(c)));
-          } else {
-            error("invalid character: '" + c + "'");
-          }
+          error("invalid character: '" + c + "'");
         }
-        break;
-      } // default
-      } // switch
-    } // while
+      }
+      break;
+    } // default
+    } // switch
+  }
 
+  /**
+   * Adds the tokens that end the input.
+   */
+  private void scanEnd() {
     if (indentStack.size() > 1) { // top of stack is always zero
-      addToken(new Token(TokenKind.NEWLINE, pos - 1, pos));
+      addToken(TokenKind.NEWLINE, pos - 1, pos);
       while (indentStack.size() > 1) {
         indentStack.pop();
-        addToken(new Token(TokenKind.OUTDENT, pos - 1, pos));
+        addToken(TokenKind.OUTDENT, pos - 1, pos);
       }
     }
 
     // Like Python, always end with a NEWLINE token, even if no '\n' in input:
-    if (tokens.isEmpty() || tokens.get(tokens.size() - 1).kind != TokenKind.NEWLINE) {
-      addToken(new Token(TokenKind.NEWLINE, pos - 1, pos));
+    if (lastKind != TokenKind.NEWLINE) {
+      addToken(TokenKind.NEWLINE, pos - 1, pos);
     }
 
-    addToken(new Token(TokenKind.EOF, pos, pos));
+    addToken(TokenKind.EOF, pos, pos);
+    identifiers = null;
   }
 
   /**
@@ -107,6 +107,25 @@ public abstract class LineNumberTable implements Serializable {
       this.path = path;
     }
 
+    /**
+     * Creates the table of a file whose lines start at the given offsets, as returned by
+     * {@link #getLineStarts} for the same file.
+     */
+    Regular(int[] linestart, PathFragment path, int bufferLength) {
+      this.linestart = linestart;
+      this.path = path;
+      this.bufferLength = bufferLength;
+    }
+
+    /** Returns the offsets at which the lines start; the first two elements are 0. */
+    int[] getLineStarts() {
+      return linestart;
+    }
+
+    int getBufferLength() {
+      return bufferLength;
+    }
+
     private int getLineAt(int offset) {
       Preconditions.checkArgument(offset >= 0, "Illegal position: ", offset);
       int lowBoundary = 1, highBoundary = linestart.length - 1;
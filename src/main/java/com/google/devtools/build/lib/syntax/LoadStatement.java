@@ -51,6 +51,11 @@ public final class LoadStatement extends Statement {
     return cachedSymbols;
   }
 
+  /** Returns the loaded symbols, mapped to the names under which they were defined. */
+  ImmutableMap<Identifier, String> getSymbolMap() {
+    return symbols;
+  }
+
   public PathFragment getImportPath() {
     return importPath;
   }
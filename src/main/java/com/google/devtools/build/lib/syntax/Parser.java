@@ -40,7 +40,6 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 
@@ -128,8 +127,18 @@ class Parser {
           TokenKind.RPAREN,
           TokenKind.SLASH);
 
-  private Token token; // current lookahead token
-  private Token pushedToken = null; // used to implement LL(2)
+  // The current lookahead token, copied from the lexer's cursor so that no Token is allocated for
+  // each token of the input.
+  private TokenKind tokenKind;
+  private int tokenLeft;
+  private int tokenRight;
+  private Object tokenValue;
+
+  // The token pushed back to implement LL(2), if pushedKind is not null.
+  private TokenKind pushedKind;
+  private int pushedLeft;
+  private int pushedRight;
+  private Object pushedValue;
 
   private static final boolean DEBUGGING = false;
 
@@ -176,7 +185,6 @@ class Parser {
       EnumSet.of(Operator.MINUS, Operator.PLUS),
       EnumSet.of(Operator.DIVIDE, Operator.MULT, Operator.PERCENT));
 
-  private Iterator<Token> tokens = null;
   private int errorsCount;
   private boolean recoveryMode;  // stop reporting errors until next statement
 
@@ -192,7 +200,6 @@ class Parser {
     this.lexer = lexer;
     this.eventHandler = eventHandler;
     this.parsingMode = parsingMode;
-    this.tokens = lexer.getTokens().iterator();
     this.comments = new ArrayList<>();
     this.locator = locator;
     this.includedFiles = new ArrayList<>();
@@ -254,7 +261,7 @@ class Parser {
   public static Expression parseExpression(Lexer lexer, EventHandler eventHandler) {
     Parser parser = new Parser(lexer, eventHandler, null);
     Expression result = parser.parseExpression();
-    while (parser.token.kind == TokenKind.NEWLINE) {
+    while (parser.tokenKind == TokenKind.NEWLINE) {
       parser.nextToken();
     }
     parser.expect(TokenKind.EOF);
@@ -273,12 +280,16 @@ class Parser {
     }
   }
 
+  private void syntaxError(String message) {
+    syntaxError(currentToken(), message);
+  }
+
   private void syntaxError(Token token, String message) {
     if (!recoveryMode) {
-      String msg = token.kind == TokenKind.INDENT
+      String msg = tokenKind == TokenKind.INDENT
           ? "indentation error"
           : "syntax error at '" + token + "': " + message;
-      reportError(lexer.createLocation(token.left, token.right), msg);
+      reportError(lexer.createLocation(tokenLeft, tokenRight), msg);
       recoveryMode = true;
     }
   }
@@ -288,9 +299,9 @@ class Parser {
    * kind, reports a syntax error.
    */
   private boolean expect(TokenKind kind) {
-    boolean expected = token.kind == kind;
+    boolean expected = tokenKind == kind;
     if (!expected) {
-      syntaxError(token, "expected " + kind.getPrettyName());
+      syntaxError("expected " + kind.getPrettyName());
     }
     nextToken();
     return expected;
@@ -313,10 +324,10 @@ class Parser {
    */
   private int syncPast(EnumSet<TokenKind> terminatingTokens) {
     Preconditions.checkState(terminatingTokens.contains(TokenKind.EOF));
-    while (!terminatingTokens.contains(token.kind)) {
+    while (!terminatingTokens.contains(tokenKind)) {
       nextToken();
     }
-    int end = token.right;
+    int end = tokenRight;
     // read past the synchronization token
     nextToken();
     return end;
@@ -332,13 +343,13 @@ class Parser {
     // EOF must be in the set to prevent an infinite loop
     Preconditions.checkState(terminatingTokens.contains(TokenKind.EOF));
     // read past the problematic token
-    int previous = token.right;
+    int previous = tokenRight;
     nextToken();
     int current = previous;
-    while (!terminatingTokens.contains(token.kind)) {
+    while (!terminatingTokens.contains(tokenKind)) {
       nextToken();
       previous = current;
-      current = token.right;
+      current = tokenRight;
     }
     return previous;
   }
@@ -350,12 +361,12 @@ class Parser {
           TokenKind.IMPORT, TokenKind.IS, TokenKind.LAMBDA, TokenKind.NONLOCAL, TokenKind.RAISE,
           TokenKind.TRY, TokenKind.WITH, TokenKind.WHILE, TokenKind.YIELD);
 
-  private void checkForbiddenKeywords(Token token) {
-    if (parsingMode == PYTHON || !FORBIDDEN_KEYWORDS.contains(token.kind)) {
+  private void checkForbiddenKeywords() {
+    if (parsingMode == PYTHON || !FORBIDDEN_KEYWORDS.contains(tokenKind)) {
       return;
     }
     String error;
-    switch (token.kind) {
+    switch (tokenKind) {
       case ASSERT: error = "'assert' not supported, use 'fail' instead"; break;
       case TRY: error = "'try' not supported, all exceptions are fatal"; break;
       case IMPORT: error = "'import' not supported, use 'load' instead"; break;
@@ -363,37 +374,55 @@ class Parser {
       case LAMBDA: error = "'lambda' not supported, declare a function instead"; break;
       case RAISE: error = "'raise' not supported, use 'fail' instead"; break;
       case WHILE: error = "'while' not supported, use 'for' instead"; break;
-      default: error = "keyword '" + token.kind.getPrettyName() + "' not supported"; break;
+      default: error = "keyword '" + tokenKind.getPrettyName() + "' not supported"; break;
     }
-    reportError(lexer.createLocation(token.left, token.right), error);
+    reportError(lexer.createLocation(tokenLeft, tokenRight), error);
   }
 
   private void nextToken() {
-    if (pushedToken != null) {
-      token = pushedToken;
-      pushedToken = null;
-    } else {
-      if (token == null || token.kind != TokenKind.EOF) {
-        token = tokens.next();
-        // transparently handle comment tokens
-        while (token.kind == TokenKind.COMMENT) {
-          makeComment(token);
-          token = tokens.next();
-        }
+    if (pushedKind != null) {
+      tokenKind = pushedKind;
+      tokenLeft = pushedLeft;
+      tokenRight = pushedRight;
+      tokenValue = pushedValue;
+      pushedKind = null;
+      pushedValue = null;
+    } else if (tokenKind != TokenKind.EOF) {
+      TokenKind kind = lexer.advance();
+      // transparently handle comment tokens
+      while (kind == TokenKind.COMMENT) {
+        makeComment();
+        kind = lexer.advance();
       }
+      tokenKind = kind;
+      tokenLeft = lexer.tokenLeft();
+      tokenRight = lexer.tokenRight();
+      tokenValue = lexer.tokenValue();
     }
-    checkForbiddenKeywords(token);
+    checkForbiddenKeywords();
     if (DEBUGGING) {
-      System.err.print(token);
+      System.err.print(currentToken());
     }
   }
 
-  private void pushToken(Token tokenToPush) {
-    if (pushedToken != null) {
+  /** Makes the given token the current one, and the current one the next. */
+  private void pushToken(TokenKind kind, int left, int right, Object value) {
+    if (pushedKind != null) {
       throw new IllegalStateException("Exceeded LL(2) lookahead!");
     }
-    pushedToken = token;
-    token = tokenToPush;
+    pushedKind = tokenKind;
+    pushedLeft = tokenLeft;
+    pushedRight = tokenRight;
+    pushedValue = tokenValue;
+    tokenKind = kind;
+    tokenLeft = left;
+    tokenRight = right;
+    tokenValue = value;
+  }
+
+  /** Returns a copy of the current token, for error messages. */
+  private Token currentToken() {
+    return new Token(tokenKind, tokenLeft, tokenRight, tokenValue);
   }
 
   // create an error expression
@@ -435,12 +464,12 @@ class Parser {
   // To keep BUILD files declarative and easy to process, *args and **kwargs
   // arguments are allowed only in Skylark mode.
   private Argument.Passed parseFuncallArgument() {
-    final int start = token.left;
+    final int start = tokenLeft;
     // parse **expr
-    if (token.kind == TokenKind.STAR_STAR) {
+    if (tokenKind == TokenKind.STAR_STAR) {
       if (parsingMode != SKYLARK) {
         reportError(
-            lexer.createLocation(token.left, token.right),
+            lexer.createLocation(tokenLeft, tokenRight),
             "**kwargs arguments are not allowed in BUILD files");
       }
       nextToken();
@@ -448,10 +477,10 @@ class Parser {
       return setLocation(new Argument.StarStar(expr), start, expr);
     }
     // parse *expr
-    if (token.kind == TokenKind.STAR) {
+    if (tokenKind == TokenKind.STAR) {
       if (parsingMode != SKYLARK) {
         reportError(
-            lexer.createLocation(token.left, token.right),
+            lexer.createLocation(tokenLeft, tokenRight),
             "*args arguments are not allowed in BUILD files");
       }
       nextToken();
@@ -459,16 +488,16 @@ class Parser {
       return setLocation(new Argument.Star(expr), start, expr);
     }
     // parse keyword = expr
-    if (token.kind == TokenKind.IDENTIFIER) {
-      Token identToken = token;
-      String name = (String) token.value;
+    if (tokenKind == TokenKind.IDENTIFIER) {
+      int identRight = tokenRight;
+      String name = (String) tokenValue;
       nextToken();
-      if (token.kind == TokenKind.EQUALS) { // it's a named argument
+      if (tokenKind == TokenKind.EQUALS) { // it's a named argument
         nextToken();
         Expression expr = parseNonTupleExpression();
         return setLocation(new Argument.Keyword(name, expr), start, expr);
       } else { // oops, back up!
-        pushToken(identToken);
+        pushToken(TokenKind.IDENTIFIER, start, identRight, name);
       }
     }
     // parse a positional argument
@@ -480,16 +509,16 @@ class Parser {
   //       | IDENTIFIER
   private Parameter<Expression, Expression> parseFunctionParameter() {
     // TODO(bazel-team): optionally support type annotations
-    int start = token.left;
-    if (token.kind == TokenKind.STAR_STAR) { // kwarg
+    int start = tokenLeft;
+    if (tokenKind == TokenKind.STAR_STAR) { // kwarg
       nextToken();
       Identifier ident = parseIdent();
       return setLocation(new Parameter.StarStar<Expression, Expression>(
           ident.getName()), start, ident);
-    } else if (token.kind == TokenKind.STAR) { // stararg
-      int end = token.right;
+    } else if (tokenKind == TokenKind.STAR) { // stararg
+      int end = tokenRight;
       nextToken();
-      if (token.kind == TokenKind.IDENTIFIER) {
+      if (tokenKind == TokenKind.IDENTIFIER) {
         Identifier ident = parseIdent();
         return setLocation(new Parameter.Star<Expression, Expression>(ident.getName()),
             start, ident);
@@ -498,7 +527,7 @@ class Parser {
       }
     } else {
       Identifier ident = parseIdent();
-      if (token.kind == TokenKind.EQUALS) { // there's a default value
+      if (tokenKind == TokenKind.EQUALS) { // there's a default value
         nextToken();
         Expression expr = parseNonTupleExpression();
         return setLocation(new Parameter.Optional<Expression, Expression>(
@@ -515,12 +544,12 @@ class Parser {
     List<Argument.Passed> args = Collections.emptyList();
     expect(TokenKind.LPAREN);
     int end;
-    if (token.kind == TokenKind.RPAREN) {
-      end = token.right;
+    if (tokenKind == TokenKind.RPAREN) {
+      end = tokenRight;
       nextToken(); // RPAREN
     } else {
       args = parseFuncallArguments(); // (includes optional trailing comma)
-      end = token.right;
+      end = tokenRight;
       expect(TokenKind.RPAREN);
     }
     return makeFuncallExpression(receiver, function, args, start, end);
@@ -530,15 +559,15 @@ class Parser {
   //                    |'.' IDENTIFIER funcall_suffix
   private Expression parseSelectorSuffix(int start, Expression receiver) {
     expect(TokenKind.DOT);
-    if (token.kind == TokenKind.IDENTIFIER) {
+    if (tokenKind == TokenKind.IDENTIFIER) {
       Identifier ident = parseIdent();
-      if (token.kind == TokenKind.LPAREN) {
+      if (tokenKind == TokenKind.LPAREN) {
         return parseFuncallSuffix(start, receiver, ident);
       } else {
-        return setLocation(new DotExpression(receiver, ident), start, token.right);
+        return setLocation(new DotExpression(receiver, ident), start, tokenRight);
       }
     } else {
-      syntaxError(token, "expected identifier after dot");
+      syntaxError("expected identifier after dot");
       int end = syncTo(EXPR_TERMINATOR_SET);
       return makeErrorExpression(start, end);
     }
@@ -555,7 +584,7 @@ class Parser {
     try {
       Argument.validateFuncallArguments(arguments);
     } catch (Argument.ArgumentException e) {
-      reportError(lexer.createLocation(token.left, token.right), e.getMessage());
+      reportError(lexer.createLocation(tokenLeft, tokenRight), e.getMessage());
     }
     return arguments;
   }
@@ -567,9 +596,9 @@ class Parser {
   private List<Expression> parseExprList() {
     List<Expression> list = new ArrayList<>();
     //  terminating tokens for an expression list
-    while (token.kind == TokenKind.COMMA) {
+    while (tokenKind == TokenKind.COMMA) {
       expect(TokenKind.COMMA);
-      if (EXPR_LIST_TERMINATOR_SET.contains(token.kind)) {
+      if (EXPR_LIST_TERMINATOR_SET.contains(tokenKind)) {
         break;
       }
       list.add(parseNonTupleExpression());
@@ -581,9 +610,9 @@ class Parser {
   private List<DictionaryEntryLiteral> parseDictEntryList() {
     List<DictionaryEntryLiteral> list = new ArrayList<>();
     // the terminating token for a dict entry list
-    while (token.kind != TokenKind.RBRACE) {
+    while (tokenKind != TokenKind.RBRACE) {
       list.add(parseDictEntry());
-      if (token.kind == TokenKind.COMMA) {
+      if (tokenKind == TokenKind.COMMA) {
         nextToken();
       } else {
         break;
@@ -594,7 +623,7 @@ class Parser {
 
   // dict_entry ::= nontupleexpr ':' nontupleexpr
   private DictionaryEntryLiteral parseDictEntry() {
-    int start = token.left;
+    int start = tokenLeft;
     Expression key = parseNonTupleExpression();
     expect(TokenKind.COLON);
     Expression value = parseNonTupleExpression();
@@ -659,15 +688,15 @@ class Parser {
    * Parse a String literal value, e.g. "str".
    */
   private StringLiteral parseStringLiteral() {
-    Preconditions.checkState(token.kind == TokenKind.STRING);
-    int end = token.right;
-    char quoteChar = lexer.charAt(token.left);
+    Preconditions.checkState(tokenKind == TokenKind.STRING);
+    int end = tokenRight;
+    char quoteChar = lexer.charAt(tokenLeft);
     StringLiteral literal =
-        setLocation(new StringLiteral((String) token.value, quoteChar), token.left, end);
+        setLocation(new StringLiteral((String) tokenValue, quoteChar), tokenLeft, end);
 
     nextToken();
-    if (token.kind == TokenKind.STRING) {
-      reportError(lexer.createLocation(end, token.left),
+    if (tokenKind == TokenKind.STRING) {
+      reportError(lexer.createLocation(end, tokenLeft),
           "Implicit string concatenation is forbidden, use the + operator");
     }
     return literal;
@@ -685,11 +714,11 @@ class Parser {
   //            | dict_expression
   //            | '-' primary_with_suffix
   private Expression parsePrimary() {
-    int start = token.left;
-    switch (token.kind) {
+    int start = tokenLeft;
+    switch (tokenKind) {
       case INT: {
-        IntegerLiteral literal = new IntegerLiteral((Integer) token.value);
-        setLocation(literal, start, token.right);
+        IntegerLiteral literal = new IntegerLiteral((Integer) tokenValue);
+        setLocation(literal, start, tokenRight);
         nextToken();
         return literal;
       }
@@ -698,7 +727,7 @@ class Parser {
       }
       case IDENTIFIER: {
         Identifier ident = parseIdent();
-        if (token.kind == TokenKind.LPAREN) { // it's a function application
+        if (tokenKind == TokenKind.LPAREN) { // it's a function application
           return parseFuncallSuffix(start, null, ident);
         } else {
           return ident;
@@ -713,17 +742,17 @@ class Parser {
       case LPAREN: {
         nextToken();
         // check for the empty tuple literal
-        if (token.kind == TokenKind.RPAREN) {
+        if (tokenKind == TokenKind.RPAREN) {
           ListLiteral literal =
               ListLiteral.makeTuple(Collections.<Expression>emptyList());
-          setLocation(literal, start, token.right);
+          setLocation(literal, start, tokenRight);
           nextToken();
           return literal;
         }
         // parse the first expression
         Expression expression = parseExpression();
-        setLocation(expression, start, token.right);
-        if (token.kind == TokenKind.RPAREN) {
+        setLocation(expression, start, tokenRight);
+        if (tokenKind == TokenKind.RPAREN) {
           nextToken();
           return expression;
         }
@@ -738,10 +767,10 @@ class Parser {
         Expression expr = parsePrimaryWithSuffix();
         args.add(setLocation(new Argument.Positional(expr), start, expr));
         return makeFuncallExpression(null, new Identifier("-"), args,
-                                     start, token.right);
+                                     start, tokenRight);
       }
       default: {
-        syntaxError(token, "expected expression");
+        syntaxError("expected expression");
         int end = syncTo(EXPR_TERMINATOR_SET);
         return makeErrorExpression(start, end);
       }
@@ -751,12 +780,12 @@ class Parser {
   // primary_with_suffix ::= primary selector_suffix*
   //                       | primary substring_suffix
   private Expression parsePrimaryWithSuffix() {
-    int start = token.left;
+    int start = tokenLeft;
     Expression receiver = parsePrimary();
     while (true) {
-      if (token.kind == TokenKind.DOT) {
+      if (tokenKind == TokenKind.DOT) {
         receiver = parseSelectorSuffix(start, receiver);
-      } else if (token.kind == TokenKind.LBRACKET) {
+      } else if (tokenKind == TokenKind.LBRACKET) {
         receiver = parseSubstringSuffix(start, receiver);
       } else {
         break;
@@ -772,24 +801,24 @@ class Parser {
     Expression endExpr;
 
     expect(TokenKind.LBRACKET);
-    int loc1 = token.left;
-    if (token.kind == TokenKind.COLON) {
-      startExpr = setLocation(new IntegerLiteral(0), token.left, token.right);
+    int loc1 = tokenLeft;
+    if (tokenKind == TokenKind.COLON) {
+      startExpr = setLocation(new IntegerLiteral(0), tokenLeft, tokenRight);
     } else {
       startExpr = parseExpression();
     }
     args.add(setLocation(new Argument.Positional(startExpr), loc1, startExpr));
     // This is a dictionary access
-    if (token.kind == TokenKind.RBRACKET) {
+    if (tokenKind == TokenKind.RBRACKET) {
       expect(TokenKind.RBRACKET);
       return makeFuncallExpression(receiver, new Identifier("$index"), args,
-                                   start, token.right);
+                                   start, tokenRight);
     }
     // This is a slice (or substring)
     expect(TokenKind.COLON);
-    int loc2 = token.left;
-    if (token.kind == TokenKind.RBRACKET) {
-      endExpr = setLocation(new IntegerLiteral(Integer.MAX_VALUE), token.left, token.right);
+    int loc2 = tokenLeft;
+    if (tokenKind == TokenKind.RBRACKET) {
+      endExpr = setLocation(new IntegerLiteral(Integer.MAX_VALUE), tokenLeft, tokenRight);
     } else {
       endExpr = parseNonTupleExpression();
     }
@@ -797,7 +826,7 @@ class Parser {
 
     args.add(setLocation(new Argument.Positional(endExpr), loc2, endExpr));
     return makeFuncallExpression(receiver, new Identifier("$slice"), args,
-                                 start, token.right);
+                                 start, tokenRight);
   }
 
   // Equivalent to 'exprlist' rule in Python grammar.
@@ -805,23 +834,23 @@ class Parser {
   private Expression parseForLoopVariables() {
     // We cannot reuse parseExpression because it would parse the 'in' operator.
     // e.g.  "for i in e: pass"  -> we want to parse only "i" here.
-    int start = token.left;
+    int start = tokenLeft;
     Expression e1 = parsePrimaryWithSuffix();
-    if (token.kind != TokenKind.COMMA) {
+    if (tokenKind != TokenKind.COMMA) {
       return e1;
     }
 
     // It's a tuple
     List<Expression> tuple = new ArrayList<>();
     tuple.add(e1);
-    while (token.kind == TokenKind.COMMA) {
+    while (tokenKind == TokenKind.COMMA) {
       expect(TokenKind.COMMA);
-      if (EXPR_LIST_TERMINATOR_SET.contains(token.kind)) {
+      if (EXPR_LIST_TERMINATOR_SET.contains(tokenKind)) {
         break;
       }
       tuple.add(parsePrimaryWithSuffix());
     }
-    return setLocation(ListLiteral.makeTuple(tuple), start, token.right);
+    return setLocation(ListLiteral.makeTuple(tuple), start, tokenRight);
   }
 
   // comprehension_suffix ::= 'FOR' loop_variables 'IN' expr comprehension_suffix
@@ -829,7 +858,7 @@ class Parser {
   //                        | ']'
   private Expression parseComprehensionSuffix(ListComprehension listComprehension) {
     while (true) {
-      switch (token.kind) {
+      switch (tokenKind) {
         case FOR:
           nextToken();
           Expression loopVar = parseForLoopVariables();
@@ -850,9 +879,9 @@ class Parser {
           return listComprehension;
 
         default:
-          syntaxError(token, "expected ']', 'for' or 'if'");
+          syntaxError("expected ']', 'for' or 'if'");
           syncPast(LIST_TERMINATOR_SET);
-          return makeErrorExpression(token.left, token.right);
+          return makeErrorExpression(tokenLeft, tokenRight);
       }
     }
   }
@@ -862,36 +891,36 @@ class Parser {
   //               |'[' expr expr_list ']'
   //               |'[' expr ('FOR' loop_variables 'IN' expr)+ ']'
   private Expression parseListMaker() {
-    int start = token.left;
+    int start = tokenLeft;
     expect(TokenKind.LBRACKET);
-    if (token.kind == TokenKind.RBRACKET) { // empty List
+    if (tokenKind == TokenKind.RBRACKET) { // empty List
       ListLiteral literal = ListLiteral.emptyList();
-      setLocation(literal, start, token.right);
+      setLocation(literal, start, tokenRight);
       nextToken();
       return literal;
     }
     Expression expression = parseNonTupleExpression();
     Preconditions.checkNotNull(expression,
-        "null element in list in AST at %s:%s", token.left, token.right);
-    switch (token.kind) {
+        "null element in list in AST at %s:%s", tokenLeft, tokenRight);
+    switch (tokenKind) {
       case RBRACKET: { // singleton List
         ListLiteral literal = ListLiteral.makeList(Collections.singletonList(expression));
-        setLocation(literal, start, token.right);
+        setLocation(literal, start, tokenRight);
         nextToken();
         return literal;
       }
       case FOR: { // list comprehension
         Expression result = parseComprehensionSuffix(new ListComprehension(expression));
-        return setLocation(result, start, token.right);
+        return setLocation(result, start, tokenRight);
       }
       case COMMA: {
         List<Expression> list = parseExprList();
         Preconditions.checkState(!list.contains(null),
-            "null element in list in AST at %s:%s", token.left, token.right);
+            "null element in list in AST at %s:%s", tokenLeft, tokenRight);
         list.add(0, expression);
-        if (token.kind == TokenKind.RBRACKET) {
+        if (tokenKind == TokenKind.RBRACKET) {
           ListLiteral literal = ListLiteral.makeList(list);
-          setLocation(literal, start, token.right);
+          setLocation(literal, start, tokenRight);
           nextToken();
           return literal;
         }
@@ -900,7 +929,7 @@ class Parser {
         return makeErrorExpression(start, end);
       }
       default: {
-        syntaxError(token, "expected ',', 'for' or ']'");
+        syntaxError("expected ',', 'for' or ']'");
         int end = syncPast(LIST_TERMINATOR_SET);
         return makeErrorExpression(start, end);
       }
@@ -911,16 +940,16 @@ class Parser {
   //                    |'{' dict_entry_list '}'
   //                    |'{' dict_entry 'FOR' loop_variables 'IN' expr '}'
   private Expression parseDictExpression() {
-    int start = token.left;
+    int start = tokenLeft;
     expect(TokenKind.LBRACE);
-    if (token.kind == TokenKind.RBRACE) { // empty Dict
+    if (tokenKind == TokenKind.RBRACE) { // empty Dict
       DictionaryLiteral literal = DictionaryLiteral.emptyDict();
-      setLocation(literal, start, token.right);
+      setLocation(literal, start, tokenRight);
       nextToken();
       return literal;
     }
     DictionaryEntryLiteral entry = parseDictEntry();
-    if (token.kind == TokenKind.FOR) {
+    if (tokenKind == TokenKind.FOR) {
       // TODO(bazel-team): Reuse parseComprehensionSuffix when dict
       // comprehension is compatible with list comprehension.
 
@@ -931,17 +960,17 @@ class Parser {
       Expression listExpression = parseExpression();
       expect(TokenKind.RBRACE);
       return setLocation(new DictComprehension(
-          entry.getKey(), entry.getValue(), loopVar, listExpression), start, token.right);
+          entry.getKey(), entry.getValue(), loopVar, listExpression), start, tokenRight);
     }
     List<DictionaryEntryLiteral> entries = new ArrayList<>();
     entries.add(entry);
-    if (token.kind == TokenKind.COMMA) {
+    if (tokenKind == TokenKind.COMMA) {
       expect(TokenKind.COMMA);
       entries.addAll(parseDictEntryList());
     }
-    if (token.kind == TokenKind.RBRACE) {
+    if (tokenKind == TokenKind.RBRACE) {
       DictionaryLiteral literal = new DictionaryLiteral(entries);
-      setLocation(literal, start, token.right);
+      setLocation(literal, start, tokenRight);
       nextToken();
       return literal;
     }
@@ -951,12 +980,12 @@ class Parser {
   }
 
   private Identifier parseIdent() {
-    if (token.kind != TokenKind.IDENTIFIER) {
+    if (tokenKind != TokenKind.IDENTIFIER) {
       expect(TokenKind.IDENTIFIER);
-      return makeErrorExpression(token.left, token.right);
+      return makeErrorExpression(tokenLeft, tokenRight);
     }
-    Identifier ident = new Identifier(((String) token.value));
-    setLocation(ident, token.left, token.right);
+    Identifier ident = new Identifier(((String) tokenValue));
+    setLocation(ident, tokenLeft, tokenRight);
     nextToken();
     return ident;
   }
@@ -966,24 +995,24 @@ class Parser {
   // This function takes care of precedence between operators (see operatorPrecedence for
   // the order), and it assumes left-to-right associativity.
   private Expression parseBinOpExpression(int prec) {
-    int start = token.left;
+    int start = tokenLeft;
     Expression expr = parseNonTupleExpression(prec + 1);
     // The loop is not strictly needed, but it prevents risks of stack overflow. Depth is
     // limited to number of different precedence levels (operatorPrecedence.size()).
     for (;;) {
 
-      if (token.kind == TokenKind.NOT) {
+      if (tokenKind == TokenKind.NOT) {
         // If NOT appears when we expect a binary operator, it must be followed by IN.
         // Since the code expects every operator to be a single token, we push a NOT_IN token.
         expect(TokenKind.NOT);
         expect(TokenKind.IN);
-        pushToken(new Token(TokenKind.NOT_IN, token.left, token.right));
+        pushToken(TokenKind.NOT_IN, tokenLeft, tokenRight, null);
       }
 
-      if (!binaryOperators.containsKey(token.kind)) {
+      if (!binaryOperators.containsKey(tokenKind)) {
         return expr;
       }
-      Operator operator = binaryOperators.get(token.kind);
+      Operator operator = binaryOperators.get(tokenKind);
       if (!operatorPrecedence.get(prec).contains(operator)) {
         return expr;
       }
@@ -1016,32 +1045,32 @@ class Parser {
   // In many cases, we need to use parseNonTupleExpression to avoid ambiguity
   // e.g.  fct(x, y)  vs  fct((x, y))
   private Expression parseExpression() {
-    int start = token.left;
+    int start = tokenLeft;
     Expression expression = parseNonTupleExpression();
-    if (token.kind != TokenKind.COMMA) {
+    if (tokenKind != TokenKind.COMMA) {
       return expression;
     }
 
     // It's a tuple
     List<Expression> tuple = parseExprList();
     tuple.add(0, expression);  // add the first expression to the front of the tuple
-    return setLocation(ListLiteral.makeTuple(tuple), start, token.right);
+    return setLocation(ListLiteral.makeTuple(tuple), start, tokenRight);
   }
 
   // Equivalent to 'test' rule in Python grammar.
   private Expression parseNonTupleExpression() {
-    int start = token.left;
+    int start = tokenLeft;
     Expression expr = parseNonTupleExpression(0);
-    if (token.kind == TokenKind.IF) {
+    if (tokenKind == TokenKind.IF) {
       nextToken();
       Expression condition = parseNonTupleExpression(0);
-      if (token.kind == TokenKind.ELSE) {
+      if (tokenKind == TokenKind.ELSE) {
         nextToken();
         Expression elseClause = parseNonTupleExpression();
         return setLocation(new ConditionalExpression(expr, condition, elseClause),
             start, elseClause);
       } else {
-        reportError(lexer.createLocation(start, token.left),
+        reportError(lexer.createLocation(start, tokenLeft),
             "missing else clause in conditional expression or semicolon before if");
         return expr; // Try to recover from error: drop the if and the expression after it. Ouch.
       }
@@ -1053,7 +1082,7 @@ class Parser {
     if (prec >= operatorPrecedence.size()) {
       return parsePrimaryWithSuffix();
     }
-    if (token.kind == TokenKind.NOT && operatorPrecedence.get(prec).contains(Operator.NOT)) {
+    if (tokenKind == TokenKind.NOT && operatorPrecedence.get(prec).contains(Operator.NOT)) {
       return parseNotExpression(prec);
     }
     return parseBinOpExpression(prec);
@@ -1061,19 +1090,19 @@ class Parser {
 
   // not_expr :== 'not' expr
   private Expression parseNotExpression(int prec) {
-    int start = token.left;
+    int start = tokenLeft;
     expect(TokenKind.NOT);
     Expression expression = parseNonTupleExpression(prec + 1);
     NotExpression notExpression = new NotExpression(expression);
-    return setLocation(notExpression, start, token.right);
+    return setLocation(notExpression, start, tokenRight);
   }
 
   // file_input ::= ('\n' | stmt)* EOF
   private List<Statement> parseFileInput() {
     long startTime = Profiler.nanoTimeMaybe();
     List<Statement> list =  new ArrayList<>();
-    while (token.kind != TokenKind.EOF) {
-      if (token.kind == TokenKind.NEWLINE) {
+    while (tokenKind != TokenKind.EOF) {
+      if (tokenKind == TokenKind.NEWLINE) {
         expectAndRecover(TokenKind.NEWLINE);
       } else if (recoveryMode) {
         // If there was a parse error, we want to recover here
@@ -1090,8 +1119,8 @@ class Parser {
 
   // load '(' STRING (COMMA [IDENTIFIER EQUALS] STRING)* COMMA? ')'
   private void parseLoad(List<Statement> list) {
-    int start = token.left;
-    if (token.kind != TokenKind.STRING) {
+    int start = tokenLeft;
+    if (tokenKind != TokenKind.STRING) {
       expect(TokenKind.STRING);
       return;
     }
@@ -1102,9 +1131,9 @@ class Parser {
     Map<Identifier, String> symbols = new HashMap<>();
     parseLoadSymbol(symbols); // At least one symbol is required
 
-    while (token.kind != TokenKind.RPAREN && token.kind != TokenKind.EOF) {
+    while (tokenKind != TokenKind.RPAREN && tokenKind != TokenKind.EOF) {
       expect(TokenKind.COMMA);
-      if (token.kind == TokenKind.RPAREN) {
+      if (tokenKind == TokenKind.RPAREN) {
         break;
       }
 
@@ -1123,7 +1152,7 @@ class Parser {
       reportError(path.getLocation(), e.getMessage());
     }
 
-    list.add(setLocation(stmt, start, token.left));
+    list.add(setLocation(stmt, start, tokenLeft));
   }
 
   /**
@@ -1137,20 +1166,20 @@ class Parser {
   private void parseLoadSymbol(Map<Identifier, String> symbols) {
     Token nameToken, declaredToken;
 
-    if (token.kind == TokenKind.STRING) {
-      nameToken = token;
+    if (tokenKind == TokenKind.STRING) {
+      nameToken = currentToken();
       declaredToken = nameToken;
     } else {
-      if (token.kind != TokenKind.IDENTIFIER) {
-        syntaxError(token, "Expected either a literal string or an identifier");
+      if (tokenKind != TokenKind.IDENTIFIER) {
+        syntaxError("Expected either a literal string or an identifier");
       }
 
-      nameToken = token;
+      nameToken = currentToken();
 
       expect(TokenKind.IDENTIFIER);
       expect(TokenKind.EQUALS);
 
-      declaredToken = token;
+      declaredToken = currentToken();
     }
 
     expect(TokenKind.STRING);
@@ -1163,7 +1192,7 @@ class Parser {
             nameToken, String.format("Symbol '%s' has already been loaded", identifier.getName()));
       } else {
         symbols.put(
-            setLocation(identifier, nameToken.left, token.left), declaredToken.value.toString());
+            setLocation(identifier, nameToken.left, tokenLeft), declaredToken.value.toString());
       }
     } catch (NullPointerException npe) {
       // This means that the value of at least one token is null. In this case, the previous
@@ -1174,36 +1203,37 @@ class Parser {
   private void parseTopLevelStatement(List<Statement> list) {
     // In Python grammar, there is no "top-level statement" and imports are
     // considered as "small statements". We are a bit stricter than Python here.
-    int start = token.left;
+    int start = tokenLeft;
 
     // Check if there is an include
-    if (token.kind == TokenKind.IDENTIFIER) {
-      Token identToken = token;
+    if (tokenKind == TokenKind.IDENTIFIER) {
+      int identRight = tokenRight;
       Identifier ident = parseIdent();
 
       if (ident.getName().equals("include")
-          && token.kind == TokenKind.LPAREN
+          && tokenKind == TokenKind.LPAREN
           && parsingMode == BUILD) {
         expect(TokenKind.LPAREN);
-        if (token.kind == TokenKind.STRING) {
-          include((String) token.value, list, lexer.createLocation(start, token.right));
+        if (tokenKind == TokenKind.STRING) {
+          include((String) tokenValue, list, lexer.createLocation(start, tokenRight));
         }
         expect(TokenKind.STRING);
         expect(TokenKind.RPAREN);
         return;
-      } else if (ident.getName().equals("load") && token.kind == TokenKind.LPAREN) {
+      } else if (ident.getName().equals("load") && tokenKind == TokenKind.LPAREN) {
         expect(TokenKind.LPAREN);
         parseLoad(list);
         return;
       }
-      pushToken(identToken); // push the ident back to parse it as a statement
+      // push the ident back to parse it as a statement
+      pushToken(TokenKind.IDENTIFIER, start, identRight, ident.getName());
     }
     parseStatement(list, true);
   }
 
   // small_stmt | 'pass'
   private void parseSmallStatementOrPass(List<Statement> list) {
-    if (token.kind == TokenKind.PASS) {
+    if (tokenKind == TokenKind.PASS) {
       // Skip the token, don't add it to the list.
       // It has no existence in the AST.
       expect(TokenKind.PASS);
@@ -1216,9 +1246,9 @@ class Parser {
   private void parseSimpleStatement(List<Statement> list) {
     parseSmallStatementOrPass(list);
 
-    while (token.kind == TokenKind.SEMI) {
+    while (tokenKind == TokenKind.SEMI) {
       nextToken();
-      if (token.kind == TokenKind.NEWLINE) {
+      if (tokenKind == TokenKind.NEWLINE) {
         break;
       }
       parseSmallStatementOrPass(list);
@@ -1244,15 +1274,15 @@ class Parser {
   // to 'ident = ident + {key: value}'. This is needed to support the pure version of Python-like
   // dictionary assignment syntax.
   private Statement parseSmallStatement() {
-    int start = token.left;
-    if (token.kind == TokenKind.RETURN) {
+    int start = tokenLeft;
+    if (tokenKind == TokenKind.RETURN) {
       return parseReturnStatement();
     } else if ((parsingMode == SKYLARK)
-        && (token.kind == TokenKind.BREAK || token.kind == TokenKind.CONTINUE)) {
-      return parseFlowStatement(token.kind);
+        && (tokenKind == TokenKind.BREAK || tokenKind == TokenKind.CONTINUE)) {
+      return parseFlowStatement(tokenKind);
     }
     Expression expression = parseExpression();
-    if (token.kind == TokenKind.EQUALS) {
+    if (tokenKind == TokenKind.EQUALS) {
       nextToken();
       Expression rvalue = parseExpression();
       if (expression instanceof FuncallExpression) {
@@ -1264,15 +1294,15 @@ class Parser {
           Preconditions.checkArgument(func.getArguments().size() == 1);
           DictionaryLiteral dictRValue = setLocation(new DictionaryLiteral(ImmutableList.of(
               setLocation(new DictionaryEntryLiteral(func.getArguments().get(0).getValue(), rvalue),
-                  start, token.right))), start, token.right);
+                  start, tokenRight))), start, tokenRight);
           BinaryOperatorExpression binExp = setLocation(new BinaryOperatorExpression(
-              Operator.PLUS, func.getObject(), dictRValue), start, token.right);
-          return setLocation(new AssignmentStatement(func.getObject(), binExp), start, token.right);
+              Operator.PLUS, func.getObject(), dictRValue), start, tokenRight);
+          return setLocation(new AssignmentStatement(func.getObject(), binExp), start, tokenRight);
         }
       }
       return setLocation(new AssignmentStatement(expression, rvalue), start, rvalue);
-    } else if (augmentedAssignmentMethods.containsKey(token.kind)) {
-      Operator operator = augmentedAssignmentMethods.get(token.kind);
+    } else if (augmentedAssignmentMethods.containsKey(tokenKind)) {
+      Operator operator = augmentedAssignmentMethods.get(tokenKind);
       nextToken();
       Expression operand = parseExpression();
       int end = operand.getLocation().getEndOffset();
@@ -1287,37 +1317,37 @@ class Parser {
 
   // if_stmt ::= IF expr ':' suite [ELIF expr ':' suite]* [ELSE ':' suite]?
   private IfStatement parseIfStatement() {
-    int start = token.left;
+    int start = tokenLeft;
     List<ConditionalStatements> thenBlocks = new ArrayList<>();
     thenBlocks.add(parseConditionalStatements(TokenKind.IF));
-    while (token.kind == TokenKind.ELIF) {
+    while (tokenKind == TokenKind.ELIF) {
       thenBlocks.add(parseConditionalStatements(TokenKind.ELIF));
     }
     List<Statement> elseBlock;
-    if (token.kind == TokenKind.ELSE) {
+    if (tokenKind == TokenKind.ELSE) {
       expect(TokenKind.ELSE);
       expect(TokenKind.COLON);
       elseBlock = parseSuite();
     } else {
       elseBlock = ImmutableList.of();
     }
-    return setLocation(new IfStatement(thenBlocks, elseBlock), start, token.right);
+    return setLocation(new IfStatement(thenBlocks, elseBlock), start, tokenRight);
   }
 
   // cond_stmts ::= [EL]IF expr ':' suite
   private ConditionalStatements parseConditionalStatements(TokenKind tokenKind) {
-    int start = token.left;
+    int start = tokenLeft;
     expect(tokenKind);
     Expression expr = parseNonTupleExpression();
     expect(TokenKind.COLON);
     List<Statement> thenBlock = parseSuite();
     ConditionalStatements stmt = new ConditionalStatements(expr, thenBlock);
-    return setLocation(stmt, start, token.right);
+    return setLocation(stmt, start, tokenRight);
   }
 
   // for_stmt ::= FOR IDENTIFIER IN expr ':' suite
   private void parseForStatement(List<Statement> list) {
-    int start = token.left;
+    int start = tokenLeft;
     expect(TokenKind.FOR);
     Expression loopVar = parseForLoopVariables();
     expect(TokenKind.IN);
@@ -1325,12 +1355,12 @@ class Parser {
     expect(TokenKind.COLON);
     List<Statement> block = parseSuite();
     Statement stmt = new ForStatement(loopVar, collection, block);
-    list.add(setLocation(stmt, start, token.right));
+    list.add(setLocation(stmt, start, tokenRight));
   }
 
   // def foo(bar1, bar2):
   private void parseFunctionDefStatement(List<Statement> list) {
-    int start = token.left;
+    int start = tokenLeft;
     expect(TokenKind.DEF);
     Identifier ident = parseIdent();
     expect(TokenKind.LPAREN);
@@ -1340,7 +1370,7 @@ class Parser {
     expect(TokenKind.COLON);
     List<Statement> block = parseSuite();
     FunctionDefStatement stmt = new FunctionDefStatement(ident, params, signature, block);
-    list.add(setLocation(stmt, start, token.right));
+    list.add(setLocation(stmt, start, tokenRight));
   }
 
   private FunctionSignature.WithValues<Expression, Expression> functionSignature(
@@ -1381,16 +1411,16 @@ class Parser {
     boolean hasStarStar = false;
     ArrayList<V> arguments = new ArrayList<>();
 
-    while (token.kind != TokenKind.RPAREN && token.kind != TokenKind.EOF) {
+    while (tokenKind != TokenKind.RPAREN && tokenKind != TokenKind.EOF) {
       if (hasStarStar) {
-        reportError(lexer.createLocation(token.left, token.right),
+        reportError(lexer.createLocation(tokenLeft, tokenRight),
             "unexpected tokens after kwarg");
         break;
       }
       if (hasArg) {
         expect(TokenKind.COMMA);
       }
-      if (token.kind == TokenKind.RPAREN && !hasStar) {
+      if (tokenKind == TokenKind.RPAREN && !hasStar) {
         // list can end with a COMMA if there is neither * nor **
         break;
       }
@@ -1411,15 +1441,15 @@ class Parser {
   //         | NEWLINE INDENT stmt+ OUTDENT
   private List<Statement> parseSuite() {
     List<Statement> list = new ArrayList<>();
-    if (token.kind == TokenKind.NEWLINE) {
+    if (tokenKind == TokenKind.NEWLINE) {
       expect(TokenKind.NEWLINE);
-      if (token.kind != TokenKind.INDENT) {
-        reportError(lexer.createLocation(token.left, token.right),
+      if (tokenKind != TokenKind.INDENT) {
+        reportError(lexer.createLocation(tokenLeft, tokenRight),
                     "expected an indented block");
         return list;
       }
       expect(TokenKind.INDENT);
-      while (token.kind != TokenKind.OUTDENT && token.kind != TokenKind.EOF) {
+      while (tokenKind != TokenKind.OUTDENT && tokenKind != TokenKind.EOF) {
         parseStatement(list, false);
       }
       expectAndRecover(TokenKind.OUTDENT);
@@ -1432,10 +1462,10 @@ class Parser {
   // skipSuite does not check that the code is syntactically correct, it
   // just skips based on indentation levels.
   private void skipSuite() {
-    if (token.kind == TokenKind.NEWLINE) {
+    if (tokenKind == TokenKind.NEWLINE) {
       expect(TokenKind.NEWLINE);
-      if (token.kind != TokenKind.INDENT) {
-        reportError(lexer.createLocation(token.left, token.right),
+      if (tokenKind != TokenKind.INDENT) {
+        reportError(lexer.createLocation(tokenLeft, tokenRight),
                     "expected an indented block");
         return;
       }
@@ -1446,12 +1476,12 @@ class Parser {
       int depth = 1;
       while (depth > 0) {
         // Because of the way the lexer works, this should never happen
-        Preconditions.checkState(token.kind != TokenKind.EOF);
+        Preconditions.checkState(tokenKind != TokenKind.EOF);
 
-        if (token.kind == TokenKind.INDENT) {
+        if (tokenKind == TokenKind.INDENT) {
           depth++;
         }
-        if (token.kind == TokenKind.OUTDENT) {
+        if (tokenKind == TokenKind.OUTDENT) {
           depth--;
         }
         nextToken();
@@ -1467,21 +1497,21 @@ class Parser {
   // stmt ::= simple_stmt
   //        | compound_stmt
   private void parseStatement(List<Statement> list, boolean isTopLevel) {
-    if (token.kind == TokenKind.DEF && parsingMode == SKYLARK) {
+    if (tokenKind == TokenKind.DEF && parsingMode == SKYLARK) {
       if (!isTopLevel) {
-        reportError(lexer.createLocation(token.left, token.right),
+        reportError(lexer.createLocation(tokenLeft, tokenRight),
             "nested functions are not allowed. Move the function to top-level");
       }
       parseFunctionDefStatement(list);
-    } else if (token.kind == TokenKind.IF && parsingMode == SKYLARK) {
+    } else if (tokenKind == TokenKind.IF && parsingMode == SKYLARK) {
       list.add(parseIfStatement());
-    } else if (token.kind == TokenKind.FOR && parsingMode == SKYLARK) {
+    } else if (tokenKind == TokenKind.FOR && parsingMode == SKYLARK) {
       if (isTopLevel) {
-        reportError(lexer.createLocation(token.left, token.right),
+        reportError(lexer.createLocation(tokenLeft, tokenRight),
             "for loops are not allowed on top-level. Put it into a function");
       }
       parseForStatement(list);
-    } else if (BLOCK_STARTING_SET.contains(token.kind)) {
+    } else if (BLOCK_STARTING_SET.contains(tokenKind)) {
       skipBlock();
     } else {
       parseSimpleStatement(list);
@@ -1490,22 +1520,22 @@ class Parser {
 
   // flow_stmt ::= break_stmt | continue_stmt
   private FlowStatement parseFlowStatement(TokenKind kind) {
-    int start = token.left;
+    int start = tokenLeft;
     expect(kind);
     return setLocation(
         kind == TokenKind.BREAK ? FlowStatement.BREAK : FlowStatement.CONTINUE,
         start,
-        token.right);
+        tokenRight);
   }
 
   // return_stmt ::= RETURN [expr]
   private ReturnStatement parseReturnStatement() {
-    int start = token.left;
-    int end = token.right;
+    int start = tokenLeft;
+    int end = tokenRight;
     expect(TokenKind.RETURN);
 
     Expression expression;
-    if (STATEMENT_TERMINATOR_SET.contains(token.kind)) {
+    if (STATEMENT_TERMINATOR_SET.contains(tokenKind)) {
         // this None makes the AST not correspond to the source exactly anymore
         expression = new Identifier("None");
         setLocation(expression, start, end);
@@ -1517,12 +1547,12 @@ class Parser {
 
   // block ::= ('if' | 'for' | 'class') expr ':' suite
   private void skipBlock() {
-    int start = token.left;
-    Token blockToken = token;
+    int start = tokenLeft;
+    Token blockToken = currentToken();
     syncTo(EnumSet.of(TokenKind.COLON, TokenKind.EOF)); // skip over expression or name
     if (parsingMode != PYTHON) {
       reportError(
-          lexer.createLocation(start, token.right),
+          lexer.createLocation(start, tokenRight),
           "syntax error at '"
               + blockToken
               + "': This is not supported in BUILD files. "
@@ -1533,7 +1563,8 @@ class Parser {
   }
 
   // create a comment node
-  private void makeComment(Token token) {
-    comments.add(setLocation(new Comment((String) token.value), token.left, token.right));
+  private void makeComment() {
+    comments.add(setLocation(new Comment((String) lexer.tokenValue()), lexer.tokenLeft(),
+        lexer.tokenRight()));
   }
 }
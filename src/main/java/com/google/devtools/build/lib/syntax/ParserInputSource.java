@@ -13,11 +13,16 @@
 // limitations under the License.
 package com.google.devtools.build.lib.syntax;
 
+import com.google.common.io.ByteStreams;
 import com.google.devtools.build.lib.vfs.FileSystemUtils;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
  * An abstraction for reading input from a file or taking it as a pre-cooked
@@ -25,6 +30,12 @@ import java.io.IOException;
  */
 public abstract class ParserInputSource {
 
+  /**
+   * Files at least this large are memory-mapped. Mapping costs more than reading for the typical,
+   * small BUILD file, and the mapping is only released by the garbage collector.
+   */
+  private static final int MIN_MAPPED_FILE_SIZE = 1 << 20;
+
   protected ParserInputSource() {}
 
   /**
@@ -52,7 +63,7 @@ public abstract class ParserInputSource {
     if (fileSize > Integer.MAX_VALUE) {
       throw new IOException("Cannot parse file with size larger than 2GB");
     }
-    char[] content = FileSystemUtils.readContentAsLatin1(path);
+    char[] content = readContentAsLatin1(path, (int) fileSize);
     if (fileSize > content.length) {
       // This assertion is to help diagnose problems arising from the
       // filesystem;  see bugs and #859334 and #920195.
@@ -62,6 +73,37 @@ public abstract class ParserInputSource {
     return create(content, path.asFragment());
   }
 
+  /**
+   * Reads the file, which is expected to be {@code fileSize} bytes long, into a char array without
+   * intermediate copies. Large files on the local disk are memory-mapped instead of read.
+   */
+  private static char[] readContentAsLatin1(Path path, int fileSize) throws IOException {
+    try (InputStream in = path.getInputStream()) {
+      if (fileSize >= MIN_MAPPED_FILE_SIZE && in instanceof FileInputStream) {
+        FileChannel channel = ((FileInputStream) in).getChannel();
+        if (channel.size() == fileSize) {
+          MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+          char[] content = new char[fileSize];
+          for (int i = 0; i < fileSize; i++) {
+            content[i] = (char) (0xff & mapped.get(i));
+          }
+          return content;
+        }
+      }
+      byte[] bytes = new byte[fileSize];
+      int length = ByteStreams.read(in, bytes, 0, fileSize);
+      if (length == fileSize && in.read() != -1) {
+        // The file grew since its size was taken; keep the old behavior of reading all of it.
+        return FileSystemUtils.readContentAsLatin1(path);
+      }
+      char[] content = new char[length];
+      for (int i = 0; i < length; i++) {
+        content[i] = (char) (0xff & bytes[i]);
+      }
+      return content;
+    }
+  }
+
   /**
    * Create an input source from the given content, and associate path with
    * this source.  Path will be used in error messages etc. but we will *never*
@@ -18,9 +18,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
+import com.google.common.collect.Iterators;
 import com.google.common.collect.Lists;
 import com.google.devtools.build.lib.events.Location;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -249,8 +251,8 @@ public abstract class SkylarkList implements Iterable<Object>, SkylarkValue {
   }
 
   /**
-   * A Skylark list to support quick concatenation of lists. Concatenation is O(1),
-   * size(), isEmpty() is O(n), get() is O(h).
+   * A Skylark list to support quick concatenation of lists with lazy ones, without iterating
+   * over them. Concatenation is O(1), size(), isEmpty() is O(n), get() is O(h).
    */
   private static final class ConcatenatedSkylarkList extends SkylarkList {
     private final SkylarkList left;
@@ -299,6 +301,111 @@ public abstract class SkylarkList implements Iterable<Object>, SkylarkValue {
     }
   }
 
+  /**
+   * The elements of one or more {@link SharedArraySkylarkList}s, each of which is a prefix of the
+   * array. New elements are only written past the end of the longest of these lists, so none of
+   * the others ever sees them.
+   */
+  private static final class SharedArray {
+    private final Object[] elements;
+    private int size; // guarded by this
+
+    private SharedArray(Object[] elements, int size) {
+      this.elements = elements;
+      this.size = size;
+    }
+
+    /**
+     * Appends the elements of the given list if the array has room for them, and if the list of
+     * the given size is the longest one sharing the array. Returns whether it did.
+     */
+    private synchronized boolean append(int listSize, SkylarkList list) {
+      int newSize = listSize + list.size();
+      if (size != listSize || newSize > elements.length) {
+        return false;
+      }
+      copyInto(list, elements, listSize);
+      size = newSize;
+      return true;
+    }
+  }
+
+  /**
+   * A Skylark list to support quick concatenation of lists, in particular to build a list one
+   * element at a time in a loop. The list is a prefix of a {@link SharedArray}: when it is
+   * concatenated with another list, the elements of that list are appended to the array in place
+   * if no longer list shares the array yet. So a list built with {@code +} or {@code +=} costs
+   * amortized O(1) per element, like an ArrayList, while size() and get() are O(1) and every
+   * list built along the way stays unchanged.
+   */
+  private static final class SharedArraySkylarkList extends SkylarkList {
+    private final SharedArray array;
+    private final int size;
+
+    private SharedArraySkylarkList(
+        SharedArray array, int size, boolean tuple, SkylarkType contentType) {
+      super(tuple, contentType);
+      this.array = array;
+      this.size = size;
+    }
+
+    private static SkylarkList concat(SkylarkList left, SkylarkList right, SkylarkType type) {
+      int size = left.size() + right.size();
+      int capacity = size;
+      if (left instanceof SharedArraySkylarkList) {
+        SharedArraySkylarkList shared = (SharedArraySkylarkList) left;
+        if (shared.array.append(shared.size, right)) {
+          return new SharedArraySkylarkList(shared.array, size, left.isTuple(), type);
+        }
+        // The list grows again: leave room to append as many elements again, like ArrayList.
+        capacity = size + (size >> 1);
+      }
+      Object[] elements = new Object[capacity];
+      copyInto(left, elements, 0);
+      copyInto(right, elements, left.size());
+      return new SharedArraySkylarkList(
+          new SharedArray(elements, size), size, left.isTuple(), type);
+    }
+
+    @Override
+    public Iterator<Object> iterator() {
+      return Iterators.limit(Iterators.forArray(array.elements), size);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+      return size == 0;
+    }
+
+    @Override
+    public Object get(int i) {
+      Preconditions.checkElementIndex(i, size);
+      return array.elements[i];
+    }
+
+    @Override
+    public List<Object> toList() {
+      List<Object> elements = Arrays.asList(array.elements).subList(0, size);
+      return isTuple() ? ImmutableList.copyOf(elements) : Lists.newArrayList(elements);
+    }
+  }
+
+  private static void copyInto(SkylarkList list, Object[] elements, int offset) {
+    if (list instanceof SharedArraySkylarkList) {
+      SharedArraySkylarkList shared = (SharedArraySkylarkList) list;
+      System.arraycopy(shared.array.elements, 0, elements, offset, shared.size);
+    } else {
+      for (Object element : list) {
+        elements[offset++] = element;
+      }
+    }
+  }
+
   /**
    * @param elements the contents of the list
    * @param contentType a SkylarkType for the contents of the list
@@ -391,7 +498,15 @@ public abstract class SkylarkList implements Iterable<Object>, SkylarkValue {
       return left;
     }
     SkylarkType type = SkylarkType.intersection(left.contentType, right.contentType);
-    return new ConcatenatedSkylarkList(left, right, left.isTuple(), type);
+    if (isLazy(left) || isLazy(right)) {
+      return new ConcatenatedSkylarkList(left, right, left.isTuple(), type);
+    }
+    return SharedArraySkylarkList.concat(left, right, type);
+  }
+
+  /** Returns whether the elements of the list may not have been computed yet. */
+  private static boolean isLazy(SkylarkList list) {
+    return list instanceof LazySkylarkList || list instanceof ConcatenatedSkylarkList;
   }
 
   /**
@@ -0,0 +1,751 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.syntax.DictionaryLiteral.DictionaryEntryLiteral;
+import com.google.devtools.build.lib.syntax.IfStatement.ConditionalStatements;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+
+/**
+ * Encodes the syntax tree of a BUILD or .bzl file into a compact binary form, and decodes it
+ * again, which is several times faster than parsing the file and than Java serialization.
+ *
+ * <p>Each node is written as a tag, its location and its children. Locations are written as
+ * offsets into the file, and the line number table that maps them to lines is written once, as
+ * the offsets at which the lines start. Strings are written once and referred to by their index
+ * afterwards, so the decoded tree shares them like a parsed one does.
+ *
+ * <p>Only trees that the {@link Parser} creates can be encoded: every node must be of a type that
+ * the parser creates, and every location must come from the lexer of the file, which must not
+ * contain {@code #line} directives.
+ */
+public final class SyntaxTreeCodec {
+
+  private static final int FORMAT_VERSION = 1;
+
+  // Statements.
+  private static final int EXPRESSION_STATEMENT = 1;
+  private static final int ASSIGNMENT = 2;
+  private static final int IF = 3;
+  private static final int FOR = 4;
+  private static final int DEF = 5;
+  private static final int RETURN = 6;
+  private static final int BREAK = 7;
+  private static final int CONTINUE = 8;
+  private static final int LOAD = 9;
+
+  // Expressions.
+  private static final int NULL = 20;
+  private static final int IDENTIFIER = 21;
+  private static final int STRING = 22;
+  private static final int INTEGER = 23;
+  private static final int LIST = 24;
+  private static final int TUPLE = 25;
+  private static final int DICT = 26;
+  private static final int DICT_COMPREHENSION = 27;
+  private static final int LIST_COMPREHENSION = 28;
+  private static final int BINARY_OPERATOR = 29;
+  private static final int CONDITIONAL = 30;
+  private static final int NOT = 31;
+  private static final int DOT = 32;
+  private static final int FUNCALL = 33;
+
+  // Arguments, parameters and comprehension clauses.
+  private static final int POSITIONAL = 40;
+  private static final int KEYWORD = 41;
+  private static final int STAR = 42;
+  private static final int STAR_STAR = 43;
+  private static final int MANDATORY = 44;
+  private static final int OPTIONAL = 45;
+  private static final int FOR_CLAUSE = 46;
+  private static final int IF_CLAUSE = 47;
+
+  private static final Operator[] OPERATORS = Operator.values();
+
+  private SyntaxTreeCodec() {}
+
+  /** Thrown when a syntax tree contains something that cannot be encoded. */
+  private static final class UnsupportedSyntaxException extends Exception {
+    private static final long serialVersionUID = 1L;
+
+    UnsupportedSyntaxException(String message) {
+      super(message);
+    }
+  }
+
+  /**
+   * Encodes the syntax tree of a file. Returns null if the tree was not created by the parser
+   * from a single file, for example because prelude statements were added to it.
+   */
+  @Nullable
+  public static byte[] encode(BuildFileAST ast) {
+    try {
+      return new Encoder().encode(ast);
+    } catch (UnsupportedSyntaxException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Decodes a syntax tree encoded by {@link #encode}.
+   *
+   * @throws IOException if the bytes are not an encoded syntax tree
+   */
+  public static BuildFileAST decode(byte[] bytes) throws IOException {
+    try {
+      return new Decoder(bytes).decode();
+    } catch (IndexOutOfBoundsException | IllegalArgumentException | ClassCastException
+        | FunctionSignature.SignatureException e) {
+      throw new IOException("Malformed syntax tree: " + e, e);
+    }
+  }
+
+  private static final class Encoder {
+    private final ByteArrayOutputStream out = new ByteArrayOutputStream(4096);
+    private final Map<String, Integer> strings = new HashMap<>();
+    private LineNumberTable lineNumberTable;
+
+    byte[] encode(BuildFileAST ast) throws UnsupportedSyntaxException {
+      Location location = ast.getLocation();
+      if (location instanceof Lexer.LexerLocation) {
+        lineNumberTable = ((Lexer.LexerLocation) location).getLineNumberTable();
+      } else {
+        lineNumberTable = findLineNumberTable(ast);
+      }
+      if (lineNumberTable == null || lineNumberTable.getClass() != LineNumberTable.Regular.class) {
+        throw new UnsupportedSyntaxException("no line number table");
+      }
+      LineNumberTable.Regular table = (LineNumberTable.Regular) lineNumberTable;
+      writeInt(FORMAT_VERSION);
+      writeString(table.getPath(0).getPathString());
+      writeInt(table.getBufferLength());
+      int[] lineStarts = table.getLineStarts();
+      writeInt(lineStarts.length);
+      for (int i = 1; i < lineStarts.length; i++) {
+        writeInt(lineStarts[i] - lineStarts[i - 1]);
+      }
+      writeNullableString(ast.getContentHashCode());
+      writeInt(ast.containsErrors() ? 1 : 0);
+      if (location instanceof Lexer.LexerLocation) {
+        writeInt(1);
+        writeLocation(ast);
+      } else {
+        writeInt(0);
+      }
+      writeStatements(ast.getStatements());
+      writeInt(ast.getComments().size());
+      for (Comment comment : ast.getComments()) {
+        writeLocation(comment);
+        writeString(comment.getValue());
+      }
+      return out.toByteArray();
+    }
+
+    @Nullable
+    private static LineNumberTable findLineNumberTable(BuildFileAST ast) {
+      // A file without statements has no lexer location of its own.
+      for (Comment comment : ast.getComments()) {
+        if (comment.getLocation() instanceof Lexer.LexerLocation) {
+          return ((Lexer.LexerLocation) comment.getLocation()).getLineNumberTable();
+        }
+      }
+      return ast.getStatements().isEmpty()
+          ? new LineNumberTable.Regular(new char[0], ast.getLocation().getPath())
+          : null;
+    }
+
+    private void writeInt(int value) {
+      // Unsigned LEB128, which takes a single byte for small values.
+      while ((value & ~0x7f) != 0) {
+        out.write((value & 0x7f) | 0x80);
+        value >>>= 7;
+      }
+      out.write(value);
+    }
+
+    private void writeString(String value) {
+      Integer index = strings.get(value);
+      if (index != null) {
+        writeInt(index + 1);
+        return;
+      }
+      strings.put(value, strings.size());
+      writeInt(0);
+      writeInt(value.length());
+      for (int i = 0; i < value.length(); i++) {
+        writeInt(value.charAt(i));
+      }
+    }
+
+    private void writeNullableString(@Nullable String value) {
+      if (value == null) {
+        writeInt(0);
+      } else {
+        writeInt(1);
+        writeString(value);
+      }
+    }
+
+    private void writeLocation(ASTNode node) throws UnsupportedSyntaxException {
+      Location location = node.getLocation();
+      if (location == null) {
+        writeInt(0);
+        return;
+      }
+      if (!(location instanceof Lexer.LexerLocation)
+          || ((Lexer.LexerLocation) location).getLineNumberTable() != lineNumberTable) {
+        throw new UnsupportedSyntaxException("foreign location " + location);
+      }
+      writeInt(location.getStartOffset() + 1);
+      writeInt(location.getEndOffset() - location.getStartOffset());
+    }
+
+    private void writeStatements(List<Statement> statements) throws UnsupportedSyntaxException {
+      writeInt(statements.size());
+      for (Statement statement : statements) {
+        writeStatement(statement);
+      }
+    }
+
+    private void writeStatement(Statement statement) throws UnsupportedSyntaxException {
+      Class<?> type = statement.getClass();
+      if (statement == FlowStatement.BREAK) {
+        // The parser shares the flow statements and overwrites their location.
+        writeInt(BREAK);
+        return;
+      } else if (statement == FlowStatement.CONTINUE) {
+        writeInt(CONTINUE);
+        return;
+      } else if (type == ExpressionStatement.class) {
+        writeInt(EXPRESSION_STATEMENT);
+        writeLocation(statement);
+        writeExpression(((ExpressionStatement) statement).getExpression());
+      } else if (type == AssignmentStatement.class) {
+        AssignmentStatement assignment = (AssignmentStatement) statement;
+        writeInt(ASSIGNMENT);
+        writeLocation(statement);
+        writeExpression(assignment.getLValue().getExpression());
+        writeExpression(assignment.getExpression());
+      } else if (type == IfStatement.class) {
+        IfStatement ifStatement = (IfStatement) statement;
+        writeInt(IF);
+        writeLocation(statement);
+        writeInt(ifStatement.getThenBlocks().size());
+        for (ConditionalStatements block : ifStatement.getThenBlocks()) {
+          writeLocation(block);
+          writeExpression(block.getCondition());
+          writeStatements(block.getStmts());
+        }
+        writeStatements(ifStatement.getElseBlock());
+      } else if (type == ForStatement.class) {
+        ForStatement forStatement = (ForStatement) statement;
+        writeInt(FOR);
+        writeLocation(statement);
+        writeExpression(forStatement.getVariable().getExpression());
+        writeExpression(forStatement.getCollection());
+        writeStatements(forStatement.block());
+      } else if (type == FunctionDefStatement.class) {
+        FunctionDefStatement def = (FunctionDefStatement) statement;
+        writeInt(DEF);
+        writeLocation(statement);
+        writeExpression(def.getIdent());
+        writeInt(def.getParameters().size());
+        for (Parameter<Expression, Expression> parameter : def.getParameters()) {
+          writeParameter(parameter);
+        }
+        writeStatements(def.getStatements());
+      } else if (type == ReturnStatement.class) {
+        writeInt(RETURN);
+        writeLocation(statement);
+        writeExpression(((ReturnStatement) statement).getReturnExpression());
+      } else if (type == LoadStatement.class) {
+        LoadStatement load = (LoadStatement) statement;
+        writeInt(LOAD);
+        writeLocation(statement);
+        writeExpression(load.getPath());
+        writeInt(load.getSymbolMap().size());
+        for (Map.Entry<Identifier, String> symbol : load.getSymbolMap().entrySet()) {
+          writeExpression(symbol.getKey());
+          writeString(symbol.getValue());
+        }
+      } else {
+        throw new UnsupportedSyntaxException("unknown statement " + type);
+      }
+    }
+
+    private void writeParameter(Parameter<Expression, Expression> parameter)
+        throws UnsupportedSyntaxException {
+      Class<?> type = parameter.getClass();
+      if (parameter.getType() != null) {
+        throw new UnsupportedSyntaxException("typed parameter " + parameter);
+      } else if (type == Parameter.Mandatory.class) {
+        writeInt(MANDATORY);
+      } else if (type == Parameter.Optional.class) {
+        writeInt(OPTIONAL);
+      } else if (type == Parameter.Star.class) {
+        writeInt(STAR);
+      } else if (type == Parameter.StarStar.class) {
+        writeInt(STAR_STAR);
+      } else {
+        throw new UnsupportedSyntaxException("unknown parameter " + type);
+      }
+      writeLocation(parameter);
+      writeNullableString(parameter.getName());
+      if (type == Parameter.Optional.class) {
+        writeExpression(parameter.getDefaultValue());
+      }
+    }
+
+    private void writeArgument(Argument.Passed argument) throws UnsupportedSyntaxException {
+      Class<?> type = argument.getClass();
+      if (type == Argument.Positional.class) {
+        writeInt(POSITIONAL);
+      } else if (type == Argument.Keyword.class) {
+        writeInt(KEYWORD);
+      } else if (type == Argument.Star.class) {
+        writeInt(STAR);
+      } else if (type == Argument.StarStar.class) {
+        writeInt(STAR_STAR);
+      } else {
+        throw new UnsupportedSyntaxException("unknown argument " + type);
+      }
+      writeLocation(argument);
+      if (type == Argument.Keyword.class) {
+        writeString(argument.getName());
+      }
+      writeExpression(argument.getValue());
+    }
+
+    private void writeExpressions(List<Expression> expressions)
+        throws UnsupportedSyntaxException {
+      writeInt(expressions.size());
+      for (Expression expression : expressions) {
+        writeExpression(expression);
+      }
+    }
+
+    private void writeExpression(@Nullable Expression expression)
+        throws UnsupportedSyntaxException {
+      if (expression == null) {
+        writeInt(NULL);
+        return;
+      }
+      Class<?> type = expression.getClass();
+      if (type == Identifier.class) {
+        writeInt(IDENTIFIER);
+        writeLocation(expression);
+        writeString(((Identifier) expression).getName());
+      } else if (type == StringLiteral.class) {
+        StringLiteral literal = (StringLiteral) expression;
+        writeInt(STRING);
+        writeLocation(expression);
+        writeString(literal.getValue());
+        writeInt(literal.getQuoteChar());
+      } else if (type == IntegerLiteral.class) {
+        writeInt(INTEGER);
+        writeLocation(expression);
+        writeInt(((IntegerLiteral) expression).getValue());
+      } else if (type == ListLiteral.class) {
+        ListLiteral list = (ListLiteral) expression;
+        writeInt(list.isTuple() ? TUPLE : LIST);
+        writeLocation(expression);
+        writeExpressions(list.getElements());
+      } else if (type == DictionaryLiteral.class) {
+        DictionaryLiteral dict = (DictionaryLiteral) expression;
+        writeInt(DICT);
+        writeLocation(expression);
+        writeInt(dict.getEntries().size());
+        for (DictionaryEntryLiteral entry : dict.getEntries()) {
+          writeLocation(entry);
+          writeExpression(entry.getKey());
+          writeExpression(entry.getValue());
+        }
+      } else if (type == DictComprehension.class) {
+        DictComprehension comprehension = (DictComprehension) expression;
+        writeInt(DICT_COMPREHENSION);
+        writeLocation(expression);
+        writeExpression(comprehension.getKeyExpression());
+        writeExpression(comprehension.getValueExpression());
+        writeExpression(comprehension.getLoopVar().getExpression());
+        writeExpression(comprehension.getListExpression());
+      } else if (type == ListComprehension.class) {
+        ListComprehension comprehension = (ListComprehension) expression;
+        writeInt(LIST_COMPREHENSION);
+        writeLocation(expression);
+        writeExpression(comprehension.getElementExpression());
+        writeInt(comprehension.getClauses().size());
+        for (ListComprehension.Clause clause : comprehension.getClauses()) {
+          if (clause instanceof ListComprehension.ForClause) {
+            writeInt(FOR_CLAUSE);
+            writeExpression(clause.getLValue().getExpression());
+          } else {
+            writeInt(IF_CLAUSE);
+          }
+          writeExpression(clause.getExpression());
+        }
+      } else if (type == BinaryOperatorExpression.class) {
+        BinaryOperatorExpression binary = (BinaryOperatorExpression) expression;
+        writeInt(BINARY_OPERATOR);
+        writeLocation(expression);
+        writeInt(binary.getOperator().ordinal());
+        writeExpression(binary.getLhs());
+        writeExpression(binary.getRhs());
+      } else if (type == ConditionalExpression.class) {
+        ConditionalExpression conditional = (ConditionalExpression) expression;
+        writeInt(CONDITIONAL);
+        writeLocation(expression);
+        writeExpression(conditional.getThenCase());
+        writeExpression(conditional.getCondition());
+        writeExpression(conditional.getElseCase());
+      } else if (type == NotExpression.class) {
+        writeInt(NOT);
+        writeLocation(expression);
+        writeExpression(((NotExpression) expression).getExpression());
+      } else if (type == DotExpression.class) {
+        DotExpression dot = (DotExpression) expression;
+        writeInt(DOT);
+        writeLocation(expression);
+        writeExpression(dot.getObj());
+        writeExpression(dot.getField());
+      } else if (type == FuncallExpression.class) {
+        FuncallExpression funcall = (FuncallExpression) expression;
+        writeInt(FUNCALL);
+        writeLocation(expression);
+        writeExpression(funcall.getObject());
+        writeExpression(funcall.getFunction());
+        writeInt(funcall.getArguments().size());
+        for (Argument.Passed argument : funcall.getArguments()) {
+          writeArgument(argument);
+        }
+      } else {
+        throw new UnsupportedSyntaxException("unknown expression " + type);
+      }
+    }
+  }
+
+  private static final class Decoder {
+    private final byte[] in;
+    private int pos;
+    private final List<String> strings = new ArrayList<>();
+    private LineNumberTable lineNumberTable;
+
+    Decoder(byte[] in) {
+      this.in = in;
+    }
+
+    BuildFileAST decode() throws IOException, FunctionSignature.SignatureException {
+      int version = readInt();
+      if (version != FORMAT_VERSION) {
+        throw new IOException("Unknown syntax tree format " + version);
+      }
+      PathFragment path = new PathFragment(readString());
+      int bufferLength = readInt();
+      int[] lineStarts = new int[readInt()];
+      for (int i = 1; i < lineStarts.length; i++) {
+        lineStarts[i] = lineStarts[i - 1] + readInt();
+      }
+      lineNumberTable = new LineNumberTable.Regular(lineStarts, path, bufferLength);
+      String contentHashCode = readNullableString();
+      boolean containsErrors = readInt() != 0;
+      Location location = readInt() != 0
+          ? readLocation()
+          : Location.fromPathFragment(path);
+      List<Statement> statements = readStatements();
+      int commentCount = readInt();
+      List<Comment> comments = new ArrayList<>(commentCount);
+      for (int i = 0; i < commentCount; i++) {
+        Location commentLocation = readLocation();
+        comments.add(ASTNode.setLocation(commentLocation, new Comment(readString())));
+      }
+      if (pos != in.length) {
+        throw new IOException("Trailing bytes after the syntax tree");
+      }
+      return new BuildFileAST(statements, comments, containsErrors, contentHashCode, location);
+    }
+
+    private int readInt() {
+      int value = 0;
+      int shift = 0;
+      while (true) {
+        byte b = in[pos++];
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+        shift += 7;
+      }
+    }
+
+    private String readString() {
+      int index = readInt();
+      if (index > 0) {
+        return strings.get(index - 1);
+      }
+      char[] chars = new char[readInt()];
+      for (int i = 0; i < chars.length; i++) {
+        chars[i] = (char) readInt();
+      }
+      String value = new String(chars);
+      strings.add(value);
+      return value;
+    }
+
+    @Nullable
+    private String readNullableString() {
+      return readInt() == 0 ? null : readString();
+    }
+
+    @Nullable
+    private Location readLocation() {
+      int start = readInt() - 1;
+      if (start < 0) {
+        return null;
+      }
+      return new Lexer.LexerLocation(lineNumberTable, start, start + readInt());
+    }
+
+    private <NODE extends ASTNode> NODE at(@Nullable Location location, NODE node) {
+      if (location != null) {
+        node.setLocation(location);
+      }
+      return node;
+    }
+
+    private List<Statement> readStatements()
+        throws IOException, FunctionSignature.SignatureException {
+      int size = readInt();
+      List<Statement> statements = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        statements.add(readStatement());
+      }
+      return statements;
+    }
+
+    private Statement readStatement() throws IOException, FunctionSignature.SignatureException {
+      int tag = readInt();
+      if (tag == BREAK) {
+        return FlowStatement.BREAK;
+      } else if (tag == CONTINUE) {
+        return FlowStatement.CONTINUE;
+      }
+      Location location = readLocation();
+      switch (tag) {
+        case EXPRESSION_STATEMENT:
+          return at(location, new ExpressionStatement(readExpression()));
+
+        case ASSIGNMENT: {
+          Expression lvalue = readExpression();
+          return at(location, new AssignmentStatement(lvalue, readExpression()));
+        }
+
+        case IF: {
+          int size = readInt();
+          List<ConditionalStatements> thenBlocks = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            Location blockLocation = readLocation();
+            Expression condition = readExpression();
+            thenBlocks.add(
+                at(blockLocation, new ConditionalStatements(condition, readStatements())));
+          }
+          return at(location, new IfStatement(thenBlocks, readStatements()));
+        }
+
+        case FOR: {
+          Expression variable = readExpression();
+          Expression collection = readExpression();
+          return at(location, new ForStatement(variable, collection, readStatements()));
+        }
+
+        case DEF: {
+          Identifier ident = (Identifier) readExpression();
+          int size = readInt();
+          List<Parameter<Expression, Expression>> parameters = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            parameters.add(readParameter());
+          }
+          return at(location, new FunctionDefStatement(ident, parameters,
+              FunctionSignature.WithValues.<Expression, Expression>of(parameters),
+              readStatements()));
+        }
+
+        case RETURN:
+          return at(location, new ReturnStatement(readExpression()));
+
+        case LOAD: {
+          StringLiteral path = (StringLiteral) readExpression();
+          int size = readInt();
+          Map<Identifier, String> symbols = new LinkedHashMap<>();
+          for (int i = 0; i < size; i++) {
+            Identifier symbol = (Identifier) readExpression();
+            symbols.put(symbol, readString());
+          }
+          return at(location, new LoadStatement(path, symbols));
+        }
+
+        default:
+          throw new IOException("Unknown statement tag " + tag);
+      }
+    }
+
+    private Parameter<Expression, Expression> readParameter() throws IOException {
+      int tag = readInt();
+      Location location = readLocation();
+      String name = readNullableString();
+      switch (tag) {
+        case MANDATORY:
+          return at(location, new Parameter.Mandatory<Expression, Expression>(name));
+        case OPTIONAL:
+          return at(location,
+              new Parameter.Optional<Expression, Expression>(name, readExpression()));
+        case STAR:
+          return at(location, new Parameter.Star<Expression, Expression>(name));
+        case STAR_STAR:
+          return at(location, new Parameter.StarStar<Expression, Expression>(name));
+        default:
+          throw new IOException("Unknown parameter tag " + tag);
+      }
+    }
+
+    private Argument.Passed readArgument() throws IOException {
+      int tag = readInt();
+      Location location = readLocation();
+      switch (tag) {
+        case POSITIONAL:
+          return at(location, new Argument.Positional(readExpression()));
+        case KEYWORD: {
+          String name = readString();
+          return at(location, new Argument.Keyword(name, readExpression()));
+        }
+        case STAR:
+          return at(location, new Argument.Star(readExpression()));
+        case STAR_STAR:
+          return at(location, new Argument.StarStar(readExpression()));
+        default:
+          throw new IOException("Unknown argument tag " + tag);
+      }
+    }
+
+    private List<Expression> readExpressions() throws IOException {
+      int size = readInt();
+      List<Expression> expressions = new ArrayList<>(size);
+      for (int i = 0; i < size; i++) {
+        expressions.add(readExpression());
+      }
+      return expressions;
+    }
+
+    @Nullable
+    private Expression readExpression() throws IOException {
+      int tag = readInt();
+      if (tag == NULL) {
+        return null;
+      }
+      Location location = readLocation();
+      switch (tag) {
+        case IDENTIFIER:
+          return at(location, new Identifier(readString()));
+
+        case STRING: {
+          String value = readString();
+          return at(location, new StringLiteral(value, (char) readInt()));
+        }
+
+        case INTEGER:
+          return at(location, new IntegerLiteral(readInt()));
+
+        case LIST:
+          return at(location, ListLiteral.makeList(readExpressions()));
+
+        case TUPLE:
+          return at(location, ListLiteral.makeTuple(readExpressions()));
+
+        case DICT: {
+          int size = readInt();
+          List<DictionaryEntryLiteral> entries = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            Location entryLocation = readLocation();
+            Expression key = readExpression();
+            entries.add(at(entryLocation, new DictionaryEntryLiteral(key, readExpression())));
+          }
+          return at(location, new DictionaryLiteral(entries));
+        }
+
+        case DICT_COMPREHENSION: {
+          Expression key = readExpression();
+          Expression value = readExpression();
+          Expression loopVar = readExpression();
+          return at(location, new DictComprehension(key, value, loopVar, readExpression()));
+        }
+
+        case LIST_COMPREHENSION: {
+          ListComprehension comprehension = new ListComprehension(readExpression());
+          for (int i = readInt(); i > 0; i--) {
+            if (readInt() == FOR_CLAUSE) {
+              Expression loopVar = readExpression();
+              comprehension.addFor(loopVar, readExpression());
+            } else {
+              comprehension.addIf(readExpression());
+            }
+          }
+          return at(location, comprehension);
+        }
+
+        case BINARY_OPERATOR: {
+          Operator operator = OPERATORS[readInt()];
+          Expression lhs = readExpression();
+          return at(location, new BinaryOperatorExpression(operator, lhs, readExpression()));
+        }
+
+        case CONDITIONAL: {
+          Expression thenCase = readExpression();
+          Expression condition = readExpression();
+          return at(location, new ConditionalExpression(thenCase, condition, readExpression()));
+        }
+
+        case NOT:
+          return at(location, new NotExpression(readExpression()));
+
+        case DOT: {
+          Expression obj = readExpression();
+          return at(location, new DotExpression(obj, (Identifier) readExpression()));
+        }
+
+        case FUNCALL: {
+          Expression obj = readExpression();
+          Identifier function = (Identifier) readExpression();
+          int size = readInt();
+          List<Argument.Passed> args = new ArrayList<>(size);
+          for (int i = 0; i < size; i++) {
+            args.add(readArgument());
+          }
+          return at(location, new FuncallExpression(obj, function, args));
+        }
+
+        default:
+          throw new IOException("Unknown expression tag " + tag);
+      }
+    }
+  }
+}
@@ -131,6 +131,9 @@ public class SyntaxTreeVisitor {
     visitAll(node.getStatements());
   }
 
+  public void visit(FlowStatement node) {
+  }
+
   public void visit(ReturnStatement node) {
     visit(node.getReturnExpression());
   }
@@ -13,6 +13,7 @@
 // limitations under the License.
 package com.google.devtools.build.lib.syntax;
 
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Iterables;
 import com.google.devtools.build.lib.events.Location.LineAndColumn;
@@ -20,22 +21,34 @@ import com.google.devtools.build.lib.profiler.Profiler;
 import com.google.devtools.build.lib.profiler.ProfilerTask;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
+import javax.annotation.Nullable;
+
 /**
  * The actual function registered in the environment. This function is defined in the
  * parsed code using {@link FunctionDefStatement}.
  */
 public class UserDefinedFunction extends BaseFunction {
 
+  /** The number of calls after which a function is considered hot enough to be compiled. */
+  static final int HOT_FUNCTION_CALLS = 50;
+
   private final ImmutableList<Statement> statements;
+  private final FunctionScope scope;
 
   // we close over the globals at the time of definition
   private final Environment.Frame definitionGlobals;
 
+  /** The number of calls so far; races may lose a few, which only delays compilation. */
+  private int calls;
+  @Nullable private volatile ClosureCompiler.Code compiledBody;
+
   protected UserDefinedFunction(Identifier function,
       FunctionSignature.WithValues<Object, SkylarkType> signature,
-      ImmutableList<Statement> statements, Environment.Frame definitionGlobals) {
+      ImmutableList<Statement> statements, FunctionScope scope,
+      Environment.Frame definitionGlobals) {
     super(function.getName(), signature, function.getLocation());
     this.statements = statements;
+    this.scope = scope;
     this.definitionGlobals = definitionGlobals;
   }
 
@@ -47,6 +60,29 @@ public class UserDefinedFunction extends BaseFunction {
     return statements;
   }
 
+  @VisibleForTesting
+  boolean isCompiled() {
+    return compiledBody != null;
+  }
+
+  /**
+   * Returns the compiled body of this function, compiling it if it has become hot, or null if it
+   * is to be interpreted in {@code env}.
+   */
+  @Nullable
+  private ClosureCompiler.Code getCompiledBody(Environment env) {
+    int threshold = env.getCompileThreshold();
+    if (threshold < 0) {
+      return null;
+    }
+    ClosureCompiler.Code body = compiledBody;
+    if (body == null && calls++ >= threshold) {
+      body = ClosureCompiler.compileFunction(statements);
+      compiledBody = body;
+    }
+    return body;
+  }
+
   @Override
   public Object call(Object[] arguments, FuncallExpression ast, Environment env)
       throws EvalException, InterruptedException {
@@ -62,15 +98,18 @@ public class UserDefinedFunction extends BaseFunction {
     Profiler.instance().startTask(ProfilerTask.SKYLARK_USER_FN,
         getLocationPathAndLine() + "#" + getName());
     try {
-      env.enterScope(this, ast, definitionGlobals);
+      env.enterScope(this, ast, definitionGlobals, scope);
       ImmutableList<String> names = signature.getSignature().getNames();
 
       // Registering the functions's arguments as variables in the local Environment
-      int i = 0;
-      for (String name : names) {
-        env.update(name, arguments[i++]);
+      for (int i = 0; i < names.size(); i++) {
+        env.updateLocal(scope, scope.getParameterSlot(i), names.get(i), arguments[i]);
       }
 
+      ClosureCompiler.Code body = getCompiledBody(env);
+      if (body != null) {
+        return body.eval(env);
+      }
       try {
         for (Statement stmt : statements) {
           stmt.exec(env);
@@ -42,9 +42,10 @@ public class ErrnoFileStatus extends FileStatus {
   }
 
   /**
-   * Constructs a ErrnoFileSatus instance.  (Called only from JNI code.)
+   * Constructs a ErrnoFileSatus instance.  (Called from JNI code and
+   * {@link FilesystemUtils#batchStat}.)
    */
-  private ErrnoFileStatus(int st_mode, int st_atime, int st_atimensec, int st_mtime,
+  ErrnoFileStatus(int st_mode, int st_atime, int st_atimensec, int st_mtime,
                           int st_mtimensec, int st_ctime, int st_ctimensec, long st_size,
                           int st_dev, long st_ino) {
     super(st_mode, st_atime, st_atimensec, st_mtime, st_mtimensec, st_ctime, st_ctimensec, st_size,
@@ -53,9 +54,10 @@ public class ErrnoFileStatus extends FileStatus {
   }
 
   /**
-   * Constructs a ErrnoFileSatus instance.  (Called only from JNI code.)
+   * Constructs a ErrnoFileSatus instance.  (Called from JNI code and
+   * {@link FilesystemUtils#batchStat}.)
    */
-  private ErrnoFileStatus(int errno) {
+  ErrnoFileStatus(int errno) {
     super(0, 0, 0, 0, 0, 0, 0, 0, 0, 0);
     this.errno = errno;
   }
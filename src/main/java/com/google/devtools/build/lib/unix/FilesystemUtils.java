@@ -20,6 +20,7 @@ import com.google.devtools.build.lib.UnixJniLoader;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.LogManager;
 import java.util.logging.Logger;
@@ -165,6 +166,16 @@ public final class FilesystemUtils {
   public static native void symlink(String oldpath, String newpath)
       throws IOException;
 
+  /**
+   * Native wrapper around POSIX link(2) syscall.
+   *
+   * @param oldpath the file to link to
+   * @param newpath the new path for the link
+   * @throws IOException iff the link() syscall failed.
+   */
+  public static native void link(String oldpath, String newpath)
+      throws IOException;
+
   /**
    * Native wrapper around POSIX stat(2) syscall.
    *
@@ -203,6 +214,63 @@ public final class FilesystemUtils {
    */
   public static native ErrnoFileStatus errnoLstat(String path);
 
+  // The number of longs per path in the stats array of the native batchStat.
+  // Must be kept in sync with BatchStatField in unix_jni.cc.
+  private static final int BATCH_STAT_FIELDS = 12;
+  private static final int BATCH_STAT_HAS_DIGEST = 11;
+  private static final int MD5_LENGTH = 16;
+
+  /**
+   * Stats many files at once, using a pool of native threads. This is much
+   * faster than calling {@link #errnoStat} for each file when the files are on
+   * a file system with high latency, and saves a JNI transition per file in
+   * any case.
+   *
+   * @param paths the files to stat.
+   * @param followSymlinks whether to stat(2) or lstat(2) the files.
+   * @param digests if not null, must have the same length as {@code paths};
+   *   the MD5 digest of every regular file is computed and stored at its index,
+   *   other entries are set to null.
+   * @param numThreads the number of native threads to use.
+   * @return an ErrnoFileStatus for every path, in the same order. If there was
+   *   an error, the hasError() method of the corresponding status will return
+   *   true, and all stat information is undefined.
+   */
+  public static ErrnoFileStatus[] batchStat(String[] paths,
+      boolean followSymlinks, byte[][] digests, int numThreads) {
+    boolean computeDigests = digests != null;
+    if (computeDigests && digests.length != paths.length) {
+      throw new IllegalArgumentException("digests.length != paths.length");
+    }
+    long[] stats = new long[paths.length * BATCH_STAT_FIELDS];
+    byte[] allDigests = computeDigests ? new byte[paths.length * MD5_LENGTH] : null;
+    batchStat(paths, followSymlinks, computeDigests, numThreads, stats, allDigests);
+
+    ErrnoFileStatus[] result = new ErrnoFileStatus[paths.length];
+    for (int i = 0; i < paths.length; i++) {
+      int base = i * BATCH_STAT_FIELDS;
+      int errno = (int) stats[base];
+      if (errno != 0) {
+        result[i] = new ErrnoFileStatus(errno);
+      } else {
+        result[i] = new ErrnoFileStatus((int) stats[base + 1],
+            (int) stats[base + 2], (int) stats[base + 3],
+            (int) stats[base + 4], (int) stats[base + 5],
+            (int) stats[base + 6], (int) stats[base + 7],
+            stats[base + 8], (int) stats[base + 9], stats[base + 10]);
+      }
+      if (computeDigests) {
+        digests[i] = errno == 0 && stats[base + BATCH_STAT_HAS_DIGEST] != 0
+            ? Arrays.copyOfRange(allDigests, i * MD5_LENGTH, (i + 1) * MD5_LENGTH)
+            : null;
+      }
+    }
+    return result;
+  }
+
+  private static native void batchStat(String[] paths, boolean followSymlinks,
+      boolean computeDigests, int numThreads, long[] stats, byte[] digests);
+
   /**
    * Native wrapper around POSIX utime(2) syscall.
    *
@@ -19,6 +19,7 @@ import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.SocketException;
+import java.net.SocketTimeoutException;
 
 /**
  * <p>An implementation of client Socket for local (AF_UNIX) sockets.
@@ -110,6 +111,23 @@ public class LocalClientSocket extends LocalSocket {
       };
   }
 
+  /**
+   * Blocks until there is data to read from the server, or until the server
+   * has closed the connection, or until the timeout has elapsed.
+   *
+   * @return false iff the timeout has elapsed.
+   * @throws IOException if there was a problem.
+   */
+  public boolean waitForInput(long timeoutMillis) throws IOException {
+    checkConnected();
+    try {
+      poll(fd, timeoutMillis); // JNI
+      return true;
+    } catch (SocketTimeoutException e) {
+      return false;
+    }
+  }
+
   @Override
   public String toString() {
     return "LocalClientSocket(" + address + ")";
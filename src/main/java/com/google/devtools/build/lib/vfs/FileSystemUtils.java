@@ -38,6 +38,7 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.SortedMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -686,9 +687,39 @@ public class FileSystemUtils {
    * forest under an existing linkRoot to the corresponding source dirs or
    * files. Symlink are made at the highest dir possible, linking files directly
    * only when needed with nested packages.
+   *
+   * <p>To bring an existing forest up to date, use {@link SymlinkForest} instead.
    */
   public static void plantLinkForest(ImmutableMap<PathFragment, Path> packageRootMap, Path linkRoot)
       throws IOException {
+    for (Map.Entry<PathFragment, PathFragment> entry
+        : computeLinkForest(packageRootMap).entrySet()) {
+      Path link = linkRoot.getRelative(entry.getKey());
+      PathFragment target = entry.getValue();
+      if (target == null) {
+        if (LOG_FINER) {
+          LOG.finer("mkdir " + link);
+        }
+        createDirectoryAndParents(link);
+      } else if (!link.exists(Symlinks.NOFOLLOW)) {
+        if (LOG_FINER) {
+          LOG.finer("ln -s " + target + " " + link);
+        }
+        link.createSymbolicLink(target);
+      }
+    }
+  }
+
+  /**
+   * Computes the symlink forest for a map of directory fragments to root paths
+   * (see {@link #plantLinkForest}). Returns a map from the relative paths in
+   * the forest to the targets of their symlinks, or to null for the
+   * directories that have to be created. The map is sorted, so parents are
+   * before their children.
+   */
+  static SortedMap<PathFragment, PathFragment> computeLinkForest(
+      ImmutableMap<PathFragment, Path> packageRootMap) throws IOException {
+    SortedMap<PathFragment, PathFragment> forest = Maps.newTreeMap();
     Path emptyPackagePath = null;
 
     // Create a sorted map of all dirs (packages and their ancestors) to sets of their roots.
@@ -723,12 +754,8 @@ public class FileSystemUtils {
     }
     // Create output dirs for all dirs that have more than one root and need to be split.
     for (Map.Entry<PathFragment, Set<Path>> entry : dirRootsMap.entrySet()) {
-      PathFragment dir = entry.getKey();
       if (entry.getValue().size() > 1) {
-        if (LOG_FINER) {
-          LOG.finer("mkdir " + linkRoot.getRelative(dir));
-        }
-        createDirectoryAndParents(linkRoot.getRelative(dir));
+        forest.put(entry.getKey(), null);
       }
     }
     // Make dir links for single rooted dirs.
@@ -742,10 +769,7 @@ public class FileSystemUtils {
         }
         // This is the top-most dir that can be linked to a single root. Make it so.
         Path root = roots.iterator().next();  // lone root in set
-        if (LOG_FINER) {
-          LOG.finer("ln -s " + root.getRelative(dir) + " " + linkRoot.getRelative(dir));
-        }
-        linkRoot.getRelative(dir).createSymbolicLink(root.getRelative(dir));
+        forest.put(dir, root.getRelative(dir).asFragment());
       }
     }
     // Make links for dirs within packages, skip parent-only dirs.
@@ -759,14 +783,10 @@ public class FileSystemUtils {
           try {
             Path absdir = root.getRelative(dir);
             if (absdir.isDirectory()) {
-              if (LOG_FINER) {
-                LOG.finer("ln -s " + absdir + "/* " + linkRoot.getRelative(dir) + "/");
-              }
               for (Path target : absdir.getDirectoryEntries()) {
                 PathFragment p = target.relativeTo(root);
                 if (!dirRootsMap.containsKey(p)) {
-                  //LOG.finest("ln -s " + target + " " + linkRoot.getRelative(p));
-                  linkRoot.getRelative(p).createSymbolicLink(target);
+                  forest.put(p, target.asFragment());
                 }
               }
             } else {
@@ -785,13 +805,14 @@ public class FileSystemUtils {
       // the directory itself.
       for (Path target : emptyPackagePath.getDirectoryEntries()) {
         String baseName = target.getBaseName();
+        PathFragment p = new PathFragment(baseName);
         // Create any links that don't exist yet and don't start with bazel-.
-        if (!baseName.startsWith(Constants.PRODUCT_NAME + "-")
-            && !linkRoot.getRelative(baseName).exists()) {
-          linkRoot.getRelative(baseName).createSymbolicLink(target);
+        if (!baseName.startsWith(Constants.PRODUCT_NAME + "-") && !forest.containsKey(p)) {
+          forest.put(p, target.asFragment());
         }
       }
     }
+    return forest;
   }
 
   /****************************************************************************
@@ -34,7 +34,6 @@ import java.lang.ref.ReferenceQueue;
 import java.lang.ref.WeakReference;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.IdentityHashMap;
 import java.util.Objects;
 
 /**
@@ -77,6 +76,11 @@ public class Path implements Comparable<Path>, Serializable {
   private int depth;
   private int hashCode;
 
+  /**
+   * The references to children whose referents have been collected. They are removed from the
+   * tables of their parents by {@link #expungeStaleChildReferences} whenever a child is looked up,
+   * like {@link java.util.WeakHashMap} does.
+   */
   private static final ReferenceQueue<Path> REFERENCE_QUEUE = new ReferenceQueue<>();
 
   private static class PathWeakReferenceForCleanup extends WeakReference<Path> {
@@ -90,50 +94,19 @@ public class Path implements Comparable<Path>, Serializable {
     }
   }
 
-  private static final Thread PATH_CHILD_CACHE_CLEANUP_THREAD = new Thread("Path cache cleanup") {
-    @Override
-    public void run() {
-      while (true) {
-        try {
-          PathWeakReferenceForCleanup ref = (PathWeakReferenceForCleanup) REFERENCE_QUEUE.remove();
-          Path parent = ref.parent;
-          synchronized (parent) {
-            // It's possible that since this reference was enqueued for deletion, the Path was
-            // recreated with a new entry in the map. We definitely shouldn't delete that entry, so
-            // check to make sure they're the same.
-            Reference<Path> currentRef = ref.parent.children.get(ref.baseName);
-            if (currentRef == ref) {
-              ref.parent.children.remove(ref.baseName);
-            }
-          }
-        } catch (InterruptedException e) {
-          // Ignored.
-        }
-      }
-    }
-  };
-
-  static {
-    PATH_CHILD_CACHE_CLEANUP_THREAD.setDaemon(true);
-    PATH_CHILD_CACHE_CLEANUP_THREAD.start();
-  }
-
   /**
-   * A mapping from a child file name to the {@link Path} representing it.
+   * The children of this path, as an open-addressing hash table with linear probing of weak
+   * references to them, keyed by their base names; or null if there are none.
    *
    * <p>File names must be a single path segment.  The strings must be
-   * canonical.  We use IdentityHashMap instead of HashMap for reasons of space
-   * efficiency: instances are smaller by a single word.  Also, since all path
+   * canonical, so that they can be compared by identity.  Since all path
    * segments are interned, the universe of Paths holds a minimal number of
-   * references to strings.  (It's doubtful that there's any time gain from use
-   * of an IdentityHashMap, since the time saved by avoiding string equality
-   * tests during hash lookups is probably equal to the time spent eagerly
-   * interning strings, unless the collision rate is high.)
+   * references to strings.
    *
    * <p>The Paths are stored as weak references to ensure that a live
    * Path for a directory does not hold a strong reference to all of its
    * descendants, which would prevent collection of paths we never intend to
-   * use again.  Stale references in the map must be treated as absent.
+   * use again.  Stale references in the table must be treated as absent.
    *
    * <p>A Path may be recycled once there is no Path that refers to it or
    * to one of its descendants.  This means that any data stored in the
@@ -142,14 +115,18 @@ public class Path implements Comparable<Path>, Serializable {
    * source for that data in case the Path is recycled.
    *
    * <p>We intentionally avoid using the existing library classes for reasons of
-   * space efficiency: while ConcurrentHashMap would reduce our locking
-   * overhead, and ReferenceMap would simplify the code a little, both of those
-   * classes have much higher per-instance overheads than IdentityHashMap.
+   * space efficiency: there are as many Paths as there are files of interest, and
+   * most of them have no or only one child. A map would need a map object per
+   * directory and a slot for the key as well as for the value of every child; here
+   * the references themselves carry the key.
    *
    * <p>The Path object must be synchronized while children is being
    * accessed.
    */
-  private volatile IdentityHashMap<String, Reference<Path>> children;
+  private PathWeakReferenceForCleanup[] children;
+
+  /** The number of entries in {@link #children}, including stale ones. */
+  private int childCount;
 
   /**
    * Create a path instance.  Should only be called by {@link #createChildPath}.
@@ -216,28 +193,104 @@ public class Path implements Comparable<Path>, Serializable {
    * if it doesn't already exist.
    */
   private Path getCachedChildPath(String childName) {
-    // We get a canonical instance since 'children' is an IdentityHashMap.
+    // We get a canonical instance since the table compares names by identity.
     childName = StringCanonicalizer.intern(childName);
-    // We use double-checked locking so that we only hold the lock when we might need to mutate the
-    // 'children' variable. 'children' will never become null if it's already non-null, so we only
-    // need to worry about the case where it's currently null and we race with another thread
-    // executing getCachedChildPath(<doesn't matter>) trying to set 'children' to a non-null value.
+    // Done before taking the lock of this path, since it takes the locks of other paths.
+    expungeStaleChildReferences();
+    synchronized (this) {
+      if (children != null) {
+        int mask = children.length - 1;
+        for (int i = indexFor(childName, mask); children[i] != null; i = (i + 1) & mask) {
+          if (children[i].baseName == childName) {
+            Path child = children[i].get();
+            if (child == null) {
+              // The stale reference will not be found by removeChild, since it compares by
+              // identity.
+              child = createChildPath(childName);
+              children[i] = new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE);
+            }
+            return child;
+          }
+        }
+      }
+      Path child = createChildPath(childName);
+      addChild(new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE));
+      return child;
+    }
+  }
+
+  private static int indexFor(String name, int mask) {
+    int hash = name.hashCode();
+    return (hash ^ (hash >>> 16)) & mask;
+  }
+
+  /** Adds a child that is not in the table yet. Must be called with the lock held. */
+  private void addChild(PathWeakReferenceForCleanup childRef) {
     if (children == null) {
-      synchronized (this) {
-        if (children == null) {
-          // 66% of Paths have size == 1, 80% <= 2
-          children = new IdentityHashMap<>(1);
+      // 66% of Paths have size == 1, 80% <= 2
+      children = new PathWeakReferenceForCleanup[2];
+    } else if ((childCount + 1) * 4 > children.length * 3) {
+      PathWeakReferenceForCleanup[] oldChildren = children;
+      children = new PathWeakReferenceForCleanup[oldChildren.length * 2];
+      childCount = 0;
+      for (PathWeakReferenceForCleanup oldChildRef : oldChildren) {
+        // Stale references are dropped here; removeChild will not find them anymore.
+        if (oldChildRef != null && oldChildRef.get() != null) {
+          insertChild(oldChildRef);
         }
       }
     }
-    synchronized (this) {
-      Reference<Path> childRef = children.get(childName);
-      Path child;
-      if (childRef == null || (child = childRef.get()) == null) {
-        child = createChildPath(childName);
-        children.put(childName, new PathWeakReferenceForCleanup(child, REFERENCE_QUEUE));
+    insertChild(childRef);
+  }
+
+  private void insertChild(PathWeakReferenceForCleanup childRef) {
+    int mask = children.length - 1;
+    int i = indexFor(childRef.baseName, mask);
+    while (children[i] != null) {
+      i = (i + 1) & mask;
+    }
+    children[i] = childRef;
+    childCount++;
+  }
+
+  /**
+   * Removes the given reference from the table if it is still there. Must be called with the lock
+   * held.
+   */
+  private void removeChild(PathWeakReferenceForCleanup childRef) {
+    if (children == null) {
+      return;
+    }
+    int mask = children.length - 1;
+    int i = indexFor(childRef.baseName, mask);
+    while (children[i] != childRef) {
+      if (children[i] == null) {
+        return;
+      }
+      i = (i + 1) & mask;
+    }
+    children[i] = null;
+    childCount--;
+    if (childCount == 0) {
+      children = null;
+      return;
+    }
+    // Reinsert the rest of the cluster, which may have been placed behind the removed entry.
+    for (i = (i + 1) & mask; children[i] != null; i = (i + 1) & mask) {
+      PathWeakReferenceForCleanup moved = children[i];
+      children[i] = null;
+      childCount--;
+      insertChild(moved);
+    }
+  }
+
+  private static void expungeStaleChildReferences() {
+    Reference<? extends Path> ref;
+    while ((ref = REFERENCE_QUEUE.poll()) != null) {
+      PathWeakReferenceForCleanup staleRef = (PathWeakReferenceForCleanup) ref;
+      synchronized (staleRef.parent) {
+        staleRef.parent.removeChild(staleRef);
       }
-      return child;
     }
   }
 
@@ -254,8 +307,8 @@ public class Path implements Comparable<Path>, Serializable {
    */
   protected synchronized void applyToChildren(Predicate<Path> function) {
     if (children != null) {
-      for (Reference<Path> childRef : children.values()) {
-        Path child = childRef.get();
+      for (Reference<Path> childRef : children) {
+        Path child = childRef == null ? null : childRef.get();
         if (child != null) {
           function.apply(child);
         }
@@ -0,0 +1,240 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.devtools.build.lib.concurrent.ExecutorUtil;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nullable;
+
+/**
+ * Brings the symlink forest that {@link FileSystemUtils#plantLinkForest} plants for a map of
+ * package roots up to date. Instead of deleting the old forest and planting a new one, the wanted
+ * links are compared with the existing entries below the link root, which is read only once, and
+ * only the entries that differ are deleted and created again. The top-level entries are handled
+ * in parallel.
+ *
+ * <p>Top-level entries whose names start with one of the given prefixes are neither deleted nor
+ * replaced; they are only created if they are missing.
+ */
+public final class SymlinkForest {
+
+  private final ImmutableMap<PathFragment, Path> packageRootMap;
+  private final Path linkRoot;
+  private final String[] keepPrefixes;
+
+  /**
+   * The forest by directory: the names of the entries of each directory, mapped to the targets of
+   * their symlinks, or to null for subdirectories.
+   */
+  private final Map<PathFragment, Map<String, PathFragment>> children = new HashMap<>();
+
+  private final AtomicInteger createdCount = new AtomicInteger();
+  private final AtomicInteger deletedCount = new AtomicInteger();
+  private final AtomicInteger keptCount = new AtomicInteger();
+
+  public SymlinkForest(ImmutableMap<PathFragment, Path> packageRootMap, Path linkRoot,
+      String[] keepPrefixes) {
+    this.packageRootMap = packageRootMap;
+    this.linkRoot = linkRoot;
+    this.keepPrefixes = keepPrefixes;
+  }
+
+  /**
+   * Updates the forest below the link root, which must exist, using up to the given number of
+   * threads.
+   */
+  public void plant(int threads) throws IOException, InterruptedException {
+    SortedMap<PathFragment, PathFragment> forest =
+        FileSystemUtils.computeLinkForest(packageRootMap);
+    children.clear();
+    createdCount.set(0);
+    deletedCount.set(0);
+    keptCount.set(0);
+    for (Map.Entry<PathFragment, PathFragment> entry : forest.entrySet()) {
+      PathFragment parent = entry.getKey().getParentDirectory();
+      Map<String, PathFragment> entries = children.get(parent);
+      if (entries == null) {
+        entries = new TreeMap<>();
+        children.put(parent, entries);
+      }
+      entries.put(entry.getKey().getBaseName(), entry.getValue());
+    }
+
+    final Map<String, Dirent.Type> existing = readdir(linkRoot);
+    Map<String, PathFragment> wanted = getChildren(PathFragment.EMPTY_FRAGMENT);
+    List<Callable<Void>> jobs = new ArrayList<>();
+    for (final String name : existing.keySet()) {
+      if (!wanted.containsKey(name) && !isKept(name)) {
+        jobs.add(new Callable<Void>() {
+          @Override
+          public Void call() throws IOException {
+            delete(linkRoot.getChild(name));
+            return null;
+          }
+        });
+      }
+    }
+    for (final Map.Entry<String, PathFragment> entry : wanted.entrySet()) {
+      final String name = entry.getKey();
+      if (existing.containsKey(name) && isKept(name)) {
+        continue;
+      }
+      jobs.add(new Callable<Void>() {
+        @Override
+        public Void call() throws IOException {
+          update(linkRoot.getChild(name), new PathFragment(name), entry.getValue(),
+              existing.get(name));
+          return null;
+        }
+      });
+    }
+    run(jobs, threads);
+  }
+
+  /** Returns the number of entries created by the last {@link #plant}. */
+  public int getCreatedCount() {
+    return createdCount.get();
+  }
+
+  /** Returns the number of entries deleted by the last {@link #plant}. */
+  public int getDeletedCount() {
+    return deletedCount.get();
+  }
+
+  /** Returns the number of symlinks that {@link #plant} found up to date. */
+  public int getKeptCount() {
+    return keptCount.get();
+  }
+
+  private boolean isKept(String name) {
+    for (String prefix : keepPrefixes) {
+      if (name.startsWith(prefix)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private Map<String, PathFragment> getChildren(PathFragment directory) {
+    Map<String, PathFragment> entries = children.get(directory);
+    return entries == null ? Collections.<String, PathFragment>emptyMap() : entries;
+  }
+
+  private static Map<String, Dirent.Type> readdir(Path directory) throws IOException {
+    Map<String, Dirent.Type> entries = new HashMap<>();
+    for (Dirent dirent : directory.readdir(Symlinks.NOFOLLOW)) {
+      entries.put(dirent.getName(), dirent.getType());
+    }
+    return entries;
+  }
+
+  /**
+   * Makes the entry at the given path a symlink to the given target, or a directory with the
+   * wanted contents if the target is null.
+   *
+   * @param existing the type of the entry at the path, or null if there is none
+   */
+  private void update(Path path, PathFragment relative, @Nullable PathFragment target,
+      @Nullable Dirent.Type existing) throws IOException {
+    if (existing != null) {
+      if (target == null && existing == Dirent.Type.DIRECTORY) {
+        updateDirectory(path, relative, readdir(path));
+        return;
+      }
+      if (target != null && existing == Dirent.Type.SYMLINK
+          && target.equals(path.readSymbolicLink())) {
+        keptCount.incrementAndGet();
+        return;
+      }
+      delete(path);
+    }
+    if (target == null) {
+      path.createDirectory();
+      createdCount.incrementAndGet();
+      updateDirectory(path, relative, Collections.<String, Dirent.Type>emptyMap());
+    } else {
+      path.createSymbolicLink(target);
+      createdCount.incrementAndGet();
+    }
+  }
+
+  private void updateDirectory(Path directory, PathFragment relative,
+      Map<String, Dirent.Type> existing) throws IOException {
+    Map<String, PathFragment> wanted = getChildren(relative);
+    for (String name : existing.keySet()) {
+      if (!wanted.containsKey(name)) {
+        delete(directory.getChild(name));
+      }
+    }
+    for (Map.Entry<String, PathFragment> entry : wanted.entrySet()) {
+      String name = entry.getKey();
+      update(directory.getChild(name), relative.getChild(name), entry.getValue(),
+          existing.get(name));
+    }
+  }
+
+  private void delete(Path path) throws IOException {
+    FileSystemUtils.deleteTree(path);
+    deletedCount.incrementAndGet();
+  }
+
+  private static void run(List<Callable<Void>> jobs, int threads)
+      throws IOException, InterruptedException {
+    if (jobs.isEmpty()) {
+      return;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, jobs.size()),
+        new ThreadFactoryBuilder().setNameFormat("Symlink forest %d").setDaemon(true).build());
+    List<Future<Void>> futures = new ArrayList<>();
+    try {
+      for (Callable<Void> job : jobs) {
+        futures.add(executor.submit(job));
+      }
+      for (Future<Void> future : futures) {
+        try {
+          future.get();
+        } catch (ExecutionException e) {
+          Throwables.propagateIfPossible(e.getCause(), IOException.class);
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+    } finally {
+      // Does nothing unless a job failed or the caller was interrupted.
+      for (Future<Void> future : futures) {
+        future.cancel(true);
+      }
+      if (ExecutorUtil.uninterruptibleShutdown(executor)) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+}
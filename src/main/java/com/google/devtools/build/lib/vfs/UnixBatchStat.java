@@ -0,0 +1,106 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Iterables;
+import com.google.devtools.build.lib.unix.ErrnoFileStatus;
+import com.google.devtools.build.lib.unix.FilesystemUtils;
+import com.google.devtools.build.lib.vfs.UnixFileSystem.UnixFileStatus;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * A {@link BatchStat} for the local file system, which stats all paths of a batch in a single
+ * JNI call using a pool of native threads.
+ *
+ * <p>Paths that cannot be stat'ed, for whatever reason, are returned as {@code null}, so that the
+ * caller falls back to stat'ing them itself and gets the usual error handling.
+ */
+public class UnixBatchStat implements BatchStat {
+
+  /**
+   * The number of native threads for the check of a local output tree. The check already runs a
+   * thread per shard, so the native pool of each batch is kept small.
+   */
+  public static final int DEFAULT_NUM_THREADS = 4;
+
+  private final Path execRoot;
+  private final boolean computeDigests;
+  private final int numThreads;
+
+  /**
+   * @param execRoot the directory the paths of the batches are relative to; must be on a
+   *     {@link UnixFileSystem}
+   * @param computeDigests whether to compute the digests of regular files when the caller asks
+   *     for them. The {@link UnixFileSystem} has no fast digests, so the file values of local
+   *     files are based on their modification time; only set this if the digests are known to be
+   *     used consistently, or every file would appear modified.
+   * @param numThreads the number of native threads used for each batch
+   */
+  public UnixBatchStat(Path execRoot, boolean computeDigests, int numThreads) {
+    Preconditions.checkArgument(execRoot.getFileSystem() instanceof UnixFileSystem,
+        "%s is not on a UnixFileSystem", execRoot);
+    Preconditions.checkArgument(numThreads > 0);
+    this.execRoot = execRoot;
+    this.computeDigests = computeDigests;
+    this.numThreads = numThreads;
+  }
+
+  @Override
+  public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+      Iterable<PathFragment> paths) throws IOException, InterruptedException {
+    String[] pathStrings = new String[Iterables.size(paths)];
+    int i = 0;
+    for (PathFragment path : paths) {
+      pathStrings[i++] = execRoot.getRelative(path).getPathString();
+    }
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+
+    byte[][] digests = includeDigest && computeDigests ? new byte[pathStrings.length][] : null;
+    // With includeLinks, symlinks are returned as such rather than stat'ing their targets.
+    ErrnoFileStatus[] stats =
+        FilesystemUtils.batchStat(pathStrings, !includeLinks, digests, numThreads);
+
+    List<FileStatusWithDigest> result = new ArrayList<>(stats.length);
+    for (i = 0; i < stats.length; i++) {
+      result.add(stats[i].hasError()
+          ? null
+          : new UnixFileStatusWithDigest(stats[i], digests == null ? null : digests[i]));
+    }
+    return result;
+  }
+
+  private static class UnixFileStatusWithDigest extends UnixFileStatus
+      implements FileStatusWithDigest {
+    @Nullable private final byte[] digest;
+
+    UnixFileStatusWithDigest(ErrnoFileStatus status, @Nullable byte[] digest) {
+      super(status);
+      this.digest = digest;
+    }
+
+    @Nullable
+    @Override
+    public byte[] getDigest() {
+      return digest;
+    }
+  }
+}
@@ -38,13 +38,17 @@ import com.google.devtools.build.lib.profiler.ProfilerTask;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.regex.Pattern;
 
 /**
@@ -89,6 +93,21 @@ public final class UnixGlob {
     }
   }
 
+  private static List<Future<List<Path>>> globAsyncPerPatternInternal(Path base,
+      List<String> patterns, Collection<String> excludePatterns, boolean excludeDirectories,
+      Predicate<Path> dirPred, FilesystemCalls syscalls, boolean checkForInterruption,
+      ThreadPoolExecutor threadPool) {
+    Preconditions.checkNotNull(threadPool, "%s %s", base, patterns);
+    try {
+      return new GlobVisitor(threadPool, checkForInterruption).globAsyncPerPattern(
+          base, patterns, excludePatterns, excludeDirectories, dirPred, syscalls);
+    } catch (IOException e) {
+      // We are evaluating asynchronously, so no exceptions should be thrown until the futures are
+      // retrieved.
+      throw new IllegalStateException(e);
+    }
+  }
+
   /**
    * Checks that each pattern is valid, splits it into segments and checks
    * that each segment contains only valid wildcards.
@@ -229,14 +248,15 @@ public final class UnixGlob {
 
     // Common case: *.xyz
     if (pattern.charAt(0) == '*' && pattern.lastIndexOf('*') == 0) {
-      return str.endsWith(pattern.substring(1));
+      int suffixLength = pattern.length() - 1;
+      return str.regionMatches(str.length() - suffixLength, pattern, 1, suffixLength);
     }
     // Common case: xyz*
     int lastIndex = pattern.length() - 1;
     // The first clause of this if statement is unnecessary, but is an
     // optimization--charAt runs faster than indexOf.
     if (pattern.charAt(lastIndex) == '*' && pattern.indexOf('*') == lastIndex) {
-      return str.startsWith(pattern.substring(0, lastIndex));
+      return str.regionMatches(0, pattern, 0, lastIndex);
     }
 
     Pattern regex = patternCache == null ? null : patternCache.getIfPresent(pattern);
@@ -296,7 +316,7 @@ public final class UnixGlob {
   }
 
   /**
-   * Filesystem calls required for glob().
+   * Filesystem calls required for glob() and for the Skyframe functions that read the source tree.
    */
   public interface FilesystemCalls {
     /**
@@ -308,6 +328,17 @@ public final class UnixGlob {
      * Return the stat() for the given path, or null.
      */
     FileStatus statNullable(Path path, Symlinks symlinks);
+
+    /**
+     * Return the stat() for the given path, or null if it does not exist; see
+     * {@link Path#statIfFound(Symlinks)}.
+     */
+    FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException;
+
+    /**
+     * Return the target of the given symbolic link; see {@link Path#readSymbolicLinkUnchecked}.
+     */
+    PathFragment readlink(Path path) throws IOException;
   }
 
   public static FilesystemCalls DEFAULT_SYSCALLS = new FilesystemCalls() {
@@ -320,6 +351,16 @@ public final class UnixGlob {
     public FileStatus statNullable(Path path, Symlinks symlinks) {
       return path.statNullable(symlinks);
     }
+
+    @Override
+    public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+      return path.statIfFound(symlinks);
+    }
+
+    @Override
+    public PathFragment readlink(Path path) throws IOException {
+      return path.readSymbolicLinkUnchecked();
+    }
   };
 
   public static final AtomicReference<FilesystemCalls> DEFAULT_SYSCALLS_REF =
@@ -477,6 +518,18 @@ public final class UnixGlob {
       return globAsyncInternal(base, patterns, excludes, excludeDirectories, pathFilter,
           syscalls.get(), checkForInterrupt, threadPool);
     }
+
+    /**
+     * Executes the glob asynchronously, like {@link #globAsync}, but keeps the matches of each
+     * pattern apart: the returned list has one future per pattern, in the order they were added.
+     * All patterns are evaluated in a single traversal of the file system.
+     *
+     * @param checkForInterrupt if the returned futures may throw InterruptedException.
+     */
+    public List<Future<List<Path>>> globAsyncPerPattern(boolean checkForInterrupt) {
+      return globAsyncPerPatternInternal(base, patterns, excludes, excludeDirectories, pathFilter,
+          syscalls.get(), checkForInterrupt, threadPool);
+    }
   }
 
   /**
@@ -522,13 +575,67 @@ public final class UnixGlob {
     }
   }
 
+  /**
+   * A small set of positions in the include patterns, i.e. pairs of a pattern index and the index
+   * of the next segment of that pattern to match. The sets are small, so they are kept in an array
+   * and deduplicated with a linear scan.
+   */
+  private static final class Positions {
+    private int[] data;
+    private int size;
+
+    Positions(int expectedSize) {
+      data = new int[Math.max(2, 2 * expectedSize)];
+    }
+
+    Positions(int[] positions) {
+      data = Arrays.copyOf(positions, Math.max(2, positions.length + 2));
+      size = positions.length / 2;
+    }
+
+    void add(int pattern, int segment) {
+      for (int i = 0; i < 2 * size; i += 2) {
+        if (data[i] == pattern && data[i + 1] == segment) {
+          return;
+        }
+      }
+      if (2 * size == data.length) {
+        data = Arrays.copyOf(data, 2 * data.length);
+      }
+      data[2 * size] = pattern;
+      data[2 * size + 1] = segment;
+      size++;
+    }
+
+    int size() {
+      return size;
+    }
+
+    int pattern(int i) {
+      return data[2 * i];
+    }
+
+    int segment(int i) {
+      return data[2 * i + 1];
+    }
+
+    int[] toArray() {
+      return Arrays.copyOf(data, 2 * size);
+    }
+  }
+
   /**
    * GlobVisitor executes a glob using parallelism, which is useful when
    * the glob() requires many readdir() calls on high latency filesystems.
+   *
+   * <p>All include patterns are matched in a single traversal: each task carries the positions
+   * of every pattern that can still match below its directory, so a directory is read at most
+   * once no matter how many patterns reach it (e.g. a recursive glob for both Java and proto
+   * files). The matches can also be collected per pattern, which lets callers that cache the
+   * patterns separately share one traversal between them.
    */
   private static final class GlobVisitor {
     // These collections are used across workers and must therefore be thread-safe.
-    private final Collection<Path> results = Sets.newConcurrentHashSet();
     private final Cache<String, Pattern> cache = CacheBuilder.newBuilder().build(
         new CacheLoader<String, Pattern>() {
             @Override
@@ -537,15 +644,21 @@ public final class UnixGlob {
             }
           });
 
-    private final GlobFuture result;
     private final ThreadPoolExecutor executor;
+    private final boolean failFastOnInterrupt;
     private final AtomicLong pendingOps = new AtomicLong(0);
-    private final AtomicReference<IOException> failure = new AtomicReference<>();
     private volatile boolean canceled = false;
 
+    // One entry per result: a single one if the matches of all patterns are merged, otherwise one
+    // per include pattern. Set up by start() before any work is enqueued.
+    private List<GlobFuture> futures;
+    private List<Collection<Path>> results;
+    private AtomicReferenceArray<IOException> failures;
+    private boolean resultPerPattern;
+
     public GlobVisitor(ThreadPoolExecutor executor, boolean failFastOnInterrupt) {
       this.executor = executor;
-      this.result = new GlobFuture(this, failFastOnInterrupt);
+      this.failFastOnInterrupt = failFastOnInterrupt;
     }
 
     public GlobVisitor(boolean failFastOnInterrupt) {
@@ -587,48 +700,75 @@ public final class UnixGlob {
     public Future<List<Path>> globAsync(Path base, Collection<String> patterns,
         Collection<String> excludePatterns, boolean excludeDirectories,
         Predicate<Path> dirPred, FilesystemCalls syscalls) throws IOException {
+      return Iterables.getOnlyElement(
+          start(base, patterns, excludePatterns, excludeDirectories, dirPred, syscalls, false));
+    }
+
+    /**
+     * Like {@link #globAsync}, but returns the matches of each of {@code patterns} separately, in
+     * the order of the patterns. The futures complete together, when the traversal is done.
+     */
+    public List<Future<List<Path>>> globAsyncPerPattern(Path base, List<String> patterns,
+        Collection<String> excludePatterns, boolean excludeDirectories,
+        Predicate<Path> dirPred, FilesystemCalls syscalls) throws IOException {
+      return start(base, patterns, excludePatterns, excludeDirectories, dirPred, syscalls, true);
+    }
 
+    private List<Future<List<Path>>> start(Path base, Collection<String> patterns,
+        Collection<String> excludePatterns, boolean excludeDirectories,
+        Predicate<Path> dirPred, FilesystemCalls syscalls, boolean resultPerPattern)
+        throws IOException {
+      int resultCount = resultPerPattern ? patterns.size() : 1;
       FileStatus baseStat = syscalls.statNullable(base, Symlinks.FOLLOW);
       if (baseStat == null || patterns.isEmpty()) {
-        return Futures.immediateFuture(Collections.<Path>emptyList());
+        List<Future<List<Path>>> empty = new ArrayList<>(resultCount);
+        for (int i = 0; i < resultCount; i++) {
+          empty.add(Futures.immediateFuture(Collections.<Path>emptyList()));
+        }
+        return empty;
       }
 
       List<String[]> splitPatterns = checkAndSplitPatterns(patterns);
       List<String[]> splitExcludes = checkAndSplitPatterns(excludePatterns);
 
-      // We do a dumb loop, even though it will likely duplicate work
-      // (e.g., readdir calls). In order to optimize, we would need
-      // to keep track of which patterns shared sub-patterns and which did not
-      // (for example consider the glob [*/*.java, sub/*.java, */*.txt]).
+      this.resultPerPattern = resultPerPattern;
+      this.futures = new ArrayList<>(resultCount);
+      this.results = new ArrayList<>(resultCount);
+      this.failures = new AtomicReferenceArray<>(resultCount);
+      for (int i = 0; i < resultCount; i++) {
+        futures.add(new GlobFuture(this, failFastOnInterrupt));
+        results.add(Sets.<Path>newConcurrentHashSet());
+      }
+
+      Positions positions = new Positions(splitPatterns.size());
+      for (int i = 0; i < splitPatterns.size(); i++) {
+        positions.add(i, 0);
+      }
       pendingOps.incrementAndGet();
       try {
-        for (String[] splitPattern : splitPatterns) {
-          queueGlob(base, baseStat.isDirectory(), splitPattern, 0, excludeDirectories,
-                  splitExcludes, 0, results, cache, dirPred, syscalls);
-        }
+        queueGlob(base, baseStat.isDirectory(), splitPatterns, positions.toArray(),
+            excludeDirectories, splitExcludes, 0, cache, dirPred, syscalls);
       } finally {
         decrementAndCheckDone();
       }
 
-      return result;
+      return Collections.<Future<List<Path>>>unmodifiableList(futures);
     }
 
     private void queueGlob(final Path base, final boolean baseIsDir,
-        final String[] patternParts, final int idx,
+        final List<String[]> patterns, final int[] positions,
         final boolean excludeDirectories,
         final List<String[]> excludePatterns,
         final int excludeIdx,
-        final Collection<Path> results, final Cache<String, Pattern> cache,
-        final Predicate<Path> dirPred, final FilesystemCalls syscalls) throws IOException {
+        final Cache<String, Pattern> cache,
+        final Predicate<Path> dirPred, final FilesystemCalls syscalls) {
       enqueue(new Runnable() {
         @Override
         public void run() {
           Profiler.instance().startTask(ProfilerTask.VFS_GLOB, this);
           try {
-            reallyGlob(base, baseIsDir, patternParts, idx, excludeDirectories,
-                    excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
-          } catch (IOException e) {
-            failure.set(e);
+            reallyGlob(base, baseIsDir, patterns, positions, excludeDirectories,
+                    excludePatterns, excludeIdx, cache, dirPred, syscalls);
           } finally {
             Profiler.instance().completeTask(ProfilerTask.VFS_GLOB);
           }
@@ -636,11 +776,21 @@ public final class UnixGlob {
 
         @Override
         public String toString() {
+          List<String> include = new ArrayList<>();
+          for (int i = 0; i < positions.length; i += 2) {
+            String[] patternParts = patterns.get(positions[i]);
+            include.add(Joiner.on('/').join(
+                Arrays.asList(patternParts).subList(positions[i + 1], patternParts.length)));
+          }
+          List<String> exclude = new ArrayList<>();
+          for (String[] excludePattern : excludePatterns) {
+            exclude.add(Joiner.on('/').join(excludePattern));
+          }
           return String.format(
                   "%s glob(include=[%s], exclude=[%s], exclude_directories=%s)",
                   base.getPathString(),
-                  "\"" + Joiner.on("\", \"").join(patternParts) + "\"",
-                  "\"" + Joiner.on("\", \"").join(excludePatterns) + "\"",
+                  "\"" + Joiner.on("\", \"").join(include) + "\"",
+                  "\"" + Joiner.on("\", \"").join(exclude) + "\"",
                   excludeDirectories);
         }
       });
@@ -653,7 +803,7 @@ public final class UnixGlob {
         @Override
         public void run() {
           try {
-            if (!canceled && failure.get() == null) {
+            if (!canceled) {
               r.run();
             }
           } finally {
@@ -678,107 +828,206 @@ public final class UnixGlob {
         // We get to 0 iff we are done all the relevant work. This is because we always increment
         // the pending ops count as we're enqueuing, and don't decrement until the task is complete
         // (which includes accounting for any additional tasks that one enqueues).
-        if (canceled) {
-          result.markCanceled();
-        } else if (failure.get() != null) {
-          result.setException(failure.get());
-        } else {
-          result.set(Ordering.<Path>natural().immutableSortedCopy(results));
+        for (int i = 0; i < futures.size(); i++) {
+          GlobFuture result = futures.get(i);
+          if (canceled) {
+            result.markCanceled();
+          } else if (failures.get(i) != null) {
+            result.setException(failures.get(i));
+          } else {
+            result.set(Ordering.<Path>natural().immutableSortedCopy(results.get(i)));
+          }
         }
       }
     }
 
+    private int resultIndex(int pattern) {
+      return resultPerPattern ? pattern : 0;
+    }
+
+    private void addResult(int pattern, Path path) {
+      results.get(resultIndex(pattern)).add(path);
+    }
+
     /**
-     * Expressed in Haskell:
+     * Matches the children of {@code base} against the given positions in the patterns. For a
+     * single position, expressed in Haskell:
      * <pre>
      *  reallyGlob base []     = { base }
      *  reallyGlob base [x:xs] = union { reallyGlob(f, xs) | f results "base/x" }
      * </pre>
+     * The positions of all patterns that continue into the same child are passed on together.
      */
-    private void reallyGlob(Path base, boolean baseIsDir, String[] patternParts, int idx,
+    private void reallyGlob(Path base, boolean baseIsDir, List<String[]> patterns,
+        int[] positions,
         boolean excludeDirectories,
         List<String[]> excludePatterns,
         int excludeIdx,
-        Collection<Path> results, Cache<String, Pattern> cache,
+        Cache<String, Pattern> cache,
         Predicate<Path> dirPred,
-        FilesystemCalls syscalls) throws IOException {
+        FilesystemCalls syscalls) {
       if (baseIsDir && !dirPred.apply(base)) {
         return;
       }
 
-      if (idx == patternParts.length) { // Base case.
-        if (!(excludeDirectories && baseIsDir) &&
-            !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
-          results.add(base);
+      Positions current = new Positions(positions);
+      Positions wildcards = null;
+      Map<String, Positions> literals = null;
+      // The loop also visits the positions appended to current while it runs.
+      for (int i = 0; i < current.size(); i++) {
+        int pattern = current.pattern(i);
+        int idx = current.segment(i);
+        if (failures.get(resultIndex(pattern)) != null) {
+          continue;
+        }
+        String[] patternParts = patterns.get(pattern);
+        if (idx == patternParts.length) { // Base case.
+          if (!(excludeDirectories && baseIsDir) &&
+              !excludedOnMatch(base, excludePatterns, excludeIdx, cache)) {
+            addResult(pattern, base);
+          }
+          continue;
         }
 
-        return;
-      }
+        if (!baseIsDir) {
+          // Nothing to find here.
+          continue;
+        }
 
-      if (!baseIsDir) {
-        // Nothing to find here.
+        String segment = patternParts[idx];
+        // ** is special: it can match nothing at all.
+        // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
+        if ("**".equals(segment)) {
+          current.add(pattern, idx + 1);
+        }
+
+        if (segment.indexOf('*') == -1 && segment.indexOf('?') == -1) {
+          // We do not need to do a readdir for this pattern, just a stat.
+          if (literals == null) {
+            literals = new LinkedHashMap<>();
+          }
+          Positions next = literals.get(segment);
+          if (next == null) {
+            next = new Positions(1);
+            literals.put(segment, next);
+          }
+          next.add(pattern, idx + 1);
+        } else {
+          if (wildcards == null) {
+            wildcards = new Positions(current.size());
+          }
+          wildcards.add(pattern, idx);
+        }
+      }
+      if (literals == null && wildcards == null) {
         return;
       }
 
       List<String[]> relevantExcludes
           = getRelevantExcludes(base, excludePatterns, excludeIdx, cache);
-      final String pattern = patternParts[idx];
-
-      // ** is special: it can match nothing at all.
-      // For example, x/** matches x, **/y matches y, and x/**/y matches x/y.
-      if ("**".equals(pattern)) {
-        queueGlob(base, baseIsDir, patternParts, idx + 1, excludeDirectories,
-            excludePatterns, excludeIdx, results, cache, dirPred, syscalls);
-      }
 
-      if (!pattern.contains("*") && !pattern.contains("?")) {
-        // We do not need to do a readdir in this case, just a stat.
-        Path child = base.getChild(pattern);
-        FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
-        if (status == null || (!status.isDirectory() && !status.isFile())) {
-          // The file is a dangling symlink, fifo, does not exist, etc.
-          return;
+      if (wildcards != null) {
+        try {
+          globChildren(base, syscalls.readdir(base, Symlinks.FOLLOW), patterns, wildcards,
+              literals, excludeDirectories, relevantExcludes, excludeIdx, cache, dirPred,
+              syscalls);
+        } catch (IOException e) {
+          for (int i = 0; i < wildcards.size(); i++) {
+            failures.set(resultIndex(wildcards.pattern(i)), e);
+          }
         }
+      }
 
-        boolean childIsDir = status.isDirectory();
+      if (literals != null) {
+        // What is left are the names that were not looked up in a directory listing.
+        for (Map.Entry<String, Positions> entry : literals.entrySet()) {
+          Path child = base.getChild(entry.getKey());
+          FileStatus status = syscalls.statNullable(child, Symlinks.FOLLOW);
+          if (status == null || (!status.isDirectory() && !status.isFile())) {
+            // The file is a dangling symlink, fifo, does not exist, etc.
+            continue;
+          }
 
-        queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-            relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-        return;
+          queueGlob(child, status.isDirectory(), patterns, entry.getValue().toArray(),
+              excludeDirectories, relevantExcludes, excludeIdx + 1, cache, dirPred, syscalls);
+        }
       }
+    }
 
-      Collection<Dirent> dents = syscalls.readdir(base, Symlinks.FOLLOW);
-
+    /**
+     * Matches the entries of a directory listing against the wildcard positions. The literal
+     * names that are found in the listing are handled here too, and removed from
+     * {@code literals}: the listing tells as much about them as a stat would.
+     */
+    private void globChildren(Path base, Collection<Dirent> dents, List<String[]> patterns,
+        Positions wildcards, Map<String, Positions> literals,
+        boolean excludeDirectories,
+        List<String[]> relevantExcludes,
+        int excludeIdx,
+        Cache<String, Pattern> cache,
+        Predicate<Path> dirPred,
+        FilesystemCalls syscalls) {
       for (Dirent dent : dents) {
+        String text = dent.getName();
+        Positions literal = literals == null ? null : literals.remove(text);
         Dirent.Type type = dent.getType();
         if (type == Dirent.Type.UNKNOWN) {
           // The file is a dangling symlink, fifo, etc.
           continue;
         }
         boolean childIsDir = (type == Dirent.Type.DIRECTORY);
-        String text = dent.getName();
-        Path child = base.getChild(text);
-
-        if ("**".equals(pattern)) {
-          // Recurse without shifting the pattern.
+        Positions next = childIsDir ? new Positions(wildcards.size()) : null;
+        boolean excluded = false;
+        boolean excludedKnown = false;
+
+        for (int i = 0; i < wildcards.size(); i++) {
+          int pattern = wildcards.pattern(i);
+          int idx = wildcards.segment(i);
+          String[] patternParts = patterns.get(pattern);
+          String segment = patternParts[idx];
           if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
+            if ("**".equals(segment)) {
+              // Recurse without shifting the pattern.
+              next.add(pattern, idx);
+            }
+            if (matches(segment, text, cache)) {
+              // Recurse and consume one segment of the pattern.
+              next.add(pattern, idx + 1);
+            }
+          } else if (idx + 1 == patternParts.length && matches(segment, text, cache)) {
+            // Instead of using an async call, just repeat the base case above.
+            if (!excludedKnown) {
+              excluded = excludedOnMatch(
+                  base.getChild(text), relevantExcludes, excludeIdx + 1, cache);
+              excludedKnown = true;
+            }
+            if (!excluded) {
+              addResult(pattern, base.getChild(text));
+            }
           }
         }
-        if (matches(pattern, text, cache)) {
-          // Recurse and consume one segment of the pattern.
-          if (childIsDir) {
-            queueGlob(child, childIsDir, patternParts, idx + 1, excludeDirectories,
-                relevantExcludes, excludeIdx + 1, results, cache, dirPred, syscalls);
-          } else {
-            // Instead of using an async call, just repeat the base case above.
-            if (idx + 1 == patternParts.length &&
-                !excludedOnMatch(child, relevantExcludes, excludeIdx + 1, cache)) {
-              results.add(child);
+        if (literal != null) {
+          for (int i = 0; i < literal.size(); i++) {
+            int pattern = literal.pattern(i);
+            int idx = literal.segment(i);
+            if (childIsDir) {
+              next.add(pattern, idx);
+            } else if (idx == patterns.get(pattern).length) {
+              if (!excludedKnown) {
+                excluded = excludedOnMatch(
+                    base.getChild(text), relevantExcludes, excludeIdx + 1, cache);
+                excludedKnown = true;
+              }
+              if (!excluded) {
+                addResult(pattern, base.getChild(text));
+              }
             }
           }
         }
+        if (next != null && next.size() > 0) {
+          queueGlob(base.getChild(text), childIsDir, patterns, next.toArray(),
+              excludeDirectories, relevantExcludes, excludeIdx + 1, cache, dirPred, syscalls);
+        }
       }
     }
   }
@@ -19,6 +19,7 @@
 #include <errno.h>
 #include <fcntl.h>
 #include <limits.h>
+#include <pthread.h>
 #include <stdlib.h>
 #include <string.h>
 #include <sys/resource.h>
@@ -826,3 +827,153 @@ Java_com_google_devtools_build_lib_unix_FilesystemUtils_md5sumAsBytes(
   ReleaseStringLatin1Chars(path_chars);
   return result;
 }
+
+////////////////////////////////////////////////////////////////////////
+// Batch stat.
+
+// The layout of the stat results of one path in the jlong array passed to
+// batchStat. Must be kept in sync with FilesystemUtils.
+enum BatchStatField {
+  BATCH_STAT_ERRNO,
+  BATCH_STAT_MODE,
+  BATCH_STAT_ATIME,
+  BATCH_STAT_ATIME_NSEC,
+  BATCH_STAT_MTIME,
+  BATCH_STAT_MTIME_NSEC,
+  BATCH_STAT_CTIME,
+  BATCH_STAT_CTIME_NSEC,
+  BATCH_STAT_SIZE,
+  BATCH_STAT_DEV,
+  BATCH_STAT_INO,
+  BATCH_STAT_HAS_DIGEST,
+  BATCH_STAT_FIELDS,
+};
+
+// The work shared by the threads of one batchStat call. The threads take
+// the next path by incrementing next_index, so that a few slow paths (e.g.
+// large files to digest) don't hold up a whole slice of the batch.
+struct BatchStatWork {
+  const char **paths;
+  int count;
+  bool follow_symlinks;
+  bool compute_digests;
+  jlong *stats;
+  jbyte *digests;
+  volatile int next_index;
+};
+
+static void BatchStatOne(BatchStatWork *work, int i) {
+  jlong *stat = work->stats + i * BATCH_STAT_FIELDS;
+  const char *path = work->paths[i];
+  if (path == NULL) {
+    stat[BATCH_STAT_ERRNO] = ENOMEM;
+    return;
+  }
+  portable_stat_struct statbuf;
+  int r;
+  while ((r = work->follow_symlinks ? portable_stat(path, &statbuf)
+                                    : portable_lstat(path, &statbuf)) == -1
+         && errno == EINTR) { }
+  if (r == -1) {
+    stat[BATCH_STAT_ERRNO] = errno;
+    return;
+  }
+  stat[BATCH_STAT_ERRNO] = 0;
+  stat[BATCH_STAT_MODE] = statbuf.st_mode;
+  stat[BATCH_STAT_ATIME] = StatSeconds(statbuf, STAT_ATIME);
+  stat[BATCH_STAT_ATIME_NSEC] = StatNanoSeconds(statbuf, STAT_ATIME);
+  stat[BATCH_STAT_MTIME] = StatSeconds(statbuf, STAT_MTIME);
+  stat[BATCH_STAT_MTIME_NSEC] = StatNanoSeconds(statbuf, STAT_MTIME);
+  stat[BATCH_STAT_CTIME] = StatSeconds(statbuf, STAT_CTIME);
+  stat[BATCH_STAT_CTIME_NSEC] = StatNanoSeconds(statbuf, STAT_CTIME);
+  stat[BATCH_STAT_SIZE] = statbuf.st_size;
+  stat[BATCH_STAT_DEV] = statbuf.st_dev;
+  stat[BATCH_STAT_INO] = statbuf.st_ino;
+  stat[BATCH_STAT_HAS_DIGEST] = 0;
+  if (work->compute_digests && S_ISREG(statbuf.st_mode)) {
+    if (md5sumAsBytes(path, work->digests + i * Md5Digest::kDigestLength) == 0) {
+      stat[BATCH_STAT_HAS_DIGEST] = 1;
+    }
+  }
+}
+
+static void *BatchStatThread(void *arg) {
+  BatchStatWork *work = reinterpret_cast<BatchStatWork *>(arg);
+  int i;
+  while ((i = __sync_fetch_and_add(&work->next_index, 1)) < work->count) {
+    BatchStatOne(work, i);
+  }
+  return NULL;
+}
+
+/*
+ * Class:     com.google.devtools.build.lib.unix.FilesystemUtils
+ * Method:    batchStat
+ * Signature: ([Ljava/lang/String;ZZI[J[B)V
+ *
+ * Stats all paths, and digests the regular files among them if requested,
+ * with the given number of native threads. The JNI environment is only used
+ * by the calling thread, before and after the threads run.
+ */
+extern "C" JNIEXPORT void JNICALL
+Java_com_google_devtools_build_lib_unix_FilesystemUtils_batchStat(
+    JNIEnv *env, jclass clazz, jobjectArray paths, jboolean follow_symlinks,
+    jboolean compute_digests, jint num_threads, jlongArray stats,
+    jbyteArray digests) {
+  BatchStatWork work;
+  work.count = env->GetArrayLength(paths);
+  work.follow_symlinks = follow_symlinks;
+  work.compute_digests = compute_digests;
+  work.next_index = 0;
+  work.paths = new const char *[work.count];
+  for (int i = 0; i < work.count; i++) {
+    jstring path = static_cast<jstring>(env->GetObjectArrayElement(paths, i));
+    work.paths[i] = GetStringLatin1Chars(env, path);
+    env->DeleteLocalRef(path);
+    if (work.paths[i] == NULL) {
+      // An exception is pending; don't call back into the JVM anymore.
+      for (int j = 0; j < i; j++) {
+        ReleaseStringLatin1Chars(work.paths[j]);
+      }
+      delete[] work.paths;
+      return;
+    }
+  }
+  work.stats = new jlong[work.count * BATCH_STAT_FIELDS];
+  work.digests =
+      compute_digests ? new jbyte[work.count * Md5Digest::kDigestLength] : NULL;
+
+  if (num_threads < 1) {
+    num_threads = 1;
+  }
+  if (num_threads > work.count) {
+    num_threads = work.count;
+  }
+  std::vector<pthread_t> threads;
+  for (int i = 0; i < num_threads; i++) {
+    pthread_t thread;
+    if (pthread_create(&thread, NULL, BatchStatThread, &work) != 0) {
+      // Make do with the threads we have; the calling thread helps below.
+      break;
+    }
+    threads.push_back(thread);
+  }
+  BatchStatThread(&work);
+  for (size_t i = 0; i < threads.size(); i++) {
+    pthread_join(threads[i], NULL);
+  }
+
+  env->SetLongArrayRegion(stats, 0, work.count * BATCH_STAT_FIELDS,
+                          work.stats);
+  if (compute_digests) {
+    env->SetByteArrayRegion(digests, 0,
+                            work.count * Md5Digest::kDigestLength,
+                            work.digests);
+  }
+  for (int i = 0; i < work.count; i++) {
+    ReleaseStringLatin1Chars(work.paths[i]);
+  }
+  delete[] work.paths;
+  delete[] work.stats;
+  delete[] work.digests;
+}
@@ -0,0 +1,481 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// inotify-watcher watches a directory tree for changes and appends them to a
+// journal file, so that Bazel doesn't have to look for changes itself at the
+// beginning of every build. It is started by the Bazel server, but detaches
+// itself and keeps running when the server exits, so that a restarted server
+// doesn't have to watch all directories of the tree again.
+//
+// Usage: inotify-watcher <root> <journal>
+//
+// There is at most one watcher per journal, which is ensured with a lock on
+// "<journal>.lock". If a watcher is already running, inotify-watcher exits
+// with status 0. Otherwise it forks a watcher, waits until the watcher has
+// registered all directories under <root>, and exits with status 0, or 1 if
+// the watcher failed. Diagnostics of the watcher go to "<journal>.log".
+//
+// The journal consists of lines "<sequence-number> <type>[ <path>]". The
+// sequence numbers are strictly increasing, also across watchers. Types:
+//   R  reset: changes before this record are unknown. Written when a watcher
+//      starts, stops, and after it truncated the journal.
+//   O  overflow: some changes were lost, anything may have changed.
+//   C  the file or directory <path> (relative to <root>) was created,
+//      modified or deleted.
+// The events that arrive in quick succession are coalesced into one batch of
+// unique records, which is appended to the journal with a single write.
+//
+// The watcher exits when <root> or the journal is deleted or moved away, or
+// when it runs out of inotify watches.
+
+#define _GNU_SOURCE
+
+#include <dirent.h>
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/inotify.h>
+#include <sys/stat.h>
+#include <sys/types.h>
+#include <time.h>
+#include <unistd.h>
+
+#include "process-tools.h"
+
+#define WATCH_MASK                                                        \
+  (IN_ATTRIB | IN_CREATE | IN_DELETE | IN_MODIFY | IN_MOVED_FROM |        \
+   IN_MOVED_TO | IN_DELETE_SELF | IN_MOVE_SELF | IN_DONT_FOLLOW |         \
+   IN_ONLYDIR | IN_EXCL_UNLINK)
+
+// How long to wait for further events before writing a batch.
+#define COALESCE_DELAY_MS 10
+// How long a batch may be delayed by a steady stream of events.
+#define MAX_BATCH_DELAY_MS 200
+// The number of changes after which a batch is written regardless.
+#define MAX_BATCH_CHANGES 10000
+// How often to check whether the journal still exists when idle.
+#define IDLE_CHECK_MS 10000
+// The journal is truncated when it grows beyond this size.
+#define MAX_JOURNAL_SIZE (16 * 1024 * 1024)
+
+static const char *global_root;
+static int global_inotify_fd = -1;
+static int global_root_wd = -1;
+static int global_journal_fd = -1;
+static long long global_next_sequence_number;
+
+// The watched directories by watch descriptor, relative to the root. The root
+// itself is ".".
+static char **global_watch_paths;
+static int global_watch_paths_size;
+
+// The changes of the current batch.
+static char **global_changes;
+static int global_changes_count;
+static int global_changes_capacity;
+static bool global_overflow;
+static long long global_batch_start_ms;
+
+static void Usage(char *const *argv) {
+  fprintf(stderr, "Usage: %s <root> <journal>\n", argv[0]);
+  exit(EXIT_FAILURE);
+}
+
+static long long NowMillis() {
+  struct timespec now;
+  CHECK_CALL(clock_gettime(CLOCK_MONOTONIC, &now));
+  return (long long)now.tv_sec * 1000 + now.tv_nsec / 1000000;
+}
+
+static char *JoinPath(const char *dir, const char *name) {
+  char *result;
+  if (strcmp(dir, ".") == 0) {
+    result = strdup(name);
+  } else {
+    CHECK_CALL(asprintf(&result, "%s/%s", dir, name));
+  }
+  CHECK_NOT_NULL(result);
+  return result;
+}
+
+static void SetWatchPath(int wd, const char *path) {
+  if (wd >= global_watch_paths_size) {
+    int new_size = global_watch_paths_size == 0 ? 1024 : global_watch_paths_size;
+    while (new_size <= wd) {
+      new_size *= 2;
+    }
+    global_watch_paths = realloc(global_watch_paths, new_size * sizeof(char *));
+    CHECK_NOT_NULL(global_watch_paths);
+    memset(global_watch_paths + global_watch_paths_size, 0,
+           (new_size - global_watch_paths_size) * sizeof(char *));
+    global_watch_paths_size = new_size;
+  }
+  free(global_watch_paths[wd]);
+  global_watch_paths[wd] = strdup(path);
+  CHECK_NOT_NULL(global_watch_paths[wd]);
+}
+
+static void AddChange(const char *path) {
+  if (strchr(path, '\n') != NULL) {
+    // Can't be represented in the journal.
+    global_overflow = true;
+    return;
+  }
+  if (global_changes_count == 0) {
+    global_batch_start_ms = NowMillis();
+  }
+  if (global_changes_count == global_changes_capacity) {
+    global_changes_capacity =
+        global_changes_capacity == 0 ? 256 : global_changes_capacity * 2;
+    global_changes =
+        realloc(global_changes, global_changes_capacity * sizeof(char *));
+    CHECK_NOT_NULL(global_changes);
+  }
+  global_changes[global_changes_count] = strdup(path);
+  CHECK_NOT_NULL(global_changes[global_changes_count]);
+  global_changes_count++;
+}
+
+// Watches the directory "path" (relative to the root) and all directories
+// below it. If "record" is true, everything found is added to the current
+// batch as a change. Returns false if the watch limit has been reached.
+static bool WatchTree(const char *path, bool record) {
+  char *absolute_path = strcmp(path, ".") == 0 ? strdup(global_root)
+                                                : JoinPath(global_root, path);
+  CHECK_NOT_NULL(absolute_path);
+
+  // Watch the directory before listing it, so that nothing created in the
+  // meantime is missed.
+  int wd = inotify_add_watch(global_inotify_fd, absolute_path, WATCH_MASK);
+  if (wd == -1) {
+    int error = errno;
+    free(absolute_path);
+    if (error == ENOSPC) {
+      return false;
+    }
+    // Deleted in the meantime, not a directory after all, or not readable;
+    // there is nothing to watch.
+    return true;
+  }
+  SetWatchPath(wd, path);
+  if (strcmp(path, ".") == 0) {
+    global_root_wd = wd;
+  }
+
+  DIR *dir = opendir(absolute_path);
+  if (dir == NULL) {
+    free(absolute_path);
+    return true;
+  }
+  bool result = true;
+  struct dirent *entry;
+  while (result && (entry = readdir(dir)) != NULL) {
+    if (strcmp(entry->d_name, ".") == 0 || strcmp(entry->d_name, "..") == 0) {
+      continue;
+    }
+    char *child = JoinPath(path, entry->d_name);
+    if (record) {
+      AddChange(child);
+    }
+    bool is_directory = entry->d_type == DT_DIR;
+    if (entry->d_type == DT_UNKNOWN) {
+      char *absolute_child = JoinPath(absolute_path, entry->d_name);
+      struct stat child_stat;
+      is_directory = lstat(absolute_child, &child_stat) == 0 &&
+                     S_ISDIR(child_stat.st_mode);
+      free(absolute_child);
+    }
+    if (is_directory) {
+      result = WatchTree(child, record);
+    }
+    free(child);
+  }
+  closedir(dir);
+  free(absolute_path);
+  return result;
+}
+
+static void WriteJournal(const char *buffer, size_t length) {
+  while (length > 0) {
+    ssize_t written = write(global_journal_fd, buffer, length);
+    if (written == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      DIE("Could not write to the journal: %s\n", strerror(errno));
+    }
+    buffer += written;
+    length -= written;
+  }
+}
+
+static void WriteRecord(char type) {
+  char record[64];
+  int length = snprintf(record, sizeof(record), "%lld %c\n",
+                        global_next_sequence_number++, type);
+  WriteJournal(record, length);
+}
+
+static int CompareStrings(const void *a, const void *b) {
+  return strcmp(*(char *const *)a, *(char *const *)b);
+}
+
+// Writes the current batch to the journal.
+static void FlushChanges() {
+  if (global_overflow) {
+    WriteRecord('O');
+  } else if (global_changes_count > 0) {
+    qsort(global_changes, global_changes_count, sizeof(char *), CompareStrings);
+    size_t capacity = 4096;
+    size_t length = 0;
+    char *buffer = malloc(capacity);
+    CHECK_NOT_NULL(buffer);
+    for (int i = 0; i < global_changes_count; i++) {
+      if (i > 0 && strcmp(global_changes[i], global_changes[i - 1]) == 0) {
+        continue;
+      }
+      size_t needed = strlen(global_changes[i]) + 32;
+      while (length + needed > capacity) {
+        capacity *= 2;
+        buffer = realloc(buffer, capacity);
+        CHECK_NOT_NULL(buffer);
+      }
+      length += snprintf(buffer + length, capacity - length, "%lld C %s\n",
+                         global_next_sequence_number++, global_changes[i]);
+    }
+    WriteJournal(buffer, length);
+    free(buffer);
+  }
+
+  for (int i = 0; i < global_changes_count; i++) {
+    free(global_changes[i]);
+  }
+  global_changes_count = 0;
+  global_overflow = false;
+
+  struct stat journal_stat;
+  CHECK_CALL(fstat(global_journal_fd, &journal_stat));
+  if (journal_stat.st_size > MAX_JOURNAL_SIZE) {
+    CHECK_CALL(ftruncate(global_journal_fd, 0));
+    WriteRecord('R');
+  }
+}
+
+// Exits if the journal has been deleted, e.g. by "bazel clean --expunge".
+static void CheckJournalExists() {
+  struct stat journal_stat;
+  CHECK_CALL(fstat(global_journal_fd, &journal_stat));
+  if (journal_stat.st_nlink == 0) {
+    fprintf(stderr, "The journal has been deleted, exiting\n");
+    exit(EXIT_SUCCESS);
+  }
+}
+
+// Writes the last record of this watcher and exits.
+static void Stop(const char *reason) {
+  FlushChanges();
+  WriteRecord('R');
+  fprintf(stderr, "%s, exiting\n", reason);
+  exit(EXIT_FAILURE);
+}
+
+static void HandleEvent(const struct inotify_event *event) {
+  if (event->mask & IN_Q_OVERFLOW) {
+    global_overflow = true;
+    return;
+  }
+  if (event->wd < 0 || event->wd >= global_watch_paths_size ||
+      global_watch_paths[event->wd] == NULL) {
+    return;
+  }
+  if (event->wd == global_root_wd &&
+      (event->mask & (IN_DELETE_SELF | IN_MOVE_SELF | IN_IGNORED))) {
+    Stop("The root has been deleted or moved");
+  }
+  if (event->mask & IN_IGNORED) {
+    // The directory has been deleted.
+    free(global_watch_paths[event->wd]);
+    global_watch_paths[event->wd] = NULL;
+    return;
+  }
+  if (event->len == 0) {
+    // An event about the watched directory itself, which is also reported to
+    // the watch of its parent.
+    return;
+  }
+
+  char *path = JoinPath(global_watch_paths[event->wd], event->name);
+  AddChange(path);
+  if ((event->mask & IN_ISDIR) && (event->mask & (IN_CREATE | IN_MOVED_TO))) {
+    // Changes in a new directory are not reported until it is watched. This
+    // also updates the paths of the watches of a directory moved within the
+    // tree, since watches are per inode.
+    if (!WatchTree(path, true)) {
+      Stop("Out of inotify watches");
+    }
+  }
+  free(path);
+}
+
+static long long ReadLastSequenceNumber(const char *journal_path) {
+  FILE *journal = fopen(journal_path, "r");
+  if (journal == NULL) {
+    return 0;
+  }
+  long long last = 0;
+  char *line = NULL;
+  size_t line_capacity = 0;
+  while (getline(&line, &line_capacity, journal) != -1) {
+    long long sequence_number;
+    if (sscanf(line, "%lld", &sequence_number) == 1 && sequence_number > last) {
+      last = sequence_number;
+    }
+  }
+  free(line);
+  fclose(journal);
+  return last;
+}
+
+static void WatchLoop() {
+  char buffer[64 * 1024]
+      __attribute__((aligned(__alignof__(struct inotify_event))));
+  for (;;) {
+    bool pending = global_changes_count > 0 || global_overflow;
+    int timeout = IDLE_CHECK_MS;
+    if (pending) {
+      long long remaining =
+          global_batch_start_ms + MAX_BATCH_DELAY_MS - NowMillis();
+      timeout = remaining < COALESCE_DELAY_MS ? (int)remaining
+                                              : COALESCE_DELAY_MS;
+      if (timeout < 0) {
+        timeout = 0;
+      }
+    }
+
+    struct pollfd poll_fd = {global_inotify_fd, POLLIN, 0};
+    int ready = poll(&poll_fd, 1, timeout);
+    if (ready == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      DIE("poll: %s\n", strerror(errno));
+    }
+    if (ready == 0) {
+      if (pending) {
+        FlushChanges();
+      }
+      CheckJournalExists();
+      continue;
+    }
+
+    ssize_t length = read(global_inotify_fd, buffer, sizeof(buffer));
+    if (length == -1) {
+      if (errno == EINTR || errno == EAGAIN) {
+        continue;
+      }
+      DIE("read: %s\n", strerror(errno));
+    }
+    char *p = buffer;
+    while (p < buffer + length) {
+      const struct inotify_event *event = (const struct inotify_event *)p;
+      HandleEvent(event);
+      p += sizeof(struct inotify_event) + event->len;
+    }
+    if (global_changes_count >= MAX_BATCH_CHANGES ||
+        (global_changes_count > 0 &&
+         NowMillis() - global_batch_start_ms >= MAX_BATCH_DELAY_MS)) {
+      FlushChanges();
+    }
+  }
+}
+
+int main(int argc, char *argv[]) {
+  if (argc != 3) {
+    Usage(argv);
+  }
+  global_root = argv[1];
+  const char *journal_path = argv[2];
+
+  // The parent waits until the watcher is ready; the watcher tells it on this
+  // pipe: 'R' if it is ready, 'A' if another watcher is already running.
+  int ready_pipe[2];
+  CHECK_CALL(pipe(ready_pipe));
+  pid_t pid = fork();
+  CHECK_CALL(pid);
+  if (pid > 0) {
+    CHECK_CALL(close(ready_pipe[1]));
+    char status = 0;
+    ssize_t r;
+    while ((r = read(ready_pipe[0], &status, 1)) == -1 && errno == EINTR) {
+    }
+    return r == 1 && (status == 'R' || status == 'A') ? EXIT_SUCCESS
+                                                      : EXIT_FAILURE;
+  }
+
+  CHECK_CALL(close(ready_pipe[0]));
+  CHECK_CALL(setsid());
+
+  // Record locks are not inherited by forked processes, so this must be done
+  // by the watcher itself.
+  char *lock_path;
+  CHECK_CALL(asprintf(&lock_path, "%s.lock", journal_path));
+  int lock_fd;
+  CHECK_CALL(lock_fd = open(lock_path, O_RDWR | O_CREAT | O_CLOEXEC, 0644));
+  struct flock lock;
+  memset(&lock, 0, sizeof(lock));
+  lock.l_type = F_WRLCK;
+  lock.l_whence = SEEK_SET;
+  if (fcntl(lock_fd, F_SETLK, &lock) == -1) {
+    if (errno == EACCES || errno == EAGAIN) {
+      CHECK_CALL(write(ready_pipe[1], "A", 1));
+      return EXIT_SUCCESS;
+    }
+    DIE("Could not lock %s: %s\n", lock_path, strerror(errno));
+  }
+
+  char *log_path;
+  CHECK_CALL(asprintf(&log_path, "%s.log", journal_path));
+  RedirectStdout("/dev/null");
+  RedirectStderr(log_path);
+  int null_fd;
+  CHECK_CALL(null_fd = open("/dev/null", O_RDONLY));
+  CHECK_CALL(dup2(null_fd, STDIN_FILENO));
+  CHECK_CALL(close(null_fd));
+
+  global_next_sequence_number = ReadLastSequenceNumber(journal_path) + 1;
+  CHECK_CALL(global_journal_fd = open(journal_path,
+                                      O_WRONLY | O_CREAT | O_APPEND | O_CLOEXEC,
+                                      0644));
+  WriteRecord('R');
+
+  CHECK_CALL(global_inotify_fd = inotify_init1(IN_CLOEXEC | IN_NONBLOCK));
+  if (!WatchTree(".", false)) {
+    WriteRecord('R');
+    DIE("Out of inotify watches while watching %s\n", global_root);
+  }
+  if (global_root_wd == -1) {
+    WriteRecord('R');
+    DIE("Could not watch %s\n", global_root);
+  }
+
+  CHECK_CALL(write(ready_pipe[1], "R", 1));
+  CHECK_CALL(close(ready_pipe[1]));
+  CHECK_CALL(chdir("/"));
+  WatchLoop();
+  return EXIT_SUCCESS;
+}
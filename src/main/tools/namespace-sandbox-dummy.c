@@ -13,11 +13,11 @@
 // limitations under the License.
 
 // This is a dummy file to compile on platforms where namespace sandboxing
-// doesn't work (ie. other than Linux). We need this for main/tools/BUILD file
-// - we can't restrict visibility of namespace-sandbox based on platform;
-// instead bazel build main/tools:namespace-sandbox is a no-op on non supported
-// platforms (if we didn't have this file, it would fail with a non-informative
-// message)
+// and inotify don't work (ie. other than Linux). We need this for
+// main/tools/BUILD file - we can't restrict visibility of namespace-sandbox
+// and inotify-watcher based on platform; instead bazel build
+// main/tools:namespace-sandbox is a no-op on non supported platforms (if we
+// didn't have this file, it would fail with a non-informative message)
 
 int main(int argc, char *argv[]) {
   return 1;
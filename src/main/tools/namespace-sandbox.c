@@ -44,6 +44,7 @@
 static bool global_debug = false;
 static double global_kill_delay;
 static int global_child_pid;
+static int global_stats_fd = -1;
 static volatile sig_atomic_t global_signal;
 
 // The uid and gid of the user and group 'nobody'.
@@ -57,6 +58,7 @@ struct Options {
                            // timeout (-t)
   const char *stdout_path;   // Where to redirect stdout (-l)
   const char *stderr_path;   // Where to redirect stderr (-L)
+  const char *stats_path;    // Where to write resource usage statistics (-s)
   char *const *args;         // Command to run (--)
   const char *sandbox_root;  // Sandbox root (-S)
   const char *working_dir;   // Working directory (-W)
@@ -134,7 +136,8 @@ static void Usage(int argc, char *const *argv, const char *fmt, ...) {
           "    sandbox.\n"
           "  -D if set, debug info will be printed\n"
           "  -l redirect stdout to a file\n"
-          "  -L redirect stderr to a file\n");
+          "  -L redirect stderr to a file\n"
+          "  -s write the resource usage of the command to a file\n");
   exit(EXIT_FAILURE);
 }
 
@@ -145,7 +148,7 @@ static void ParseCommandLine(int argc, char *const *argv, struct Options *opt) {
   extern int optind, optopt;
   int c;
 
-  while ((c = getopt(argc, argv, ":CDS:W:t:T:M:m:l:L:")) != -1) {
+  while ((c = getopt(argc, argv, ":CDS:W:t:T:M:m:l:L:s:")) != -1) {
     switch (c) {
       case 'C':
         // Shortcut for the "does this system support sandboxing" check.
@@ -228,6 +231,14 @@ static void ParseCommandLine(int argc, char *const *argv, struct Options *opt) {
                 "Cannot redirect stderr to more than one destination.");
         }
         break;
+      case 's':
+        if (opt->stats_path == NULL) {
+          opt->stats_path = optarg;
+        } else {
+          Usage(argc, argv,
+                "Cannot write statistics to more than one destination.");
+        }
+        break;
       case '?':
         Usage(argc, argv, "Unrecognized argument: -%c (%d)", optopt, optind);
         break;
@@ -522,7 +533,9 @@ static void SpawnCommand(char *const *argv, double timeout_secs) {
     HandleSignal(SIGINT, OnSignal);
     SetTimeout(timeout_secs);
 
-    int status = WaitChild(global_child_pid, argv[0]);
+    struct rusage usage;
+    int status = WaitChildWithRusage(global_child_pid, argv[0], &usage);
+    WriteStats(global_stats_fd, &usage);
 
     // The child is done for, but may have grandchildren that we still have to
     // kill.
@@ -556,6 +569,7 @@ int main(int argc, char *const argv[]) {
 
   RedirectStdout(opt.stdout_path);
   RedirectStderr(opt.stderr_path);
+  global_stats_fd = OpenStatsFile(opt.stats_path);
 
   PRINT_DEBUG("sandbox root is %s\n", opt.sandbox_root);
   PRINT_DEBUG("working dir is %s\n",
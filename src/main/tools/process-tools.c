@@ -138,3 +138,59 @@ int WaitChild(pid_t pid, const char *name) {
 
   return status;
 }
+
+int WaitChildWithRusage(pid_t pid, const char *name, struct rusage *rusage) {
+  int err, status;
+
+  do {
+    err = wait4(pid, &status, 0, rusage);
+  } while (err == -1 && errno == EINTR);
+
+  if (err == -1) {
+    DIE("wait on %s (pid %d) failed\n", name, pid);
+  }
+
+  return status;
+}
+
+int OpenStatsFile(const char *stats_path) {
+  if (stats_path == NULL) {
+    return -1;
+  }
+  int fd;
+  CHECK_CALL(fd = open(stats_path, O_WRONLY | O_CREAT | O_TRUNC, 0666),
+             "Could not open %s for resource usage statistics", stats_path);
+  CHECK_CALL(fcntl(fd, F_SETFD, FD_CLOEXEC));
+  return fd;
+}
+
+void WriteStats(int fd, const struct rusage *rusage) {
+  if (fd == -1) {
+    return;
+  }
+
+#ifdef __APPLE__
+  // OS X reports the maximum resident set size in bytes.
+  long max_rss_kb = rusage->ru_maxrss / 1024;
+#else
+  long max_rss_kb = rusage->ru_maxrss;
+#endif
+
+  FILE *stats = fdopen(fd, "w");
+  CHECK_NOT_NULL(stats);
+  fprintf(stats,
+          "user_time_usec %lld\n"
+          "system_time_usec %lld\n"
+          "max_rss_kb %ld\n"
+          "minor_page_faults %ld\n"
+          "major_page_faults %ld\n"
+          "block_input_ops %ld\n"
+          "block_output_ops %ld\n"
+          "voluntary_context_switches %ld\n"
+          "involuntary_context_switches %ld\n",
+          (long long)rusage->ru_utime.tv_sec * 1000000 + rusage->ru_utime.tv_usec,
+          (long long)rusage->ru_stime.tv_sec * 1000000 + rusage->ru_stime.tv_usec,
+          max_rss_kb, rusage->ru_minflt, rusage->ru_majflt, rusage->ru_inblock,
+          rusage->ru_oublock, rusage->ru_nvcsw, rusage->ru_nivcsw);
+  fclose(stats);
+}
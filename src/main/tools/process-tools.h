@@ -16,6 +16,7 @@
 #define PROCESS_TOOLS_H__
 
 #include <sys/types.h>
+#include <sys/resource.h>
 #include <stdbool.h>
 
 // see
@@ -82,4 +83,22 @@ void SetTimeout(double timeout_secs);
 // "name" is used for the error message only.
 int WaitChild(pid_t pid, const char *name);
 
+// Like WaitChild, but also stores the resource usage of "pid" and of all of
+// its descendants that it waited for in "rusage".
+int WaitChildWithRusage(pid_t pid, const char *name, struct rusage *rusage);
+
+// Open the file "stats_path" for WriteStats and return the file descriptor, or
+// -1 if "stats_path" is NULL. The file is opened early on so that it can be
+// written to after the process has changed its root directory.
+int OpenStatsFile(const char *stats_path);
+
+// Write "rusage" to the file descriptor "fd" returned by OpenStatsFile and
+// close it. No-op if "fd" is -1.
+//
+// The file consists of one "<key> <value>" line for each of user_time_usec,
+// system_time_usec, max_rss_kb, minor_page_faults, major_page_faults,
+// block_input_ops, block_output_ops, voluntary_context_switches and
+// involuntary_context_switches.
+void WriteStats(int fd, const struct rusage *rusage);
+
 #endif  // PROCESS_TOOLS_H__
@@ -21,6 +21,10 @@
 // unless process-wrapper receives a signal. ie, on SIGTERM this program will
 // die with raise(SIGTERM) even if the child process handles SIGTERM with
 // exit(0).
+//
+// If the arguments start with "--stats <file>", the resource usage of the
+// subprocess is written to <file> once it has terminated (see WriteStats in
+// process-tools.h).
 
 #define _GNU_SOURCE
 
@@ -41,6 +45,7 @@ extern char **environ;
 
 static double global_kill_delay;
 static int global_child_pid;
+static int global_stats_fd = -1;
 static volatile sig_atomic_t global_signal;
 
 // Options parsing result.
@@ -49,6 +54,7 @@ struct Options {
   double kill_delay_secs;
   const char *stdout_path;
   const char *stderr_path;
+  const char *stats_path;
   char *const *args;
 };
 
@@ -57,8 +63,8 @@ struct Options {
 // string for the error message to print.
 static void Usage(char *const *argv) {
   fprintf(stderr,
-          "Usage: %s <timeout-secs> <kill-delay-secs> <stdout-redirect> "
-          "<stderr-redirect> <command> [args] ...\n",
+          "Usage: %s [--stats <stats-file>] <timeout-secs> <kill-delay-secs> "
+          "<stdout-redirect> <stderr-redirect> <command> [args] ...\n",
           argv[0]);
   exit(EXIT_FAILURE);
 }
@@ -66,8 +72,14 @@ static void Usage(char *const *argv) {
 // Parse the command line flags and return the result in an Options structure
 // passed as argument.
 static void ParseCommandLine(int argc, char *const *argv, struct Options *opt) {
+  char *const *usage_argv = argv;
+  if (argc > 2 && strcmp(argv[1], "--stats") == 0) {
+    opt->stats_path = argv[2];
+    argc -= 2;
+    argv += 2;
+  }
   if (argc <= 5) {
-    Usage(argv);
+    Usage(usage_argv);
   }
 
   argv++;
@@ -127,7 +139,9 @@ static void SpawnCommand(char *const *argv, double timeout_secs) {
     HandleSignal(SIGINT, OnSignal);
     SetTimeout(timeout_secs);
 
-    int status = WaitChild(global_child_pid, argv[0]);
+    struct rusage usage;
+    int status = WaitChildWithRusage(global_child_pid, argv[0], &usage);
+    WriteStats(global_stats_fd, &usage);
 
     // The child is done for, but may have grandchildren that we still have to
     // kill.
@@ -153,6 +167,7 @@ int main(int argc, char *argv[]) {
 
   ParseCommandLine(argc, argv, &opt);
   global_kill_delay = opt.kill_delay_secs;
+  global_stats_fd = OpenStatsFile(opt.stats_path);
 
   SwitchToEuid();
   SwitchToEgid();
@@ -0,0 +1,405 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+// spawn-server is a small helper that is started once per Bazel server and
+// spawns processes on its behalf, so that the (large) Bazel JVM doesn't have
+// to fork itself for every action.
+//
+// It listens on a Unix domain socket. Every connection carries exactly one
+// request. For each connection, spawn-server forks a supervisor (which is
+// cheap, since spawn-server itself is tiny) that runs the command just like
+// process-wrapper would: in its own process group, with stdout and stderr
+// appended to the given files, and with the given timeout. When the command
+// has finished, the supervisor kills any processes it left behind and writes
+// the result back on the connection. If the client closes the connection
+// before that (e.g. because the build was interrupted), the command is killed.
+//
+// Request: "<length>\n" followed by <length> bytes of NUL-terminated fields:
+//   <timeout-secs> <kill-delay-secs> <cwd> <stdout-file> <stderr-file>
+//   <argc> <argv[0]> ... <argv[argc - 1]>
+//   <envc> <env[0]> ... <env[envc - 1]>
+//
+// Response: a single line of space separated decimal numbers:
+//   <exit-code> <user-usec> <system-usec> <max-rss-kb> <minor-faults>
+//   <major-faults> <block-input-ops> <block-output-ops>
+//   <voluntary-context-switches> <involuntary-context-switches>
+// where <exit-code> is the exit status of the command, or 128 + the number of
+// the signal that terminated it (the same convention as process-wrapper). If
+// the command could not be started, the response is a line starting with
+// "error".
+
+#define _GNU_SOURCE
+
+#include <errno.h>
+#include <fcntl.h>
+#include <poll.h>
+#include <signal.h>
+#include <stdbool.h>
+#include <stdio.h>
+#include <stdlib.h>
+#include <string.h>
+#include <sys/resource.h>
+#include <sys/socket.h>
+#include <sys/stat.h>
+#include <sys/types.h>
+#include <sys/un.h>
+#include <sys/wait.h>
+#include <unistd.h>
+
+#include "process-tools.h"
+
+// Upper bound for the size of a request, to protect against garbage input.
+#define MAX_REQUEST_SIZE (64 * 1024 * 1024)
+
+struct Request {
+  double timeout_secs;
+  double kill_delay_secs;
+  const char *cwd;
+  const char *stdout_path;
+  const char *stderr_path;
+  char **args;
+  char **env;
+};
+
+// Written to by the signal handlers of a supervisor to wake up its poll loop.
+static int global_wakeup_pipe[2];
+static volatile sig_atomic_t global_timed_out;
+
+static void Usage(char *const *argv) {
+  fprintf(stderr, "Usage: %s <socket-path>\n", argv[0]);
+  exit(EXIT_FAILURE);
+}
+
+// Reads exactly "size" bytes from "fd". Returns false on EOF or error.
+static bool ReadFully(int fd, char *buffer, size_t size) {
+  while (size > 0) {
+    ssize_t r = read(fd, buffer, size);
+    if (r == -1 && errno == EINTR) {
+      continue;
+    }
+    if (r <= 0) {
+      return false;
+    }
+    buffer += r;
+    size -= r;
+  }
+  return true;
+}
+
+// Writes the whole string "s" to "fd", ignoring errors: if the client went
+// away, there is nobody left to report them to.
+static void WriteFully(int fd, const char *s) {
+  size_t size = strlen(s);
+  while (size > 0) {
+    ssize_t r = write(fd, s, size);
+    if (r == -1 && errno == EINTR) {
+      continue;
+    }
+    if (r <= 0) {
+      return;
+    }
+    s += r;
+    size -= r;
+  }
+}
+
+// Returns the next NUL-terminated field of the request buffer, or NULL if the
+// buffer is exhausted.
+static const char *NextField(char **pos, char *end) {
+  if (*pos >= end) {
+    return NULL;
+  }
+  char *field = *pos;
+  char *nul = memchr(field, '\0', end - field);
+  if (nul == NULL) {
+    return NULL;
+  }
+  *pos = nul + 1;
+  return field;
+}
+
+// Reads "count" fields into a newly allocated, NULL-terminated array.
+static char **ReadFieldArray(char **pos, char *end) {
+  const char *count_field = NextField(pos, end);
+  if (count_field == NULL) {
+    return NULL;
+  }
+  int count = atoi(count_field);
+  if (count < 0) {
+    return NULL;
+  }
+  char **array = calloc(count + 1, sizeof(char *));
+  CHECK_NOT_NULL(array);
+  for (int i = 0; i < count; i++) {
+    array[i] = (char *)NextField(pos, end);
+    if (array[i] == NULL) {
+      return NULL;
+    }
+  }
+  return array;
+}
+
+// Reads and parses a request from the connection "fd". Returns false if the
+// request is malformed.
+static bool ReadRequest(int fd, struct Request *request) {
+  char header[32];
+  size_t header_size = 0;
+  while (true) {
+    if (header_size == sizeof(header) - 1 ||
+        !ReadFully(fd, header + header_size, 1)) {
+      return false;
+    }
+    if (header[header_size] == '\n') {
+      break;
+    }
+    header_size++;
+  }
+  header[header_size] = '\0';
+  long size = atol(header);
+  if (size <= 0 || size > MAX_REQUEST_SIZE) {
+    return false;
+  }
+
+  char *buffer = malloc(size);
+  CHECK_NOT_NULL(buffer);
+  if (!ReadFully(fd, buffer, size)) {
+    return false;
+  }
+
+  char *pos = buffer;
+  char *end = buffer + size;
+  const char *timeout = NextField(&pos, end);
+  const char *kill_delay = NextField(&pos, end);
+  request->cwd = NextField(&pos, end);
+  request->stdout_path = NextField(&pos, end);
+  request->stderr_path = NextField(&pos, end);
+  if (timeout == NULL || kill_delay == NULL || request->stderr_path == NULL) {
+    return false;
+  }
+  if (sscanf(timeout, "%lf", &request->timeout_secs) != 1 ||
+      sscanf(kill_delay, "%lf", &request->kill_delay_secs) != 1) {
+    return false;
+  }
+  request->args = ReadFieldArray(&pos, end);
+  request->env = ReadFieldArray(&pos, end);
+  return request->args != NULL && request->args[0] != NULL &&
+         request->env != NULL;
+}
+
+static void OnSignal(int sig) {
+  if (sig == SIGALRM) {
+    global_timed_out = 1;
+  }
+  int saved_errno = errno;
+  char c = (char)sig;
+  if (write(global_wakeup_pipe[1], &c, 1) == -1) {
+    // The pipe is full, so the supervisor will wake up anyway.
+  }
+  errno = saved_errno;
+}
+
+// Redirects "fd" to the end of the file at "path", without truncating it, as
+// the Bazel server may already have written to it.
+static void AppendTo(const char *path, int fd) {
+  int fd_out;
+  CHECK_CALL(fd_out = open(path, O_WRONLY | O_CREAT | O_APPEND, 0666),
+             "Could not open %s for redirection", path);
+  CHECK_CALL(dup2(fd_out, fd));
+  CHECK_CALL(close(fd_out));
+}
+
+// Runs in the child: sets up the environment and executes the command.
+static void ExecCommand(const struct Request *request) {
+  CHECK_CALL(setsid());
+  ClearSignalMask();
+  umask(022);
+
+  int null_fd;
+  CHECK_CALL(null_fd = open("/dev/null", O_RDONLY));
+  CHECK_CALL(dup2(null_fd, STDIN_FILENO));
+  CHECK_CALL(close(null_fd));
+  AppendTo(request->stdout_path, STDOUT_FILENO);
+  AppendTo(request->stderr_path, STDERR_FILENO);
+
+  CHECK_CALL(chdir(request->cwd), "Could not change to %s", request->cwd);
+  environ = request->env;
+  CHECK_CALL(execvp(request->args[0], request->args));
+}
+
+// Handles a single connection in a freshly forked supervisor process.
+static void Supervise(int connection) {
+  struct Request request;
+  memset(&request, 0, sizeof(request));
+  if (!ReadRequest(connection, &request)) {
+    WriteFully(connection, "error malformed request\n");
+    exit(EXIT_FAILURE);
+  }
+
+  CHECK_CALL(pipe(global_wakeup_pipe));
+  for (int i = 0; i < 2; i++) {
+    CHECK_CALL(fcntl(global_wakeup_pipe[i], F_SETFD, FD_CLOEXEC));
+    CHECK_CALL(fcntl(global_wakeup_pipe[i], F_SETFL, O_NONBLOCK));
+  }
+  HandleSignal(SIGCHLD, OnSignal);
+  HandleSignal(SIGALRM, OnSignal);
+
+  pid_t child_pid;
+  CHECK_CALL(child_pid = fork());
+  if (child_pid == 0) {
+    close(connection);
+    ExecCommand(&request);
+  }
+
+  SetTimeout(request.timeout_secs);
+
+  int status;
+  struct rusage usage;
+  bool timeout_handled = false;
+  bool client_gone = false;
+  while (true) {
+    pid_t pid = wait4(child_pid, &status, WNOHANG, &usage);
+    if (pid == child_pid) {
+      break;
+    }
+
+    if (global_timed_out && !timeout_handled) {
+      // Give the process a bit of time to die gracefully.
+      timeout_handled = true;
+      KillEverything(child_pid, true, request.kill_delay_secs);
+      continue;
+    }
+
+    struct pollfd fds[2] = {
+        {.fd = global_wakeup_pipe[0], .events = POLLIN},
+        {.fd = client_gone ? -1 : connection, .events = POLLIN},
+    };
+    if (poll(fds, 2, -1) == -1) {
+      continue;
+    }
+    if (fds[0].revents & POLLIN) {
+      char buffer[16];
+      while (read(global_wakeup_pipe[0], buffer, sizeof(buffer)) > 0) {
+      }
+    }
+    if (fds[1].revents & (POLLIN | POLLHUP | POLLERR)) {
+      // The client isn't supposed to send anything else, so this means it
+      // went away: kill the command quickly.
+      client_gone = true;
+      KillEverything(child_pid, false, 0);
+    }
+  }
+
+  // The child is done for, but may have grandchildren that we still have to
+  // kill.
+  kill(-child_pid, SIGKILL);
+
+  int exit_code;
+  if (global_timed_out) {
+    // Report a timeout like process-wrapper does (i.e. as termination by
+    // SIGALRM), regardless of how the command reacted to it.
+    exit_code = 128 + SIGALRM;
+  } else if (WIFSIGNALED(status)) {
+    exit_code = 128 + WTERMSIG(status);
+  } else {
+    exit_code = WEXITSTATUS(status);
+  }
+
+  char response[512];
+  snprintf(response, sizeof(response),
+           "%d %lld %lld %ld %ld %ld %ld %ld %ld %ld\n", exit_code,
+           (long long)usage.ru_utime.tv_sec * 1000000 + usage.ru_utime.tv_usec,
+           (long long)usage.ru_stime.tv_sec * 1000000 + usage.ru_stime.tv_usec,
+           usage.ru_maxrss, usage.ru_minflt, usage.ru_majflt,
+           usage.ru_inblock, usage.ru_oublock, usage.ru_nvcsw,
+           usage.ru_nivcsw);
+  WriteFully(connection, response);
+  exit(EXIT_SUCCESS);
+}
+
+// Creates the listening socket at "path".
+static int Listen(const char *path) {
+  struct sockaddr_un address;
+  memset(&address, 0, sizeof(address));
+  address.sun_family = AF_UNIX;
+  if (strlen(path) >= sizeof(address.sun_path)) {
+    DIE("Socket path too long: %s\n", path);
+  }
+  strcpy(address.sun_path, path);
+
+  int fd;
+  CHECK_CALL(fd = socket(AF_UNIX, SOCK_STREAM, 0));
+  CHECK_CALL(fcntl(fd, F_SETFD, FD_CLOEXEC));
+  unlink(path);
+  CHECK_CALL(bind(fd, (struct sockaddr *)&address, sizeof(address)));
+  CHECK_CALL(listen(fd, 128));
+  return fd;
+}
+
+static void ReapSupervisors(int sig) {
+  int saved_errno = errno;
+  while (waitpid(-1, NULL, WNOHANG) > 0) {
+  }
+  errno = saved_errno;
+}
+
+int main(int argc, char *argv[]) {
+  if (argc != 2) {
+    Usage(argv);
+  }
+
+  SwitchToEuid();
+  SwitchToEgid();
+
+  int server = Listen(argv[1]);
+  HandleSignal(SIGCHLD, ReapSupervisors);
+  signal(SIGPIPE, SIG_IGN);
+
+  // Tell the Bazel server that we are ready to accept connections.
+  printf("ready\n");
+  fflush(stdout);
+
+  // Exit when the Bazel server goes away, as it keeps our stdin open.
+  while (true) {
+    struct pollfd fds[2] = {
+        {.fd = server, .events = POLLIN},
+        {.fd = STDIN_FILENO, .events = POLLIN},
+    };
+    if (poll(fds, 2, -1) == -1) {
+      if (errno == EINTR) {
+        continue;
+      }
+      DIE("poll failed: %s\n", strerror(errno));
+    }
+    if (fds[1].revents & (POLLIN | POLLHUP | POLLERR)) {
+      unlink(argv[1]);
+      return 0;
+    }
+    if (!(fds[0].revents & POLLIN)) {
+      continue;
+    }
+
+    int connection = accept(server, NULL, NULL);
+    if (connection == -1) {
+      continue;
+    }
+    fcntl(connection, F_SETFD, FD_CLOEXEC);
+
+    pid_t pid = fork();
+    if (pid == 0) {
+      close(server);
+      Supervise(connection);
+    }
+    close(connection);
+  }
+}
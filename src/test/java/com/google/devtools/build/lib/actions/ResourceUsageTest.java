@@ -0,0 +1,94 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.actions;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link ResourceUsage}.
+ */
+@RunWith(JUnit4.class)
+public class ResourceUsageTest {
+
+  private Path statsFile;
+
+  @Before
+  public void setUp() throws Exception {
+    statsFile = new InMemoryFileSystem().getPath("/stats");
+  }
+
+  @Test
+  public void testReadStatsFile() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(statsFile,
+        "user_time_usec 1200000\n"
+        + "system_time_usec 310000\n"
+        + "max_rss_kb 156672\n"
+        + "minor_page_faults 4\n"
+        + "unknown_key 17\n");
+
+    ResourceUsage usage = ResourceUsage.readStatsFile(statsFile);
+
+    assertThat(usage.getUserTimeMicros()).isEqualTo(1200000L);
+    assertThat(usage.getSystemTimeMicros()).isEqualTo(310000L);
+    assertThat(usage.getCpuTimeMicros()).isEqualTo(1510000L);
+    assertThat(usage.getMaxResidentSetKb()).isEqualTo(156672L);
+    assertThat(usage.getMinorPageFaults()).isEqualTo(4L);
+    assertThat(usage.getMajorPageFaults()).isEqualTo(0L);
+    assertThat(usage.toString()).isEqualTo("1.20s user, 0.31s system, 153 MB max RSS");
+  }
+
+  @Test
+  public void testReadMalformedStatsFile() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(statsFile, "user_time_usec many\n");
+    try {
+      ResourceUsage.readStatsFile(statsFile);
+      fail();
+    } catch (IOException e) {
+      assertThat(e.getMessage()).contains("Malformed line");
+    }
+  }
+
+  @Test
+  public void testConsumeStatsFile() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(statsFile, "user_time_usec 5\n");
+
+    assertThat(ResourceUsage.consumeStatsFile(statsFile).getUserTimeMicros()).isEqualTo(5L);
+    assertThat(statsFile.exists()).isFalse();
+    assertThat(ResourceUsage.consumeStatsFile(statsFile)).isSameAs(ResourceUsage.EMPTY);
+  }
+
+  @Test
+  public void testPlus() throws Exception {
+    ResourceUsage first = new ResourceUsage(10, 1, 300, 1, 2, 3, 4, 5, 6);
+    ResourceUsage second = new ResourceUsage(20, 2, 200, 1, 1, 1, 1, 1, 1);
+
+    assertThat(first.plus(second)).isEqualTo(new ResourceUsage(30, 3, 300, 2, 3, 4, 5, 6, 7));
+    assertThat(first.plus(ResourceUsage.EMPTY)).isSameAs(first);
+    assertThat(ResourceUsage.EMPTY.plus(second)).isSameAs(second);
+    assertThat(ResourceUsage.EMPTY.isEmpty()).isTrue();
+    assertThat(first.isEmpty()).isFalse();
+  }
+}
@@ -0,0 +1,175 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.exec;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.vfs.BatchStat;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigest;
+import com.google.devtools.build.lib.vfs.FileStatusWithDigestAdapter;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests for {@link JournaledBatchStat}.
+ */
+@RunWith(JUnit4.class)
+public class JournaledBatchStatTest {
+
+  private final List<PathFragment> statted = new ArrayList<>();
+  private Path execRoot;
+  private Path journalPath;
+  private JournaledBatchStat batchStat;
+
+  @Before
+  public void setUp() throws Exception {
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem();
+    execRoot = fileSystem.getPath("/execroot");
+    journalPath = fileSystem.getPath("/journal");
+    FileSystemUtils.createEmptyFile(journalPath);
+    for (String file : new String[] {"out/a", "out/dir/b", "out/dir/c", "src/d"}) {
+      Path path = execRoot.getRelative(file);
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      FileSystemUtils.writeContentAsLatin1(path, file);
+    }
+    batchStat = new JournaledBatchStat(new BatchStat() {
+      @Override
+      public List<FileStatusWithDigest> batchStat(boolean includeDigest, boolean includeLinks,
+          Iterable<PathFragment> paths) {
+        List<FileStatusWithDigest> result = new ArrayList<>();
+        for (PathFragment path : paths) {
+          statted.add(path);
+          Path absolutePath = execRoot.getRelative(path);
+          result.add(absolutePath.exists(Symlinks.NOFOLLOW)
+              ? FileStatusWithDigestAdapter.adapt(absolutePath.statNullable(Symlinks.NOFOLLOW))
+              : null);
+        }
+        return result;
+      }
+    }, new PathFragment("out"));
+  }
+
+  private void append(String records) throws Exception {
+    try (OutputStream out = journalPath.getOutputStream(/*append=*/true)) {
+      out.write(records.getBytes(ISO_8859_1));
+    }
+  }
+
+  private List<FileStatusWithDigest> stat(String... paths) throws Exception {
+    statted.clear();
+    List<PathFragment> fragments = new ArrayList<>();
+    for (String path : paths) {
+      fragments.add(new PathFragment(path));
+    }
+    return batchStat.batchStat(/*includeDigest=*/true, /*includeLinks=*/true, fragments);
+  }
+
+  private static List<PathFragment> fragments(String... paths) {
+    ImmutableList.Builder<PathFragment> builder = ImmutableList.builder();
+    for (String path : paths) {
+      builder.add(new PathFragment(path));
+    }
+    return builder.build();
+  }
+
+  @Test
+  public void testUnchangedOutputsAreNotStatted() throws Exception {
+    batchStat.setJournal(journalPath);
+    append("1 R\n");
+    List<FileStatusWithDigest> first = stat("out/a", "out/dir/b", "src/d");
+    assertThat(statted).containsExactlyElementsIn(fragments("out/a", "out/dir/b", "src/d"));
+
+    List<FileStatusWithDigest> second = stat("out/a", "out/dir/b", "src/d");
+    // Only the path outside of the watched directory is statted again.
+    assertThat(statted).containsExactlyElementsIn(fragments("src/d"));
+    assertSame(first.get(0), second.get(0));
+    assertSame(first.get(1), second.get(1));
+    assertEquals(6, batchStat.getAndResetRequestCount());
+    assertEquals(2, batchStat.getAndResetHitCount());
+  }
+
+  @Test
+  public void testChangedOutputsAreStattedAgain() throws Exception {
+    batchStat.setJournal(journalPath);
+    append("1 R\n");
+    stat("out/a", "out/dir/b", "out/dir/c");
+
+    append("2 C a\n");
+    stat("out/a", "out/dir/b", "out/dir/c");
+    assertThat(statted).containsExactlyElementsIn(fragments("out/a"));
+
+    // A change of a directory drops everything below it.
+    append("3 C dir\n");
+    stat("out/a", "out/dir/b", "out/dir/c");
+    assertThat(statted).containsExactlyElementsIn(fragments("out/dir/b", "out/dir/c"));
+  }
+
+  @Test
+  public void testLostChangesDropEverything() throws Exception {
+    batchStat.setJournal(journalPath);
+    append("1 R\n");
+    stat("out/a", "out/dir/b");
+    append("2 O\n");
+    stat("out/a", "out/dir/b");
+    assertThat(statted).containsExactlyElementsIn(fragments("out/a", "out/dir/b"));
+
+    // So does a restart of the watcher, or a new journal.
+    append("3 R\n");
+    stat("out/a", "out/dir/b");
+    assertThat(statted).hasSize(2);
+    batchStat.setJournal(journalPath.getFileSystem().getPath("/other_journal"));
+    stat("out/a", "out/dir/b");
+    assertThat(statted).hasSize(2);
+  }
+
+  @Test
+  public void testWithoutWatcherEverythingIsStatted() throws Exception {
+    stat("out/a");
+    stat("out/a");
+    assertThat(statted).hasSize(1);
+
+    batchStat.setJournal(journalPath);
+    append("1 R\n");
+    stat("out/a");
+    batchStat.setJournal(null);
+    stat("out/a");
+    assertThat(statted).hasSize(1);
+  }
+
+  @Test
+  public void testMissingFilesAreNotRemembered() throws Exception {
+    batchStat.setJournal(journalPath);
+    append("1 R\n");
+    assertNull(stat("out/missing").get(0));
+    FileSystemUtils.createEmptyFile(execRoot.getRelative("out/missing"));
+    assertThat(stat("out/missing").get(0)).isNotNull();
+  }
+}
@@ -0,0 +1,188 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationEnvironment;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationException;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.syntax.GlobList;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link IndexedPackage} and {@link PackageSerializer#serializeIndexed}.
+ */
+@RunWith(JUnit4.class)
+public class IndexedPackageTest {
+
+  private Scratch scratch = new Scratch("/workspace");
+  private EventCollectionApparatus events = new EventCollectionApparatus();
+  private PackageFactoryApparatus packages = new PackageFactoryApparatus(events, scratch);
+  private PackageDeserializer deserializer;
+  private Package pkg;
+
+  @Before
+  public void setUp() throws Exception {
+    deserializer = new PackageDeserializer(new PackageDeserializationEnvironment() {
+      @Override
+      public Path getPath(String buildFilePath) {
+        return scratch.resolve(buildFilePath);
+      }
+
+      @Override
+      public RuleClass getRuleClass(Build.Rule rulePb, Location ruleLocation) {
+        return TestRuleClassProvider.getRuleClassProvider().getRuleClassMap()
+            .get(rulePb.getRuleClass());
+      }
+    });
+    scratch.file("pkg/a.cc");
+    scratch.file("pkg/b.cc");
+    scratch.file("pkg/skip.cc");
+    pkg = packages.createPackage("pkg", scratch.file("pkg/BUILD",
+        "package(default_visibility = ['//visibility:public'])",
+        "licenses(['notice'])",
+        "exports_files(['data.txt'], visibility = ['//other:__pkg__'], licenses = ['restricted'])",
+        "package_group(name = 'friends', packages = ['//friend/...'])",
+        "cc_library(name = 'lib',",
+        "           srcs = glob(['*.cc'], exclude = ['skip.cc']) + [':generated.h'],",
+        "           copts = ['-O2', '-DNAME=été'],",
+        "           deps = [':base'],",
+        "           linkstatic = 1,",
+        "           licenses = ['notice', 'reciprocal'],",
+        "           distribs = ['client'])",
+        "cc_library(name = 'base', srcs = ['base.cc'], defines = ['A=1'],",
+        "           visibility = [':friends'])",
+        "genrule(name = 'gen', srcs = ['data.txt'], outs = ['generated.h'],",
+        "        cmd = 'cp $< $@', tags = ['manual'])",
+        "cc_binary(name = 'bin', srcs = ['main.cc'], deps = [':lib'], stamp = 0)",
+        "cc_library(name = 'unrelated', srcs = ['unrelated.cc'])"));
+    events.assertNoEvents();
+  }
+
+  private IndexedPackage openIndexed(Package pkg) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PackageSerializer.DEFAULT.serializeIndexed(pkg, out);
+    return deserializer.openIndexed(ByteBuffer.wrap(out.toByteArray()));
+  }
+
+  private static byte[] serialize(Package pkg) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PackageSerializer.DEFAULT.serialize(pkg, out);
+    return out.toByteArray();
+  }
+
+  private static List<String> targetNames(Package pkg) {
+    List<String> names = new ArrayList<>();
+    for (Target target : pkg.getTargets()) {
+      names.add(target.getName());
+    }
+    return names;
+  }
+
+  @Test
+  public void testWholePackageMatchesProtocolBufferFormat() throws Exception {
+    Package fromProto =
+        deserializer.deserialize(new ByteArrayInputStream(serialize(pkg)));
+    Package fromIndex = openIndexed(pkg).getPackage();
+    assertEquals(targetNames(pkg), targetNames(fromIndex));
+    assertArrayEquals(serialize(fromProto), serialize(fromIndex));
+    assertArrayEquals(serialize(pkg), serialize(fromIndex));
+  }
+
+  @Test
+  public void testIndex() throws Exception {
+    IndexedPackage indexed = openIndexed(pkg);
+    assertEquals(pkg.getPackageIdentifier(), indexed.getPackageIdentifier());
+    assertEquals(targetNames(pkg), indexed.getTargetNames());
+    assertTrue(indexed.containsTarget("generated.h"));
+    assertFalse(indexed.containsTarget("missing"));
+    assertEquals("cc_library", indexed.getRuleClass("lib"));
+    assertEquals("genrule", indexed.getRuleClass("gen"));
+    assertNull(indexed.getRuleClass("data.txt"));
+    assertNull(indexed.getRuleClass("generated.h"));
+    assertNull(indexed.getRuleClass("missing"));
+  }
+
+  @Test
+  public void testTargetsAreDeserializedOnDemand() throws Exception {
+    Package partial = openIndexed(pkg).getPackage(ImmutableList.of("lib", "missing"));
+    // Rules the named ones depend on, and the generating rules of the output files they use,
+    // come along; everything else is left out.
+    assertThat(partial.getTargets(Rule.class)).hasSize(3);
+    assertEquals("cc_library", partial.getRule("base").getRuleClass());
+    assertEquals("genrule", partial.getRule("gen").getRuleClass());
+    assertTrue(partial.getTarget("generated.h") instanceof OutputFile);
+    assertTrue(partial.getTarget("friends") instanceof PackageGroup);
+    assertNull(partial.getRule("bin"));
+    assertNull(partial.getRule("unrelated"));
+
+    Rule lib = partial.getRule("lib");
+    RawAttributeMapper attributes = RawAttributeMapper.of(lib);
+    assertEquals(Arrays.asList("-O2", "-DNAME=été"),
+        attributes.get("copts", Type.STRING_LIST));
+    assertThat(attributes.get("srcs", Type.LABEL_LIST)).isInstanceOf(GlobList.class);
+    assertEquals(RawAttributeMapper.of(pkg.getRule("lib")).get("srcs", Type.LABEL_LIST),
+        attributes.get("srcs", Type.LABEL_LIST));
+    assertTrue(attributes.get("linkstatic", Type.BOOLEAN));
+    assertTrue(attributes.isAttributeValueExplicitlySpecified("copts"));
+    assertFalse(attributes.isAttributeValueExplicitlySpecified("includes"));
+
+    InputFile data = (InputFile) partial.getTarget("data.txt");
+    assertTrue(data.isVisibilitySpecified());
+    assertTrue(data.isLicenseSpecified());
+  }
+
+  @Test
+  public void testMalformedBuffer() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    PackageSerializer.DEFAULT.serializeIndexed(pkg, out);
+    byte[] bytes = out.toByteArray();
+    for (byte[] malformed : Arrays.asList(
+        new byte[0],
+        Arrays.copyOf(bytes, 8),
+        Arrays.copyOf(bytes, bytes.length - 1),
+        Arrays.copyOf(bytes, bytes.length + 1))) {
+      try {
+        deserializer.openIndexed(ByteBuffer.wrap(malformed)).getPackage();
+        fail();
+      } catch (PackageDeserializationException expected) {
+      }
+    }
+  }
+}
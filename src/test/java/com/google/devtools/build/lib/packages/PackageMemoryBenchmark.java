@@ -0,0 +1,84 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained by large packages of generated rules, which mostly share the values
+ * of their list attributes, as the rules that macros generate do.
+ *
+ * <p>Usage: {@code PackageMemoryBenchmark [packages] [rules-per-package]}.
+ */
+public final class PackageMemoryBenchmark {
+  private PackageMemoryBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int rules = args.length > 1 ? Integer.parseInt(args[1]) : 1000;
+
+    Scratch scratch = new Scratch();
+    EventCollectionApparatus events = new EventCollectionApparatus();
+    PackageFactoryApparatus apparatus = new PackageFactoryApparatus(events, scratch);
+    List<Path> buildFiles = new ArrayList<>();
+    for (int i = 0; i < packages; i++) {
+      buildFiles.add(scratch.file("/workspace/pkg" + i + "/BUILD", buildFileContent(rules)));
+    }
+    // Load one package first, so that the rule classes are not counted.
+    apparatus.createPackage("pkg0", buildFiles.get(0));
+
+    long before = usedHeap();
+    List<Package> loaded = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int i = 0; i < packages; i++) {
+      loaded.add(apparatus.createPackage("pkg" + i, buildFiles.get(i)));
+    }
+    long nanos = System.nanoTime() - start;
+    long retained = usedHeap() - before;
+    System.out.printf("%d packages of %d rules: %.1f ms per package, %d bytes per rule%n",
+        loaded.size(), rules, nanos / 1e6 / packages, retained / (packages * rules));
+  }
+
+  private static long usedHeap() {
+    MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return memory.getHeapMemoryUsage().getUsed();
+  }
+
+  private static String[] buildFileContent(int rules) {
+    List<String> lines = new ArrayList<>();
+    for (int rule = 0; rule < rules; rule++) {
+      lines.add("cc_library(");
+      lines.add("    name = 'lib" + rule + "',");
+      lines.add("    srcs = ['lib" + rule + ".cc'],");
+      lines.add("    copts = ['-O2', '-Wall', '-Werror', '-DGENERATED=1'],");
+      lines.add("    deps = ['//base', '//base:logging', '//util:strings', '//util:files'],");
+      lines.add("    linkstatic = 1,");
+      lines.add("    tags = ['generated'],");
+      lines.add("    visibility = ['//visibility:public'],");
+      lines.add(")");
+    }
+    return lines.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,140 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.util.EventCollectionApparatus;
+import com.google.devtools.build.lib.packages.PackageDeserializer.PackageDeserializationEnvironment;
+import com.google.devtools.build.lib.packages.util.PackageFactoryApparatus;
+import com.google.devtools.build.lib.query2.proto.proto2api.Build;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestRuleClassProvider;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares the size of serialized packages and the time it takes to deserialize them, either
+ * whole or one target at a time, between the protocol buffer format of
+ * {@link PackageSerializer#serialize} and the indexed format of
+ * {@link PackageSerializer#serializeIndexed}, read from memory-mapped files.
+ *
+ * <p>Usage: {@code PackageSerializationBenchmark [packages] [rules-per-package] [rounds]}.
+ */
+public final class PackageSerializationBenchmark {
+  private PackageSerializationBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+    int rules = args.length > 1 ? Integer.parseInt(args[1]) : 500;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    final Scratch scratch = new Scratch();
+    PackageFactoryApparatus apparatus =
+        new PackageFactoryApparatus(new EventCollectionApparatus(), scratch);
+    PackageDeserializer deserializer =
+        new PackageDeserializer(new PackageDeserializationEnvironment() {
+          @Override
+          public Path getPath(String buildFilePath) {
+            return scratch.resolve(buildFilePath);
+          }
+
+          @Override
+          public RuleClass getRuleClass(Build.Rule rulePb, Location ruleLocation) {
+            return TestRuleClassProvider.getRuleClassProvider().getRuleClassMap()
+                .get(rulePb.getRuleClass());
+          }
+        });
+
+    List<byte[]> protos = new ArrayList<>();
+    List<ByteBuffer> mapped = new ArrayList<>();
+    long protoBytes = 0;
+    long indexedBytes = 0;
+    for (int i = 0; i < packages; i++) {
+      Package pkg = apparatus.createPackage("pkg" + i,
+          scratch.file("/workspace/pkg" + i + "/BUILD", buildFileContent(i, rules)));
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      PackageSerializer.DEFAULT.serialize(pkg, out);
+      protos.add(out.toByteArray());
+      protoBytes += out.size();
+
+      out = new ByteArrayOutputStream();
+      PackageSerializer.DEFAULT.serializeIndexed(pkg, out);
+      indexedBytes += out.size();
+      File file = File.createTempFile("pkg" + i, ".indexed");
+      file.deleteOnExit();
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+        raf.write(out.toByteArray());
+        mapped.add(raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()));
+      }
+    }
+    System.out.printf("%d packages of %d rules: protocol buffers %d bytes, indexed %d bytes%n",
+        packages, rules, protoBytes / packages, indexedBytes / packages);
+
+    List<String> someTargets = ImmutableList.of("lib" + (rules / 2));
+    for (int round = 0; round < rounds; round++) {
+      long start = System.nanoTime();
+      for (byte[] proto : protos) {
+        deserializer.deserialize(new ByteArrayInputStream(proto));
+      }
+      double protoMillis = (System.nanoTime() - start) / 1e6 / packages;
+
+      start = System.nanoTime();
+      for (ByteBuffer buffer : mapped) {
+        deserializer.openIndexed(buffer).getPackage();
+      }
+      double indexedMillis = (System.nanoTime() - start) / 1e6 / packages;
+
+      start = System.nanoTime();
+      for (ByteBuffer buffer : mapped) {
+        deserializer.openIndexed(buffer).getPackage(someTargets);
+      }
+      double oneTargetMillis = (System.nanoTime() - start) / 1e6 / packages;
+
+      start = System.nanoTime();
+      for (ByteBuffer buffer : mapped) {
+        deserializer.openIndexed(buffer).getTargetNames();
+      }
+      double namesMillis = (System.nanoTime() - start) / 1e6 / packages;
+
+      System.out.printf("round %d: protocol buffers %.2f ms, indexed %.2f ms, "
+          + "one target %.3f ms, target names %.3f ms per package%n",
+          round, protoMillis, indexedMillis, oneTargetMillis, namesMillis);
+    }
+  }
+
+  private static String[] buildFileContent(int index, int rules) {
+    List<String> lines = new ArrayList<>();
+    lines.add("package(default_visibility = ['//visibility:public'])");
+    for (int rule = 0; rule < rules; rule++) {
+      lines.add("cc_library(");
+      lines.add("    name = 'lib" + rule + "',");
+      lines.add("    srcs = ['lib" + rule + ".cc', 'lib" + rule + ".h'],");
+      lines.add("    copts = ['-O2', '-Wall'],");
+      lines.add("    deps = ['//base', '//pkg" + ((index + 1) % 100) + ":lib" + rule + "'],");
+      lines.add("    linkstatic = 1,");
+      lines.add("    tags = ['generated'],");
+      lines.add(")");
+    }
+    return lines.toArray(new String[0]);
+  }
+}
@@ -0,0 +1,239 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.packages;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+
+import com.google.common.collect.ImmutableList;
+import com.google.devtools.build.lib.cmdline.PackageIdentifier;
+import com.google.devtools.build.lib.testutil.ManualClock;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.Dirent;
+import com.google.devtools.build.lib.vfs.FileStatus;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.UnixGlob;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Tests for {@link PersistentGlobCache}.
+ */
+@RunWith(JUnit4.class)
+public class PersistentGlobCacheTest {
+
+  private final AtomicInteger readdirs = new AtomicInteger();
+  private final UnixGlob.FilesystemCalls countingSyscalls = new UnixGlob.FilesystemCalls() {
+    @Override
+    public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+      readdirs.incrementAndGet();
+      return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+    }
+
+    @Override
+    public FileStatus statNullable(Path path, Symlinks symlinks) {
+      return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+    }
+
+    @Override
+    public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+      return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+    }
+
+    @Override
+    public PathFragment readlink(Path path) throws IOException {
+      return UnixGlob.DEFAULT_SYSCALLS.readlink(path);
+    }
+  };
+
+  private ManualClock clock;
+  private Path cacheFile;
+  private Path packageDirectory;
+
+  @Before
+  public void setUp() throws Exception {
+    clock = new ManualClock();
+    clock.advanceMillis(100000);
+    InMemoryFileSystem fileSystem = new InMemoryFileSystem(clock);
+    cacheFile = fileSystem.getPath("/output_base/glob_cache");
+    FileSystemUtils.createDirectoryAndParents(cacheFile.getParentDirectory());
+    packageDirectory = fileSystem.getPath("/workspace/pkg");
+    createFile("BUILD");
+    createFile("a.txt");
+    createFile("sub/b.txt");
+    createFile("sub/deeper/c.txt");
+    createFile("subpkg/BUILD");
+    createFile("subpkg/d.txt");
+  }
+
+  private Path createFile(String relativePath) throws IOException {
+    Path file = packageDirectory.getRelative(relativePath);
+    FileSystemUtils.createDirectoryAndParents(file.getParentDirectory());
+    FileSystemUtils.createEmptyFile(file);
+    return file;
+  }
+
+  private GlobCache newGlobCache(PersistentGlobCache persistentCache) {
+    return new GlobCache(packageDirectory, PackageIdentifier.createInDefaultRepo("pkg"),
+        new CachingPackageLocator() {
+          @Override
+          public Path getBuildFileForPackage(PackageIdentifier packageId) {
+            Path buildFile = packageDirectory.getParentDirectory()
+                .getRelative(packageId.getPackageFragment()).getRelative("BUILD");
+            return buildFile.exists() ? buildFile : null;
+          }
+        }, new AtomicReference<>(countingSyscalls), TestUtils.getPool(), persistentCache);
+  }
+
+  private List<String> glob(String... patterns) throws Exception {
+    return glob(false, patterns);
+  }
+
+  private List<String> glob(boolean excludeDirs, String... patterns) throws Exception {
+    PersistentGlobCache persistentCache = PersistentGlobCache.load(cacheFile, clock, 4);
+    List<String> result = newGlobCache(persistentCache)
+        .glob(ImmutableList.copyOf(patterns), ImmutableList.<String>of(), excludeDirs);
+    persistentCache.save();
+    return result;
+  }
+
+  @Test
+  public void testGlobsAreReusedAfterRestart() throws Exception {
+    clock.advanceMillis(10000);
+    assertThat(glob("**/*.txt")).containsExactly("a.txt", "sub/b.txt", "sub/deeper/c.txt");
+    assertThat(readdirs.get()).isGreaterThan(0);
+
+    readdirs.set(0);
+    assertThat(glob("**/*.txt")).containsExactly("a.txt", "sub/b.txt", "sub/deeper/c.txt");
+    assertEquals(0, readdirs.get());
+  }
+
+  @Test
+  public void testChangedDirectoriesAreReadAgain() throws Exception {
+    clock.advanceMillis(10000);
+    assertThat(glob("**/*.txt")).containsExactly("a.txt", "sub/b.txt", "sub/deeper/c.txt");
+    assertThat(glob("*")).containsExactly("a.txt", "BUILD", "sub");
+
+    createFile("sub/deeper/e.txt");
+    clock.advanceMillis(10000);
+    readdirs.set(0);
+    assertThat(glob("**/*.txt")).containsExactly("a.txt", "sub/b.txt", "sub/deeper/c.txt",
+        "sub/deeper/e.txt");
+    assertThat(readdirs.get()).isGreaterThan(0);
+    // The other pattern never looked into the directory that changed.
+    readdirs.set(0);
+    assertThat(glob("*")).containsExactly("a.txt", "BUILD", "sub");
+    assertEquals(0, readdirs.get());
+
+    // A subdirectory that becomes a package drops out of both globs.
+    createFile("sub/BUILD");
+    clock.advanceMillis(10000);
+    assertThat(glob("**/*.txt", "*")).containsExactly("a.txt", "BUILD");
+  }
+
+  @Test
+  public void testRecentlyModifiedDirectoriesAreNotRecorded() throws Exception {
+    assertThat(glob("**/*.txt")).hasSize(3);
+    assertEquals(0, PersistentGlobCache.load(cacheFile, clock, 4).size());
+  }
+
+  @Test
+  public void testListingsAreReusedAfterRestart() throws Exception {
+    clock.advanceMillis(10000);
+    Path sub = packageDirectory.getRelative("sub");
+    UnixGlob.FilesystemCalls syscalls =
+        PersistentGlobCache.load(cacheFile, clock, 4).getListingCalls(countingSyscalls);
+    Collection<Dirent> dirents = syscalls.readdir(sub, Symlinks.NOFOLLOW);
+    assertEquals(1, readdirs.get());
+
+    PersistentGlobCache persistentCache = PersistentGlobCache.load(cacheFile, clock, 4);
+    // Nothing was saved yet.
+    assertEquals(0, persistentCache.size());
+    syscalls = persistentCache.getListingCalls(countingSyscalls);
+    syscalls.readdir(sub, Symlinks.NOFOLLOW);
+    persistentCache.save();
+    readdirs.set(0);
+    syscalls = PersistentGlobCache.load(cacheFile, clock, 4).getListingCalls(countingSyscalls);
+    assertThat(syscalls.readdir(sub, Symlinks.NOFOLLOW)).containsExactlyElementsIn(dirents);
+    assertEquals(0, readdirs.get());
+
+    // Only listings that do not follow symlinks are kept.
+    syscalls.readdir(sub, Symlinks.FOLLOW);
+    assertEquals(1, readdirs.get());
+
+    createFile("sub/new.txt");
+    clock.advanceMillis(10000);
+    assertThat(syscalls.readdir(sub, Symlinks.NOFOLLOW)).hasSize(dirents.size() + 1);
+    assertEquals(2, readdirs.get());
+  }
+
+  @Test
+  public void testGlobsThroughSymlinksToFilesAreNotRecorded() throws Exception {
+    Path target = packageDirectory.getRelative("../target");
+    FileSystemUtils.createEmptyFile(target);
+    packageDirectory.getRelative("link").createSymbolicLink(new PathFragment("../target"));
+    clock.advanceMillis(10000);
+    assertThat(glob(true, "*")).containsExactly("a.txt", "BUILD", "link");
+    assertThat(glob(true, "link")).containsExactly("link");
+
+    // Neither change touches a directory that the globs read.
+    target.delete();
+    FileSystemUtils.createDirectoryAndParents(target);
+    clock.advanceMillis(10000);
+    assertThat(glob(true, "*")).containsExactly("a.txt", "BUILD");
+    assertThat(glob(true, "link")).isEmpty();
+  }
+
+  @Test
+  public void testGlobsThroughDanglingSymlinksAreNotRecorded() throws Exception {
+    packageDirectory.getRelative("link").createSymbolicLink(new PathFragment("../missing"));
+    clock.advanceMillis(10000);
+    assertThat(glob("*.txt", "link")).containsExactly("a.txt");
+
+    FileSystemUtils.createEmptyFile(packageDirectory.getRelative("../missing"));
+    clock.advanceMillis(10000);
+    assertThat(glob("*.txt", "link")).containsExactly("a.txt", "link");
+  }
+
+  @Test
+  public void testGlobsThroughSymlinksToDirectoriesAreRecorded() throws Exception {
+    Path target = packageDirectory.getRelative("../target");
+    FileSystemUtils.createDirectoryAndParents(target);
+    FileSystemUtils.createEmptyFile(target.getChild("e.txt"));
+    packageDirectory.getRelative("link").createSymbolicLink(new PathFragment("../target"));
+    clock.advanceMillis(10000);
+    assertThat(glob("link/*.txt")).containsExactly("link/e.txt");
+    readdirs.set(0);
+    assertThat(glob("link/*.txt")).containsExactly("link/e.txt");
+    assertEquals(0, readdirs.get());
+
+    // The directory the link points to is recorded like the others.
+    FileSystemUtils.createEmptyFile(target.getChild("f.txt"));
+    clock.advanceMillis(10000);
+    assertThat(glob("link/*.txt")).containsExactly("link/e.txt", "link/f.txt");
+  }
+}
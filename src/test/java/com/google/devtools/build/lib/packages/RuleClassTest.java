@@ -662,6 +662,31 @@ public class RuleClassTest extends PackageLoadingTestCase {
          reporter, null, location);
   }
 
+  public void testEqualAttributeValuesAreSharedWithinPackage() throws Exception {
+    RuleClass ruleClassA = createRuleClassA();
+    Package.Builder pkgBuilder = createDummyPackageBuilder();
+    List<Rule> rules = new ArrayList<>();
+    for (String name : Arrays.asList("rule1", "rule2")) {
+      Map<String, Object> attributeValues = new HashMap<>();
+      attributeValues.put("my-string-attr", name);
+      attributeValues.put("my-string-attr2", "value");
+      attributeValues.put("my-label-attr", ":label");
+      attributeValues.put("my-labellist-attr", Arrays.asList(":a", ":b"));
+      attributeValues.put("my-stringlist-attr", Arrays.asList("foo", "bar"));
+      rules.add(ruleClassA.createRuleWithLabel(pkgBuilder, pkgBuilder.createLabel(name),
+          attributeValues, reporter, null, testRuleLocation));
+    }
+    AttributeMap first = RawAttributeMapper.of(rules.get(0));
+    AttributeMap second = RawAttributeMapper.of(rules.get(1));
+    assertSame(first.get("my-labellist-attr", LABEL_LIST),
+        second.get("my-labellist-attr", LABEL_LIST));
+    assertSame(first.get("my-stringlist-attr", STRING_LIST),
+        second.get("my-stringlist-attr", STRING_LIST));
+    assertEquals(Arrays.asList("foo", "bar"), first.get("my-stringlist-attr", STRING_LIST));
+    assertTrue(first.isAttributeValueExplicitlySpecified("my-stringlist-attr"));
+    assertFalse(first.isAttributeValueExplicitlySpecified("my-integer-attr"));
+  }
+
   public void testOverrideWithWrongType() {
     try {
       RuleClass parentRuleClass = createParentRuleClass();
@@ -0,0 +1,69 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Tests for {@link HardlinkedExecRootPool}.
+ */
+@RunWith(JUnit4.class)
+public class HardlinkedExecRootPoolTest {
+  private HardlinkedExecRootPool pool;
+
+  @Before
+  public void setUp() throws Exception {
+    FileSystem fileSystem = FileSystems.initDefaultAsNative();
+    Path testRoot = fileSystem.getPath(TestUtils.tmpDir());
+    FileSystemUtils.deleteTreesBelow(testRoot);
+    Path execRoot = testRoot.getRelative("execroot");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    pool = new HardlinkedExecRootPool(execRoot, testRoot.getRelative("execroots"));
+  }
+
+  @Test
+  public void testReusesReleasedExecRoots() throws Exception {
+    HardlinkedExecRoot first = pool.acquire();
+    pool.release(first);
+
+    assertThat(pool.acquire()).isSameAs(first);
+  }
+
+  @Test
+  public void testDisposeDeletesAvailableAndReleasedExecRoots() throws Exception {
+    HardlinkedExecRoot available = pool.acquire();
+    HardlinkedExecRoot inUse = pool.acquire();
+    FileSystemUtils.createDirectoryAndParents(available.getRoot());
+    FileSystemUtils.createDirectoryAndParents(inUse.getRoot());
+    pool.release(available);
+
+    pool.dispose();
+
+    assertThat(available.getRoot().exists()).isFalse();
+    assertThat(inUse.getRoot().exists()).isTrue();
+    pool.release(inUse);
+    assertThat(inUse.getRoot().exists()).isFalse();
+  }
+}
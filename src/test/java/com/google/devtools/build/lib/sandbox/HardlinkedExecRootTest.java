@@ -0,0 +1,158 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.sandbox;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Tests for {@link HardlinkedExecRoot}.
+ */
+@RunWith(JUnit4.class)
+public class HardlinkedExecRootTest {
+  private final ExecutorService executor = MoreExecutors.newDirectExecutorService();
+
+  private Path execRoot;
+  private HardlinkedExecRoot hardlinkedExecRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    FileSystem fileSystem = FileSystems.initDefaultAsNative();
+    Path testRoot = fileSystem.getPath(TestUtils.tmpDir());
+    FileSystemUtils.deleteTreesBelow(testRoot);
+    execRoot = testRoot.getRelative("execroot");
+    FileSystemUtils.createDirectoryAndParents(execRoot);
+    hardlinkedExecRoot = new HardlinkedExecRoot(execRoot, testRoot.getRelative("linked"));
+  }
+
+  /** Creates a read-only input, like the outputs of other actions. */
+  private Path createInput(String name, String content) throws IOException {
+    Path input = createWritableInput(name, content);
+    input.setWritable(false);
+    return input;
+  }
+
+  private Path createWritableInput(String name, String content) throws IOException {
+    Path input = execRoot.getRelative(name);
+    FileSystemUtils.createDirectoryAndParents(input.getParentDirectory());
+    FileSystemUtils.writeContentAsLatin1(input, content);
+    return input;
+  }
+
+  private Path linked(String name) {
+    return hardlinkedExecRoot.getRoot().getRelative(name);
+  }
+
+  @Test
+  public void testCreatesHardLinks() throws Exception {
+    Path a = createInput("pkg/a.cc", "a");
+    Path b = createInput("pkg/sub/b.h", "b");
+
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a, b, b), executor);
+
+    assertThat(hardlinkedExecRoot.getLinksCreated()).isEqualTo(2);
+    assertThat(linked("pkg/a.cc").isSymbolicLink()).isFalse();
+    assertThat(linked("pkg/a.cc").stat(Symlinks.NOFOLLOW).getNodeId())
+        .isEqualTo(a.stat().getNodeId());
+    assertThat(FileSystemUtils.readContentAsLatin1(linked("pkg/sub/b.h")))
+        .isEqualTo("b".toCharArray());
+    assertThat(hardlinkedExecRoot.getRequiredMounts()).isEmpty();
+  }
+
+  @Test
+  public void testCopiesWritableInputs() throws Exception {
+    Path a = createWritableInput("pkg/a.cc", "a");
+
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+    FileSystemUtils.writeContentAsLatin1(linked("pkg/a.cc"), "modified");
+
+    assertThat(linked("pkg/a.cc").stat(Symlinks.NOFOLLOW).getNodeId())
+        .isNotEqualTo(a.stat().getNodeId());
+    assertThat(FileSystemUtils.readContentAsLatin1(a)).isEqualTo("a".toCharArray());
+  }
+
+  @Test
+  public void testReplacesLinksToInputsThatBecameWritable() throws Exception {
+    Path a = createInput("bazel-out/a.o", "a");
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+
+    a.setWritable(true);
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+
+    assertThat(hardlinkedExecRoot.getLinksReused()).isEqualTo(0);
+    assertThat(linked("bazel-out/a.o").stat(Symlinks.NOFOLLOW).getNodeId())
+        .isNotEqualTo(a.stat().getNodeId());
+  }
+
+  @Test
+  public void testReusesLinksAndDeletesStaleOnes() throws Exception {
+    Path a = createInput("pkg/a.cc", "a");
+    Path b = createInput("pkg/b.cc", "b");
+    Path c = createInput("pkg/c.cc", "c");
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a, b, b), executor);
+
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a, c, c), executor);
+
+    assertThat(hardlinkedExecRoot.getLinksReused()).isEqualTo(1);
+    assertThat(hardlinkedExecRoot.getLinksCreated()).isEqualTo(1);
+    assertThat(linked("pkg/a.cc").exists()).isTrue();
+    assertThat(linked("pkg/b.cc").exists()).isFalse();
+    assertThat(linked("pkg/c.cc").exists()).isTrue();
+  }
+
+  @Test
+  public void testRecreatesLinksToReplacedFiles() throws Exception {
+    Path a = createInput("bazel-out/a.o", "old");
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+
+    a.delete();
+    createInput("bazel-out/a.o", "new");
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+
+    assertThat(hardlinkedExecRoot.getLinksReused()).isEqualTo(0);
+    assertThat(hardlinkedExecRoot.getLinksCreated()).isEqualTo(1);
+    assertThat(FileSystemUtils.readContentAsLatin1(linked("bazel-out/a.o")))
+        .isEqualTo("new".toCharArray());
+  }
+
+  @Test
+  public void testRemovesUndeclaredFiles() throws Exception {
+    Path a = createInput("pkg/a.cc", "a");
+    hardlinkedExecRoot.update(ImmutableMap.of(a, a), executor);
+    FileSystemUtils.writeContentAsLatin1(linked("pkg/a.o"), "output");
+    FileSystemUtils.createDirectoryAndParents(linked("tmp/dir"));
+
+    hardlinkedExecRoot.removeUndeclaredFiles();
+
+    assertThat(linked("pkg/a.cc").exists()).isTrue();
+    assertThat(linked("pkg/a.o").exists()).isFalse();
+    assertThat(linked("tmp").exists()).isFalse();
+  }
+}
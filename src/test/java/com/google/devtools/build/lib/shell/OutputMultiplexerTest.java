@@ -0,0 +1,127 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.shell;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.shell.Consumers.OutErrConsumers;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Tests for {@link OutputMultiplexer} and the consumers and commands that use it.
+ */
+@RunWith(JUnit4.class)
+public class OutputMultiplexerTest {
+
+  private static final String SECRET_MESSAGE = "This is a secret message.";
+
+  @Test
+  public void testCopiesStreamsAndUnregisters() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    OutErrConsumers outErr = Consumers.createMultiplexedStreamingConsumers(out, err);
+    outErr.registerInputs(new ByteArrayInputStream("out".getBytes()),
+        new ByteArrayInputStream("err".getBytes()), false);
+
+    outErr.waitForCompletion();
+
+    assertThat(out.toString()).isEqualTo("out");
+    assertThat(err.toString()).isEqualTo("err");
+    assertThat(OutputMultiplexer.getInstance().getRegistrationCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testIOExceptionInSinkIsThrownByWaitForCompletion() throws Exception {
+    OutputStream out = new OutputStream() {
+      @Override
+      public void write(int b) throws IOException {
+        throw new IOException(SECRET_MESSAGE);
+      }
+    };
+    OutErrConsumers outErr = Consumers.createMultiplexedStreamingConsumers(out, out);
+    outErr.registerInputs(new ByteArrayInputStream(new byte[] {'a'}),
+        new ByteArrayInputStream(new byte[0]), false);
+    try {
+      outErr.waitForCompletion();
+      fail();
+    } catch (IOException e) {
+      assertThat(e).hasMessage(SECRET_MESSAGE);
+    }
+  }
+
+  @Test
+  public void testLargeOutputOfCommand() throws Exception {
+    // Far more than fits into a pipe, so the command blocks unless its output is pumped.
+    int size = 1024 * 1024;
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteArrayOutputStream err = new ByteArrayOutputStream();
+    new Command(new String[] {"/bin/sh", "-c", "head -c " + size + " /dev/zero; echo done >&2"})
+        .execute(Command.NO_INPUT, Command.NO_OBSERVER, out, err, false, true);
+
+    assertThat(out.size()).isEqualTo(size);
+    assertThat(err.toString()).isEqualTo("done\n");
+  }
+
+  @Test
+  public void testConcurrentCommands() throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(10);
+    List<Future<String>> results = new ArrayList<>();
+    for (int i = 0; i < 50; i++) {
+      final int index = i;
+      results.add(executor.submit(new Callable<String>() {
+        @Override
+        public String call() throws Exception {
+          ByteArrayOutputStream out = new ByteArrayOutputStream();
+          new Command(new String[] {"/bin/sh", "-c", "echo " + index + "; echo " + index})
+              .execute(Command.NO_INPUT, Command.NO_OBSERVER, out, new ByteArrayOutputStream(),
+                  false, true);
+          return out.toString();
+        }
+      }));
+    }
+    for (int i = 0; i < results.size(); i++) {
+      assertThat(results.get(i).get()).isEqualTo(i + "\n" + i + "\n");
+    }
+    executor.shutdown();
+  }
+
+  @Test
+  public void testBadExitStatusStillCollectsOutput() throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try {
+      new Command(new String[] {"/bin/sh", "-c", "echo " + SECRET_MESSAGE + "; exit 1"})
+          .execute(Command.NO_INPUT, Command.NO_OBSERVER, out, new ByteArrayOutputStream(),
+              false, true);
+      fail();
+    } catch (BadExitStatusException e) {
+      assertThat(e.getResult().getTerminationStatus().getExitCode()).isEqualTo(1);
+    }
+    assertThat(out.toString()).isEqualTo(SECRET_MESSAGE + "\n");
+  }
+}
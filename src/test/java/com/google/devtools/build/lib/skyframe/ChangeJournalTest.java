@@ -0,0 +1,116 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.OutputStream;
+
+/**
+ * Tests for {@link ChangeJournal}.
+ */
+@RunWith(JUnit4.class)
+public class ChangeJournalTest {
+
+  private Path journalPath;
+  private ChangeJournal journal;
+
+  @Before
+  public void setUp() throws Exception {
+    journalPath = new InMemoryFileSystem().getPath("/journal");
+    journal = new ChangeJournal(journalPath);
+  }
+
+  private void append(String records) throws Exception {
+    try (OutputStream out = journalPath.getOutputStream(/*append=*/true)) {
+      out.write(records.getBytes(ISO_8859_1));
+    }
+  }
+
+  @Test
+  public void testChanges() throws Exception {
+    append("1 R\n2 C a/b\n");
+    ChangeJournal.Position first = journal.getCurrentPosition();
+    assertThat(first.getSequenceNumber()).isEqualTo(2L);
+
+    append("3 C a/c\n4 C d\n5 C a/c");
+    ChangeJournal.Position second = journal.getCurrentPosition();
+    // The incomplete last record is not part of the position yet.
+    assertThat(second.getSequenceNumber()).isEqualTo(4L);
+    assertThat(journal.getChanges(first, second))
+        .containsExactly(new PathFragment("a/c"), new PathFragment("d"));
+    assertThat(journal.getChanges(second, second)).isEmpty();
+
+    append("\n");
+    ChangeJournal.Position third = journal.getCurrentPosition();
+    assertThat(journal.getChanges(second, third)).containsExactly(new PathFragment("a/c"));
+    assertThat(journal.getChanges(first, third))
+        .containsExactly(new PathFragment("a/c"), new PathFragment("d"));
+  }
+
+  @Test
+  public void testResetAndOverflowLoseTheChanges() throws Exception {
+    append("1 R\n");
+    ChangeJournal.Position first = journal.getCurrentPosition();
+    append("2 C a\n3 O\n4 C b\n");
+    ChangeJournal.Position second = journal.getCurrentPosition();
+    append("5 R\n6 C c\n");
+    ChangeJournal.Position third = journal.getCurrentPosition();
+    append("7 C d\n");
+    ChangeJournal.Position fourth = journal.getCurrentPosition();
+
+    assertThat(journal.getChanges(first, second)).isNull();
+    assertThat(journal.getChanges(second, third)).isNull();
+    assertThat(journal.getChanges(third, fourth)).containsExactly(new PathFragment("d"));
+  }
+
+  @Test
+  public void testTruncation() throws Exception {
+    append("1 R\n2 C a\n");
+    ChangeJournal.Position first = journal.getCurrentPosition();
+    append("3 C b\n");
+    ChangeJournal.Position second = journal.getCurrentPosition();
+    FileSystemUtils.writeContent(journalPath, "4 R\n5 C c\n".getBytes(ISO_8859_1));
+    ChangeJournal.Position third = journal.getCurrentPosition();
+
+    assertThat(third.getSequenceNumber()).isEqualTo(5L);
+    assertThat(journal.getChanges(second, third)).isNull();
+    // The offsets of the old positions are meaningless now.
+    assertThat(journal.getChanges(first, second)).isNull();
+  }
+
+  @Test
+  public void testPositionsSurviveRestarts() throws Exception {
+    append("1 R\n2 C a\n");
+    String stored = journal.getCurrentPosition().toString();
+    append("3 C b\n");
+
+    ChangeJournal restarted = new ChangeJournal(journalPath);
+    ChangeJournal.Position position = ChangeJournal.Position.parse(stored);
+    assertThat(position.toString()).isEqualTo(stored);
+    assertThat(restarted.getChanges(position, restarted.getCurrentPosition()))
+        .containsExactly(new PathFragment("b"));
+  }
+}
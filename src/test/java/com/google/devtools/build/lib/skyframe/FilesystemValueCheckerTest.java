@@ -0,0 +1,142 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import com.google.common.base.Suppliers;
+import com.google.devtools.build.lib.skyframe.DirtinessCheckerUtils.BasicFilesystemDirtinessChecker;
+import com.google.devtools.build.lib.util.BlazeClock;
+import com.google.devtools.build.lib.util.io.TimestampGranularityMonitor;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.RootedPath;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+import com.google.devtools.build.skyframe.Differencer;
+import com.google.devtools.build.skyframe.SkyKey;
+import com.google.devtools.build.skyframe.SkyValue;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link FilesystemValueChecker}.
+ */
+@RunWith(JUnit4.class)
+public class FilesystemValueCheckerTest {
+
+  private final TimestampGranularityMonitor tsgm =
+      new TimestampGranularityMonitor(BlazeClock.instance());
+  private final Map<SkyKey, SkyValue> values = new HashMap<>();
+  private Path root;
+
+  @Before
+  public void setUp() throws Exception {
+    root = new InMemoryFileSystem().getPath("/root");
+    root.createDirectory();
+  }
+
+  private SkyKey fileKey(String relativePath) throws Exception {
+    RootedPath rootedPath = RootedPath.toRootedPath(root, new PathFragment(relativePath));
+    Path path = rootedPath.asPath();
+    if (relativePath.endsWith("/")) {
+      FileSystemUtils.createDirectoryAndParents(path);
+    } else if (!path.exists()) {
+      FileSystemUtils.createDirectoryAndParents(path.getParentDirectory());
+      FileSystemUtils.writeContentAsLatin1(path, relativePath);
+    }
+    SkyKey key = FileStateValue.key(rootedPath);
+    values.put(key, FileStateValue.create(rootedPath, tsgm));
+    return key;
+  }
+
+  private FilesystemValueChecker newChecker() {
+    return new FilesystemValueChecker(
+        Suppliers.<Map<SkyKey, SkyValue>>ofInstance(values), tsgm, null);
+  }
+
+  @Test
+  public void testModifiedFilesAreDirty() throws Exception {
+    fileKey("unchanged");
+    SkyKey modified = fileKey("dir/modified");
+    fileKey("dir/");
+    FileSystemUtils.writeContentAsLatin1(root.getRelative("dir/modified"), "changed");
+
+    FilesystemValueChecker checker = newChecker();
+    Differencer.DiffWithDelta diff = checker.getDirtyKeys(new BasicFilesystemDirtinessChecker());
+    assertThat(diff.changedKeysWithNewValues().keySet()).containsExactly(modified);
+    assertThat(diff.changedKeysWithoutNewValues()).isEmpty();
+    assertEquals(3, checker.getNumberOfCheckedValues());
+    assertEquals(0, checker.getNumberOfSkippedValues());
+  }
+
+  @Test
+  public void testManyValues() throws Exception {
+    for (int i = 0; i < 1000; i++) {
+      fileKey("dir" + i % 10 + "/file" + i);
+    }
+    SkyKey modified = fileKey("dir3/file503");
+    FileSystemUtils.writeContentAsLatin1(root.getRelative("dir3/file503"), "changed");
+    SkyKey deleted = fileKey("dir7/file777");
+    root.getRelative("dir7/file777").delete();
+
+    FilesystemValueChecker checker = newChecker();
+    Differencer.DiffWithDelta diff = checker.getDirtyKeys(new BasicFilesystemDirtinessChecker());
+    assertThat(diff.changedKeysWithNewValues().keySet()).containsExactly(modified, deleted);
+    assertEquals(1000, checker.getNumberOfCheckedValues());
+  }
+
+  @Test
+  public void testContentsOfDeletedDirectoriesAreNotChecked() throws Exception {
+    SkyKey directory = fileKey("deleted/");
+    SkyKey file = fileKey("deleted/file");
+    SkyKey nested = fileKey("deleted/sub/file");
+    SkyKey missing = FileStateValue.key(
+        RootedPath.toRootedPath(root, new PathFragment("deleted/missing")));
+    values.put(missing, FileStateValue.NONEXISTENT_FILE_STATE_NODE);
+    SkyKey kept = fileKey("kept/file");
+    FileSystemUtils.deleteTree(root.getRelative("deleted"));
+
+    FilesystemValueChecker checker = newChecker();
+    Differencer.DiffWithDelta diff = checker.getDirtyKeys(new BasicFilesystemDirtinessChecker());
+    Map<SkyKey, SkyValue> newValues = diff.changedKeysWithNewValues();
+    assertThat(newValues.keySet()).containsExactly(directory, file, nested);
+    for (SkyValue value : newValues.values()) {
+      assertSame(FileStateValue.NONEXISTENT_FILE_STATE_NODE, value);
+    }
+    assertThat(newValues).doesNotContainKey(kept);
+    assertThat(newValues).doesNotContainKey(missing);
+    // Only the directory and the file outside of it were looked at.
+    assertEquals(2, checker.getNumberOfCheckedValues());
+    assertEquals(3, checker.getNumberOfSkippedValues());
+  }
+
+  @Test
+  public void testThreadCountGrowsWithLatency() throws Exception {
+    int processors = Runtime.getRuntime().availableProcessors();
+    assertEquals(processors, FilesystemValueChecker.getThreadCount(0));
+    assertEquals(processors, FilesystemValueChecker.getThreadCount(1000));
+    assertThat(FilesystemValueChecker.getThreadCount(1000000))
+        .isAtLeast(FilesystemValueChecker.getThreadCount(50000));
+    assertThat(FilesystemValueChecker.getThreadCount(Long.MAX_VALUE / 2)).isAtMost(200);
+  }
+}
@@ -0,0 +1,113 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.Symlinks;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link PerBuildSyscallCache}.
+ */
+@RunWith(JUnit4.class)
+public class PerBuildSyscallCacheTest {
+
+  private Path root;
+  private PerBuildSyscallCache cache;
+
+  @Before
+  public void setUp() throws Exception {
+    root = new InMemoryFileSystem().getPath("/root");
+    root.createDirectory();
+    cache = PerBuildSyscallCache.newUnboundedCache();
+  }
+
+  @Test
+  public void testStatIsCached() throws Exception {
+    Path file = root.getRelative("file");
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    assertSame(cache.statIfFound(file, Symlinks.NOFOLLOW),
+        cache.statNullable(file, Symlinks.NOFOLLOW));
+    assertEquals(1, cache.hitCount());
+    assertEquals(2, cache.requestCount());
+  }
+
+  @Test
+  public void testNonexistentPathsAreCached() throws Exception {
+    Path file = root.getRelative("file");
+    assertNull(cache.statIfFound(file, Symlinks.FOLLOW));
+    FileSystemUtils.writeContentAsLatin1(file, "contents");
+    // The cache assumes that nothing changes during a build.
+    assertNull(cache.statIfFound(file, Symlinks.FOLLOW));
+    assertThat(PerBuildSyscallCache.newUnboundedCache().statIfFound(file, Symlinks.FOLLOW))
+        .isNotNull();
+  }
+
+  @Test
+  public void testReaddirAndReadlink() throws Exception {
+    root.getRelative("link").createSymbolicLink(new PathFragment("target"));
+    assertThat(cache.readdir(root, Symlinks.NOFOLLOW)).hasSize(1);
+    assertSame(cache.readdir(root, Symlinks.NOFOLLOW), cache.readdir(root, Symlinks.NOFOLLOW));
+    assertEquals(new PathFragment("target"), cache.readlink(root.getRelative("link")));
+    assertEquals(new PathFragment("target"), cache.readlink(root.getRelative("link")));
+    assertEquals(3, cache.hitCount());
+  }
+
+  @Test
+  public void testErrorsAreCached() throws Exception {
+    Path missing = root.getRelative("missing");
+    IOException first = null;
+    try {
+      cache.readdir(missing, Symlinks.NOFOLLOW);
+      fail();
+    } catch (IOException e) {
+      first = e;
+    }
+    try {
+      cache.readdir(missing, Symlinks.NOFOLLOW);
+      fail();
+    } catch (IOException e) {
+      assertSame(first, e);
+    }
+  }
+
+  @Test
+  public void testBoundedCacheEvicts() throws Exception {
+    cache = new PerBuildSyscallCache(1, 1);
+    Path first = root.getRelative("first");
+    Path second = root.getRelative("second");
+    FileSystemUtils.writeContentAsLatin1(first, "contents");
+    FileSystemUtils.writeContentAsLatin1(second, "contents");
+    cache.statIfFound(first, Symlinks.NOFOLLOW);
+    cache.statIfFound(second, Symlinks.NOFOLLOW);
+    cache.statIfFound(first, Symlinks.NOFOLLOW);
+    assertEquals(0, cache.hitCount());
+    assertEquals(3, cache.requestCount());
+  }
+}
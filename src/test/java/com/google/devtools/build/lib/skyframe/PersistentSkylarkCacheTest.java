@@ -0,0 +1,214 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.skyframe;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.syntax.BuildFileAST;
+import com.google.devtools.build.lib.syntax.Environment;
+import com.google.devtools.build.lib.syntax.Mutability;
+import com.google.devtools.build.lib.syntax.Runtime;
+import com.google.devtools.build.lib.syntax.SkylarkList;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.PathFragment;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link PersistentSkylarkCache}.
+ */
+@RunWith(JUnit4.class)
+public class PersistentSkylarkCacheTest {
+
+  private Path root;
+  private Path cacheFile;
+
+  @Before
+  public void setUp() throws Exception {
+    root = new InMemoryFileSystem().getPath("/root");
+    root.createDirectory();
+    cacheFile = root.getRelative("skylark_cache");
+  }
+
+  @Test
+  public void testSyntaxTreeSurvivesRestart() throws Exception {
+    Path file = root.getRelative("ext.bzl");
+    FileSystemUtils.writeIsoLatin1(file,
+        "def f(xs):",
+        "  r = []",
+        "  for x in xs:",
+        "    if x == 2: continue",
+        "    if x == 4: break",
+        "    r += [x]",
+        "  return r",
+        "y = f([1, 2, 3, 4, 5])");
+    BuildFileAST ast = BuildFileAST.parseSkylarkFile(file, NullEventHandler.INSTANCE, null, null);
+
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertNull(cache.getAST(file, "digest"));
+    cache.putAST(file, "digest", ast);
+    cache.save();
+
+    cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertEquals(1, cache.size());
+    assertNull(cache.getAST(file, "other digest"));
+    BuildFileAST cached = cache.getAST(file, "digest");
+    assertEquals(ast.getContentHashCode(), cached.getContentHashCode());
+    assertEquals(ast.getStatements().toString(), cached.getStatements().toString());
+    try (Mutability mutability = Mutability.create("test")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(NullEventHandler.INSTANCE)
+          .build();
+      assertTrue(cached.exec(env, NullEventHandler.INSTANCE));
+      assertThat((Iterable<?>) env.lookup("y")).containsExactly(1, 3).inOrder();
+    }
+  }
+
+  @Test
+  public void testStatistics() throws Exception {
+    Path file = root.getRelative("BUILD");
+    FileSystemUtils.writeIsoLatin1(file, "cc_library(name = 'lib')");
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertNull(cache.getAST(file, "digest"));
+    cache.putAST(file, "digest", BuildFileAST.parseBuildFile(
+        file, NullEventHandler.INSTANCE, null, false));
+    assertNotNull(cache.getAST(file, "digest"));
+    assertNull(cache.getGlobals(new PathFragment("pkg/ext.bzl"), "hash"));
+    assertEquals("1 of 2 syntax trees and 0 of 1 extensions found, 1 entries", cache.toString());
+    assertEquals("Skylark cache: 1/2 files, 0/1 extensions", cache.getHitSummary());
+    cache.resetStatistics();
+    assertEquals("0 of 0 syntax trees and 0 of 0 extensions found, 1 entries", cache.toString());
+    assertNull(cache.getHitSummary());
+  }
+
+  @Test
+  public void testPlainGlobalsSurviveRestart() throws Exception {
+    PathFragment file = new PathFragment("pkg/ext.bzl");
+    Map<String, Object> globals = new LinkedHashMap<>();
+    globals.put("none", Runtime.NONE);
+    globals.put("flag", true);
+    globals.put("count", 42);
+    globals.put("list", SkylarkList.list(
+        Arrays.<Object>asList("a", 1, false), Location.BUILTIN));
+    globals.put("tuple", SkylarkList.tuple(Arrays.<Object>asList("b", Runtime.NONE)));
+    globals.put("dict", ImmutableMap.of("z", 1, "a", ImmutableMap.of(2, "two")));
+
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertTrue(cache.putGlobals(file, "hash", globals));
+    cache.save();
+
+    cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertNull(cache.getGlobals(file, "other hash"));
+    assertNull(cache.getGlobals(new PathFragment("other/ext.bzl"), "hash"));
+    Map<String, Object> cached = cache.getGlobals(file, "hash");
+    assertThat(cached.keySet()).containsExactlyElementsIn(globals.keySet()).inOrder();
+    assertEquals(Runtime.NONE, cached.get("none"));
+    assertEquals(true, cached.get("flag"));
+    assertEquals(42, cached.get("count"));
+    SkylarkList list = (SkylarkList) cached.get("list");
+    assertFalse(list.isTuple());
+    assertThat(list).containsExactly("a", 1, false).inOrder();
+    SkylarkList tuple = (SkylarkList) cached.get("tuple");
+    assertTrue(tuple.isTuple());
+    assertThat(tuple).containsExactly("b", Runtime.NONE).inOrder();
+    assertEquals(globals.get("dict"), cached.get("dict"));
+    assertThat(((Map<?, ?>) cached.get("dict")).keySet()).containsExactly("z", "a").inOrder();
+  }
+
+  @Test
+  public void testGlobalsWithFunctionsAreNotCached() throws Exception {
+    PathFragment file = new PathFragment("pkg/ext.bzl");
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertFalse(cache.putGlobals(file, "hash",
+        ImmutableMap.<String, Object>of("x", 1, "len", Environment.SKYLARK.get("len"))));
+    assertFalse(cache.putGlobals(file, "hash", ImmutableMap.<String, Object>of(
+        "x", SkylarkList.tuple(Arrays.<Object>asList(new Object())))));
+    assertNull(cache.getGlobals(file, "hash"));
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testCacheOfAnotherBinaryIsDiscarded() throws Exception {
+    PathFragment file = new PathFragment("pkg/ext.bzl");
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    cache.putGlobals(file, "hash", ImmutableMap.<String, Object>of("x", 1));
+    cache.save();
+
+    assertEquals(1, PersistentSkylarkCache.load(cacheFile, "binary1").size());
+    cache = PersistentSkylarkCache.load(cacheFile, "binary2");
+    assertEquals(0, cache.size());
+    assertNull(cache.getGlobals(file, "hash"));
+  }
+
+  @Test
+  public void testLeastRecentlyUsedEntriesAreDroppedAboveTheLimit() throws Exception {
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1", 2, 1 << 20);
+    Map<String, Object> globals = ImmutableMap.<String, Object>of("x", 1);
+    cache.putGlobals(new PathFragment("a.bzl"), "hash", globals);
+    cache.putGlobals(new PathFragment("b.bzl"), "hash", globals);
+    cache.putGlobals(new PathFragment("c.bzl"), "hash", globals);
+    assertNotNull(cache.getGlobals(new PathFragment("a.bzl"), "hash"));
+    cache.save();
+
+    cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertEquals(2, cache.size());
+    assertNotNull(cache.getGlobals(new PathFragment("a.bzl"), "hash"));
+    assertNull(cache.getGlobals(new PathFragment("b.bzl"), "hash"));
+    assertNotNull(cache.getGlobals(new PathFragment("c.bzl"), "hash"));
+  }
+
+  @Test
+  public void testUnchangedCacheIsNotRewritten() throws Exception {
+    PathFragment file = new PathFragment("pkg/ext.bzl");
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    cache.putGlobals(file, "hash", ImmutableMap.<String, Object>of("x", 1));
+    cache.save();
+    cacheFile.setLastModifiedTime(42);
+
+    cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertNotNull(cache.getGlobals(file, "hash"));
+    cache.save();
+    assertEquals(42, cacheFile.getLastModifiedTime());
+  }
+
+  @Test
+  public void testCorruptCacheFileIsDiscarded() throws Exception {
+    FileSystemUtils.writeIsoLatin1(cacheFile, "not a cache");
+    PersistentSkylarkCache cache = PersistentSkylarkCache.load(cacheFile, "binary1");
+    assertEquals(0, cache.size());
+    cache.putGlobals(new PathFragment("pkg/ext.bzl"), "hash",
+        ImmutableMap.<String, Object>of("x", 1));
+    cache.save();
+    assertEquals(1, PersistentSkylarkCache.load(cacheFile, "binary1").size());
+  }
+}
@@ -0,0 +1,208 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.actions.ActionExecutionContext;
+import com.google.devtools.build.lib.actions.ActionInput;
+import com.google.devtools.build.lib.actions.ActionInputHelper;
+import com.google.devtools.build.lib.actions.BaseSpawn;
+import com.google.devtools.build.lib.actions.ExecException;
+import com.google.devtools.build.lib.actions.ResourceSet;
+import com.google.devtools.build.lib.actions.ResourceUsage;
+import com.google.devtools.build.lib.actions.Spawn;
+import com.google.devtools.build.lib.actions.SpawnActionContext;
+import com.google.devtools.build.lib.actions.UserExecException;
+import com.google.devtools.build.lib.actions.util.ActionsTestUtil;
+import com.google.devtools.build.lib.exec.SingleBuildFileCache;
+import com.google.devtools.build.lib.exec.SpawnLog.SpawnExec;
+import com.google.devtools.build.lib.exec.SpawnLogContext;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests for {@link SpawnLogContext} and {@link SpawnLogReplayer}.
+ */
+@RunWith(JUnit4.class)
+public class SpawnLogReplayerTest {
+
+  private static final ResourceUsage USAGE = new ResourceUsage(100, 20, 3000, 4, 5, 6, 7, 8, 9);
+
+  private InMemoryFileSystem fileSystem;
+  private Path execRoot;
+  private Path logFile;
+
+  /** Pretends to execute spawns by writing their outputs, and remembers their arguments. */
+  private static class FakeStrategy implements SpawnActionContext {
+    private final Path execRoot;
+    final List<List<String>> executed = Collections.synchronizedList(new ArrayList<List<String>>());
+
+    FakeStrategy(Path execRoot) {
+      this.execRoot = execRoot;
+    }
+
+    @Override
+    public void exec(Spawn spawn, ActionExecutionContext actionExecutionContext)
+        throws ExecException {
+      executed.add(spawn.getArguments());
+      actionExecutionContext.recordResourceUsage(USAGE);
+      if (spawn.getArguments().contains("fail")) {
+        throw new UserExecException("failed on purpose");
+      }
+      for (ActionInput output : spawn.getOutputFiles()) {
+        try {
+          FileSystemUtils.writeContentAsLatin1(
+              execRoot.getRelative(output.getExecPathString()), "output");
+        } catch (IOException e) {
+          throw new UserExecException("cannot write output", e);
+        }
+      }
+    }
+
+    @Override
+    public String strategyLocality(String mnemonic, boolean remotable) {
+      return "fake";
+    }
+
+    @Override
+    public boolean isRemotable(String mnemonic, boolean remotable) {
+      return false;
+    }
+  }
+
+  @Before
+  public void setUp() throws Exception {
+    fileSystem = new InMemoryFileSystem();
+    execRoot = fileSystem.getPath("/execroot");
+    FileSystemUtils.createDirectoryAndParents(execRoot.getRelative("out"));
+    FileSystemUtils.writeContentAsLatin1(execRoot.getRelative("in.txt"), "input");
+    logFile = fileSystem.getPath("/exec.log");
+  }
+
+  private Spawn createSpawn(String... arguments) {
+    return new BaseSpawn(ImmutableList.copyOf(arguments), ImmutableMap.of("PATH", "/bin"),
+        ImmutableMap.of("timeout", "10"), new ActionsTestUtil.NullAction(), ResourceSet.ZERO) {
+      @Override
+      public Iterable<? extends ActionInput> getInputFiles() {
+        return ImmutableList.of(ActionInputHelper.fromPath("in.txt"));
+      }
+
+      @Override
+      public Collection<? extends ActionInput> getOutputFiles() {
+        return ImmutableList.of(ActionInputHelper.fromPath("out/result.txt"));
+      }
+
+      @Override
+      public String getMnemonic() {
+        return "Fake";
+      }
+    };
+  }
+
+  private ActionExecutionContext createContext() {
+    return ActionExecutionContext.normal(null,
+        new SingleBuildFileCache(execRoot.getPathString(), fileSystem), null,
+        new FileOutErr(execRoot.getRelative("stdout"), execRoot.getRelative("stderr")), null);
+  }
+
+  private List<SpawnExec> readLog() throws Exception {
+    try (InputStream in = logFile.getInputStream()) {
+      return SpawnLogReplayer.readLog(in);
+    }
+  }
+
+  @Test
+  public void testLogsSpawns() throws Exception {
+    SpawnLogContext spawnLog = SpawnLogContext.create(execRoot, logFile);
+    SpawnActionContext strategy = spawnLog.wrap(new FakeStrategy(execRoot));
+    ActionExecutionContext context = createContext();
+    strategy.exec(createSpawn("/bin/tool", "arg"), context);
+    try {
+      strategy.exec(createSpawn("/bin/tool", "fail"), context);
+      fail();
+    } catch (UserExecException e) {
+      // Expected.
+    }
+    spawnLog.close();
+
+    // The usage of both spawns still reaches the action.
+    assertThat(context.getResourceUsage()).isEqualTo(USAGE.plus(USAGE));
+
+    List<SpawnExec> records = readLog();
+    assertThat(records).hasSize(2);
+    SpawnExec first = records.get(0);
+    assertThat(first.getMnemonic()).isEqualTo("Fake");
+    assertThat(first.getStrategy()).isEqualTo("FakeStrategy");
+    assertThat(first.getCommandArgsList()).containsExactly("/bin/tool", "arg").inOrder();
+    assertThat(first.getEnvironmentVariables(0).getName()).isEqualTo("PATH");
+    assertThat(first.getEnvironmentVariables(0).getValue()).isEqualTo("/bin");
+    assertThat(first.getExecutionInfo()).containsEntry("timeout", "10");
+    assertThat(first.getInputs(0).getPath()).isEqualTo("in.txt");
+    // MD5 of "input".
+    assertThat(first.getInputs(0).getDigest()).isEqualTo("a43c1b0aa53a0c908810c06ab1ff3967");
+    assertThat(first.getActualOutputs(0).getPath()).isEqualTo("out/result.txt");
+    assertThat(first.getActualOutputs(0).getDigest()).isNotEmpty();
+    assertThat(first.getSucceeded()).isTrue();
+    assertThat(first.getUserTimeMicros()).isEqualTo(100L);
+    assertThat(first.getMaxResidentSetKb()).isEqualTo(3000L);
+    assertThat(first.getInvoluntaryContextSwitches()).isEqualTo(9L);
+
+    SpawnExec second = records.get(1);
+    assertThat(second.getSucceeded()).isFalse();
+    assertThat(second.getFailureMessage()).contains("failed on purpose");
+  }
+
+  @Test
+  public void testReplaysSpawns() throws Exception {
+    SpawnLogContext spawnLog = SpawnLogContext.create(execRoot, logFile);
+    SpawnActionContext strategy = spawnLog.wrap(new FakeStrategy(execRoot));
+    for (int i = 0; i < 10; i++) {
+      strategy.exec(createSpawn("/bin/tool", Integer.toString(i)), createContext());
+    }
+    spawnLog.close();
+    execRoot.getRelative("out/result.txt").delete();
+
+    FakeStrategy replayStrategy = new FakeStrategy(execRoot);
+    List<SpawnLogReplayer.Result> results =
+        new SpawnLogReplayer(replayStrategy, null, fileSystem.getPath("/outerr"), 3)
+            .replay(readLog());
+
+    assertThat(results).hasSize(10);
+    assertThat(replayStrategy.executed).hasSize(10);
+    for (int i = 0; i < 10; i++) {
+      assertThat(results.get(i).getRecord().getCommandArgs(1)).isEqualTo(Integer.toString(i));
+      assertThat(results.get(i).succeeded()).isTrue();
+      assertThat(results.get(i).getResourceUsage()).isEqualTo(USAGE);
+    }
+    assertThat(execRoot.getRelative("out/result.txt").exists()).isTrue();
+  }
+}
@@ -0,0 +1,135 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.shell.Command;
+import com.google.devtools.build.lib.util.io.FileOutErr;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Measures how many spawns per second the local strategy achieves with and without the
+ * spawn-server.
+ *
+ * <p>Usage: {@code SpawnServerBenchmark <process-wrapper> <spawn-server> <work-dir> [spawns]
+ * [threads] [command...]}. The command defaults to {@code /bin/true}.
+ */
+public final class SpawnServerBenchmark {
+  private SpawnServerBenchmark() {}
+
+  /** A way of running a single subprocess. */
+  private interface Runner {
+    void run(FileOutErr outErr) throws Exception;
+  }
+
+  public static void main(String[] args) throws Exception {
+    if (args.length < 3) {
+      System.err.println("Usage: SpawnServerBenchmark <process-wrapper> <spawn-server> <work-dir>"
+          + " [spawns] [threads] [command...]");
+      System.exit(2);
+    }
+    FileSystem fileSystem = FileSystems.initDefaultAsNative();
+    final Path processWrapper = fileSystem.getPath(args[0]);
+    Path spawnServerBinary = fileSystem.getPath(args[1]);
+    final Path workDir = fileSystem.getPath(args[2]);
+    int spawns = args.length > 3 ? Integer.parseInt(args[3]) : 1000;
+    int threads = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+    final List<String> command = args.length > 5
+        ? ImmutableList.copyOf(args).subList(5, args.length)
+        : ImmutableList.of("/bin/true");
+    FileSystemUtils.createDirectoryAndParents(workDir);
+
+    Runner viaCommand = new Runner() {
+      @Override
+      public void run(FileOutErr outErr) throws Exception {
+        // The same command line StandaloneSpawnStrategy uses without the spawn-server.
+        List<String> argv = new ArrayList<>();
+        argv.add(processWrapper.getPathString());
+        argv.add("-1");
+        argv.add("5");
+        argv.add("-");
+        argv.add("-");
+        argv.addAll(command);
+        new Command(argv.toArray(new String[0]), ImmutableMap.<String, String>of(),
+            workDir.getPathFile())
+            .execute(new byte[0], Command.NO_OBSERVER, outErr.getOutputStream(),
+                outErr.getErrorStream(), true);
+      }
+    };
+
+    final SpawnServer server =
+        SpawnServer.start(spawnServerBinary, workDir.getRelative("spawn-server.sock"));
+    Runner viaSpawnServer = new Runner() {
+      @Override
+      public void run(FileOutErr outErr) throws Exception {
+        server.exec(command, ImmutableMap.<String, String>of(), workDir,
+            outErr.getOutputFile(), outErr.getErrorFile(), -1, 5);
+      }
+    };
+
+    try {
+      // Warm up both paths first so that class loading and JIT do not skew the numbers.
+      measure("warm-up", viaCommand, workDir, spawns / 10 + 1, threads);
+      measure("warm-up", viaSpawnServer, workDir, spawns / 10 + 1, threads);
+      measure("Command + process-wrapper", viaCommand, workDir, spawns, threads);
+      measure("spawn-server", viaSpawnServer, workDir, spawns, threads);
+    } finally {
+      server.destroy();
+    }
+  }
+
+  private static void measure(String name, final Runner runner, final Path workDir,
+      final int spawns, int threads) throws Exception {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    List<Future<Void>> futures = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int t = 0; t < threads; t++) {
+      final int thread = t;
+      final int count = spawns / threads + (t < spawns % threads ? 1 : 0);
+      futures.add(executor.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          FileOutErr outErr = new FileOutErr(
+              workDir.getRelative("stdout-" + thread), workDir.getRelative("stderr-" + thread));
+          for (int i = 0; i < count; i++) {
+            runner.run(outErr);
+            outErr.getOutputStream().flush();
+          }
+          outErr.close();
+          return null;
+        }
+      }));
+    }
+    for (Future<Void> future : futures) {
+      future.get();
+    }
+    long elapsedNanos = System.nanoTime() - start;
+    executor.shutdown();
+    if (!name.equals("warm-up")) {
+      System.out.printf("%-28s %6d spawns in %8.1f ms: %8.1f spawns/s%n", name, spawns,
+          elapsedNanos / 1e6, spawns * 1e9 / elapsedNanos);
+    }
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.standalone;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.testutil.BlazeTestUtils;
+import com.google.devtools.build.lib.testutil.TestConstants;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystem;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.Path;
+import com.google.devtools.build.lib.vfs.util.FileSystems;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SpawnServer}.
+ */
+@RunWith(JUnit4.class)
+public class SpawnServerTest {
+  private Path workDir;
+  private Path stdout;
+  private Path stderr;
+  private SpawnServer server;
+
+  @Before
+  public void setUp() throws Exception {
+    FileSystem fileSystem = FileSystems.initDefaultAsNative();
+    Path testRoot = fileSystem.getPath(TestUtils.tmpDir());
+    FileSystemUtils.deleteTreesBelow(testRoot);
+    workDir = testRoot.getRelative("work");
+    FileSystemUtils.createDirectoryAndParents(workDir);
+    stdout = testRoot.getRelative("stdout");
+    stderr = testRoot.getRelative("stderr");
+    Path binary = fileSystem.getPath(BlazeTestUtils.runfilesDir())
+        .getRelative(TestConstants.EMBEDDED_SCRIPTS_PATHS.get(0))
+        .getRelative("spawn-server");
+    server = SpawnServer.start(binary, testRoot.getRelative("spawn-server.sock"));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.destroy();
+  }
+
+  private SpawnServer.Result run(int timeoutSeconds, String... args) throws IOException {
+    return server.exec(ImmutableList.copyOf(args), ImmutableMap.of("GREETING", "hello"), workDir,
+        stdout, stderr, timeoutSeconds, 1);
+  }
+
+  @Test
+  public void testRedirectsOutputAndPassesEnvironment() throws Exception {
+    SpawnServer.Result result =
+        run(-1, "/bin/sh", "-c", "echo $GREETING; pwd; echo oops >&2");
+
+    assertThat(result.getTerminationStatus().success()).isTrue();
+    assertThat(new String(FileSystemUtils.readContentAsLatin1(stdout)))
+        .isEqualTo("hello\n" + workDir.getPathString() + "\n");
+    assertThat(new String(FileSystemUtils.readContentAsLatin1(stderr))).isEqualTo("oops\n");
+  }
+
+  @Test
+  public void testAppendsToExistingOutput() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(stdout, "before\n");
+
+    run(-1, "/bin/sh", "-c", "echo after");
+
+    assertThat(new String(FileSystemUtils.readContentAsLatin1(stdout)))
+        .isEqualTo("before\nafter\n");
+  }
+
+  @Test
+  public void testReportsExitCode() throws Exception {
+    SpawnServer.Result result = run(-1, "/bin/sh", "-c", "exit 3");
+
+    assertThat(result.getTerminationStatus().exited()).isTrue();
+    assertThat(result.getTerminationStatus().getExitCode()).isEqualTo(3);
+  }
+
+  @Test
+  public void testKillsOnTimeout() throws Exception {
+    SpawnServer.Result result = run(1, "/bin/sh", "-c", "sleep 10");
+
+    assertThat(result.getTerminationStatus().exited()).isFalse();
+    assertThat(result.getTerminationStatus().getTerminatingSignal()).isEqualTo(14 /* SIGALRM */);
+  }
+
+  @Test
+  public void testReportsResourceUsage() throws Exception {
+    SpawnServer.Result result =
+        run(-1, "/bin/sh", "-c", "i=0; while [ $i -lt 100000 ]; do i=$((i+1)); done");
+
+    assertThat(result.getTerminationStatus().success()).isTrue();
+    assertThat(result.getResourceUsage().getCpuTimeMicros()).isGreaterThan(0L);
+    assertThat(result.getResourceUsage().getMaxResidentSetKb()).isGreaterThan(0L);
+  }
+
+  @Test
+  public void testFailsForMissingBinary() throws Exception {
+    SpawnServer.Result result = run(-1, "/does/not/exist");
+
+    assertThat(result.getTerminationStatus().success()).isFalse();
+  }
+
+  @Test
+  public void testRejectsEmptyCommandLine() throws Exception {
+    try {
+      run(-1);
+      fail();
+    } catch (IllegalArgumentException expected) {
+    }
+  }
+}
@@ -0,0 +1,110 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+/**
+ * Runs the Skylark evaluation tests again with every function compiled by the
+ * {@link ClosureCompiler} from its first call on.
+ */
+@RunWith(JUnit4.class)
+public class CompiledSkylarkEvaluationTest extends SkylarkEvaluationTest {
+  public CompiledSkylarkEvaluationTest() throws Exception {}
+
+  @Override
+  public Environment newEnvironment() throws Exception {
+    return super.newEnvironment().setCompileThreshold(0);
+  }
+
+  @Test
+  public void testControlFlowInNestedLoops() throws Exception {
+    eval("def f(rows):",
+        "  found = []",
+        "  for row in rows:",
+        "    if not row: continue",
+        "    for x in row:",
+        "      if x < 0:",
+        "        break",
+        "      elif x == 0:",
+        "        continue",
+        "      found += [x]",
+        "      if x > 100: return found",
+        "  return found if found else None",
+        "a = f([[1, 0, 2], [], [-1, 3], [4, 200, 5], [6]])",
+        "b = f([[0], []])");
+    assertThat((Iterable<?>) lookup("a")).containsExactly(1, 2, 4, 200).inOrder();
+    assertEquals(Runtime.NONE, lookup("b"));
+  }
+
+  @Test
+  public void testSameErrorAsInterpreter() throws Exception {
+    String[] program = {
+        "def f(x):",
+        "  y = x + 1",
+        "  return y + 'a'",
+        "f(1)"};
+    env.setCompileThreshold(-1);
+    String interpreted = evalError(program);
+    setUp();
+    String compiled = evalError(program);
+    assertEquals(interpreted, compiled);
+    assertThat(compiled).contains("unsupported operand type(s) for +: 'int' and 'string'");
+  }
+
+  private String evalError(String... program) throws Exception {
+    try {
+      eval(program);
+      fail();
+    } catch (EvalException e) {
+      return e.print();
+    }
+    return null;
+  }
+
+  @Test
+  public void testFunctionIsCompiledOnceHot() throws Exception {
+    env.setCompileThreshold(2);
+    eval("def f(x):",
+        "  for y in [1, 2, 3]:",
+        "    if y == x: return y * 10",
+        "  return -1",
+        "v = [f(i) for i in [0, 1, 2, 3, 4, 3]]");
+    assertThat((Iterable<?>) lookup("v")).containsExactly(-1, 10, 20, 30, -1, 30).inOrder();
+  }
+
+  @Test
+  public void testCompilationIsSetPerEnvironment() throws Exception {
+    eval("def f(x):",
+        "  return x + 1");
+    UserDefinedFunction f = (UserDefinedFunction) lookup("f");
+    Environment interpreting = newEnvironment().setCompileThreshold(-1);
+    for (int i = 0; i < 5; i++) {
+      assertEquals(i + 1, f.call(ImmutableList.<Object>of(i), null, null, interpreting));
+    }
+    assertFalse(f.isCompiled());
+    assertEquals(2, f.call(ImmutableList.<Object>of(1), null, null, env));
+    assertTrue(f.isCompiled());
+  }
+}
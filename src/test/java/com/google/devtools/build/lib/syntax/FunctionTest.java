@@ -387,4 +387,47 @@ public class FunctionTest extends EvaluationTestCase {
     assertEquals("abc2|", lookup("v4"));
     assertEquals("abfg|cde", lookup("v5"));
   }
+
+  @Test
+  public void testLocalVariablesInLoops() throws Exception {
+    eval("def f(items):",
+        "  total = 0",
+        "  for i, item in items:",
+        "    if i == 1: continue",
+        "    if i == 3: break",
+        "    total += item",
+        "  squares = [x * x for x in [total, i]]",
+        "  return squares",
+        "v = f([[0, 1], [1, 10], [2, 100], [3, 1000]])\n");
+    assertThat((Iterable<?>) lookup("v")).containsExactly(101 * 101, 9).inOrder();
+  }
+
+  @Test
+  public void testFunctionsDefinedByTheSameCode() throws Exception {
+    // The same statements define a function in two environments with different globals.
+    List<Statement> statements = null;
+    List<Object> functions = new ArrayList<>();
+    for (int x = 1; x <= 2; x++) {
+      try (Mutability mutability = Mutability.create("module " + x)) {
+        Environment module = Environment.builder(mutability)
+            .setSkylark()
+            .setGlobals(Environment.SKYLARK)
+            .setEventHandler(getEventHandler())
+            .build()
+            .update("x", x);
+        if (statements == null) {
+          statements = module.parseFile("def f(y):", "  return x * y");
+        }
+        for (Statement statement : statements) {
+          statement.exec(module);
+        }
+        functions.add(module.lookup("f"));
+      }
+    }
+    update("f1", functions.get(0));
+    update("f2", functions.get(1));
+    for (int i = 0; i < 2; i++) {
+      assertEquals(21, eval("f1(1) + f2(10)"));
+    }
+  }
 }
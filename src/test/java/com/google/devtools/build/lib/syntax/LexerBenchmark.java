@@ -0,0 +1,102 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the throughput and the allocation rate of the {@link Lexer} on synthetic BUILD files,
+ * both when the tokens are streamed to a consumer, the way the parser reads them, and when they
+ * are listed with {@link Lexer#getTokens}.
+ *
+ * <p>Usage: {@code LexerBenchmark [files] [rules-per-file] [rounds]}.
+ */
+public final class LexerBenchmark {
+  private LexerBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int files = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int rules = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    List<ParserInputSource> inputs = new ArrayList<>();
+    for (int i = 0; i < files; i++) {
+      inputs.add(ParserInputSource.create(
+          buildFileContent(i, rules), new PathFragment("pkg" + i + "/BUILD")));
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      long tokens = 0;
+      long start = System.nanoTime();
+      long startBytes = allocatedBytes();
+      for (ParserInputSource input : inputs) {
+        Lexer lexer = new Lexer(input, NullEventHandler.INSTANCE);
+        while (lexer.advance() != TokenKind.EOF) {
+          tokens++;
+        }
+      }
+      long streamNanos = System.nanoTime() - start;
+      long streamBytes = allocatedBytes() - startBytes;
+
+      start = System.nanoTime();
+      startBytes = allocatedBytes();
+      for (ParserInputSource input : inputs) {
+        new Lexer(input, NullEventHandler.INSTANCE).getTokens();
+      }
+      long listNanos = System.nanoTime() - start;
+      long listBytes = allocatedBytes() - startBytes;
+
+      System.out.printf("round %d: streamed %.1f Mtokens/s %.1f bytes/token, "
+          + "listed %.1f Mtokens/s %.1f bytes/token%n", round,
+          tokens * 1e3 / streamNanos, (double) streamBytes / tokens,
+          tokens * 1e3 / listNanos, (double) listBytes / tokens);
+    }
+  }
+
+  /** Returns the number of bytes allocated by this thread so far, or 0 if unsupported. */
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return 0;
+  }
+
+  private static String buildFileContent(int index, int rules) {
+    StringBuilder content = new StringBuilder();
+    content.append("# Synthetic package number ").append(index).append(".\n\n");
+    content.append("package(default_visibility = [\"//visibility:public\"])\n\n");
+    for (int rule = 0; rule < rules; rule++) {
+      content.append("java_library(\n")
+          .append("    name = \"lib").append(rule).append("\",\n")
+          .append("    srcs = glob([\"lib").append(rule).append("/*.java\"]),\n")
+          .append("    deps = [\n");
+      for (int dep = 0; dep < 5; dep++) {
+        content.append("        \"//pkg").append((index + dep) % 100).append("/sub")
+            .append(index + dep).append(":lib").append(dep).append("\",\n");
+      }
+      content.append("    ],\n")
+          .append("    javacopts = [\"-Xlint:all\"] if not ").append(rule % 2 == 0)
+          .append(" else [],  # keep warnings visible\n")
+          .append(")\n\n");
+    }
+    return content.toString();
+  }
+}
@@ -15,7 +15,9 @@ package com.google.devtools.build.lib.syntax;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.devtools.build.lib.events.Event;
 import com.google.devtools.build.lib.events.EventHandler;
@@ -28,6 +30,8 @@ import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.junit.runners.JUnit4;
 
+import java.util.List;
+
 /**
  * Tests of tokenization behavior of the {@link Lexer}.
  */
@@ -168,6 +172,29 @@ public class LexerTest {
                  + "NEWLINE EOF", names(tokens("foo(bar, wiz)")));
   }
 
+  @Test
+  public void testIdentifiersShareTheirStrings() throws Exception {
+    Token[] tokens = tokens("foo(bar, foo, fo, foo2, bar)");
+    assertEquals("IDENTIFIER LPAREN IDENTIFIER COMMA IDENTIFIER COMMA IDENTIFIER COMMA "
+                 + "IDENTIFIER COMMA IDENTIFIER RPAREN NEWLINE EOF", names(tokens));
+    assertSame(tokens[0].value, tokens[4].value);
+    assertSame(tokens[2].value, tokens[10].value);
+    assertEquals("foo2", tokens[8].value);
+  }
+
+  @Test
+  public void testManyDistinctIdentifiers() throws Exception {
+    StringBuilder input = new StringBuilder();
+    for (int i = 0; i < 1000; i++) {
+      input.append("id").append(i).append(' ');
+    }
+    Token[] tokens = tokens(input.toString() + input);
+    for (int i = 0; i < 1000; i++) {
+      assertEquals("id" + i, tokens[i].value);
+      assertSame(tokens[i].value, tokens[i + 1000].value);
+    }
+  }
+
   @Test
   public void testIntegers() throws Exception {
     // Detection of MINUS immediately following integer constant proves we
@@ -419,4 +446,75 @@ public class LexerTest {
     assertEquals(s.length(), lastErrorLocation.getEndOffset());
     assertEquals("STRING(unterminated) NEWLINE EOF", values(tokens(s)));
   }
+
+  /**
+   * Returns the tokens of the input as streamed by {@link Lexer#advance}, in the format of
+   * {@link #values}, with their offsets.
+   */
+  private String streamedValues(Lexer lexer) {
+    StringBuilder buffer = new StringBuilder();
+    TokenKind kind;
+    do {
+      kind = lexer.advance();
+      if (buffer.length() > 0) {
+        buffer.append(' ');
+      }
+      buffer.append(kind.name());
+      if (lexer.tokenValue() != null) {
+        buffer.append('(').append(lexer.tokenValue()).append(')');
+      }
+      buffer.append(lexer.tokenLeft()).append('-').append(lexer.tokenRight());
+    } while (kind != TokenKind.EOF);
+    return buffer.toString();
+  }
+
+  private static String valuesWithOffsets(List<Token> tokens) {
+    StringBuilder buffer = new StringBuilder();
+    for (Token token : tokens) {
+      if (buffer.length() > 0) {
+        buffer.append(' ');
+      }
+      buffer.append(token.kind.name());
+      if (token.value != null) {
+        buffer.append('(').append(token.value).append(')');
+      }
+      buffer.append(token.left).append('-').append(token.right);
+    }
+    return buffer.toString();
+  }
+
+  @Test
+  public void testStreamedTokensAreTheSame() throws Exception {
+    String s = "def f(x):  # comment\n"
+        + "  if x:\n"
+        + "    # indented comment\n"
+        + "    return [x, 'a' + \"b\\n\" + r'\\c', 0x1F]\n"
+        + "  y = {1: (x\n"
+        + "    ), 'unterminated\n"
+        + "f(1) if y else z";
+    Lexer lexer = createLexer(s);
+    assertEquals(valuesWithOffsets(createLexer(s).getTokens()), streamedValues(lexer));
+    assertEquals(TokenKind.EOF, lexer.advance());
+    assertEquals(s.length(), lexer.tokenLeft());
+  }
+
+  @Test
+  public void testContainsErrorsKeepsTheRemainingTokens() throws Exception {
+    Lexer lexer = createLexer("foo\nbar $ baz");
+    assertEquals(TokenKind.IDENTIFIER, lexer.advance());
+    assertTrue(lexer.containsErrors());
+    assertEquals("NEWLINE3-4 IDENTIFIER(bar)4-7 IDENTIFIER(baz)10-13 NEWLINE12-13 EOF13-13",
+        streamedValues(lexer));
+  }
+
+  @Test
+  public void testStreamedTokensCannotBeListed() throws Exception {
+    Lexer lexer = createLexer("foo");
+    lexer.advance();
+    try {
+      lexer.getTokens();
+      fail();
+    } catch (IllegalStateException expected) {
+    }
+  }
 }
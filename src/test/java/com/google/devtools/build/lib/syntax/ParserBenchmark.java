@@ -0,0 +1,107 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.EventHandler;
+import com.google.devtools.build.lib.events.NullEventHandler;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
+import com.google.devtools.build.lib.vfs.Path;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the throughput of reading and parsing BUILD files, over a synthetic workspace written
+ * to a temporary directory on the local disk, and of decoding their syntax trees from the form
+ * that the {@link SyntaxTreeCodec} stores in the persistent cache.
+ *
+ * <p>Usage: {@code ParserBenchmark [packages] [rules-per-package] [rounds]}.
+ */
+public final class ParserBenchmark {
+  private ParserBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int packages = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+    int rules = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+    Path workspace = new JavaIoFileSystem().getPath(
+        Files.createTempDirectory("parser_benchmark").toString());
+    List<Path> buildFiles = new ArrayList<>();
+    long totalBytes = 0;
+    try {
+      for (int i = 0; i < packages; i++) {
+        Path buildFile = workspace.getRelative("pkg" + i % 100 + "/sub" + i + "/BUILD");
+        FileSystemUtils.createDirectoryAndParents(buildFile.getParentDirectory());
+        FileSystemUtils.writeContentAsLatin1(buildFile, buildFileContent(i, rules));
+        buildFiles.add(buildFile);
+        totalBytes += buildFile.getFileSize();
+      }
+      System.out.printf("%d BUILD files, %d bytes%n", buildFiles.size(), totalBytes);
+
+      EventHandler eventHandler = NullEventHandler.INSTANCE;
+      List<byte[]> encodedTrees = new ArrayList<>();
+      for (Path buildFile : buildFiles) {
+        encodedTrees.add(SyntaxTreeCodec.encode(
+            BuildFileAST.parseBuildFile(buildFile, eventHandler, null, false)));
+      }
+      for (int round = 0; round < rounds; round++) {
+        long start = System.nanoTime();
+        for (Path buildFile : buildFiles) {
+          ParserInputSource.create(buildFile);
+        }
+        long readNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (Path buildFile : buildFiles) {
+          BuildFileAST.parseBuildFile(buildFile, eventHandler, null, false);
+        }
+        long parseNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        for (byte[] encodedTree : encodedTrees) {
+          SyntaxTreeCodec.decode(encodedTree);
+        }
+        long decodeNanos = System.nanoTime() - start;
+        System.out.printf("round %d: read %.1f MB/s, read and parse %.1f MB/s, decode %.1f MB/s%n",
+            round, totalBytes * 1e3 / readNanos, totalBytes * 1e3 / parseNanos,
+            totalBytes * 1e3 / decodeNanos);
+      }
+    } finally {
+      FileSystemUtils.deleteTree(workspace);
+    }
+  }
+
+  private static String buildFileContent(int index, int rules) {
+    StringBuilder content = new StringBuilder();
+    content.append("# Synthetic package number ").append(index).append(".\n\n");
+    content.append("package(default_visibility = [\"//visibility:public\"])\n\n");
+    for (int rule = 0; rule < rules; rule++) {
+      content.append("java_library(\n")
+          .append("    name = \"lib").append(rule).append("\",\n")
+          .append("    srcs = glob([\"lib").append(rule).append("/*.java\"]),\n")
+          .append("    deps = [\n");
+      for (int dep = 0; dep < 5; dep++) {
+        content.append("        \"//pkg").append((index + dep) % 100).append("/sub")
+            .append(index + dep).append(":lib").append(dep).append("\",\n");
+      }
+      content.append("    ],\n")
+          .append("    javacopts = [\"-Xlint:all\"],  # keep warnings visible\n")
+          .append(")\n\n");
+    }
+    return content.toString();
+  }
+}
@@ -19,6 +19,9 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.fail;
 
 import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.testutil.TestUtils;
+import com.google.devtools.build.lib.vfs.FileSystemUtils;
+import com.google.devtools.build.lib.vfs.JavaIoFileSystem;
 import com.google.devtools.build.lib.vfs.Path;
 import com.google.devtools.build.lib.vfs.PathFragment;
 
@@ -28,6 +31,7 @@ import org.junit.runners.JUnit4;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
 
 /**
  * A test case for {@link ParserInputSource}.
@@ -46,6 +50,30 @@ public class ParserInputSourceTest {
     assertEquals("/tmp/my/file.txt", input.getPath().toString());
   }
 
+  @Test
+  public void testCreateFromFileThatGrew() throws IOException {
+    Path file = scratch.file("/tmp/my/file.txt", "Line 1", "Line 2");
+    ParserInputSource input = ParserInputSource.create(file, 3);
+    assertEquals(joinLines("Line 1", "Line 2", ""), new String(input.getContent()));
+  }
+
+  @Test
+  public void testCreateFromLargeLocalFile() throws IOException {
+    // Large files on the local disk are memory-mapped.
+    Path file = new JavaIoFileSystem().getPath(TestUtils.tmpDir()).getRelative("large.txt");
+    char[] content = new char[3 << 20];
+    for (int i = 0; i < content.length; i++) {
+      content[i] = (char) (i % 256);
+    }
+    FileSystemUtils.writeContentAsLatin1(file, new String(content));
+    try {
+      ParserInputSource input = ParserInputSource.create(file);
+      assertThat(Arrays.equals(content, input.getContent())).isTrue();
+    } finally {
+      file.delete();
+    }
+  }
+
   @Test
   public void testCreateFromString() {
     String content = "Content provided as a string.";
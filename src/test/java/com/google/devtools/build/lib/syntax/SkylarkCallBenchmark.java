@@ -0,0 +1,111 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.NullEventHandler;
+
+import java.util.List;
+
+/**
+ * Measures the time it takes to call builtin functions and the methods and fields of Java
+ * objects from Skylark, the way rule implementations use their context: the function below is
+ * called once per rule, with a new context object each time.
+ *
+ * <p>Usage: {@code SkylarkCallBenchmark [rules] [rounds]}.
+ */
+public final class SkylarkCallBenchmark {
+  private SkylarkCallBenchmark() {}
+
+  /** A stand-in for a rule context. */
+  @SkylarkModule(name = "ctx", doc = "")
+  static final class Context {
+    private final String label;
+
+    Context(String label) {
+      this.label = label;
+    }
+
+    @SkylarkCallable(name = "label", doc = "", structField = true)
+    public String label() {
+      return label;
+    }
+
+    @SkylarkCallable(name = "new_file", doc = "")
+    public String newFile(String name) {
+      return label + "/" + name;
+    }
+
+    @SkylarkCallable(name = "expand", doc = "")
+    public String expand(String template, Integer count) {
+      return template.replace("$N", count.toString());
+    }
+  }
+
+  private static final String[] IMPLEMENTATION = {
+    "def impl(ctx, srcs):",
+    "  outs = []",
+    "  flags = {'opt': '-O2', 'dbg': '-g'}",
+    "  for i in range(len(srcs)):",
+    "    src = srcs[i]",
+    "    out = ctx.new_file(src.replace('.c', '.o'))",
+    "    cmd = '{} -c {} -o {} {}'.format('cc', src, out, flags.get('opt', ''))",
+    "    outs += [ctx.expand(cmd + ' # $N', i) + ctx.label]",
+    "  return outs",
+  };
+
+  public static void main(String[] args) throws Exception {
+    int rules = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    Object impl;
+    Object srcs;
+    List<Statement> call;
+    try (Mutability mutability = Mutability.create("rules")) {
+      Environment env = newEnvironment(mutability);
+      env.eval(IMPLEMENTATION);
+      env.eval("srcs = ['a.c', 'b.c', 'c.c', 'd.c', 'e.c', 'f.c', 'g.c', 'h.c']");
+      impl = env.lookup("impl");
+      srcs = env.lookup("srcs");
+      call = env.parseFile("outs = impl(ctx, srcs)");
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      int outputs = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < rules; i++) {
+        try (Mutability mutability = Mutability.create("rule " + i)) {
+          Environment env = newEnvironment(mutability)
+              .setup("impl", impl)
+              .setup("srcs", srcs)
+              .setup("ctx", new Context("//pkg:rule" + i));
+          for (Statement statement : call) {
+            statement.exec(env);
+          }
+          outputs += EvalUtils.size(env.lookup("outs"));
+        }
+      }
+      long nanos = System.nanoTime() - start;
+      System.out.printf("round %d: %.1f us/rule, %d outputs%n", round, nanos / 1e3 / rules,
+          outputs);
+    }
+  }
+
+  private static Environment newEnvironment(Mutability mutability) {
+    return Environment.builder(mutability)
+        .setSkylark()
+        .setGlobals(Environment.SKYLARK)
+        .setEventHandler(NullEventHandler.INSTANCE)
+        .build();
+  }
+}
@@ -0,0 +1,124 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.NullEventHandler;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the time it takes to evaluate BUILD files that mostly call macros defined in a .bzl
+ * file. The .bzl file is evaluated and frozen once, like a loaded extension, and each BUILD file
+ * is evaluated in an Environment of its own.
+ *
+ * <p>Usage: {@code SkylarkEvalBenchmark [build-files] [macro-calls-per-file] [rounds]
+ * [compile-hot-functions]}.
+ */
+public final class SkylarkEvalBenchmark {
+  private SkylarkEvalBenchmark() {}
+
+  private static final String[] MACROS = {
+    "def _label(name):",
+    "  if name.startswith(':') or name.startswith('//'):",
+    "    return name",
+    "  return ':' + name",
+    "",
+    "def _unique(items):",
+    "  result = []",
+    "  for item in items:",
+    "    if item not in result:",
+    "      result += [item]",
+    "  return result",
+    "",
+    "def java_library_with_tests(name, srcs, deps = [], test_deps = []):",
+    "  all_deps = _unique([_label(d) for d in deps])",
+    "  lib_srcs = [s for s in srcs if not s.endswith('Test.java')]",
+    "  test_srcs = [s for s in srcs if s.endswith('Test.java')]",
+    "  rule(kind = 'java_library', name = name, srcs = lib_srcs, deps = all_deps)",
+    "  for i, src in enumerate(test_srcs):",
+    "    test_name = name + '_test' + str(i)",
+    "    rule(kind = 'java_test', name = test_name, srcs = [src],",
+    "         deps = [_label(name)] + all_deps + _unique(test_deps))",
+  };
+
+  public static void main(String[] args) throws Exception {
+    int buildFiles = args.length > 0 ? Integer.parseInt(args[0]) : 1000;
+    int calls = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    boolean compile = args.length > 3 && Boolean.parseBoolean(args[3]);
+
+    final int[] rules = new int[1];
+    BaseFunction rule = new BaseFunction("rule", FunctionSignature.KWARGS) {
+      @Override
+      public Object call(List<Object> args, Map<String, Object> kwargs, FuncallExpression ast,
+          Environment env) {
+        rules[0]++;
+        return Runtime.NONE;
+      }
+    };
+
+    Object macro;
+    try (Mutability mutability = Mutability.create("macros")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(NullEventHandler.INSTANCE)
+          .build()
+          .setup("rule", rule);
+      env.eval(MACROS);
+      macro = env.lookup("java_library_with_tests");
+    }
+
+    String[] buildFile = new String[calls];
+    for (int i = 0; i < calls; i++) {
+      buildFile[i] = "java_library_with_tests(name = 'lib" + i + "',"
+          + " srcs = ['A.java', 'B.java', 'ATest.java', 'BTest.java'],"
+          + " deps = ['//base', 'util', ':lib" + (i / 2) + "', '//base'],"
+          + " test_deps = ['//testing', '//testing'])";
+    }
+    List<Statement> statements;
+    try (Mutability mutability = Mutability.create("parse")) {
+      statements = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(NullEventHandler.INSTANCE)
+          .build()
+          .setup("java_library_with_tests", macro)
+          .parseFile(buildFile);
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      rules[0] = 0;
+      long start = System.nanoTime();
+      for (int i = 0; i < buildFiles; i++) {
+        try (Mutability mutability = Mutability.create("BUILD " + i)) {
+          Environment env = Environment.builder(mutability)
+              .setSkylark()
+              .setGlobals(Environment.SKYLARK)
+              .setEventHandler(NullEventHandler.INSTANCE)
+              .build()
+              .setCompileHotFunctions(compile)
+              .setup("java_library_with_tests", macro);
+          for (Statement statement : statements) {
+            statement.exec(env);
+          }
+        }
+      }
+      long nanos = System.nanoTime() - start;
+      System.out.printf("round %d: %.1f us/macro call, %d rules%n", round,
+          nanos / 1e3 / (buildFiles * calls), rules[0]);
+    }
+  }
+}
@@ -16,6 +16,7 @@ package com.google.devtools.build.lib.syntax;
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import com.google.common.collect.ImmutableCollection;
 import com.google.common.collect.ImmutableList;
@@ -28,6 +29,8 @@ import com.google.devtools.build.lib.analysis.RuleConfiguredTarget;
 import com.google.devtools.build.lib.analysis.TransitiveInfoCollection;
 import com.google.devtools.build.lib.collect.nestedset.NestedSetBuilder;
 import com.google.devtools.build.lib.syntax.ClassObject.SkylarkClassObject;
+import com.google.devtools.build.lib.syntax.FuncallExpression.FuncallException;
+import com.google.devtools.build.lib.syntax.SkylarkSignature.Param;
 import com.google.devtools.build.lib.testutil.TestMode;
 
 import org.junit.Test;
@@ -157,6 +160,58 @@ public class SkylarkEvaluationTest extends EvaluationTest {
     public void method(String i) {}
   }
 
+  @SkylarkModule(name = "MockDispatcher", doc = "")
+  static final class MockDispatcher {
+    @SkylarkCallable(doc = "")
+    public String find(String str) {
+      return "dispatcher:" + str;
+    }
+    @SkylarkCallable(doc = "")
+    public String pick(String str) {
+      return "string";
+    }
+    @SkylarkCallable(doc = "")
+    public String pick(Integer i) {
+      return "int";
+    }
+    @SkylarkCallable(name = "struct_field", doc = "", structField = true)
+    public String structField() {
+      return "dispatcher";
+    }
+    @SkylarkCallable(name = "funcall_failing", doc = "")
+    public String funcallFailing() throws FuncallException {
+      throw new FuncallException("funcall failed");
+    }
+    @SkylarkCallable(name = "runtime_failing", doc = "")
+    public String runtimeFailing() {
+      throw new IllegalStateException("runtime failed");
+    }
+    @SkylarkCallable(name = "none_if_empty", doc = "", allowReturnNones = true)
+    public String noneIfEmpty(String str) {
+      return str.isEmpty() ? null : str;
+    }
+    @SkylarkCallable(name = "none_if_empty_failing", doc = "", allowReturnNones = false)
+    public String noneIfEmptyFailing(String str) {
+      return str.isEmpty() ? null : str;
+    }
+  }
+
+  @SkylarkModule(name = "mock_namespace", namespace = true, doc = "")
+  static final class MockNamespace {
+    @SkylarkSignature(name = "find", objectType = MockNamespace.class, returnType = String.class,
+        doc = "Returns the string.",
+        mandatoryPositionals = {@Param(name = "str", type = String.class, doc = "the string")})
+    private static BuiltinFunction find = new BuiltinFunction("find") {
+      public String invoke(String str) {
+        return "namespace:" + str;
+      }
+    };
+
+    static {
+      SkylarkSignatureProcessor.configureSkylarkFunctions(MockNamespace.class);
+    }
+  }
+
   @Test
   public void testSimpleIf() throws Exception {
     new SkylarkTest().setUp("def foo():",
@@ -687,6 +742,84 @@ public class SkylarkEvaluationTest extends EvaluationTest {
         "val = Mock.is_empty('a')");
   }
 
+  @Test
+  public void testCallSiteWithDifferentReceiverClasses() throws Exception {
+    new SkylarkTest()
+        .update("dispatcher", new MockDispatcher())
+        .update("ns", new MockNamespace())
+        .setUp("v = '/'.join([str(x.find('b')) for x in ['abc', dispatcher, ns, 'bx', ns]])")
+        .testLookup("v", "1/dispatcher:b/namespace:b/0/namespace:b");
+  }
+
+  @Test
+  public void testCallSiteWithDifferentOverloads() throws Exception {
+    new SkylarkTest()
+        .update("dispatcher", new MockDispatcher())
+        .setUp("v = '/'.join([dispatcher.pick(x) for x in ['a', 1, 'b', 2]])")
+        .testLookup("v", "string/int/string/int");
+  }
+
+  @Test
+  public void testCallSiteWithStaticAndInstanceCalls() throws Exception {
+    new SkylarkTest()
+        .update("Mock", Mock.class)
+        .update("mock", new Mock())
+        .setUp("v = [m.value_of(s) for (m, s) in [(Mock, '1'), (mock, '2'), (Mock, '3')]]")
+        .testExactOrder("v", 1, 2, 3);
+    new SkylarkTest()
+        .update("Mock", Mock.class)
+        .update("mock", new Mock())
+        .testIfExactError("Method 'is_empty' is not static",
+            "v = [m.is_empty('a') for m in [mock, Mock]]");
+  }
+
+  @Test
+  public void testStructFieldWithDifferentReceiverClasses() throws Exception {
+    new SkylarkTest()
+        .update("mock", new Mock())
+        .update("dispatcher", new MockDispatcher())
+        .setUp("v = '/'.join([x.struct_field for x in [mock, dispatcher, mock]])")
+        .testLookup("v", "a/dispatcher/a");
+    new SkylarkTest()
+        .update("mock", new Mock())
+        .testIfExactError("Object of type 'string' has no field \"struct_field\"",
+            "v = [x.struct_field for x in [mock, 'abc']]");
+  }
+
+  @Test
+  public void testJavaFunctionThrowsFuncallException() throws Exception {
+    new SkylarkTest()
+        .update("dispatcher", new MockDispatcher())
+        .testIfExactError("funcall failed", "dispatcher.funcall_failing()");
+  }
+
+  @Test
+  public void testJavaFunctionThrowsRuntimeException() throws Exception {
+    update("dispatcher", new MockDispatcher());
+    try {
+      eval("dispatcher.runtime_failing()");
+      fail();
+    } catch (EvalException e) {
+      // The exception thrown by the method is kept as the cause.
+      assertThat(e.getCause()).isInstanceOf(IllegalStateException.class);
+      assertThat(e.getCause()).hasMessage("runtime failed");
+    }
+  }
+
+  @Test
+  public void testCallSiteReturnsValueThenNone() throws Exception {
+    new SkylarkTest()
+        .update("dispatcher", new MockDispatcher())
+        .setUp("v = [dispatcher.none_if_empty(s) for s in ['a', '', 'b']]")
+        .testExactOrder("v", "a", Runtime.NONE, "b");
+    new SkylarkTest()
+        .update("dispatcher", new MockDispatcher())
+        .testIfExactError(
+            "Method invocation returned None,"
+            + " please contact Skylark developers: none_if_empty_failing(\"\")",
+            "v = [dispatcher.none_if_empty_failing(s) for s in ['a', '']]");
+  }
+
   @Test
   public void testDictComprehensions_IterationOrder() throws Exception {
     new SkylarkTest().setUp("def foo():",
@@ -0,0 +1,83 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import com.google.devtools.build.lib.events.NullEventHandler;
+
+/**
+ * Measures the time it takes macros to build lists and dicts of thousands of elements one at a
+ * time with {@code +} and {@code +=}, and then to read them the way a rule would.
+ *
+ * <p>Usage: {@code SkylarkListBenchmark [elements] [rounds]}.
+ */
+public final class SkylarkListBenchmark {
+  private SkylarkListBenchmark() {}
+
+  private static final String[] MACROS = {
+    "def accumulate(n):",
+    "  srcs = []",
+    "  for i in range(n):",
+    "    srcs += ['src%d.cc' % i]",
+    "  return srcs",
+    "",
+    "def concatenate(n):",
+    "  deps = []",
+    "  for i in range(n):",
+    "    deps = deps + [':dep' + str(i)]",
+    "  return deps",
+    "",
+    "def merge(n):",
+    "  d = {}",
+    "  for i in range(n):",
+    "    d = d + {'key%d' % i: i}",
+    "  return d",
+    "",
+    "def read(items):",
+    "  count = 0",
+    "  for i in range(len(items)):",
+    "    if items[i] == items[-1]:",
+    "      count += 1",
+    "  return count + len([x for x in items])",
+  };
+
+  public static void main(String[] args) throws Exception {
+    int elements = args.length > 0 ? Integer.parseInt(args[0]) : 5000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+    try (Mutability mutability = Mutability.create("macros")) {
+      Environment env = Environment.builder(mutability)
+          .setSkylark()
+          .setGlobals(Environment.SKYLARK)
+          .setEventHandler(NullEventHandler.INSTANCE)
+          .build()
+          .update("n", elements);
+      env.eval(MACROS);
+      for (int round = 0; round < rounds; round++) {
+        System.out.printf("round %d: accumulate %.1f ms, concatenate %.1f ms, merge %.1f ms, "
+            + "read %.1f ms, flatten %.1f ms%n", round,
+            time(env, "l = accumulate(n)"),
+            time(env, "l = concatenate(n)"),
+            time(env, "d = merge(n)"),
+            time(env, "c = read(l)"),
+            time(env, "f = sorted(l)"));
+      }
+    }
+  }
+
+  private static double time(Environment env, String statement) throws Exception {
+    long start = System.nanoTime();
+    env.eval(statement);
+    return (System.nanoTime() - start) / 1e6;
+  }
+}
@@ -15,6 +15,7 @@ package com.google.devtools.build.lib.syntax;
 
 import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 
 import com.google.devtools.build.lib.concurrent.ThreadSafety.Immutable;
 
@@ -143,4 +144,57 @@ public class SkylarkListTest extends EvaluationTestCase {
     assertEquals(false, eval("() == (1,)"));
     assertEquals(false, eval("(1) == (1,)"));
   }
+
+  @Test
+  public void testConcatListBuiltInALoop() throws Exception {
+    eval("def build(n):",
+        "  l = []",
+        "  for i in range(n):",
+        "    l += [i]",
+        "  return l",
+        "l = build(20000)",
+        "s = len(l)",
+        "e = l[12345]",
+        "last = l[-1]");
+    assertEquals(20000, lookup("s"));
+    assertEquals(12345, lookup("e"));
+    assertEquals(19999, lookup("last"));
+  }
+
+  @Test
+  public void testConcatListsSharingElements() throws Exception {
+    eval("a = [1, 2] + [3]",
+        "b = a + [4]",
+        "c = a + [5]",
+        "d = b + [6, 7]",
+        "e = b + b",
+        "f = d + [8]");
+    assertEquals("[1, 2, 3]", Printer.repr(lookup("a")));
+    assertEquals("[1, 2, 3, 4]", Printer.repr(lookup("b")));
+    assertEquals("[1, 2, 3, 5]", Printer.repr(lookup("c")));
+    assertEquals("[1, 2, 3, 4, 6, 7]", Printer.repr(lookup("d")));
+    assertEquals("[1, 2, 3, 4, 1, 2, 3, 4]", Printer.repr(lookup("e")));
+    assertEquals("[1, 2, 3, 4, 6, 7, 8]", Printer.repr(lookup("f")));
+    assertThat(((SkylarkList) lookup("d")).toList()).containsExactly(1, 2, 3, 4, 6, 7).inOrder();
+  }
+
+  @Test
+  public void testConcatTuplesSharingElements() throws Exception {
+    eval("a = (1,) + (2,)",
+        "b = a + (3,)",
+        "c = a + ('x',)");
+    assertEquals("(1, 2, 3)", Printer.repr(lookup("b")));
+    assertEquals("(1, 2, \"x\")", Printer.repr(lookup("c")));
+    assertEquals(true, ((SkylarkList) lookup("c")).isTuple());
+  }
+
+  @Test
+  public void testConcatDicts() throws Exception {
+    eval("d = {'a': 1, 'b': 2} + {'c': 3}",
+        "e = {'a': 1, 'b': 2} + {'a': 3}",
+        "f = d + {}");
+    assertEquals("{\"a\": 1, \"b\": 2, \"c\": 3}", Printer.repr(lookup("d")));
+    assertEquals("{\"a\": 3, \"b\": 2}", Printer.repr(lookup("e")));
+    assertSame(lookup("d"), lookup("f"));
+  }
 }
@@ -0,0 +1,138 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Joiner;
+import com.google.devtools.build.lib.profiler.SkylarkProfiler;
+import com.google.devtools.build.lib.vfs.PathFragment;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.ByteArrayOutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Tests for {@link SkylarkProfiler}.
+ */
+@RunWith(JUnit4.class)
+public class SkylarkProfilerTest extends EvaluationTestCase {
+
+  @After
+  public void stopProfiler() throws Exception {
+    SkylarkProfiler.instance().stop();
+  }
+
+  private void exec(String path, String... lines) throws Exception {
+    enableSkylarkMode();
+    Lexer lexer = new Lexer(
+        ParserInputSource.create(Joiner.on("\n").join(lines), new PathFragment(path)),
+        getEventHandler());
+    for (Statement statement : Parser.parseFileForSkylark(
+        lexer, getEventHandler(), null, new ValidationEnvironment(env)).statements) {
+      statement.exec(env);
+    }
+  }
+
+  /** Returns the fields of the summary line that ends with the given function or file. */
+  private static String[] summaryLine(String summary, String name) {
+    for (String line : summary.split("\n")) {
+      String[] fields = line.trim().split(" +");
+      if (fields[fields.length - 1].equals(name)) {
+        return fields;
+      }
+    }
+    throw new AssertionError(name + " not found in " + summary);
+  }
+
+  @Test
+  public void testProfile() throws Exception {
+    exec("/pkg/defs.bzl",
+        "def inner(n):",
+        "  return [str(x) for x in range(n)]",
+        "def outer():",
+        "  for i in range(3):",
+        "    inner(20000)",
+        "  return len(inner(20000))");
+    ByteArrayOutputStream foldedStacks = new ByteArrayOutputStream();
+    ByteArrayOutputStream summary = new ByteArrayOutputStream();
+    SkylarkProfiler.instance().start(foldedStacks, summary);
+    assertEquals(20000, eval("outer()"));
+    SkylarkProfiler.instance().stop();
+
+    Map<String, Long> stacks = new HashMap<>();
+    for (String line : foldedStacks.toString().split("\n")) {
+      int space = line.lastIndexOf(' ');
+      stacks.put(line.substring(0, space), Long.parseLong(line.substring(space + 1)));
+    }
+    assertThat(stacks.keySet()).containsAllOf(
+        "/pkg/defs.bzl:outer;/pkg/defs.bzl:inner",
+        "/pkg/defs.bzl:outer;/pkg/defs.bzl:inner;str");
+    for (long micros : stacks.values()) {
+      assertThat(micros).isGreaterThan(0L);
+    }
+
+    String text = summary.toString();
+    assertEquals("4", summaryLine(text, "/pkg/defs.bzl:inner")[0]);
+    assertEquals("1", summaryLine(text, "/pkg/defs.bzl:outer")[0]);
+    assertEquals("80000", summaryLine(text, "str")[0]);
+    assertEquals("5", summaryLine(text, "/pkg/defs.bzl")[0]);
+    // The total time of the file is that of outer, which every other call is nested in.
+    assertEquals(summaryLine(text, "/pkg/defs.bzl:outer")[2],
+        summaryLine(text, "/pkg/defs.bzl")[2]);
+  }
+
+  @Test
+  public void testInactiveProfilerRecordsNothing() throws Exception {
+    exec("/pkg/defs.bzl",
+        "def f():",
+        "  return 1");
+    eval("f()");
+    ByteArrayOutputStream foldedStacks = new ByteArrayOutputStream();
+    SkylarkProfiler.instance().start(foldedStacks, null);
+    SkylarkProfiler.instance().stop();
+    assertEquals("", foldedStacks.toString());
+    // Stopping again is a no-op.
+    SkylarkProfiler.instance().stop();
+  }
+
+  @Test
+  public void testStartFinishesTheActiveSession() throws Exception {
+    exec("/pkg/defs.bzl",
+        "def f():",
+        "  return [str(x) for x in range(20000)]");
+    final boolean[] closed = {false};
+    ByteArrayOutputStream first = new ByteArrayOutputStream() {
+      @Override
+      public void close() {
+        closed[0] = true;
+      }
+    };
+    SkylarkProfiler.instance().start(first, null);
+    eval("f()");
+    ByteArrayOutputStream second = new ByteArrayOutputStream();
+    SkylarkProfiler.instance().start(second, null);
+    assertTrue(closed[0]);
+    assertThat(first.toString()).contains("/pkg/defs.bzl:f");
+    SkylarkProfiler.instance().stop();
+    assertEquals("", second.toString());
+  }
+}
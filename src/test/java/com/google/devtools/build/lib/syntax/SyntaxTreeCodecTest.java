@@ -0,0 +1,216 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.syntax;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.devtools.build.lib.events.Location;
+import com.google.devtools.build.lib.testutil.Scratch;
+import com.google.devtools.build.lib.vfs.Path;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests for {@link SyntaxTreeCodec}.
+ */
+@RunWith(JUnit4.class)
+public class SyntaxTreeCodecTest extends EvaluationTestCase {
+
+  private Scratch scratch = new Scratch();
+
+  private BuildFileAST roundTrip(BuildFileAST ast) throws IOException {
+    byte[] bytes = SyntaxTreeCodec.encode(ast);
+    assertNotNull(bytes);
+    BuildFileAST decoded = SyntaxTreeCodec.decode(bytes);
+    assertEquals(ast.getStatements().toString(), decoded.getStatements().toString());
+    assertEquals(describeNodes(ast), describeNodes(decoded));
+    assertEquals(ast.getContentHashCode(), decoded.getContentHashCode());
+    assertEquals(ast.containsErrors(), decoded.containsErrors());
+    assertEquals(ast.getImports(), decoded.getImports());
+    assertEquals(ast.getIncludes(), decoded.getIncludes());
+    return decoded;
+  }
+
+  /** Returns the type, location and line numbers of every node of the tree, in order. */
+  private static List<String> describeNodes(BuildFileAST ast) {
+    final List<String> nodes = new ArrayList<>();
+    new SyntaxTreeVisitor() {
+      @Override
+      public void visit(ASTNode node) {
+        Location location = node.getLocation();
+        nodes.add(location == null
+            ? node.getClass().getSimpleName()
+            : String.format("%s %s %d-%d %s-%s", node.getClass().getSimpleName(),
+                location.getPath(), location.getStartOffset(), location.getEndOffset(),
+                location.getStartLineAndColumn(), location.getEndLineAndColumn()));
+        super.visit(node);
+      }
+    }.visit(ast);
+    return nodes;
+  }
+
+  @Test
+  public void testBuildFile() throws Exception {
+    Path file = scratch.file("/pkg/BUILD",
+        "# A package.",
+        "package(default_visibility = ['//visibility:public'])",
+        "",
+        "COPTS = ['-O2'] + select({':opt': ['-g'], '//conditions:default': []})",
+        "",
+        "cc_library(",
+        "    name = \"lib\",  # the library",
+        "    srcs = glob(['*.cc'], exclude = ['*_test.cc']),",
+        "    copts = COPTS + [c for c in COPTS if c.startswith('-')][:1],",
+        "    linkstatic = -1 if not COPTS else 1,",
+        "    tags = ['manual'] + [\"x\"[0:1]],",
+        ")");
+    BuildFileAST ast = BuildFileAST.parseBuildFile(file, getEventHandler(), null, false);
+    assertNoEvents();
+    BuildFileAST decoded = roundTrip(ast);
+    assertThat(decoded.getComments()).hasSize(2);
+    assertEquals(ast.getComments().get(1).getValue(), decoded.getComments().get(1).getValue());
+    assertEquals(ast.getComments().get(1).getLocation().getStartLineAndColumn(),
+        decoded.getComments().get(1).getLocation().getStartLineAndColumn());
+  }
+
+  @Test
+  public void testSkylarkFile() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl",
+        "load('/tools/defs', 'a', b = 'c')",
+        "def f(x, y = 1, *args, **kwargs):",
+        "  r = []",
+        "  for i, v in enumerate(x):",
+        "    if v == 2:",
+        "      continue",
+        "    elif v > 3 and not y:",
+        "      break",
+        "    else:",
+        "      r += [(i, v)]",
+        "  d = {k: v for k, v in r}",
+        "  return r[1:] + [x.y.z(1, *args, **kwargs)]",
+        "s = struct(f = f)");
+    BuildFileAST ast = BuildFileAST.parseSkylarkFile(file, getEventHandler(), null, null);
+    assertNoEvents();
+    roundTrip(ast);
+  }
+
+  @Test
+  public void testDecodedTreeEvaluatesLikeParsedOne() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl",
+        "def f(xs):",
+        "  r = []",
+        "  for x in xs:",
+        "    if x == 2: continue",
+        "    if x == 4: break",
+        "    r += [x * 10]",
+        "  return r",
+        "y = f([1, 2, 3, 4, 5])",
+        "z = {'a': 1}['a'] + len('%s-%d' % ('x', 1))");
+    BuildFileAST ast = SyntaxTreeCodec.decode(SyntaxTreeCodec.encode(
+        BuildFileAST.parseSkylarkFile(file, getEventHandler(), null, null)));
+    enableSkylarkMode();
+    assertTrue(ast.exec(env, getEventHandler()));
+    assertThat((Iterable<?>) lookup("y")).containsExactly(10, 30).inOrder();
+    assertEquals(4, lookup("z"));
+  }
+
+  @Test
+  public void testDecodedErrorHasSameLocation() throws Exception {
+    Path file = scratch.file("/pkg/BUILD",
+        "x = 1",
+        "y = x + 'a'");
+    BuildFileAST ast = SyntaxTreeCodec.decode(SyntaxTreeCodec.encode(
+        BuildFileAST.parseBuildFile(file, getEventHandler(), null, false)));
+    setFailFast(false);
+    assertFalse(ast.exec(env, getEventHandler()));
+    assertContainsEvent("unsupported operand type(s) for +: 'int' and 'string'");
+    assertEquals("/pkg/BUILD:2:5",
+        getEventCollector().iterator().next().getLocation().print());
+  }
+
+  @Test
+  public void testFlowStatementsStayShared() throws Exception {
+    Path file = scratch.file("/pkg/ext.bzl",
+        "def f():",
+        "  for x in []:",
+        "    break",
+        "    continue");
+    BuildFileAST ast = SyntaxTreeCodec.decode(SyntaxTreeCodec.encode(
+        BuildFileAST.parseSkylarkFile(file, getEventHandler(), null, null)));
+    List<Statement> body = ((ForStatement) ((FunctionDefStatement) ast.getStatements().get(0))
+        .getStatements().get(0)).block();
+    assertSame(FlowStatement.BREAK, body.get(0));
+    assertSame(FlowStatement.CONTINUE, body.get(1));
+  }
+
+  @Test
+  public void testEmptyFile() throws Exception {
+    Path file = scratch.file("/pkg/BUILD", "# Nothing here.");
+    BuildFileAST ast = BuildFileAST.parseBuildFile(file, getEventHandler(), null, false);
+    BuildFileAST decoded = roundTrip(ast);
+    assertThat(decoded.getStatements()).isEmpty();
+    assertEquals(ast.getLocation().getPath(), decoded.getLocation().getPath());
+  }
+
+  @Test
+  public void testTreeWithStatementsFromAnotherFileIsNotEncoded() throws Exception {
+    BuildFileAST prelude = BuildFileAST.parseBuildFile(
+        scratch.file("/tools/prelude", "x = 1"), getEventHandler(), null, false);
+    BuildFileAST ast = BuildFileAST.parseBuildFile(
+        scratch.file("/pkg/BUILD", "y = x"), getEventHandler(), null, false);
+    assertNotNull(SyntaxTreeCodec.encode(ast));
+    assertNull(SyntaxTreeCodec.encode(ast.prependStatements(prelude.getStatements())));
+  }
+
+  @Test
+  public void testTreeWithLineDirectivesIsNotEncoded() throws Exception {
+    Path file = scratch.file("/pkg/BUILD",
+        "x = 1",
+        "#line 10 \"/other/BUILD\"",
+        "y = 2");
+    BuildFileAST ast = BuildFileAST.parseBuildFile(file, getEventHandler(), null, false);
+    assertNull(SyntaxTreeCodec.encode(ast));
+  }
+
+  @Test
+  public void testMalformedBytes() throws Exception {
+    byte[] bytes = SyntaxTreeCodec.encode(BuildFileAST.parseBuildFile(
+        scratch.file("/pkg/BUILD", "cc_library(name = 'lib')"), getEventHandler(), null, false));
+    for (byte[] malformed : Arrays.asList(
+        new byte[0],
+        new byte[] {99},
+        Arrays.copyOf(bytes, bytes.length - 1),
+        Arrays.copyOf(bytes, bytes.length + 1))) {
+      try {
+        SyntaxTreeCodec.decode(malformed);
+        fail();
+      } catch (IOException expected) {
+      }
+    }
+  }
+}
@@ -29,8 +29,10 @@ public class TestConstants {
   public static final ImmutableList<String> EMBEDDED_TOOLS = ImmutableList.of(
       "build_interface_so",
       "build-runfiles",
+      "inotify-watcher",
       "namespace-sandbox",
-      "process-wrapper");
+      "process-wrapper",
+      "spawn-server");
 
   /**
    * Location in the bazel repo where embedded binaries come from.
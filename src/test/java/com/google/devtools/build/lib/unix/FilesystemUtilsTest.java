@@ -99,6 +99,40 @@ public class FilesystemUtilsTest {
     }
   }
 
+  @Test
+  public void testBatchStat() throws Exception {
+    FileSystemUtils.writeContentAsLatin1(testFile, "abc");
+    Path dir = workingDir.getRelative("dir");
+    FileSystemUtils.createDirectoryAndParents(dir);
+    Path link = workingDir.getRelative("link");
+    FileSystemUtils.ensureSymbolicLink(link, testFile);
+    String[] paths = {testFile.getPathString(), dir.getPathString(), link.getPathString(),
+        workingDir.getRelative("missing").getPathString()};
+    byte[][] digests = new byte[paths.length][];
+
+    ErrnoFileStatus[] stats = FilesystemUtils.batchStat(paths, false, digests, 3);
+
+    assertThat(stats).hasLength(4);
+    assertThat(stats[0].hasError()).isFalse();
+    assertThat(stats[0].isRegularFile()).isTrue();
+    assertThat(stats[0].getSize()).isEqualTo(3L);
+    assertThat(stats[0].getInodeNumber())
+        .isEqualTo(FilesystemUtils.stat(paths[0]).getInodeNumber());
+    assertThat(HashCode.fromBytes(digests[0]).toString())
+        .isEqualTo("900150983cd24fb0d6963f7d28e17f72");
+    assertThat(stats[1].isDirectory()).isTrue();
+    assertThat(digests[1]).isNull();
+    assertThat(stats[2].isSymbolicLink()).isTrue();
+    assertThat(digests[2]).isNull();
+    assertThat(stats[3].hasError()).isTrue();
+    assertThat(stats[3].getErrno()).isEqualTo(ErrnoFileStatus.ENOENT);
+    assertThat(digests[3]).isNull();
+
+    stats = FilesystemUtils.batchStat(paths, true, null, 1);
+    assertThat(stats[2].isRegularFile()).isTrue();
+    assertThat(stats[2].getInodeNumber()).isEqualTo(stats[0].getInodeNumber());
+  }
+
   @Test
   public void throwsFilePermissionException() throws Exception {
     File foo = new File("/bin");
@@ -19,8 +19,10 @@ import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 import com.google.common.base.Predicate;
+import com.google.common.collect.ConcurrentHashMultiset;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multiset;
 import com.google.common.collect.Ordering;
 import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.devtools.build.lib.testutil.MoreAsserts;
@@ -41,6 +43,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.ThreadPoolExecutor;
@@ -254,6 +257,16 @@ public class GlobTest {
         return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
       }
 
+      @Override
+      public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+        return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+      }
+
+      @Override
+      public PathFragment readlink(Path path) throws IOException {
+        return UnixGlob.DEFAULT_SYSCALLS.readlink(path);
+      }
+
       @Override
       public Collection<Dirent> readdir(Path path, Symlinks symlinks) {
         throw new IllegalStateException();
@@ -267,6 +280,73 @@ public class GlobTest {
             .glob());
   }
 
+  @Test
+  public void testPatternsShareTheTraversal() throws Exception {
+    final Multiset<Path> readdirs = ConcurrentHashMultiset.create();
+    UnixGlob.FilesystemCalls syscalls = new UnixGlob.FilesystemCalls() {
+      @Override
+      public FileStatus statNullable(Path path, Symlinks symlinks) {
+        return UnixGlob.DEFAULT_SYSCALLS.statNullable(path, symlinks);
+      }
+
+      @Override
+      public FileStatus statIfFound(Path path, Symlinks symlinks) throws IOException {
+        return UnixGlob.DEFAULT_SYSCALLS.statIfFound(path, symlinks);
+      }
+
+      @Override
+      public PathFragment readlink(Path path) throws IOException {
+        return UnixGlob.DEFAULT_SYSCALLS.readlink(path);
+      }
+
+      @Override
+      public Collection<Dirent> readdir(Path path, Symlinks symlinks) throws IOException {
+        readdirs.add(path);
+        return UnixGlob.DEFAULT_SYSCALLS.readdir(path, symlinks);
+      }
+    };
+
+    MoreAsserts.assertSameContents(resolvePaths("foo/bar/wiz", "foo/barnacle/wiz",
+        "food/barnacle/wiz", "fool/barnacle/wiz", "foo/bar/wiz/file"),
+        new UnixGlob.Builder(tmpPath)
+            .addPatterns("**/wiz", "foo*/bar*/wiz", "**/file", "*/bar/*/*")
+            .setFilesystemCalls(new AtomicReference<>(syscalls))
+            .glob());
+    assertThat(readdirs).isNotEmpty();
+    assertThat(readdirs.entrySet()).hasSize(readdirs.size());
+  }
+
+  @Test
+  public void testGlobAsyncPerPattern() throws Exception {
+    ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(10);
+    throwOnReaddir = tmpPath.getRelative("foo/bar");
+    List<Future<List<Path>>> results = new UnixGlob.Builder(tmpPath)
+        .addPatterns("foo*/barnacle", "*/*/*", "**/barnacle/**", "foo/bar/wiz")
+        .addExcludes("food/*")
+        .setThreadPool(executor)
+        .globAsyncPerPattern(true);
+    assertThat(results).hasSize(4);
+    MoreAsserts.assertSameContents(resolvePaths("foo/barnacle", "fool/barnacle"),
+        results.get(0).get());
+    // Only the patterns that need the listing of the broken directory fail.
+    try {
+      results.get(1).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(FileNotFoundException.class);
+    }
+    try {
+      results.get(2).get();
+      fail();
+    } catch (ExecutionException e) {
+      assertThat(e.getCause()).isInstanceOf(FileNotFoundException.class);
+    }
+    MoreAsserts.assertSameContents(resolvePaths("foo/bar/wiz"), results.get(3).get());
+
+    executor.shutdown();
+    assertTrue(executor.awaitTermination(TestUtils.WAIT_TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
   @Test
   public void testIllegalPatterns() throws Exception {
     assertIllegalPattern("(illegal) pattern");
@@ -0,0 +1,97 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap used by {@link Path}s and the time it takes to look them up, for a synthetic
+ * source tree shaped like a typical workspace: a few levels of package directories with a handful
+ * of files each.
+ *
+ * <p>Usage: {@code PathBenchmark [fanout] [depth] [files-per-directory]}. Run with a fixed heap
+ * size (e.g. {@code -Xms2g -Xmx2g}) for stable numbers.
+ */
+public final class PathBenchmark {
+  private PathBenchmark() {}
+
+  public static void main(String[] args) throws Exception {
+    int fanout = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+    int depth = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    int files = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    List<PathFragment> fragments = new ArrayList<>();
+    addFragments(PathFragment.EMPTY_FRAGMENT, fanout, depth, files, fragments);
+    System.out.printf("%d paths (fanout %d, depth %d, %d files per directory)%n",
+        fragments.size(), fanout, depth, files);
+
+    FileSystem fileSystem = new InMemoryFileSystem();
+    Path root = fileSystem.getPath("/workspace");
+    List<Path> paths = new ArrayList<>(fragments.size());
+    long heapBefore = usedHeap();
+    long start = System.nanoTime();
+    for (PathFragment fragment : fragments) {
+      paths.add(root.getRelative(fragment));
+    }
+    long createNanos = System.nanoTime() - start;
+    long heapAfter = usedHeap();
+    System.out.printf("create: %.1f ns/path, %.1f bytes/path%n",
+        (double) createNanos / paths.size(), (double) (heapAfter - heapBefore) / paths.size());
+
+    // Warm up, then measure lookups of existing paths.
+    for (int round = 0; round < 5; round++) {
+      start = System.nanoTime();
+      long found = 0;
+      for (PathFragment fragment : fragments) {
+        if (root.getRelative(fragment).getParentDirectory() != null) {
+          found++;
+        }
+      }
+      long lookupNanos = System.nanoTime() - start;
+      if (round == 4) {
+        System.out.printf("lookup: %.1f ns/path (%d found)%n",
+            (double) lookupNanos / fragments.size(), found);
+      }
+    }
+    // Keep the paths reachable until here.
+    System.out.println(paths.size() == fragments.size() ? "done" : "");
+  }
+
+  private static void addFragments(PathFragment dir, int fanout, int depth, int files,
+      List<PathFragment> result) {
+    for (int i = 0; i < files; i++) {
+      result.add(dir.getRelative("file" + i + ".java"));
+    }
+    if (depth == 0) {
+      return;
+    }
+    for (int i = 0; i < fanout; i++) {
+      PathFragment child = dir.getRelative("dir" + i);
+      result.add(child);
+      addFragments(child, fanout, depth - 1, files, result);
+    }
+  }
+
+  private static long usedHeap() throws InterruptedException {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+      Thread.sleep(100);
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
@@ -20,6 +20,7 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.google.common.base.Predicate;
 import com.google.common.collect.Lists;
 import com.google.common.testing.EqualsTester;
 import com.google.common.testing.GcFinalization;
@@ -258,6 +259,34 @@ public class PathTest {
     assertEquals(childHashCode1, childHashCode2);
   }
 
+  @Test
+  public void testChildrenAreCachedWhileInUse() throws Exception {
+    Path parent = root.getRelative("parent");
+    List<Path> children = Lists.newArrayList();
+    for (int i = 0; i < 100; i++) {
+      children.add(parent.getChild("child" + i));
+    }
+    WeakReference<Path> collectedRef = new WeakReference<>(children.remove(50));
+    GcFinalization.awaitClear(collectedRef);
+
+    // Looking up a child drops the references to collected children from the table.
+    Path recreated = parent.getChild("child50");
+    for (int i = 0; i < 100; i++) {
+      assertSame(i == 50 ? recreated : children.get(i < 50 ? i : i - 1),
+          parent.getChild("child" + i));
+    }
+    final List<Path> visited = Lists.newArrayList();
+    parent.applyToChildren(new Predicate<Path>() {
+      @Override
+      public boolean apply(Path child) {
+        visited.add(child);
+        return true;
+      }
+    });
+    assertThat(visited).hasSize(100);
+    assertThat(visited).contains(recreated);
+  }
+
   @Test
   public void testSerialization() throws Exception {
     FileSystem oldFileSystem = Path.getFileSystemForSerialization();
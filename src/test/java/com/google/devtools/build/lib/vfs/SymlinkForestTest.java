@@ -0,0 +1,124 @@
+// Copyright 2015 Google Inc. All rights reserved.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//    http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+package com.google.devtools.build.lib.vfs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devtools.build.lib.vfs.inmemoryfs.InMemoryFileSystem;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.JUnit4;
+
+import java.io.IOException;
+
+/**
+ * Tests for {@link SymlinkForest}.
+ */
+@RunWith(JUnit4.class)
+public class SymlinkForestTest {
+
+  private Path rootA;
+  private Path rootB;
+  private Path linkRoot;
+
+  @Before
+  public void setUp() throws Exception {
+    FileSystem fileSystem = new InMemoryFileSystem();
+    rootA = fileSystem.getPath("/A");
+    rootB = fileSystem.getPath("/B");
+    linkRoot = fileSystem.getPath("/linkRoot");
+    FileSystemUtils.createDirectoryAndParents(linkRoot);
+  }
+
+  private PathFragment createPkg(Path root, String pkg) throws IOException {
+    FileSystemUtils.createDirectoryAndParents(root.getRelative(pkg));
+    FileSystemUtils.createEmptyFile(root.getRelative(pkg).getChild("file"));
+    return new PathFragment(pkg);
+  }
+
+  private SymlinkForest plant(ImmutableMap<PathFragment, Path> packageRootMap) throws Exception {
+    SymlinkForest forest = new SymlinkForest(packageRootMap, linkRoot, new String[] {"_"});
+    forest.plant(4);
+    return forest;
+  }
+
+  private void assertLinksTo(Path root, String relpart) throws IOException {
+    assertTrue(linkRoot.getRelative(relpart).isSymbolicLink());
+    assertEquals(root.getRelative(relpart).asFragment(),
+        linkRoot.getRelative(relpart).readSymbolicLink());
+  }
+
+  @Test
+  public void testPlantsSameForestAsPlantLinkForest() throws Exception {
+    ImmutableMap<PathFragment, Path> packageRootMap = ImmutableMap.<PathFragment, Path>builder()
+        .put(createPkg(rootA, "pkgA"), rootA)
+        .put(createPkg(rootA, "dir1/pkgA"), rootA)
+        .put(createPkg(rootB, "dir1/pkgB"), rootB)
+        .put(createPkg(rootA, "dir2/pkg"), rootA)
+        .put(createPkg(rootB, "dir2/pkg/pkg"), rootB)
+        .build();
+    plant(packageRootMap);
+
+    assertLinksTo(rootA, "pkgA");
+    assertTrue(linkRoot.getRelative("dir1").isDirectory(Symlinks.NOFOLLOW));
+    assertLinksTo(rootA, "dir1/pkgA");
+    assertLinksTo(rootB, "dir1/pkgB");
+    assertTrue(linkRoot.getRelative("dir2/pkg").isDirectory(Symlinks.NOFOLLOW));
+    assertLinksTo(rootA, "dir2/pkg/file");
+    assertLinksTo(rootB, "dir2/pkg/pkg");
+  }
+
+  @Test
+  public void testOnlyChangedEntriesAreReplaced() throws Exception {
+    PathFragment pkgA = createPkg(rootA, "pkgA");
+    PathFragment pkgB = createPkg(rootB, "pkgB");
+    PathFragment nestedA = createPkg(rootA, "dir/pkgA");
+    PathFragment nestedB = createPkg(rootB, "dir/pkgB");
+    SymlinkForest forest = plant(ImmutableMap.of(pkgA, rootA, pkgB, rootB, nestedA, rootA,
+        nestedB, rootB));
+    assertEquals(5, forest.getCreatedCount());
+
+    forest = plant(ImmutableMap.of(pkgA, rootA, pkgB, rootB, nestedA, rootA, nestedB, rootB));
+    assertEquals(0, forest.getCreatedCount());
+    assertEquals(0, forest.getDeletedCount());
+    assertEquals(4, forest.getKeptCount());
+
+    // pkgB moves to another root, and dir/pkgB is gone.
+    createPkg(rootA, "pkgB");
+    forest = plant(ImmutableMap.of(pkgA, rootA, pkgB, rootA, nestedA, rootA));
+    assertLinksTo(rootA, "pkgB");
+    assertLinksTo(rootA, "dir");
+    assertFalse(linkRoot.getRelative("dir/pkgB").exists());
+    assertEquals(2, forest.getCreatedCount());
+    assertEquals(2, forest.getDeletedCount());
+    assertEquals(1, forest.getKeptCount());
+  }
+
+  @Test
+  public void testEntriesWithKeptPrefixesAreLeftAlone() throws Exception {
+    PathFragment pkg = createPkg(rootA, "pkg");
+    FileSystemUtils.createDirectoryAndParents(linkRoot.getRelative("_bin"));
+    FileSystemUtils.createDirectoryAndParents(linkRoot.getRelative("stale/dir"));
+    plant(ImmutableMap.of(pkg, rootA));
+
+    assertTrue(linkRoot.getRelative("_bin").isDirectory(Symlinks.NOFOLLOW));
+    assertFalse(linkRoot.getRelative("stale").exists());
+    assertLinksTo(rootA, "pkg");
+  }
+}